@@ -0,0 +1,76 @@
+package com.davistobias.snoredetect;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+import com.davistobias.snoredetect.core.AudioSource;
+
+import java.io.IOException;
+
+/**
+ * {@link AudioSource} backed by the device microphone through {@link AudioRecord}.
+ */
+public final class AudioRecordSource implements AudioSource {
+
+    private final AudioRecord recorder;
+    private final int sampleRate;
+
+    /**
+     * @throws IllegalStateException if the recorder could not be initialized
+     * @throws SecurityException     if the RECORD_AUDIO permission is missing
+     */
+    public AudioRecordSource(int sampleRate, int bufferSizeInBytes) {
+        this.sampleRate = sampleRate;
+        this.recorder = new AudioRecord(MediaRecorder.AudioSource.MIC,
+                sampleRate, AudioFormat.CHANNEL_IN_MONO,
+                AudioFormat.ENCODING_PCM_16BIT, bufferSizeInBytes);
+
+        if (recorder.getState() != AudioRecord.STATE_INITIALIZED) {
+            recorder.release();
+            throw new IllegalStateException("AudioRecord initialization failed");
+        }
+    }
+
+    /**
+     * Smallest recorder buffer in bytes for 16-bit mono at {@code sampleRate}, or a negative error
+     * code if the device cannot record at that rate. Suitable for {@code CaptureConfig.negotiate}.
+     */
+    public static int minBufferBytes(int sampleRate) {
+        return AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public boolean isLive() {
+        return true;
+    }
+
+    @Override
+    public void start() {
+        recorder.startRecording();
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int count) throws IOException {
+        int samplesRead = recorder.read(buffer, offset, count);
+        if (samplesRead < 0) {
+            throw new IOException("Error reading audio data: " + samplesRead);
+        }
+        return samplesRead;
+    }
+
+    @Override
+    public void close() {
+        try {
+            recorder.stop();
+        } catch (IllegalStateException e) {
+            // Never started; release below is still required
+        }
+        recorder.release();
+    }
+}
@@ -6,11 +6,9 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.media.MediaRecorder;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
@@ -18,53 +16,226 @@ import android.util.Log;
 import android.os.Environment;
 import androidx.core.app.NotificationCompat;
 
+import com.davistobias.snoredetect.core.AudioSource;
+import com.davistobias.snoredetect.core.CaptureConfig;
+import com.davistobias.snoredetect.core.CaptureLoop;
+import com.davistobias.snoredetect.core.FrameBus;
+import com.davistobias.snoredetect.core.FrameConsumer;
+import com.davistobias.snoredetect.core.FrameObserver;
+import com.davistobias.snoredetect.core.LevelFeed;
+import com.davistobias.snoredetect.core.PcmBlockWriter;
+import com.davistobias.snoredetect.core.PcmRingBuffer;
+import com.davistobias.snoredetect.core.PowerMetrics;
+import com.davistobias.snoredetect.core.analysis.SessionReanalyzer;
+import com.davistobias.snoredetect.core.codec.GateMarkerFile;
+import com.davistobias.snoredetect.core.codec.GatedPcmSink;
+import com.davistobias.snoredetect.core.codec.ImaAdpcmEncoder;
+import com.davistobias.snoredetect.core.codec.PcmSink;
+import com.davistobias.snoredetect.core.dsp.ActivityDetector;
+import com.davistobias.snoredetect.core.dsp.FeatureExtractor;
+import com.davistobias.snoredetect.core.dsp.LevelThresholdClassifier;
+import com.davistobias.snoredetect.core.dsp.LogisticSnoreClassifier;
+import com.davistobias.snoredetect.core.dsp.NoiseFloorEstimator;
+import com.davistobias.snoredetect.core.dsp.PolyphaseDecimator;
+import com.davistobias.snoredetect.core.dsp.SnoreClassifier;
+import com.davistobias.snoredetect.core.dsp.SnoreDetector;
+import com.davistobias.snoredetect.core.dsp.SnoreEvent;
+import com.davistobias.snoredetect.core.dsp.SnoreEventDetector;
+import com.davistobias.snoredetect.core.dsp.SnoreEventQueue;
+import com.davistobias.snoredetect.core.history.HistoryRecorder;
+import com.davistobias.snoredetect.core.history.HistorySink;
+import com.davistobias.snoredetect.core.history.HistoryStore;
+import com.davistobias.snoredetect.core.metrics.MetricsLogSink;
+import com.davistobias.snoredetect.core.metrics.RecorderMetrics;
+import com.davistobias.snoredetect.core.stats.NightStatistics;
+import com.davistobias.snoredetect.core.stats.StatisticsCheckpoint;
+import com.davistobias.snoredetect.core.stats.StatisticsCheckpointSink;
+import com.davistobias.snoredetect.core.storage.EnvelopeFile;
+import com.davistobias.snoredetect.core.storage.EnvelopeSink;
+import com.davistobias.snoredetect.core.storage.SessionRecovery;
+import com.davistobias.snoredetect.core.storage.SessionStore;
+import com.davistobias.snoredetect.core.storage.SessionWriter;
+
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AudioRecordingService extends Service {
     
     private static final String TAG = "AudioRecordingService";
     private static final String CHANNEL_ID = "SnoreDetectChannel";
     private static final int NOTIFICATION_ID = 1;
+    private static final String SNORE_MODEL_ASSET = "snore_classifier.properties";
     
-    // Audio recording constants
-    private static final int RECORDER_SAMPLERATE = 8000;
-    private static final int RECORDER_CHANNELS = AudioFormat.CHANNEL_IN_MONO;
-    private static final int RECORDER_AUDIO_ENCODING = AudioFormat.ENCODING_PCM_16BIT;
-    private static final int BufferElements2Rec = 1024;
-    private static final int BytesPerElement = 2;
+    // Audio buffered between the capture and writer threads; sample rate and read size come from
+    // the CaptureConfig negotiated for each recording
+    private static final int RING_SECONDS = 8;
+    // Finished snore events waiting for the main thread; a few minutes' worth at worst
+    private static final int EVENT_QUEUE_CAPACITY = 256;
+    // Audio kept either side of a gated stretch when silence gating is on
+    private static final int PRE_ROLL_MILLIS = 5000;
+    private static final int POST_ROLL_MILLIS = 2000;
+    // Frame levels kept for the UI (128 x 128 ms = ~16 s, more than the chart shows)
+    private static final int LEVEL_FEED_CAPACITY = 128;
+    // How much of the night's statistics a crash can lose
+    private static final int STATS_CHECKPOINT_SECONDS = 60;
+    // History rows are batched and synced this often
+    private static final int HISTORY_FLUSH_SECONDS = 5;
+    // Low-power mode: writer batches of about a second while nothing is happening
+    private static final int LOW_POWER_WRITER_BATCH_SECONDS = 1;
+    private static final long LOW_POWER_WRITER_PARK_MILLIS = 2000;
+    // One line of recorder metrics per minute of audio in each session's metrics.log
+    private static final int METRICS_LOG_SECONDS = 60;
+    // Frames in circulation on the frame bus, and how far statistics and history may fall behind
+    private static final int FRAME_POOL_SIZE = 1024;
+    private static final int FRAME_BUFFER_SECONDS = 30;
+    // Subscriptions on the frame consumer thread, plus room for the drain barrier
+    private static final int FRAME_CONSUMER_SLOTS = 8;
+    // Re-analysis progress is logged about this often
+    private static final int REANALYSIS_LOG_PERCENT = 10;
     
     // Recording state
-    private AudioRecord recorder = null;
+    private AudioSource audioSource = null;
+    private CaptureLoop captureLoop = null;
+    private SnoreDetector snoreDetector = null;
+    private volatile CaptureConfig.Profile captureProfile = CaptureConfig.Profile.BALANCED;
+    private volatile CaptureConfig captureConfig;
+    private final NoiseFloorEstimator noiseFloor = new NoiseFloorEstimator(CaptureConfig.DEFAULT_SAMPLE_RATES[0]);
+    private volatile boolean lowPowerMode = true;
+    private volatile PowerMetrics lastPowerMetrics;
+    private volatile RecorderMetrics recorderMetrics;
+    private volatile SnoreClassifier snoreClassifier = new LevelThresholdClassifier(noiseFloor);
     private Thread recordingThread = null;
-    private boolean isRecording = false;
+    private Thread writerThread = null;
+    private PcmRingBuffer ringBuffer = null;
+    private PcmBlockWriter blockWriter = null;
+    private volatile NightStatistics nightStatistics = null;
+    private HistoryStore historyStore = null;
+    private volatile HistoryRecorder historyRecorder = null;
+    private volatile boolean isRecording = false;
+    private volatile boolean gatedRecording = true;
+    private SessionReanalyzer reanalyzer = null;
+    private Thread reanalysisThread = null;
     
     // Audio data processing
     private Handler dataHandler = new Handler(Looper.getMainLooper());
-    private AudioDataCallback audioDataCallback;
+    private final List<AudioDataCallback> audioDataCallbacks = new CopyOnWriteArrayList<>();
+    private final FrameBus frameBus = new FrameBus(FRAME_POOL_SIZE);
+    private FrameConsumer frameConsumer;
+    private final List<FrameBus.Subscription> recordingSubscriptions = new ArrayList<>();
+    private final LevelFeed levelFeed = new LevelFeed(LEVEL_FEED_CAPACITY);
+    private final SnoreEventQueue snoreEvents = new SnoreEventQueue(EVENT_QUEUE_CAPACITY);
+    private final EventDispatcher eventDispatcher = new EventDispatcher();
+    private final CaptureListener captureListener = new CaptureListener();
     
     // Service binding
     private final IBinder binder = new AudioRecordingBinder();
     
     public interface AudioDataCallback {
-        void onAudioData(double decibel);
+        void onSnoreEvent(SnoreEvent event);
         void onRecordingStarted();
         void onRecordingStopped();
         void onRecordingError(String error);
     }
     
+    /** Outcome of {@link #reanalyzeSession}, delivered on the main thread. */
+    public interface ReanalysisCallback {
+        void onReanalysisComplete(File sessionDir, List<SnoreEvent> events);
+        void onReanalysisFailed(File sessionDir, String error);
+    }
+    
     public class AudioRecordingBinder extends Binder {
         public AudioRecordingService getService() {
             return AudioRecordingService.this;
         }
     }
     
+    /**
+     * Drains finished snore events on the main thread. Posts are coalesced so that a burst of
+     * events costs a single message.
+     */
+    private final class EventDispatcher implements Runnable {
+        private final AtomicBoolean pending = new AtomicBoolean(false);
+        
+        void signal() {
+            if (pending.compareAndSet(false, true)) {
+                dataHandler.post(this);
+            }
+        }
+        
+        @Override
+        public void run() {
+            pending.set(false);
+            drain();
+        }
+        
+        void drain() {
+            NightStatistics stats = nightStatistics;
+            HistoryRecorder history = historyRecorder;
+            SnoreEvent event;
+            while ((event = snoreEvents.poll()) != null) {
+                Log.d(TAG, "Snore event: " + event);
+                if (stats != null) {
+                    stats.addEvent(event);
+                }
+                if (history != null) {
+                    history.addEvent(event);
+                }
+                for (AudioDataCallback callback : audioDataCallbacks) {
+                    callback.onSnoreEvent(event);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Receives capture-thread events and forwards them to the main thread.
+     */
+    private final class CaptureListener implements CaptureLoop.Listener {
+        @Override
+        public void onFrame(double decibel, boolean snoring) {
+            levelFeed.publish((float) decibel, snoring);
+        }
+        
+        @Override
+        public void onSnoreEventsAvailable() {
+            eventDispatcher.signal();
+        }
+        
+        @Override
+        public void onSourceEnded() {
+            Log.w(TAG, "Audio source ended");
+        }
+        
+        @Override
+        public void onSourceError(IOException e) {
+            Log.e(TAG, "Error reading audio data", e);
+            dataHandler.post(() -> {
+                for (AudioDataCallback callback : audioDataCallbacks) {
+                    callback.onRecordingError("Failed to read audio data");
+                }
+                stopRecording();
+            });
+        }
+    }
+    
     @Override
     public void onCreate() {
         super.onCreate();
         createNotificationChannel();
+        loadSnoreClassifier();
+        recoverUnfinishedSessions();
+        frameConsumer = new FrameConsumer(FRAME_CONSUMER_SLOTS,
+                e -> Log.e(TAG, "Frame consumer failed", e));
+        new Thread(frameConsumer, "FrameConsumer Thread").start();
         Log.d(TAG, "AudioRecordingService created");
     }
     
@@ -94,12 +265,168 @@ public class AudioRecordingService extends Service {
     public void onDestroy() {
         super.onDestroy();
         stopRecording();
+        synchronized (this) {
+            if (reanalyzer != null) {
+                reanalyzer.cancel();
+                reanalyzer.getPool().shutdown();
+            }
+        }
+        frameConsumer.requestStop();
+        if (historyStore != null) {
+            try {
+                historyStore.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close history store", e);
+            }
+            historyStore = null;
+        }
         Log.d(TAG, "AudioRecordingService destroyed");
     }
     
     
-    public void setAudioDataCallback(AudioDataCallback callback) {
-        this.audioDataCallback = callback;
+    /** Adds a receiver of recording state and snore events, called on the main thread. */
+    public void addAudioDataCallback(AudioDataCallback callback) {
+        audioDataCallbacks.add(callback);
+    }
+    
+    public void removeAudioDataCallback(AudioDataCallback callback) {
+        audioDataCallbacks.remove(callback);
+    }
+    
+    /**
+     * Replaces the classifier used for detection, e.g. with a {@link LevelThresholdClassifier} to get
+     * the original fixed-threshold behaviour. Takes effect immediately if recording.
+     */
+    public void setSnoreClassifier(SnoreClassifier classifier) {
+        this.snoreClassifier = classifier;
+        SnoreDetector detector = snoreDetector;
+        if (detector != null) {
+            detector.setClassifier(classifier);
+        }
+    }
+    
+    public SnoreClassifier getSnoreClassifier() {
+        return snoreClassifier;
+    }
+    
+    /**
+     * Low-power capture, on by default: quiet frames get only a cheap decimated level check instead
+     * of feature extraction and classification, and the writer thread wakes about once a second
+     * instead of for every buffer. Applies from the next recording.
+     */
+    public void setLowPowerMode(boolean lowPowerMode) {
+        this.lowPowerMode = lowPowerMode;
+    }
+    
+    public boolean isLowPowerMode() {
+        return lowPowerMode;
+    }
+    
+    /**
+     * Capture CPU time and wakeups per hour of audio for the current recording, or the last one
+     * when stopped; null before the first.
+     */
+    public PowerMetrics getPowerMetrics() {
+        CaptureLoop loop = captureLoop;
+        return loop != null ? loop.getPowerMetrics() : lastPowerMetrics;
+    }
+    
+    /**
+     * Trades latency against overrun risk: how long each read is and how deep the recorder's own
+     * buffer is. Applies from the next recording.
+     */
+    public void setCaptureProfile(CaptureConfig.Profile profile) {
+        this.captureProfile = profile;
+    }
+    
+    public CaptureConfig.Profile getCaptureProfile() {
+        return captureProfile;
+    }
+    
+    /**
+     * Sample rate, read size and recorder buffer negotiated with the device for the current
+     * recording, or the last one when stopped; null before the first.
+     */
+    public CaptureConfig getCaptureConfig() {
+        return captureConfig;
+    }
+    
+    /**
+     * Read, processing and write latency histograms, short and dropped reads, ring depth and bytes
+     * written for the current recording, or the last one when stopped; null before the first. The
+     * same figures go to {@code metrics.log} in the session directory once a minute.
+     */
+    public RecorderMetrics getRecorderMetrics() {
+        return recorderMetrics;
+    }
+    
+    /**
+     * Background level of the room and the level threshold derived from it, updated on every
+     * frame while recording. A {@link LevelThresholdClassifier} built on it follows the threshold.
+     */
+    public NoiseFloorEstimator getNoiseFloor() {
+        return noiseFloor;
+    }
+    
+    /**
+     * Per-frame levels from the capture thread. The UI drains this at its own frame rate
+     * instead of receiving a callback per audio buffer.
+     */
+    public LevelFeed getLevelFeed() {
+        return levelFeed;
+    }
+    
+    /**
+     * Repairs sessions a previous process left unfinished, e.g. when the system killed it
+     * mid-recording. The list is taken now, before any new session can exist, and the repair runs
+     * in the background; a restarted recording always gets a fresh session directory.
+     */
+    private void recoverUnfinishedSessions() {
+        final List<File> unfinished = SessionRecovery.findUnfinished(new SessionStore(getSessionRoot()));
+        if (unfinished.isEmpty()) {
+            return;
+        }
+        new Thread(() -> {
+            NightStatistics restored = null;
+            for (File sessionDir : unfinished) {
+                try {
+                    long samples = SessionRecovery.recover(sessionDir);
+                    Log.i(TAG, "Recovered session " + sessionDir.getName() + ", "
+                            + samples + " samples re-indexed");
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to recover session " + sessionDir.getAbsolutePath(), e);
+                    continue;
+                }
+                try {
+                    NightStatistics stats = StatisticsCheckpoint.restore(sessionDir);
+                    if (stats != null) {
+                        Log.i(TAG, "Recovered night summary: " + stats);
+                        restored = stats;
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to restore statistics of " + sessionDir.getName(), e);
+                }
+            }
+            // The newest recovered night is the most recent recording, unless one has started since
+            final NightStatistics latest = restored;
+            if (latest != null) {
+                dataHandler.post(() -> {
+                    if (nightStatistics == null) {
+                        nightStatistics = latest;
+                    }
+                });
+            }
+        }, "SessionRecovery Thread").start();
+    }
+    
+    private void loadSnoreClassifier() {
+        try (InputStream in = getAssets().open(SNORE_MODEL_ASSET)) {
+            snoreClassifier = LogisticSnoreClassifier.load(in);
+            Log.i(TAG, "Loaded snore classifier from " + SNORE_MODEL_ASSET);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load snore classifier, falling back to level threshold", e);
+            snoreClassifier = new LevelThresholdClassifier(noiseFloor);
+        }
     }
     
     public boolean startRecording() {
@@ -109,28 +436,58 @@ public class AudioRecordingService extends Service {
         }
         
         try {
-            recorder = new AudioRecord(MediaRecorder.AudioSource.MIC,
-                    RECORDER_SAMPLERATE, RECORDER_CHANNELS,
-                    RECORDER_AUDIO_ENCODING, BufferElements2Rec * BytesPerElement);
-            
-            if (recorder.getState() != AudioRecord.STATE_INITIALIZED) {
-                Log.e(TAG, "AudioRecord initialization failed");
-                if (audioDataCallback != null) {
-                    audioDataCallback.onRecordingError("Failed to initialize audio recorder");
+            CaptureConfig config;
+            try {
+                config = CaptureConfig.negotiate(captureProfile, CaptureConfig.DEFAULT_SAMPLE_RATES,
+                        AudioRecordSource::minBufferBytes);
+                audioSource = new AudioRecordSource(config.getSampleRate(), config.getBufferBytes());
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "AudioRecord initialization failed", e);
+                for (AudioDataCallback callback : audioDataCallbacks) {
+                    callback.onRecordingError("Failed to initialize audio recorder");
                 }
                 return false;
             }
+            captureConfig = config;
+            Log.i(TAG, "Capture: " + config);
             
-            recorder.startRecording();
+            if (!startWriter(config)) {
+                closeAudioSource();
+                return false;
+            }
+            
+            audioSource.start();
             isRecording = true;
             
-            recordingThread = new Thread(this::writeAudioDataToFile, "AudioRecorder Thread");
+            // Each night starts calibrating afresh; the phone or the room may have changed
+            // Analysis runs decimated to about 8 kHz; event positions stay in captured samples
+            int analysisRate = config.getAnalysisSampleRate();
+            noiseFloor.reset(analysisRate);
+            snoreDetector = createDetector(config, noiseFloor, snoreClassifier);
+            SnoreEventDetector eventDetector = new SnoreEventDetector(config.getSampleRate(), snoreEvents);
+            captureLoop = new CaptureLoop(audioSource, ringBuffer, blockWriter, snoreDetector, eventDetector,
+                    captureListener);
+            captureLoop.setCpuClock(Debug::threadCpuTimeNanos);
+            captureLoop.setMetrics(recorderMetrics);
+            if (lowPowerMode) {
+                snoreDetector.setActivityDetector(new ActivityDetector(analysisRate, noiseFloor));
+                captureLoop.setWriterBatchBlocks(Math.min(config.readsFor(LOW_POWER_WRITER_BATCH_SECONDS),
+                        ringBuffer.capacity()));
+                blockWriter.setIdleParkMillis(LOW_POWER_WRITER_PARK_MILLIS);
+            }
+            // Statistics and history take their locks on a thread of their own, off the capture thread
+            captureLoop.setFrameBus(frameBus);
+            subscribeFrameObserver(nightStatistics, config);
+            if (historyRecorder != null) {
+                subscribeFrameObserver(historyRecorder, config);
+            }
+            recordingThread = new Thread(captureLoop, "AudioRecorder Thread");
             recordingThread.start();
             
             updateNotification("Recording snore data...");
             
-            if (audioDataCallback != null) {
-                audioDataCallback.onRecordingStarted();
+            for (AudioDataCallback callback : audioDataCallbacks) {
+                callback.onRecordingStarted();
             }
             
             Log.i(TAG, "Recording started successfully");
@@ -138,17 +495,168 @@ public class AudioRecordingService extends Service {
             
         } catch (SecurityException e) {
             Log.e(TAG, "Permission denied for audio recording", e);
-            if (audioDataCallback != null) {
-                audioDataCallback.onRecordingError("Permission denied for audio recording");
+            closeAudioSource();
+            stopWriter();
+            for (AudioDataCallback callback : audioDataCallbacks) {
+                callback.onRecordingError("Permission denied for audio recording");
             }
             return false;
         } catch (Exception e) {
             Log.e(TAG, "Failed to start recording", e);
-            if (audioDataCallback != null) {
-                audioDataCallback.onRecordingError("Failed to start recording: " + e.getMessage());
+            isRecording = false;
+            closeAudioSource();
+            stopWriter();
+            for (AudioDataCallback callback : audioDataCallbacks) {
+                callback.onRecordingError("Failed to start recording: " + e.getMessage());
+            }
+            return false;
+        }
+    }
+    
+    /** Feeds every frame to {@code observer} on the frame consumer thread until recording stops. */
+    private void subscribeFrameObserver(FrameObserver observer, CaptureConfig config) {
+        FrameBus.Subscriber subscriber = frame -> observer.onFrame(frame.getSamples(), frame.getLevelDb(),
+                frame.getLongLeqDb());
+        recordingSubscriptions.add(frameBus.subscribe(subscriber, frameConsumer, FrameBus.Backpressure.BUFFER,
+                config.readsFor(FRAME_BUFFER_SECONDS)));
+    }
+    
+    /**
+     * Waits until the frame consumers have taken in the last frames published, then ends the
+     * recording's subscriptions. Call once the capture thread has stopped.
+     */
+    private void drainFrameConsumers() {
+        // The consumer runs its tasks in order, so this counts down after every pending delivery
+        CountDownLatch drained = new CountDownLatch(1);
+        frameConsumer.execute(drained::countDown);
+        try {
+            if (!drained.await(1, TimeUnit.SECONDS)) {
+                Log.w(TAG, "Frame consumers did not finish");
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while waiting for frame consumers", e);
+            Thread.currentThread().interrupt();
+        }
+        for (FrameBus.Subscription subscription : recordingSubscriptions) {
+            subscription.cancel();
+            if (subscription.getDropped() > 0) {
+                Log.w(TAG, "Frame consumer fell behind, " + subscription.getDropped() + " frames dropped");
             }
+        }
+        recordingSubscriptions.clear();
+        if (frameBus.getDropped() > 0) {
+            Log.w(TAG, "Frame pool exhausted, " + frameBus.getDropped() + " frames dropped since the service started");
+        }
+    }
+    
+    /**
+     * Every analysed frame of the recording, for consumers that subscribe on an executor and
+     * backpressure policy of their own. Subscriptions last across recordings until cancelled.
+     */
+    public FrameBus getFrameBus() {
+        return frameBus;
+    }
+    
+    private static SnoreDetector createDetector(CaptureConfig config, NoiseFloorEstimator floor,
+                                                SnoreClassifier classifier) {
+        PolyphaseDecimator decimator = config.getDecimationFactor() > 1
+                ? new PolyphaseDecimator(config.getDecimationFactor())
+                : null;
+        return new SnoreDetector(decimator,
+                new FeatureExtractor(config.getAnalysisSampleRate(), config.getAnalysisFrameSamples()), classifier,
+                floor);
+    }
+    
+    /**
+     * Runs the current classifier over a recorded session again, in the background, spread over
+     * all cores; a night takes a minute or two. Frames are read as the capture read them, and each
+     * stretch of the night calibrates its own noise floor, so the live recording's is left alone.
+     * Only one session is re-analysed at a time.
+     *
+     * @return false if a re-analysis is already running
+     */
+    public synchronized boolean reanalyzeSession(final File sessionDir, final ReanalysisCallback callback) {
+        if (reanalysisThread != null && reanalysisThread.isAlive()) {
+            Log.w(TAG, "Re-analysis already in progress");
             return false;
         }
+        if (reanalyzer == null) {
+            reanalyzer = new SessionReanalyzer(new ReanalysisDetectors());
+        }
+        final SessionReanalyzer analysis = reanalyzer;
+        reanalysisThread = new Thread(() -> {
+            long started = System.nanoTime();
+            List<SnoreEvent> events = null;
+            String error = null;
+            try {
+                events = analysis.analyze(sessionDir, new SessionReanalyzer.ProgressListener() {
+                    private final AtomicInteger logged = new AtomicInteger();
+
+                    @Override
+                    public void onProgress(long analysedSamples, long totalSamples) {
+                        int percent = (int) (100 * analysedSamples / Math.max(1, totalSamples));
+                        int step = percent / REANALYSIS_LOG_PERCENT;
+                        int last = logged.get();
+                        if (step > last && logged.compareAndSet(last, step)) {
+                            Log.d(TAG, "Re-analysis of " + sessionDir.getName() + ": " + percent + "%");
+                        }
+                    }
+                });
+                Log.i(TAG, "Re-analysed session " + sessionDir.getName() + ": " + events.size() + " events in "
+                        + (System.nanoTime() - started) / 1_000_000 + " ms");
+            } catch (CancellationException e) {
+                Log.i(TAG, "Re-analysis of " + sessionDir.getName() + " cancelled");
+                error = "Cancelled";
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Failed to re-analyse session " + sessionDir.getAbsolutePath(), e);
+                error = "Failed to re-analyse session: " + e.getMessage();
+            }
+            if (callback != null) {
+                final List<SnoreEvent> result = events;
+                final String message = error;
+                dataHandler.post(() -> {
+                    if (result != null) {
+                        callback.onReanalysisComplete(sessionDir, result);
+                    } else {
+                        callback.onReanalysisFailed(sessionDir, message);
+                    }
+                });
+            }
+        }, "SessionReanalysis Thread");
+        reanalysisThread.start();
+        return true;
+    }
+    
+    /** Stops a running {@link #reanalyzeSession}; its callback then reports the cancellation. */
+    public synchronized void cancelReanalysis() {
+        if (reanalyzer != null) {
+            reanalyzer.cancel();
+        }
+    }
+    
+    /**
+     * Detectors for re-analysis, one per chunk. Each gets its own noise floor; a threshold
+     * classifier that follows the floor is rebuilt on it, while a logistic model or a fixed
+     * threshold holds no state and is shared.
+     */
+    private final class ReanalysisDetectors implements SessionReanalyzer.DetectorFactory {
+        /** Sessions from before the read size was recorded: assume the current profile's reads. */
+        @Override
+        public int frameSamples(int sampleRate) {
+            return CaptureConfig.forSampleRate(captureProfile, sampleRate).getReadSamples();
+        }
+        
+        @Override
+        public SnoreDetector create(int sampleRate, int frameSamples) {
+            CaptureConfig config = CaptureConfig.forReads(captureProfile, sampleRate, frameSamples);
+            NoiseFloorEstimator floor = new NoiseFloorEstimator(config.getAnalysisSampleRate());
+            SnoreClassifier classifier = snoreClassifier;
+            if (classifier instanceof LevelThresholdClassifier
+                    && ((LevelThresholdClassifier) classifier).getNoiseFloor() != null) {
+                classifier = new LevelThresholdClassifier(floor);
+            }
+            return createDetector(config, floor, classifier);
+        }
     }
     
     public void stopRecording() {
@@ -158,14 +666,8 @@ public class AudioRecordingService extends Service {
         
         isRecording = false;
         
-        if (recorder != null) {
-            try {
-                recorder.stop();
-                recorder.release();
-            } catch (Exception e) {
-                Log.e(TAG, "Error stopping recorder", e);
-            }
-            recorder = null;
+        if (captureLoop != null) {
+            captureLoop.requestStop();
         }
         
         if (recordingThread != null) {
@@ -176,11 +678,29 @@ public class AudioRecordingService extends Service {
             }
             recordingThread = null;
         }
+        if (captureLoop != null) {
+            lastPowerMetrics = captureLoop.getPowerMetrics();
+            Log.i(TAG, "Power: " + lastPowerMetrics);
+        }
+        if (recorderMetrics != null) {
+            Log.i(TAG, "Metrics: " + recorderMetrics);
+        }
+        captureLoop = null;
+        snoreDetector = null;
+        drainFrameConsumers();
+        
+        // Count the events flushed at the end before the writer takes the final checkpoint
+        eventDispatcher.drain();
+        closeAudioSource();
+        stopWriter();
+        if (nightStatistics != null) {
+            Log.i(TAG, "Night summary: " + nightStatistics);
+        }
         
         updateNotification("Recording stopped");
         
-        if (audioDataCallback != null) {
-            audioDataCallback.onRecordingStopped();
+        for (AudioDataCallback callback : audioDataCallbacks) {
+            callback.onRecordingStopped();
         }
         
         Log.i(TAG, "Recording stopped");
@@ -190,7 +710,61 @@ public class AudioRecordingService extends Service {
         return isRecording;
     }
     
-    private File getAudioFile() {
+    /**
+     * Whether to store only the audio around snoring and loud sounds, with the silent stretches
+     * replaced by markers in a sidecar file. Takes effect from the next recording.
+     */
+    public void setGatedRecording(boolean gatedRecording) {
+        this.gatedRecording = gatedRecording;
+    }
+    
+    public boolean isGatedRecording() {
+        return gatedRecording;
+    }
+    
+    /** Blocks dropped because the writer fell behind, for sizing the ring. */
+    public long getOverrunCount() {
+        PcmRingBuffer ring = ringBuffer;
+        return ring != null ? ring.getOverrunCount() : 0;
+    }
+    
+    /** Deepest the capture/writer ring has been during this recording, in blocks. */
+    public int getRingHighWaterMark() {
+        PcmRingBuffer ring = ringBuffer;
+        return ring != null ? ring.getHighWaterMark() : 0;
+    }
+    
+    /**
+     * Summary of the current or most recent recording, or null before the first one. After the
+     * service was killed mid-recording, the interrupted night as of its last checkpoint.
+     */
+    public NightStatistics getNightStatistics() {
+        return nightStatistics;
+    }
+    
+    /**
+     * Sessions, events and per-minute aggregates of every night recorded, for history and trend
+     * screens. Opened on first use; null if it cannot be opened, in which case recording goes
+     * ahead without it.
+     */
+    public synchronized HistoryStore getHistoryStore() {
+        if (historyStore == null) {
+            File dir = new File(getAudioDirectory(), "history");
+            try {
+                historyStore = HistoryStore.open(dir);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to open history store in " + dir.getAbsolutePath(), e);
+            }
+        }
+        return historyStore;
+    }
+    
+    /** Root directory of the per-session recording directories. */
+    public File getSessionRoot() {
+        return new File(getAudioDirectory(), "sessions");
+    }
+    
+    private File getAudioDirectory() {
         File audioDir = null;
         
         // Try to use external files directory first (preferred for API 29+)
@@ -213,88 +787,116 @@ public class AudioRecordingService extends Service {
             }
         }
         
-        return new File(audioDir, "8k16bitMono.pcm");
-    }
-    
-    private byte[] short2byte(short[] sData) {
-        int shortArrsize = sData.length;
-        byte[] bytes = new byte[shortArrsize * 2];
-
-        for (int i = 0; i < shortArrsize; i++) {
-            bytes[i * 2] = (byte) (sData[i] & 0x00FF);
-            bytes[(i * 2) + 1] = (byte) (sData[i] >> 8);
-            sData[i] = 0;
-        }
-        return bytes;
+        return audioDir;
     }
     
-    private void writeAudioDataToFile() {
-        short sData[] = new short[BufferElements2Rec];
-        File audioFile = getAudioFile();
+    private boolean startWriter(CaptureConfig config) {
+        int sampleRate = config.getSampleRate();
+        // Capture starts right after the writer, so this anchors sample 0 to within a few ms
+        long startEpochMillis = System.currentTimeMillis();
+        SessionStore store = new SessionStore(getSessionRoot());
 
-        FileOutputStream os = null;
+        // IMA ADPCM is a quarter of 16-bit PCM: about 4 KB/s at 8 kHz, roughly 115 MB for an 8-hour
+        // night instead of 460 MB
+        PcmSink sink;
         try {
-            os = new FileOutputStream(audioFile);
-            Log.i(TAG, "Audio file will be saved to: " + audioFile.getAbsolutePath());
-        } catch (FileNotFoundException e) {
-            Log.e(TAG, "Failed to create audio file: " + audioFile.getAbsolutePath(), e);
-            if (audioDataCallback != null) {
-                audioDataCallback.onRecordingError("Failed to create audio file");
-            }
-            return;
-        }
-
-        while (isRecording) {
-            if (recorder == null) {
-                break;
-            }
-            
-            int bytesRead = recorder.read(sData, 0, BufferElements2Rec);
-            if (bytesRead < 0) {
-                Log.e(TAG, "Error reading audio data: " + bytesRead);
-                break;
-            }
-
-            double maxSample = 0d;
-            for (int x = 0; x < BufferElements2Rec; x++) {
-                double sample = Math.abs(sData[x]);
-                if (sample > maxSample) {
-                    maxSample = sample;
-                }
+            File sessionDir = store.createSession(startEpochMillis);
+            SessionWriter sessionWriter = new SessionWriter(sessionDir, sampleRate, config.getReadSamples(),
+                    startEpochMillis, ImaAdpcmEncoder::new);
+            sink = sessionWriter;
+            if (gatedRecording) {
+                sink = createGatedSink(sink, sessionDir, sampleRate, startEpochMillis);
             }
-            
-            // Calculate decibel level
-            double decibel = 0d;
-            if (maxSample > 0) {
-                decibel = 20.0 * Math.log10(maxSample / 65535.0);
+            // Ahead of the gate, so the overview covers the whole night
+            sink = new EnvelopeSink(sink, new File(sessionDir, EnvelopeFile.FILE_NAME), sampleRate);
+            nightStatistics = new NightStatistics(sampleRate, startEpochMillis);
+            sink = new StatisticsCheckpointSink(sink, nightStatistics,
+                    new File(sessionDir, StatisticsCheckpoint.FILE_NAME),
+                    (long) sampleRate * STATS_CHECKPOINT_SECONDS);
+            historyRecorder = null;
+            HistoryStore history = getHistoryStore();
+            if (history != null) {
+                historyRecorder = new HistoryRecorder(history, sampleRate, startEpochMillis);
+                sink = new HistorySink(sink, historyRecorder, (long) sampleRate * HISTORY_FLUSH_SECONDS);
             }
-            
-            // Send audio data to callback on main thread
-            final double finalDecibel = decibel;
-            dataHandler.post(() -> {
-                if (audioDataCallback != null) {
-                    audioDataCallback.onAudioData(finalDecibel);
-                }
-            });
-
+            // Outermost, so the write latency covers everything the writer thread does per block
+            recorderMetrics = new RecorderMetrics();
             try {
-                // Write audio data to file
-                byte bData[] = short2byte(sData);
-                os.write(bData, 0, BufferElements2Rec * BytesPerElement);
+                sink = new MetricsLogSink(sink, recorderMetrics, new File(sessionDir, MetricsLogSink.FILE_NAME),
+                        sampleRate, (long) sampleRate * METRICS_LOG_SECONDS,
+                        sessionWriter::getEncodedBytes);
             } catch (IOException e) {
-                Log.e(TAG, "Error writing audio data", e);
-                break;
+                sink.close();
+                throw e;
+            }
+            Log.i(TAG, "Session will be saved to: " + sessionDir.getAbsolutePath());
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to create session in " + store.getRoot().getAbsolutePath(), e);
+            for (AudioDataCallback callback : audioDataCallbacks) {
+                callback.onRecordingError("Failed to create audio file");
             }
+            return false;
         }
 
-        if (os != null) {
-            try {
-                os.close();
-                Log.i(TAG, "Audio file saved successfully");
-            } catch (IOException e) {
-                Log.e(TAG, "Failed to close audio file", e);
-            }
+        ringBuffer = new PcmRingBuffer(config.readsFor(RING_SECONDS), config.getReadSamples());
+        blockWriter = new PcmBlockWriter(ringBuffer, sink,
+                e -> {
+                    Log.e(TAG, "Error writing audio data", e);
+                    dataHandler.post(() -> {
+                        for (AudioDataCallback callback : audioDataCallbacks) {
+                            callback.onRecordingError("Failed to write audio file");
+                        }
+                        stopRecording();
+                    });
+                });
+        writerThread = new Thread(blockWriter, "AudioWriter Thread");
+        writerThread.start();
+        return true;
+    }
+    
+    private PcmSink createGatedSink(PcmSink sink, File sessionDir, int sampleRate, long startEpochMillis)
+            throws IOException {
+        File markerFile = new File(sessionDir, "gate.markers");
+        GateMarkerFile markers;
+        try {
+            markers = new GateMarkerFile(markerFile, sampleRate, startEpochMillis);
+        } catch (IOException e) {
+            sink.close();
+            throw e;
+        }
+        return new GatedPcmSink(sink, markers,
+                (int) ((long) sampleRate * PRE_ROLL_MILLIS / 1000),
+                (int) ((long) sampleRate * POST_ROLL_MILLIS / 1000));
+    }
+    
+    private void stopWriter() {
+        if (blockWriter == null) {
+            return;
+        }
+        
+        blockWriter.requestStop();
+        try {
+            writerThread.join(5000); // Give the writer time to drain the ring
+            Log.i(TAG, "Audio file saved successfully");
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while waiting for writer thread", e);
+        }
+        Log.i(TAG, "Ring overruns: " + ringBuffer.getOverrunCount()
+                + ", high-water mark: " + ringBuffer.getHighWaterMark() + "/" + ringBuffer.capacity());
+        writerThread = null;
+        blockWriter = null;
+    }
+    
+    private void closeAudioSource() {
+        if (audioSource == null) {
+            return;
+        }
+        try {
+            audioSource.close();
+        } catch (Exception e) {
+            Log.e(TAG, "Error stopping recorder", e);
         }
+        audioSource = null;
     }
     
     private void createNotificationChannel() {
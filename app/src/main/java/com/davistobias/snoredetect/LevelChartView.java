@@ -0,0 +1,242 @@
+package com.davistobias.snoredetect;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Scrolling line chart of recent audio levels.
+ *
+ * Points live in a {@code float[]} ring and are drawn with a single {@link Canvas#drawLines}
+ * call from a pre-sized segment array, so appending and drawing never allocate. Axis labels
+ * are formatted into a reused char buffer for the same reason.
+ */
+public class LevelChartView extends View {
+
+    private static final int DEFAULT_CAPACITY = 100;
+    private static final int Y_DIVISIONS = 4;
+    private static final int X_DIVISIONS = 5;
+
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint gridPaint = new Paint();
+    private final Paint thresholdPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint thresholdLabelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint floorPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint floorLabelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final char[] labelChars = new char[12];
+
+    private float[] values;
+    private float[] segments;
+    private int head;
+    private int count;
+    private long appended;
+
+    private float minValue = -80f;
+    private float maxValue = 0f;
+    private float threshold = Float.NaN;
+    private String thresholdLabel = "";
+    private float floor = Float.NaN;
+    private String floorLabel = "";
+
+    // Plot area, recomputed on size changes
+    private float plotLeft;
+    private float plotTop;
+    private float plotRight;
+    private float plotBottom;
+
+    public LevelChartView(Context context) {
+        this(context, null);
+    }
+
+    public LevelChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = context.getResources().getDisplayMetrics().density;
+
+        linePaint.setColor(Color.GREEN);
+        linePaint.setStrokeWidth(2f * density);
+        gridPaint.setColor(Color.GRAY);
+        gridPaint.setStrokeWidth(1f);
+        thresholdPaint.setColor(Color.RED);
+        thresholdPaint.setStrokeWidth(2f * density);
+        labelPaint.setColor(Color.WHITE);
+        labelPaint.setTextSize(10f * density);
+        thresholdLabelPaint.setColor(Color.RED);
+        thresholdLabelPaint.setTextSize(12f * density);
+        floorPaint.setColor(Color.LTGRAY);
+        floorPaint.setStrokeWidth(1f * density);
+        floorLabelPaint.setColor(Color.LTGRAY);
+        floorLabelPaint.setTextSize(10f * density);
+
+        setBackgroundColor(Color.BLACK);
+        setCapacity(DEFAULT_CAPACITY);
+    }
+
+    /** Number of points shown across the width. Clears the chart. */
+    public void setCapacity(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2");
+        }
+        values = new float[capacity];
+        segments = new float[(capacity - 1) * 4];
+        head = 0;
+        count = 0;
+        appended = 0;
+        invalidate();
+    }
+
+    public int getCapacity() {
+        return values.length;
+    }
+
+    public void setRange(float min, float max) {
+        if (!(max > min)) {
+            throw new IllegalArgumentException("max must be greater than min");
+        }
+        minValue = min;
+        maxValue = max;
+        invalidate();
+    }
+
+    /** Draws a labelled horizontal line at {@code value}; pass NaN to hide it. */
+    public void setThreshold(float value, String label) {
+        threshold = value;
+        thresholdLabel = label != null ? label : "";
+        invalidate();
+    }
+
+    /** Draws a thinner labelled line for the estimated noise floor; pass NaN to hide it. */
+    public void setNoiseFloor(float value, String label) {
+        floor = value;
+        floorLabel = label != null ? label : "";
+        invalidate();
+    }
+
+    /** Appends one point. Call {@link #invalidate()} once after a batch. */
+    public void append(float value) {
+        values[head] = value;
+        head = (head + 1) % values.length;
+        if (count < values.length) {
+            count++;
+        }
+        appended++;
+    }
+
+    /** Appends a batch of points and schedules a single redraw. */
+    public void append(float[] batch, int length) {
+        for (int i = 0; i < length; i++) {
+            append(batch[i]);
+        }
+        invalidate();
+    }
+
+    public void clear() {
+        head = 0;
+        count = 0;
+        appended = 0;
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        float textHeight = labelPaint.getTextSize();
+        plotLeft = getPaddingLeft() + labelPaint.measureText("-000") + textHeight / 2;
+        plotTop = getPaddingTop() + textHeight / 2;
+        plotRight = w - getPaddingRight() - textHeight / 2;
+        plotBottom = h - getPaddingBottom() - textHeight * 1.5f;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (plotRight <= plotLeft || plotBottom <= plotTop) {
+            return;
+        }
+        drawAxes(canvas);
+
+        if (!Float.isNaN(threshold) && threshold >= minValue && threshold <= maxValue) {
+            float y = toY(threshold);
+            canvas.drawLine(plotLeft, y, plotRight, y, thresholdPaint);
+            canvas.drawText(thresholdLabel, plotLeft + 4, y - 4, thresholdLabelPaint);
+        }
+        if (!Float.isNaN(floor) && floor >= minValue && floor <= maxValue) {
+            float y = toY(floor);
+            canvas.drawLine(plotLeft, y, plotRight, y, floorPaint);
+            canvas.drawText(floorLabel, plotLeft + 4, y + floorLabelPaint.getTextSize(), floorLabelPaint);
+        }
+
+        if (count < 2) {
+            return;
+        }
+        float step = (plotRight - plotLeft) / (values.length - 1);
+        // Fills from the left until the ring is full, then scrolls
+        float x = plotLeft;
+        int index = (head - count + values.length) % values.length;
+        float y = toY(values[index]);
+        int n = 0;
+        for (int i = 1; i < count; i++) {
+            index = index + 1 == values.length ? 0 : index + 1;
+            float nextX = x + step;
+            float nextY = toY(values[index]);
+            segments[n++] = x;
+            segments[n++] = y;
+            segments[n++] = nextX;
+            segments[n++] = nextY;
+            x = nextX;
+            y = nextY;
+        }
+        canvas.drawLines(segments, 0, n, linePaint);
+    }
+
+    private void drawAxes(Canvas canvas) {
+        float textHeight = labelPaint.getTextSize();
+        for (int i = 0; i <= Y_DIVISIONS; i++) {
+            float value = minValue + (maxValue - minValue) * i / Y_DIVISIONS;
+            float y = toY(value);
+            canvas.drawLine(plotLeft, y, plotRight, y, gridPaint);
+            int length = formatInt(Math.round(value));
+            float width = labelPaint.measureText(labelChars, labelChars.length - length, length);
+            canvas.drawText(labelChars, labelChars.length - length, length,
+                    plotLeft - width - textHeight / 4, y + textHeight / 3, labelPaint);
+        }
+
+        // X labels count points since the chart was cleared, like the sample index they replace
+        long first = Math.max(0, appended - values.length);
+        for (int i = 0; i <= X_DIVISIONS; i++) {
+            float x = plotLeft + (plotRight - plotLeft) * i / X_DIVISIONS;
+            canvas.drawLine(x, plotTop, x, plotBottom, gridPaint);
+            int length = formatInt(first + (long) (values.length - 1) * i / X_DIVISIONS);
+            float width = labelPaint.measureText(labelChars, labelChars.length - length, length);
+            canvas.drawText(labelChars, labelChars.length - length, length,
+                    x - width / 2, plotBottom + textHeight * 1.25f, labelPaint);
+        }
+    }
+
+    private float toY(float value) {
+        if (value < minValue) {
+            value = minValue;
+        } else if (value > maxValue) {
+            value = maxValue;
+        }
+        return plotBottom - (value - minValue) / (maxValue - minValue) * (plotBottom - plotTop);
+    }
+
+    /** Writes {@code value} right-aligned into {@link #labelChars}; returns its length. */
+    private int formatInt(long value) {
+        boolean negative = value < 0;
+        long remaining = Math.abs(value);
+        int pos = labelChars.length;
+        do {
+            labelChars[--pos] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0 && pos > 1);
+        if (negative) {
+            labelChars[--pos] = '-';
+        }
+        return labelChars.length - pos;
+    }
+}
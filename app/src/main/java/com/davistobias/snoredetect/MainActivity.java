@@ -6,13 +6,12 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
-import android.media.AudioFormat;
 import android.media.AudioManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IBinder;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.KeyEvent;
 import android.view.View;
 import android.widget.Button;
@@ -22,28 +21,21 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
-import com.github.mikephil.charting.charts.LineChart;
-import com.github.mikephil.charting.data.Entry;
-import com.github.mikephil.charting.data.LineData;
-import com.github.mikephil.charting.data.LineDataSet;
-import com.github.mikephil.charting.components.XAxis;
-import com.github.mikephil.charting.components.YAxis;
-import com.github.mikephil.charting.components.LimitLine;
-import android.graphics.Color;
+import com.davistobias.snoredetect.core.LevelFeed;
+import com.davistobias.snoredetect.core.dsp.LevelThresholdClassifier;
+import com.davistobias.snoredetect.core.dsp.NoiseFloorEstimator;
+import com.davistobias.snoredetect.core.dsp.SnoreClassifier;
+import com.davistobias.snoredetect.core.dsp.SnoreEvent;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.Buffer;
-import java.util.ArrayList;
+import java.util.Locale;
 
 public class MainActivity extends AppCompatActivity {
 
-    private static final int RECORDER_SAMPLERATE = 8000;
-    private static final int RECORDER_CHANNELS = AudioFormat.CHANNEL_IN_MONO;
-    private static final int RECORDER_AUDIO_ENCODING = AudioFormat.ENCODING_PCM_16BIT;
-    
     private static final int PERMISSIONS_REQUEST_RECORD_AUDIO = 1;
     private static final String[] REQUIRED_PERMISSIONS = {
         Manifest.permission.RECORD_AUDIO,
@@ -55,17 +47,26 @@ public class MainActivity extends AppCompatActivity {
     private boolean hasAudioFocus = false;
 
     private AudioRecordingService audioService;
+    private AudioRecordingService.AudioDataCallback audioCallback;
     private boolean serviceBound = false;
 
-    private final Handler mHandler = new Handler();
-    private LineChart chart;
-    private LineDataSet dataSet;
-    private LineData lineData;
-    private float graphLastXValue = 0f;
-    private final int MAX_DATA_POINTS = 100; // Limit for memory management
+    private LevelChartView chart;
+    private final int MAX_DATA_POINTS = 600; // ~77 s of 128 ms frames
     public double decibel = 0d;
+    public boolean snoring = false;
+    private int snoreEventCount = 0;
     public TextView textView;
 
+    // Levels are pulled from the service once per display frame while the activity is visible
+    private final float[] frameLevels = new float[MAX_DATA_POINTS];
+    private final boolean[] frameSnoring = new boolean[MAX_DATA_POINTS];
+    private boolean visible = false;
+    private boolean visualizing = false;
+    private boolean frameCallbackPosted = false;
+    // Threshold and noise floor currently drawn, so the lines move only when the estimate does
+    private float shownThreshold = Float.NaN;
+    private float shownFloor = Float.NaN;
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         try {
@@ -76,7 +77,7 @@ public class MainActivity extends AppCompatActivity {
             enableButtons(false);
             textView = (TextView) findViewById(R.id.textView);
 
-            // Initialize MPAndroidChart for real-time audio visualization
+            // Live level chart
             chart = findViewById(R.id.graph);
             setupChart();
 
@@ -406,11 +407,26 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        visible = true;
+        scheduleFrame();
+    }
+
     @Override
     public void onPause() {
         super.onPause();
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Nothing is drawn while hidden; the feed keeps the newest levels for when we return
+        visible = false;
+        cancelFrame();
+    }
+
     @Override
     protected void onDestroy() {
         try {
@@ -423,6 +439,7 @@ public class MainActivity extends AppCompatActivity {
             
             // Unbind from service
             if (serviceBound) {
+                audioService.removeAudioDataCallback(audioCallback);
                 unbindService(serviceConnection);
                 serviceBound = false;
             }
@@ -441,18 +458,14 @@ public class MainActivity extends AppCompatActivity {
                 serviceBound = true;
                 
                 // Set up audio data callback
-                audioService.setAudioDataCallback(new AudioRecordingService.AudioDataCallback() {
+                audioCallback = new AudioRecordingService.AudioDataCallback() {
                     @Override
-                    public void onAudioData(double decibel) {
-                        try {
-                            MainActivity.this.decibel = decibel;
-                            updateAudioVisualization();
-                        } catch (Exception e) {
-                            runOnUiThread(() -> {
-                                Toast.makeText(MainActivity.this, "Audio Data Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                            });
-                            Log.e("MainActivity", "onAudioData failed", e);
-                        }
+                    public void onSnoreEvent(SnoreEvent event) {
+                        snoreEventCount++;
+                        int sampleRate = audioService.getCaptureConfig().getSampleRate();
+                        Log.d("MainActivity", "Snore #" + snoreEventCount + ": "
+                                + String.format(Locale.US, "%.1f s, peak %.1f dB",
+                                event.getDurationSeconds(sampleRate), event.peakDb));
                     }
 
                     @Override
@@ -497,7 +510,11 @@ public class MainActivity extends AppCompatActivity {
                             Log.e("MainActivity", "onRecordingError callback failed", e);
                         }
                     }
-                });
+                };
+                audioService.addAudioDataCallback(audioCallback);
+                if (audioService.isRecording()) {
+                    startAudioVisualization();
+                }
                 
                 Log.d("MainActivity", "Audio service connected");
             } catch (Exception e) {
@@ -509,6 +526,7 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void onServiceDisconnected(ComponentName name) {
             try {
+                stopAudioVisualization();
                 audioService = null;
                 serviceBound = false;
                 Log.d("MainActivity", "Audio service disconnected");
@@ -528,65 +546,87 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private void updateAudioVisualization() {
-        try {
-            runOnUiThread(() -> {
-                try {
-                    // graphLastXValue is now updated in updateChart method
-                    if (decibel >= -30.0) {
-                        textView.setText("SNORING");
-                    } else {
-                        textView.setText("NORMAL");
-                    }
-                    updateChart((float) decibel);
-                } catch (Exception e) {
-                    Toast.makeText(MainActivity.this, "UI Update Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                    Log.e("MainActivity", "updateAudioVisualization UI failed", e);
-                }
-            });
-        } catch (Exception e) {
-            Toast.makeText(this, "Visualization Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-            Log.e("MainActivity", "updateAudioVisualization failed", e);
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            frameCallbackPosted = false;
+            try {
+                drainLevels();
+            } catch (Exception e) {
+                Log.e("MainActivity", "drainLevels failed", e);
+            }
+            scheduleFrame();
         }
+    };
+
+    private void startAudioVisualization() {
+        visualizing = true;
+        scheduleFrame();
     }
 
-    private Runnable mTimer;
+    private void stopAudioVisualization() {
+        visualizing = false;
+        cancelFrame();
+        // Show whatever arrived after the last frame
+        drainLevels();
+    }
 
-    private void startAudioVisualization() {
-        try {
-            if (mTimer != null) {
-                mHandler.removeCallbacks(mTimer);
-            }
-            
-            mTimer = new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        // The visualization is now updated by the service callback
-                        // This timer is just to ensure consistent UI updates
-                        mHandler.postDelayed(this, 35);
-                    } catch (Exception e) {
-                        Toast.makeText(MainActivity.this, "Timer Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                        Log.e("MainActivity", "visualization timer failed", e);
-                    }
-                }
-            };
-            mHandler.postDelayed(mTimer, 1000);
-        } catch (Exception e) {
-            Toast.makeText(this, "Start Visualization Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-            Log.e("MainActivity", "startAudioVisualization failed", e);
+    private void scheduleFrame() {
+        if (visible && visualizing && !frameCallbackPosted) {
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+            frameCallbackPosted = true;
         }
     }
 
-    private void stopAudioVisualization() {
-        try {
-            if (mTimer != null) {
-                mHandler.removeCallbacks(mTimer);
-                mTimer = null;
-            }
-        } catch (Exception e) {
-            Toast.makeText(this, "Stop Visualization Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-            Log.e("MainActivity", "stopAudioVisualization failed", e);
+    private void cancelFrame() {
+        if (frameCallbackPosted) {
+            Choreographer.getInstance().removeFrameCallback(frameCallback);
+            frameCallbackPosted = false;
+        }
+    }
+
+    /**
+     * Appends every level published since the previous frame and redraws the chart once,
+     * however many audio buffers arrived in between.
+     */
+    private void drainLevels() {
+        if (audioService == null) {
+            return;
+        }
+        LevelFeed feed = audioService.getLevelFeed();
+        int count = feed.drainTo(frameLevels, frameSnoring);
+        if (count == 0) {
+            return;
+        }
+        decibel = frameLevels[count - 1];
+        snoring = frameSnoring[count - 1];
+        if (textView != null) {
+            textView.setText(snoring ? "SNORING" : "NORMAL");
+        }
+        if (chart != null) {
+            chart.append(frameLevels, count);
+            updateThresholdLines();
+        }
+    }
+
+    /**
+     * Follows the service's noise floor estimate, moving the lines in half-dB steps. The snoring
+     * threshold is drawn only while a level threshold decides; the model classifier scores the
+     * frame's spectrum, so no level on the chart stands for its decision.
+     */
+    private void updateThresholdLines() {
+        SnoreClassifier classifier = audioService.getSnoreClassifier();
+        float threshold = classifier instanceof LevelThresholdClassifier
+                ? (float) ((LevelThresholdClassifier) classifier).getThresholdDb() : Float.NaN;
+        if (Float.isNaN(threshold) != Float.isNaN(shownThreshold) || Math.abs(threshold - shownThreshold) >= 0.5f) {
+            shownThreshold = threshold;
+            chart.setThreshold(threshold, "Snoring Threshold");
+        }
+        NoiseFloorEstimator noiseFloor = audioService.getNoiseFloor();
+        float floor = noiseFloor.isCalibrated() ? (float) noiseFloor.getFloorDb() : Float.NaN;
+        if (Float.isNaN(floor) != Float.isNaN(shownFloor) || Math.abs(floor - shownFloor) >= 0.5f) {
+            shownFloor = floor;
+            chart.setNoiseFloor(floor, "Noise Floor");
         }
     }
 
@@ -597,57 +637,8 @@ public class MainActivity extends AppCompatActivity {
                 return;
             }
 
-            // Configure chart appearance
-            chart.getDescription().setEnabled(false);
-            chart.setTouchEnabled(true);
-            chart.setDragEnabled(true);
-            chart.setScaleEnabled(false);
-            chart.setPinchZoom(false);
-            chart.setDrawGridBackground(false);
-            chart.setBackgroundColor(Color.BLACK);
-
-            // Configure X-axis (time)
-            XAxis xAxis = chart.getXAxis();
-            xAxis.setPosition(XAxis.XAxisPosition.BOTTOM);
-            xAxis.setTextColor(Color.WHITE);
-            xAxis.setDrawGridLines(true);
-            xAxis.setGridColor(Color.GRAY);
-            xAxis.setAxisMinimum(0f);
-            xAxis.setAxisMaximum(100f);
-
-            // Configure Y-axis (decibels)
-            YAxis leftAxis = chart.getAxisLeft();
-            leftAxis.setTextColor(Color.WHITE);
-            leftAxis.setDrawGridLines(true);
-            leftAxis.setGridColor(Color.GRAY);
-            leftAxis.setAxisMaximum(0f);    // 0 dB max
-            leftAxis.setAxisMinimum(-60f);  // -60 dB min
-
-            // Add snoring threshold line at -30.0 dB
-            LimitLine snoreThreshold = new LimitLine(-30f, "Snoring Threshold");
-            snoreThreshold.setLineColor(Color.RED);
-            snoreThreshold.setLineWidth(2f);
-            snoreThreshold.setTextColor(Color.RED);
-            snoreThreshold.setTextSize(12f);
-            leftAxis.addLimitLine(snoreThreshold);
-
-            // Disable right axis
-            chart.getAxisRight().setEnabled(false);
-
-            // Initialize data
-            dataSet = new LineDataSet(new ArrayList<Entry>(), "Audio Level (dB)");
-            dataSet.setColor(Color.GREEN);
-            dataSet.setCircleColor(Color.GREEN);
-            dataSet.setLineWidth(2f);
-            dataSet.setCircleRadius(1f);
-            dataSet.setDrawCircleHole(false);
-            dataSet.setValueTextSize(0f); // Hide value labels
-            dataSet.setDrawValues(false);
-            dataSet.setMode(LineDataSet.Mode.LINEAR);
-
-            lineData = new LineData(dataSet);
-            chart.setData(lineData);
-            chart.invalidate();
+            chart.setCapacity(MAX_DATA_POINTS);
+            chart.setRange(-80f, 0f);
 
             Log.d("MainActivity", "Chart setup completed successfully");
         } catch (Exception e) {
@@ -655,35 +646,4 @@ public class MainActivity extends AppCompatActivity {
             Log.e("MainActivity", "setupChart failed", e);
         }
     }
-
-    private void updateChart(float decibelValue) {
-        try {
-            if (chart == null || dataSet == null) {
-                return;
-            }
-
-            // Add new data point
-            graphLastXValue += 1f;
-            dataSet.addEntry(new Entry(graphLastXValue, decibelValue));
-
-            // Remove old data points if we exceed maximum
-            if (dataSet.getEntryCount() > MAX_DATA_POINTS) {
-                dataSet.removeFirst();
-                
-                // Shift X-axis to show recent data
-                XAxis xAxis = chart.getXAxis();
-                xAxis.setAxisMinimum(graphLastXValue - MAX_DATA_POINTS);
-                xAxis.setAxisMaximum(graphLastXValue);
-            }
-
-            // Update chart data
-            lineData.notifyDataChanged();
-            chart.notifyDataSetChanged();
-            chart.invalidate(); // Refresh the chart
-
-        } catch (Exception e) {
-            Log.e("MainActivity", "updateChart failed", e);
-            // Don't show toast here as this is called frequently
-        }
-    }
 }
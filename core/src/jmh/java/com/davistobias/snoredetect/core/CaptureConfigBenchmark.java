@@ -0,0 +1,76 @@
+package com.davistobias.snoredetect.core;
+
+import com.davistobias.snoredetect.core.dsp.FeatureExtractor;
+import com.davistobias.snoredetect.core.dsp.LogisticSnoreClassifier;
+import com.davistobias.snoredetect.core.dsp.SnoreDetector;
+import com.davistobias.snoredetect.core.dsp.SnoreEventDetector;
+import com.davistobias.snoredetect.core.dsp.SnoreEventQueue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detection cost of one second of audio for each negotiated {@link CaptureConfig}, so the rates and
+ * profiles can be compared directly: the result in microseconds divided by 10,000 is the percentage
+ * of one core the capture thread needs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CaptureConfigBenchmark {
+
+    @Param({"8000", "16000", "44100", "48000"})
+    public int sampleRate;
+
+    @Param({"LOW_LATENCY", "BALANCED", "ROBUST"})
+    public CaptureConfig.Profile profile;
+
+    private short[][] reads;
+    private SnoreDetector detector;
+    private SnoreEventDetector eventDetector;
+    private SnoreEventQueue events;
+    private long position;
+
+    @Setup
+    public void setUp() {
+        // About what phones report: 40 ms of 16-bit mono
+        CaptureConfig config = CaptureConfig.negotiate(profile, new int[] {sampleRate},
+                rate -> rate * 2 * 40 / 1000);
+        int readSamples = config.getReadSamples();
+        SyntheticAudioSource source = SyntheticAudioSource.snore(sampleRate, 0.3, 1);
+        source.start();
+        reads = new short[config.readsFor(1.0)][readSamples];
+        for (short[] read : reads) {
+            source.read(read, 0, readSamples);
+        }
+
+        detector = new SnoreDetector(new FeatureExtractor(sampleRate, readSamples),
+                new LogisticSnoreClassifier(2.7, 0.15, -8.0, -2.0, 6.0, 0.5));
+        events = new SnoreEventQueue(1024);
+        eventDetector = new SnoreEventDetector(sampleRate, events);
+    }
+
+    @Benchmark
+    public int detectSecond() {
+        int snoring = 0;
+        for (short[] read : reads) {
+            if (detector.process(read, read.length)) {
+                snoring++;
+            }
+            eventDetector.process(position, read.length, detector.getScore(), detector.getFeatures().peakDecibel);
+            position += read.length;
+        }
+        while (events.poll() != null) {
+            snoring++;
+        }
+        return snoring;
+    }
+}
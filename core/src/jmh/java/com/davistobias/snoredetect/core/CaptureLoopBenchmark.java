@@ -0,0 +1,99 @@
+package com.davistobias.snoredetect.core;
+
+import com.davistobias.snoredetect.core.codec.RawPcmSink;
+import com.davistobias.snoredetect.core.dsp.FeatureExtractor;
+import com.davistobias.snoredetect.core.dsp.LevelThresholdClassifier;
+import com.davistobias.snoredetect.core.dsp.SnoreDetector;
+import com.davistobias.snoredetect.core.dsp.SnoreEventDetector;
+import com.davistobias.snoredetect.core.dsp.SnoreEventQueue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole offline pipeline, source through {@link CaptureLoop} and writer thread to a sink, over
+ * ten minutes of modelled snoring. The result in milliseconds divided by 6,000 is the percentage of
+ * real time the capture path needs; it should stay well under 5%, twenty times faster than real time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CaptureLoopBenchmark {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final int BLOCK_SIZE = 1024;
+    private static final long TEN_MINUTES = 600L * SAMPLE_RATE;
+
+    @Benchmark
+    public long tenMinutes() throws InterruptedException {
+        SyntheticAudioSource source = SyntheticAudioSource.snore(SAMPLE_RATE, 0.3, 7).withLength(TEN_MINUTES);
+        PcmRingBuffer ring = new PcmRingBuffer(16, BLOCK_SIZE);
+        PcmBlockWriter writer = new PcmBlockWriter(ring, new RawPcmSink(new DiscardingOutputStream(), BLOCK_SIZE),
+                null);
+        CountingListener listener = new CountingListener();
+        SnoreDetector detector = new SnoreDetector(new FeatureExtractor(SAMPLE_RATE, BLOCK_SIZE),
+                new LevelThresholdClassifier());
+        SnoreEventDetector eventDetector = new SnoreEventDetector(SAMPLE_RATE, listener.events);
+        CaptureLoop loop = new CaptureLoop(source, ring, writer, detector, eventDetector, listener);
+
+        Thread writerThread = new Thread(writer, "bench-writer");
+        writerThread.start();
+        source.start();
+        // Returns when the finite source ends
+        loop.run();
+        source.close();
+        writer.requestStop();
+        writerThread.join();
+        if (listener.error != null) {
+            throw new IllegalStateException(listener.error);
+        }
+        return writer.getSamplesWritten() + listener.snoringFrames;
+    }
+
+    private static final class CountingListener implements CaptureLoop.Listener {
+        final SnoreEventQueue events = new SnoreEventQueue(1024);
+        int snoringFrames;
+        IOException error;
+
+        @Override
+        public void onFrame(double decibel, boolean snoring) {
+            if (snoring) {
+                snoringFrames++;
+            }
+        }
+
+        @Override
+        public void onSnoreEventsAvailable() {
+            while (events.poll() != null) {
+                // Only the detection cost is of interest
+            }
+        }
+
+        @Override
+        public void onSourceEnded() {
+        }
+
+        @Override
+        public void onSourceError(IOException e) {
+            error = e;
+        }
+    }
+
+    private static final class DiscardingOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
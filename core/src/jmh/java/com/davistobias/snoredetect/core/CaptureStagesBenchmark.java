@@ -0,0 +1,179 @@
+package com.davistobias.snoredetect.core;
+
+import com.davistobias.snoredetect.core.codec.RawPcmSink;
+import com.davistobias.snoredetect.core.dsp.EnvelopePyramid;
+import com.davistobias.snoredetect.core.dsp.LevelMeter;
+import com.davistobias.snoredetect.core.dsp.LoudnessMeter;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-buffer cost of each stage of the capture path, for 128 ms buffers at the rates we may capture at.
+ *
+ * One benchmark operation is one buffer, so avgt reports ns/buffer and the GC profiler's
+ * gc.alloc.rate.norm reports bytes allocated per buffer. In thrpt mode the "samples" counter is
+ * samples processed per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CaptureStagesBenchmark {
+
+    private static final int BUFFER_MILLIS = 128;
+
+    @Param({"8000", "16000", "48000"})
+    public int sampleRate;
+
+    private short[] samples;
+    private byte[] bytes;
+    private int peak;
+    private File file;
+    private FileOutputStream fileStream;
+    private RawPcmSink fileSink;
+    private EnvelopePyramid pyramid;
+    private LoudnessMeter loudness;
+    private PcmRingBuffer ring;
+    private RawPcmSink discardSink;
+    private FrameBus bus;
+    private long position;
+
+    /** Counts samples so thrpt mode also reports samples/second. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class SampleCounter {
+        public long samples;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            samples = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int bufferSize = sampleRate * BUFFER_MILLIS / 1000;
+        samples = new short[bufferSize];
+        SyntheticAudioSource source = SyntheticAudioSource.snore(sampleRate, 0.3, 1);
+        source.start();
+        source.read(samples, 0, bufferSize);
+        bytes = new byte[bufferSize * 2];
+        peak = LevelMeter.peakAmplitude(samples, bufferSize);
+        loudness = new LoudnessMeter(sampleRate);
+        ring = new PcmRingBuffer(4, bufferSize);
+        discardSink = new RawPcmSink(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }, bufferSize);
+        // One subscriber per policy, handling frames in place so the pool always has one free
+        bus = new FrameBus(8);
+        for (FrameBus.Backpressure backpressure : FrameBus.Backpressure.values()) {
+            bus.subscribe(frame -> { }, Runnable::run, backpressure, 4);
+        }
+
+        file = File.createTempFile("capture-bench", ".pcm");
+        fileStream = new FileOutputStream(file);
+        fileSink = new RawPcmSink(fileStream, bufferSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fileSink.close();
+        file.delete();
+    }
+
+    @Setup(Level.Iteration)
+    public void newPyramid() {
+        // Level 0 grows by one bucket per 1024 samples, so start each iteration afresh
+        pyramid = new EnvelopePyramid();
+    }
+
+    @TearDown(Level.Iteration)
+    public void truncateFile() throws IOException {
+        // Keep the file from growing by gigabytes over a long run
+        fileStream.getChannel().truncate(0);
+    }
+
+    @Benchmark
+    public int peakScan(SampleCounter counter) {
+        counter.samples += samples.length;
+        return LevelMeter.peakAmplitude(samples, samples.length);
+    }
+
+    @Benchmark
+    public double decibel(SampleCounter counter) {
+        counter.samples += samples.length;
+        return LevelMeter.peakToDecibel(peak);
+    }
+
+    @Benchmark
+    public double loudness(SampleCounter counter) {
+        counter.samples += samples.length;
+        return loudness.process(samples, samples.length);
+    }
+
+    /**
+     * A buffer claimed, filled, published, then taken off the ring and encoded, as the capture and
+     * writer threads do between them; should allocate nothing.
+     */
+    @Benchmark
+    public int ringRoundTrip(SampleCounter counter) throws IOException {
+        counter.samples += samples.length;
+        short[] block = ring.claim();
+        System.arraycopy(samples, 0, block, 0, samples.length);
+        ring.publish(samples.length);
+        short[] read = ring.peek();
+        int length = ring.peekLength();
+        discardSink.write(read, 0, length);
+        ring.release();
+        return length;
+    }
+
+    /** Handing a frame to three subscribers; should allocate nothing. */
+    @Benchmark
+    public long publish(SampleCounter counter) {
+        counter.samples += samples.length;
+        bus.publish(position, samples.length, -40.0, 0.5, false);
+        position += samples.length;
+        return bus.getDropped();
+    }
+
+    @Benchmark
+    public int encode(SampleCounter counter) {
+        counter.samples += samples.length;
+        return RawPcmSink.encode(samples, 0, samples.length, bytes);
+    }
+
+    @Benchmark
+    public long envelope(SampleCounter counter) {
+        counter.samples += samples.length;
+        pyramid.add(samples, 0, samples.length);
+        return pyramid.getSampleCount();
+    }
+
+    @Benchmark
+    public void fileWrite(SampleCounter counter) throws IOException {
+        counter.samples += samples.length;
+        fileSink.write(samples, 0, samples.length);
+    }
+}
@@ -0,0 +1,98 @@
+package com.davistobias.snoredetect.core.analysis;
+
+import com.davistobias.snoredetect.core.SyntheticAudioSource;
+import com.davistobias.snoredetect.core.codec.ImaAdpcmEncoder;
+import com.davistobias.snoredetect.core.dsp.FeatureExtractor;
+import com.davistobias.snoredetect.core.dsp.LogisticSnoreClassifier;
+import com.davistobias.snoredetect.core.dsp.NoiseFloorEstimator;
+import com.davistobias.snoredetect.core.dsp.SnoreDetector;
+import com.davistobias.snoredetect.core.dsp.SnoreEvent;
+import com.davistobias.snoredetect.core.storage.SessionWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Re-analysis of a whole night: an 8-hour ADPCM session at 8 kHz, snoring throughout and never
+ * gated, so every frame is decoded and classified. Eight hours in under 144 s is 200 times real
+ * time, the target on a phone's cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class SessionReanalyzerBenchmark {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final int FRAME_SAMPLES = 1024;
+    private static final long SESSION_SAMPLES = 8L * 3600 * SAMPLE_RATE;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private File dir;
+    private ForkJoinPool pool;
+    private SessionReanalyzer reanalyzer;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("reanalysis-bench").toFile();
+        SyntheticAudioSource source = SyntheticAudioSource.snore(SAMPLE_RATE, 0.3, 1);
+        source.start();
+        short[] block = new short[FRAME_SAMPLES];
+        try (SessionWriter writer = new SessionWriter(dir, SAMPLE_RATE, FRAME_SAMPLES, 0, ImaAdpcmEncoder::new)) {
+            for (long position = 0; position < SESSION_SAMPLES; position += FRAME_SAMPLES) {
+                source.read(block, 0, FRAME_SAMPLES);
+                writer.writeBlock(block, 0, FRAME_SAMPLES, position, 0);
+            }
+        }
+
+        LogisticSnoreClassifier classifier = new LogisticSnoreClassifier(2.7, 0.15, -8.0, -2.0, 6.0, 0.5);
+        pool = new ForkJoinPool(threads);
+        reanalyzer = new SessionReanalyzer(pool, new SessionReanalyzer.DetectorFactory() {
+            @Override
+            public int frameSamples(int sampleRate) {
+                return FRAME_SAMPLES;
+            }
+
+            @Override
+            public SnoreDetector create(int sampleRate, int frameSamples) {
+                return new SnoreDetector(new FeatureExtractor(sampleRate, frameSamples), classifier,
+                        new NoiseFloorEstimator(sampleRate));
+            }
+        }, SessionReanalyzer.DEFAULT_CHUNK_SECONDS, SessionReanalyzer.DEFAULT_WARM_UP_SECONDS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public List<SnoreEvent> night() throws IOException {
+        return reanalyzer.analyze(dir, null);
+    }
+}
@@ -0,0 +1,117 @@
+package com.davistobias.snoredetect.core.codec;
+
+import com.davistobias.snoredetect.core.SyntheticAudioSource;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode cost and compression ratio of each WAV format, per 128 ms buffer of 8 kHz snore audio.
+ *
+ * In thrpt mode the "samples" and "encodedBytes" counters are per second; compression ratio is
+ * 2 * samples / encodedBytes. {@code sinkWrite} adds the file write and per-buffer header rewrite.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WavEncoderBenchmark {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final int BUFFER_SIZE = 1024;
+
+    @Param({"pcm16", "mulaw", "adpcm"})
+    public String format;
+
+    private short[] samples;
+    private byte[] bytes;
+    private WavEncoder encoder;
+    private File file;
+    private WavSink sink;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long samples;
+        public long encodedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            samples = 0;
+            encodedBytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        samples = new short[BUFFER_SIZE];
+        SyntheticAudioSource source = SyntheticAudioSource.snore(SAMPLE_RATE, 0.3, 1);
+        source.start();
+        source.read(samples, 0, BUFFER_SIZE);
+        encoder = create(format);
+        // Room for the buffer plus one padded block either side
+        bytes = new byte[BUFFER_SIZE * 2 + 2 * encoder.getBlockAlign()];
+        file = File.createTempFile("wav-bench", ".wav");
+        openSink();
+    }
+
+    @TearDown(Level.Iteration)
+    public void restartFile() throws IOException {
+        // Keep the file from growing by gigabytes over a long run
+        sink.close();
+        openSink();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sink.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public int encode(Counters counters) {
+        // Whole blocks only, as WavSink feeds the encoder
+        int count = BUFFER_SIZE - BUFFER_SIZE % encoder.getSamplesPerBlock();
+        int n = encoder.encode(samples, 0, count, bytes, 0);
+        counters.samples += count;
+        counters.encodedBytes += n;
+        return n;
+    }
+
+    @Benchmark
+    public void sinkWrite(Counters counters) throws IOException {
+        long before = sink.getDataLength();
+        sink.write(samples, 0, BUFFER_SIZE);
+        counters.samples += BUFFER_SIZE;
+        counters.encodedBytes += sink.getDataLength() - before;
+    }
+
+    private void openSink() throws IOException {
+        sink = new WavSink(file, SAMPLE_RATE, create(format));
+    }
+
+    private static WavEncoder create(String format) {
+        switch (format) {
+            case "pcm16":
+                return new Pcm16Encoder();
+            case "mulaw":
+                return new MuLawEncoder();
+            case "adpcm":
+                return new ImaAdpcmEncoder();
+            default:
+                throw new IllegalArgumentException(format);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import com.davistobias.snoredetect.core.SyntheticAudioSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a minute of a quiet bedroom with ten seconds of snoring through the detection stage,
+ * always-on against low-power with the {@link ActivityDetector} in front. The result is the CPU
+ * time per minute of audio; multiplied by 60 it is the cost of an hour.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DutyCycleBenchmark {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final int FRAME_SIZE = 1024;
+
+    @Param({"always-on", "low-power"})
+    public String mode;
+
+    private short[][] frames;
+    private SnoreDetector detector;
+
+    @Setup
+    public void setUp() {
+        short[] clip = new short[60 * SAMPLE_RATE];
+        SyntheticAudioSource room = SyntheticAudioSource.noise(SAMPLE_RATE, 0.01, 3);
+        room.start();
+        room.read(clip, 0, clip.length);
+        SyntheticAudioSource snore = SyntheticAudioSource.snore(SAMPLE_RATE, 0.3, 1);
+        snore.start();
+        short[] snoring = new short[10 * SAMPLE_RATE];
+        snore.read(snoring, 0, snoring.length);
+        for (int i = 0; i < snoring.length; i++) {
+            clip[25 * SAMPLE_RATE + i] += snoring[i];
+        }
+
+        frames = new short[clip.length / FRAME_SIZE][FRAME_SIZE];
+        for (int i = 0; i < frames.length; i++) {
+            System.arraycopy(clip, i * FRAME_SIZE, frames[i], 0, FRAME_SIZE);
+        }
+
+        NoiseFloorEstimator noiseFloor = new NoiseFloorEstimator(SAMPLE_RATE);
+        detector = new SnoreDetector(new FeatureExtractor(SAMPLE_RATE, FRAME_SIZE),
+                new LevelThresholdClassifier(noiseFloor), noiseFloor);
+        if (mode.equals("low-power")) {
+            detector.setActivityDetector(new ActivityDetector(SAMPLE_RATE, noiseFloor));
+        }
+        // Start calibrated, as the detector is after the first few seconds of a night
+        for (int i = 0; i < 100; i++) {
+            detector.process(frames[i], FRAME_SIZE);
+        }
+    }
+
+    @Benchmark
+    public int replayMinute() {
+        int snoring = 0;
+        for (short[] frame : frames) {
+            if (detector.process(frame, FRAME_SIZE)) {
+                snoring++;
+            }
+        }
+        return snoring;
+    }
+}
@@ -0,0 +1,87 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Power spectrum of one frame: {@link RealFft} against a naive DFT with precomputed cos/sin tables.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FftBenchmark {
+
+    @Param({"256", "1024", "4096"})
+    public int size;
+
+    private float[] input;
+    private float[] work;
+    private float[] power;
+    private RealFft fft;
+    private float[] cos;
+    private float[] sin;
+    private Spectrogram spectrogram;
+    private short[] pcm;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        input = new float[size];
+        pcm = new short[size];
+        for (int i = 0; i < size; i++) {
+            input[i] = (float) (random.nextGaussian() * 1000);
+            pcm[i] = (short) input[i];
+        }
+        work = new float[size];
+        fft = new RealFft(size);
+        power = new float[fft.binCount()];
+
+        cos = new float[size];
+        sin = new float[size];
+        for (int i = 0; i < size; i++) {
+            cos[i] = (float) Math.cos(2 * Math.PI * i / size);
+            sin[i] = (float) Math.sin(2 * Math.PI * i / size);
+        }
+
+        // 50% overlap, so every block of size samples produces two frames
+        spectrogram = new Spectrogram(size, size / 2, (p, start) -> { });
+        spectrogram.process(pcm, 0, size);
+    }
+
+    @Benchmark
+    public float[] realFft() {
+        System.arraycopy(input, 0, work, 0, size);
+        fft.forward(work);
+        fft.powerSpectrum(work, power);
+        return power;
+    }
+
+    @Benchmark
+    public float[] naiveDft() {
+        for (int k = 0; k <= size / 2; k++) {
+            float re = 0;
+            float im = 0;
+            for (int t = 0; t < size; t++) {
+                int index = (int) (((long) k * t) % size);
+                re += input[t] * cos[index];
+                im -= input[t] * sin[index];
+            }
+            power[k] = re * re + im * im;
+        }
+        return power;
+    }
+
+    @Benchmark
+    public void spectrogramBlock() {
+        spectrogram.process(pcm, 0, size);
+    }
+}
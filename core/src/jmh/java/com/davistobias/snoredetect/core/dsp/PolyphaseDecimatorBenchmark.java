@@ -0,0 +1,86 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import com.davistobias.snoredetect.core.CaptureConfig;
+import com.davistobias.snoredetect.core.SyntheticAudioSource;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one captured buffer at the rates above 8 kHz: the decimator on its own, and detection on
+ * the full-rate buffer against detection after decimating it to about 8 kHz. In thrpt mode the
+ * "samples" counter is captured samples processed per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PolyphaseDecimatorBenchmark {
+
+    @Param({"16000", "44100", "48000"})
+    public int sampleRate;
+
+    private short[] buffer;
+    private short[] decimated;
+    private PolyphaseDecimator decimator;
+    private SnoreDetector fullRateDetector;
+    private SnoreDetector decimatingDetector;
+
+    /** Counts samples so thrpt mode also reports samples/second. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class SampleCounter {
+        public long samples;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            samples = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        CaptureConfig config = CaptureConfig.negotiate(CaptureConfig.Profile.BALANCED, new int[] {sampleRate},
+                rate -> rate * 2 * 40 / 1000);
+        int readSamples = config.getReadSamples();
+        buffer = new short[readSamples];
+        SyntheticAudioSource source = SyntheticAudioSource.snore(sampleRate, 0.3, 1);
+        source.start();
+        source.read(buffer, 0, readSamples);
+
+        decimator = new PolyphaseDecimator(config.getDecimationFactor());
+        decimated = new short[decimator.maxOutput(readSamples)];
+        LogisticSnoreClassifier classifier = new LogisticSnoreClassifier(2.7, 0.15, -8.0, -2.0, 6.0, 0.5);
+        fullRateDetector = new SnoreDetector(new FeatureExtractor(sampleRate, readSamples), classifier);
+        decimatingDetector = new SnoreDetector(new PolyphaseDecimator(config.getDecimationFactor()),
+                new FeatureExtractor(config.getAnalysisSampleRate(), config.getAnalysisFrameSamples()),
+                classifier, null);
+    }
+
+    @Benchmark
+    public int decimate(SampleCounter counter) {
+        counter.samples += buffer.length;
+        return decimator.process(buffer, buffer.length, decimated);
+    }
+
+    @Benchmark
+    public boolean detectFullRate(SampleCounter counter) {
+        counter.samples += buffer.length;
+        return fullRateDetector.process(buffer, buffer.length);
+    }
+
+    @Benchmark
+    public boolean detectDecimated(SampleCounter counter) {
+        counter.samples += buffer.length;
+        return decimatingDetector.process(buffer, buffer.length);
+    }
+}
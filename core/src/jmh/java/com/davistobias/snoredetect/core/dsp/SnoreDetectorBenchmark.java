@@ -0,0 +1,66 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import com.davistobias.snoredetect.core.SyntheticAudioSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame CPU cost of the detection stage on 128 ms frames. A frame arrives every 128 ms, so
+ * the result in microseconds divided by 1280 is the fraction of one core the stage needs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SnoreDetectorBenchmark {
+
+    private static final int FRAME_MILLIS = 128;
+
+    @Param({"8000", "16000", "48000"})
+    public int sampleRate;
+
+    private short[] frame;
+    private FeatureExtractor extractor;
+    private FrameFeatures features;
+    private LogisticSnoreClassifier classifier;
+    private SnoreDetector detector;
+
+    @Setup
+    public void setUp() {
+        int frameSize = sampleRate * FRAME_MILLIS / 1000;
+        frame = new short[frameSize];
+        SyntheticAudioSource source = SyntheticAudioSource.snore(sampleRate, 0.3, 1);
+        source.start();
+        source.read(frame, 0, frameSize);
+
+        extractor = new FeatureExtractor(sampleRate, frameSize);
+        features = new FrameFeatures();
+        classifier = new LogisticSnoreClassifier(2.7, 0.15, -8.0, -2.0, 6.0, 0.5);
+        detector = new SnoreDetector(extractor, classifier);
+        extractor.extract(frame, frameSize, features);
+    }
+
+    @Benchmark
+    public FrameFeatures extractFeatures() {
+        extractor.extract(frame, frame.length, features);
+        return features;
+    }
+
+    @Benchmark
+    public double classify() {
+        return classifier.score(features);
+    }
+
+    @Benchmark
+    public boolean detect() {
+        return detector.process(frame, frame.length);
+    }
+}
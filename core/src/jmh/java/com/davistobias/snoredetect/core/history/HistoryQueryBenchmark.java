@@ -0,0 +1,97 @@
+package com.davistobias.snoredetect.core.history;
+
+import com.davistobias.snoredetect.core.dsp.SnoreEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * History and trend queries against a store holding six months of nights: 8 hours each, about
+ * 120 snores and 480 minute rows per night. The target for every query is under 50 ms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HistoryQueryBenchmark {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final int NIGHTS = 180;
+    private static final long DAY_MILLIS = 24L * 3600 * 1000;
+    private static final long FIRST_NIGHT = 1_760_000_000_000L;
+
+    private File dir;
+    private HistoryStore store;
+    private long lastMonth;
+    private long lastNight;
+    private long end;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("history-bench").toFile();
+        store = HistoryStore.open(dir);
+        long minuteSamples = 60L * SAMPLE_RATE;
+        for (int night = 0; night < NIGHTS; night++) {
+            HistoryRecorder recorder = new HistoryRecorder(store, SAMPLE_RATE, FIRST_NIGHT + night * DAY_MILLIS);
+            for (int minute = 0; minute < 480; minute++) {
+                recorder.onFrame((int) minuteSamples, -35);
+                if (minute % 4 == 0) {
+                    recorder.addEvent(new SnoreEvent(minute * minuteSamples, SAMPLE_RATE, -20f, -25f));
+                }
+            }
+            recorder.finish();
+        }
+        end = FIRST_NIGHT + NIGHTS * DAY_MILLIS;
+        lastMonth = end - 30 * DAY_MILLIS;
+        lastNight = end - DAY_MILLIS;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    /** Trend screen: every night of the last six months. */
+    @Benchmark
+    public List<SessionSummary> allSessions() throws IOException {
+        return store.sessions(0, Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    public long eventsInLastMonth() throws IOException {
+        return store.countEvents(lastMonth, end);
+    }
+
+    /** Night detail screen: every minute of the last night. */
+    @Benchmark
+    public int minutesOfLastNight() throws IOException {
+        final float[] max = {Float.NEGATIVE_INFINITY};
+        store.minutes(lastNight, end, (minuteStart, sessionStart, recordedMillis, eventCount, snoreMillis,
+                                       meanLevelDb, maxLevelDb) -> max[0] = Math.max(max[0], maxLevelDb));
+        return (int) max[0];
+    }
+
+    /** Scans a month of minute rows, e.g. for an hour-of-night heat map. */
+    @Benchmark
+    public int minutesOfLastMonth() throws IOException {
+        final int[] events = {0};
+        store.minutes(lastMonth, end, (minuteStart, sessionStart, recordedMillis, eventCount, snoreMillis,
+                                       meanLevelDb, maxLevelDb) -> events[0] += eventCount);
+        return events[0];
+    }
+}
@@ -0,0 +1,33 @@
+package com.davistobias.snoredetect.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Source of 16-bit mono PCM consumed by the {@link CaptureLoop}.
+ *
+ * Implementations exist for the device microphone, for replaying recorded {@code .pcm} files and
+ * for synthetic signals, so the processing chain can run off-device and faster than real time.
+ */
+public interface AudioSource extends Closeable {
+
+    /** Returned by {@link #read} when a finite source has no more samples. */
+    int END_OF_STREAM = -1;
+
+    int getSampleRate();
+
+    /**
+     * Whether the source produces samples in real time and would lose them if not read promptly.
+     * Offline sources are throttled to the writer instead of overrunning the ring.
+     */
+    boolean isLive();
+
+    void start() throws IOException;
+
+    /**
+     * Reads up to {@code count} samples into {@code buffer}.
+     *
+     * @return number of samples read, or {@link #END_OF_STREAM}
+     */
+    int read(short[] buffer, int offset, int count) throws IOException;
+}
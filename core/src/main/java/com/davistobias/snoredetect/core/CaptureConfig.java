@@ -0,0 +1,172 @@
+package com.davistobias.snoredetect.core;
+
+import com.davistobias.snoredetect.core.dsp.PolyphaseDecimator;
+
+import java.util.Locale;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Sample rate, read size and recorder buffer size of a capture, negotiated once per recording from
+ * the minimum buffer size the device reports for each rate.
+ *
+ * The {@link Profile} trades latency against overrun risk. Reads are a power of two of samples
+ * near the profile's read period, so at 8 and 16 kHz the FFT needs no zero-padding. The device
+ * buffer is a whole multiple of the reported minimum, and always holds at least two reads, so the
+ * recorder can keep filling one while the capture thread works on the other.
+ *
+ * Whatever the capture rate, detection runs at about {@link #ANALYSIS_SAMPLE_RATE}: higher rates are
+ * decimated by a whole factor before analysis, while the archive keeps the full rate.
+ */
+public final class CaptureConfig {
+
+    /** How long each read is and how much the device may buffer behind it. */
+    public enum Profile {
+        /** 64 ms reads over twice the minimum buffer: the level chart follows quickly. */
+        LOW_LATENCY(64, 2),
+        /** 128 ms reads over four times the minimum buffer, the original read size at 8 kHz. */
+        BALANCED(128, 4),
+        /** 256 ms reads over eight times the minimum buffer, for devices that drop audio under load. */
+        ROBUST(256, 8);
+
+        final int readMillis;
+        final int bufferMultiple;
+
+        Profile(int readMillis, int bufferMultiple) {
+            this.readMillis = readMillis;
+            this.bufferMultiple = bufferMultiple;
+        }
+    }
+
+    /**
+     * Rates tried in order. 8 kHz covers the band snoring is in and keeps storage small; 44.1 kHz is
+     * the one rate every Android device has to support.
+     */
+    public static final int[] DEFAULT_SAMPLE_RATES = {8000, 16000, 44100, 48000};
+
+    /** Rate detection runs at; snore energy sits well below its 4 kHz Nyquist frequency. */
+    public static final int ANALYSIS_SAMPLE_RATE = 8000;
+
+    private static final int BYTES_PER_SAMPLE = 2;
+
+    private final Profile profile;
+    private final int sampleRate;
+    private final int readSamples;
+    private final int bufferBytes;
+
+    public CaptureConfig(Profile profile, int sampleRate, int readSamples, int bufferBytes) {
+        if (sampleRate <= 0 || readSamples <= 0) {
+            throw new IllegalArgumentException("sampleRate and readSamples must be positive");
+        }
+        if (bufferBytes < readSamples * BYTES_PER_SAMPLE) {
+            throw new IllegalArgumentException("bufferBytes must hold at least one read");
+        }
+        this.profile = profile;
+        this.sampleRate = sampleRate;
+        this.readSamples = readSamples;
+        this.bufferBytes = bufferBytes;
+    }
+
+    /**
+     * Picks the first of {@code sampleRates} the device supports.
+     *
+     * @param minBufferBytes minimum recorder buffer for 16-bit mono at a rate, e.g. from
+     *                       {@code AudioRecord.getMinBufferSize}; zero or negative if unsupported
+     * @throws IllegalStateException if none of the rates is supported
+     */
+    public static CaptureConfig negotiate(Profile profile, int[] sampleRates, IntUnaryOperator minBufferBytes) {
+        for (int sampleRate : sampleRates) {
+            int minBytes = minBufferBytes.applyAsInt(sampleRate);
+            if (minBytes <= 0) {
+                continue;
+            }
+            int readSamples = readSamplesFor(sampleRate, profile.readMillis);
+            int readBytes = readSamples * BYTES_PER_SAMPLE;
+            int multiple = Math.max(profile.bufferMultiple, (2 * readBytes + minBytes - 1) / minBytes);
+            return new CaptureConfig(profile, sampleRate, readSamples, minBytes * multiple);
+        }
+        throw new IllegalStateException("None of the sample rates is supported by the device");
+    }
+
+    /**
+     * The reads {@code profile} would use at {@code sampleRate}, for analysing audio captured
+     * earlier. No device is involved, so the buffer is a nominal two reads.
+     */
+    public static CaptureConfig forSampleRate(Profile profile, int sampleRate) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("sampleRate must be positive");
+        }
+        return forReads(profile, sampleRate, readSamplesFor(sampleRate, profile.readMillis));
+    }
+
+    /**
+     * Like {@link #forSampleRate}, for audio whose reads were {@code readSamples} long, e.g. a session
+     * captured under another profile.
+     */
+    public static CaptureConfig forReads(Profile profile, int sampleRate, int readSamples) {
+        return new CaptureConfig(profile, sampleRate, readSamples, 2 * readSamples * BYTES_PER_SAMPLE);
+    }
+
+    /** Power of two of samples nearest to {@code millis} of audio. */
+    static int readSamplesFor(int sampleRate, int millis) {
+        double samples = (double) sampleRate * millis / 1000;
+        int lower = Integer.highestOneBit((int) samples);
+        return samples / lower < 2.0 * lower / samples ? lower : lower * 2;
+    }
+
+    public Profile getProfile() {
+        return profile;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /** Samples per read, and so per ring block; see {@link #getAnalysisFrameSamples()} for analysis. */
+    public int getReadSamples() {
+        return readSamples;
+    }
+
+    public int getReadBytes() {
+        return readSamples * BYTES_PER_SAMPLE;
+    }
+
+    /** Size of the recorder's own buffer. */
+    public int getBufferBytes() {
+        return bufferBytes;
+    }
+
+    /** Factor frames are decimated by before analysis; 1 when capturing at the analysis rate. */
+    public int getDecimationFactor() {
+        return PolyphaseDecimator.factorFor(sampleRate, ANALYSIS_SAMPLE_RATE);
+    }
+
+    public int getAnalysisSampleRate() {
+        return sampleRate / getDecimationFactor();
+    }
+
+    /** Samples per analysis frame after decimation. */
+    public int getAnalysisFrameSamples() {
+        int factor = getDecimationFactor();
+        return (readSamples + factor - 1) / factor;
+    }
+
+    public double getReadMillis() {
+        return 1000.0 * readSamples / sampleRate;
+    }
+
+    /** How long the capture thread may stall before the recorder itself overruns. */
+    public double getBufferMillis() {
+        return 1000.0 * bufferBytes / BYTES_PER_SAMPLE / sampleRate;
+    }
+
+    /** Reads making up about {@code seconds} of audio, at least one. */
+    public int readsFor(double seconds) {
+        return Math.max(1, (int) Math.ceil(seconds * sampleRate / readSamples));
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "CaptureConfig{%s, %d Hz, read %d samples (%.0f ms), buffer %d B (%.0f ms)}",
+                profile, sampleRate, readSamples, getReadMillis(), bufferBytes, getBufferMillis());
+    }
+}
@@ -0,0 +1,210 @@
+package com.davistobias.snoredetect.core;
+
+import com.davistobias.snoredetect.core.codec.PcmSink;
+import com.davistobias.snoredetect.core.dsp.ActivityDetector;
+import com.davistobias.snoredetect.core.dsp.SnoreDetector;
+import com.davistobias.snoredetect.core.dsp.SnoreEventDetector;
+import com.davistobias.snoredetect.core.metrics.RecorderMetrics;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Capture thread body: reads blocks from an {@link AudioSource}, runs the {@link SnoreDetector} and
+ * {@link SnoreEventDetector} on them and hands them to the {@link PcmBlockWriter} through the ring.
+ * Blocks that are snoring, inside an event or above the level gate are published with
+ * {@link PcmSink#FLAG_GATE_OPEN} for sinks that only keep audio around events.
+ *
+ * In low-power mode the detector's {@link ActivityDetector} skips the full pipeline on quiet frames,
+ * and while the gate is closed the writer is only signalled once a batch of blocks is waiting, so
+ * neither thread wakes for every buffer of an uneventful night.
+ *
+ * Contains no Android dependencies, so the same loop runs on the recording service's thread and
+ * on a plain JVM fed from a file or synthetic source.
+ */
+public final class CaptureLoop implements Runnable {
+
+    public interface Listener {
+        /** Called on the capture thread once per block. Must not block. */
+        void onFrame(double decibel, boolean snoring);
+
+        /** The event detector has queued at least one finished event. */
+        void onSnoreEventsAvailable();
+
+        /** A finite source has been fully consumed. */
+        void onSourceEnded();
+
+        void onSourceError(IOException e);
+    }
+
+    /** Default level gate, a little below the threshold the app classifies with by default. */
+    public static final double DEFAULT_GATE_LEVEL_DB = -50.0;
+
+    private static final long FULL_RING_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final AudioSource source;
+    private final PcmRingBuffer ring;
+    private final PcmBlockWriter writer;
+    private final SnoreDetector detector;
+    private final SnoreEventDetector eventDetector;
+    private final Listener listener;
+
+    private FrameBus frameBus;
+    private volatile double gateLevelDb = DEFAULT_GATE_LEVEL_DB;
+    private volatile int writerBatchBlocks = 1;
+    private LongSupplier cpuClock;
+    private RecorderMetrics metrics;
+    private volatile boolean stopRequested;
+    private volatile long samplesCaptured;
+    private volatile long framesCaptured;
+    private volatile long cpuNanos = -1;
+
+    public CaptureLoop(AudioSource source, PcmRingBuffer ring, PcmBlockWriter writer,
+                       SnoreDetector detector, SnoreEventDetector eventDetector, Listener listener) {
+        this.source = source;
+        this.ring = ring;
+        this.writer = writer;
+        this.detector = detector;
+        this.eventDetector = eventDetector;
+        this.listener = listener;
+    }
+
+    /**
+     * Level at or above which a block opens the recording gate even if it is not classified
+     * as snoring, so other loud sounds are kept too.
+     */
+    public void setGateLevelDb(double gateLevelDb) {
+        this.gateLevelDb = gateLevelDb;
+    }
+
+    /**
+     * Blocks to accumulate in the ring before waking the writer while the gate is closed; 1, the
+     * default, signals every block. Gate-open blocks are always signalled straight away.
+     */
+    public void setWriterBatchBlocks(int blocks) {
+        if (blocks < 1 || blocks > ring.capacity()) {
+            throw new IllegalArgumentException("blocks must be between 1 and the ring capacity");
+        }
+        writerBatchBlocks = blocks;
+    }
+
+    /**
+     * Clock giving the current thread's CPU time in nanoseconds, e.g. {@code Debug::threadCpuTimeNanos}
+     * on Android, used for {@link #getPowerMetrics()}. Call before starting the thread.
+     */
+    public void setCpuClock(LongSupplier threadCpuNanos) {
+        this.cpuClock = threadCpuNanos;
+    }
+
+    /**
+     * Records each buffer's read latency, processing time and the ring depth, plus short and empty
+     * reads, into {@code metrics}. Call before starting the thread.
+     */
+    public void setMetrics(RecorderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Publishes every analysed block to {@code bus}, for consumers that run on threads of their
+     * own. Call before starting the thread.
+     */
+    public void setFrameBus(FrameBus bus) {
+        this.frameBus = bus;
+    }
+
+    /** Asks the loop to exit after the read in progress. Does not stop the writer. */
+    public void requestStop() {
+        stopRequested = true;
+    }
+
+    public long getSamplesCaptured() {
+        return samplesCaptured;
+    }
+
+    /** CPU time and wakeups so far. Safe to call from any thread. */
+    public PowerMetrics getPowerMetrics() {
+        long frames = framesCaptured;
+        ActivityDetector activity = detector.getActivityDetector();
+        long fullFrames = activity != null ? activity.getActiveFrames() : frames;
+        long pipelineWakeups = activity != null ? activity.getWakeups() : 0;
+        return new PowerMetrics(source.getSampleRate(), samplesCaptured, cpuNanos, frames,
+                Math.min(fullFrames, frames), pipelineWakeups, writer.getWakeups());
+    }
+
+    @Override
+    public void run() {
+        int blockSize = ring.blockSize();
+        boolean throttle = !source.isLive();
+        LongSupplier clock = cpuClock;
+        long cpuStart = clock != null ? clock.getAsLong() : 0;
+        RecorderMetrics metrics = this.metrics;
+        FrameBus bus = frameBus;
+
+        while (!stopRequested) {
+            if (throttle && ring.isFull()) {
+                // Offline sources lose nothing by waiting, so let the writer catch up
+                writer.signal();
+                LockSupport.parkNanos(FULL_RING_PARK_NANOS);
+                continue;
+            }
+
+            short[] block = ring.claim();
+            long readStart = metrics != null ? System.nanoTime() : 0;
+            int samplesRead;
+            try {
+                samplesRead = source.read(block, 0, blockSize);
+            } catch (IOException e) {
+                listener.onSourceError(e);
+                return;
+            }
+            if (samplesRead == AudioSource.END_OF_STREAM) {
+                flushEvents();
+                listener.onSourceEnded();
+                return;
+            }
+            long processStart = 0;
+            if (metrics != null) {
+                processStart = System.nanoTime();
+                metrics.recordRead(processStart - readStart, samplesRead, blockSize);
+            }
+            if (samplesRead == 0) {
+                continue;
+            }
+
+            boolean snoring = detector.process(block, samplesRead);
+            double decibel = detector.getFeatures().levelDb;
+            listener.onFrame(decibel, snoring);
+            double score = detector.getScore();
+            if (bus != null) {
+                bus.publish(samplesCaptured, samplesRead, decibel,
+                        detector.getLoudnessMeter().getCompletedLongLeqDb(), score, snoring);
+            }
+            if (eventDetector.process(samplesCaptured, samplesRead, score, decibel)) {
+                listener.onSnoreEventsAvailable();
+            }
+
+            boolean gateOpen = snoring || eventDetector.isActive() || decibel >= gateLevelDb;
+            if (ring.publish(samplesRead, gateOpen ? PcmSink.FLAG_GATE_OPEN : 0)
+                    && (gateOpen || ring.size() >= writerBatchBlocks)) {
+                writer.signal();
+            }
+            if (metrics != null) {
+                metrics.recordProcessing(System.nanoTime() - processStart, ring.size(), ring.getOverrunCount());
+            }
+            samplesCaptured = samplesCaptured + samplesRead;
+            framesCaptured = framesCaptured + 1;
+            if (clock != null) {
+                cpuNanos = clock.getAsLong() - cpuStart;
+            }
+        }
+        flushEvents();
+    }
+
+    private void flushEvents() {
+        if (eventDetector.flush()) {
+            listener.onSnoreEventsAvailable();
+        }
+    }
+}
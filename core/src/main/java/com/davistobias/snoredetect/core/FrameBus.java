@@ -0,0 +1,352 @@
+package com.davistobias.snoredetect.core;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fans the analysed frames of the capture thread out to any number of subscribers, each running on
+ * an executor of its own choosing, so slow consumers such as the UI, statistics or history never
+ * hold up capture.
+ *
+ * Frames come from a fixed pool allocated up front: {@link #publish} fills a free one and offers it
+ * to every subscription, and it goes back to the pool once each has handled or dropped it. The
+ * capture thread never blocks or allocates itself; a subscription that was idle asks its executor
+ * to run it, so that must not allocate either, as {@link FrameConsumer} does not. What happens
+ * when a subscriber falls behind is its {@link Backpressure} policy; frames it never sees are
+ * counted in {@link Subscription#getDropped()}, also those waiting when its executor rejects a run.
+ * If the pool runs dry because subscribers hold on to too many frames, the frame is dropped for
+ * everyone and counted in {@link #getDropped()}.
+ *
+ * Subscriptions may be added and cancelled from any thread, also while frames are being published.
+ */
+public final class FrameBus {
+
+    /** What a subscription does with a frame that arrives while it is still busy with earlier ones. */
+    public enum Backpressure {
+        /** The new frame is dropped: the subscriber sees a frame only if it was idle. */
+        DROP,
+        /** The new frame replaces one still waiting: the subscriber catches up with the most recent. */
+        LATEST,
+        /** Frames queue up to the subscription's capacity and are delivered in order; beyond it they are dropped. */
+        BUFFER
+    }
+
+    /** Receives frames on its subscription's executor, one at a time and in stream order. */
+    public interface Subscriber {
+
+        /** The frame goes back to the pool when this returns, so copy out whatever is needed later. */
+        void onFrame(Frame frame);
+    }
+
+    /** One analysed block of the capture stream. Recycled: valid only within {@link Subscriber#onFrame}. */
+    public static final class Frame {
+        private final AtomicInteger references = new AtomicInteger();
+        private FrameBus bus;
+        private long position;
+        private int samples;
+        private double levelDb;
+        private double longLeqDb;
+        private double score;
+        private boolean snoring;
+
+        /** Stream position of the first sample, in captured samples. */
+        public long getPosition() {
+            return position;
+        }
+
+        /** Length in captured samples. */
+        public int getSamples() {
+            return samples;
+        }
+
+        /** A-weighted level in dBFS, as in {@link com.davistobias.snoredetect.core.dsp.FrameFeatures#levelDb}. */
+        public double getLevelDb() {
+            return levelDb;
+        }
+
+        /**
+         * Leq of the {@link com.davistobias.snoredetect.core.dsp.LoudnessMeter} long window, a minute
+         * of stream time, if this frame completed one; NaN otherwise.
+         */
+        public double getLongLeqDb() {
+            return longLeqDb;
+        }
+
+        /** The classifier's score. */
+        public double getScore() {
+            return score;
+        }
+
+        public boolean isSnoring() {
+            return snoring;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                bus.free.incrementAndGet();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Frame{position=" + position + ", samples=" + samples + ", levelDb=" + levelDb
+                    + ", longLeqDb=" + longLeqDb + ", score=" + score + ", snoring=" + snoring + '}';
+        }
+    }
+
+    private final Frame[] pool;
+    /** Frames whose references have all been released; lets a full pool be detected without a scan. */
+    private final AtomicInteger free;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Object subscriptionLock = new Object();
+    private volatile Subscription[] subscriptions = new Subscription[0];
+
+    // Producer-only state
+    private int cursor;
+
+    /**
+     * @param poolSize frames in circulation; at least the capacities of the buffering subscriptions
+     *                 plus one per subscription
+     */
+    public FrameBus(int poolSize) {
+        if (poolSize <= 0) {
+            throw new IllegalArgumentException("poolSize must be positive");
+        }
+        pool = new Frame[poolSize];
+        for (int i = 0; i < poolSize; i++) {
+            pool[i] = new Frame();
+            pool[i].bus = this;
+        }
+        free = new AtomicInteger(poolSize);
+    }
+
+    public int getPoolSize() {
+        return pool.length;
+    }
+
+    /**
+     * Delivers frames to {@code subscriber} on {@code executor} from the next frame published,
+     * e.g. a {@link FrameConsumer}, or {@code Runnable::run} to handle them on the capture thread
+     * itself. The executor is called from {@link #publish}; if it throws, as a full
+     * {@link FrameConsumer} does, the frames waiting for that run are dropped and capture goes on.
+     *
+     * @param capacity frames a {@link Backpressure#BUFFER} subscription may queue; ignored otherwise
+     */
+    public Subscription subscribe(Subscriber subscriber, Executor executor, Backpressure backpressure,
+                                  int capacity) {
+        if (backpressure == Backpressure.BUFFER && capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        Subscription subscription = new Subscription(subscriber, executor, backpressure,
+                backpressure == Backpressure.BUFFER ? capacity : 1);
+        synchronized (subscriptionLock) {
+            Subscription[] grown = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+            grown[subscriptions.length] = subscription;
+            subscriptions = grown;
+        }
+        return subscription;
+    }
+
+    private void remove(Subscription subscription) {
+        synchronized (subscriptionLock) {
+            Subscription[] current = subscriptions;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == subscription) {
+                    Subscription[] shrunk = new Subscription[current.length - 1];
+                    System.arraycopy(current, 0, shrunk, 0, i);
+                    System.arraycopy(current, i + 1, shrunk, i, current.length - i - 1);
+                    subscriptions = shrunk;
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Publishes a frame that completed no long Leq window. */
+    public void publish(long position, int samples, double levelDb, double score, boolean snoring) {
+        publish(position, samples, levelDb, Double.NaN, score, snoring);
+    }
+
+    /** Producer side; called once per frame from the capture thread. */
+    public void publish(long position, int samples, double levelDb, double longLeqDb, double score,
+                        boolean snoring) {
+        Subscription[] targets = subscriptions;
+        if (targets.length == 0) {
+            return;
+        }
+        Frame frame = acquire();
+        if (frame == null) {
+            dropped.incrementAndGet();
+            return;
+        }
+        frame.position = position;
+        frame.samples = samples;
+        frame.levelDb = levelDb;
+        frame.longLeqDb = longLeqDb;
+        frame.score = score;
+        frame.snoring = snoring;
+        // Each subscription holds a reference until it has handled or dropped the frame
+        frame.references.set(targets.length);
+        for (Subscription subscription : targets) {
+            subscription.offer(frame);
+        }
+    }
+
+    /** The next free frame after the last one handed out, or null if all are in use. */
+    private Frame acquire() {
+        if (free.get() == 0) {
+            return null;
+        }
+        for (int i = 0; i < pool.length; i++) {
+            Frame frame = pool[cursor];
+            cursor = cursor + 1 == pool.length ? 0 : cursor + 1;
+            if (frame.references.get() == 0) {
+                free.decrementAndGet();
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /** Frames dropped for every subscriber because the pool was exhausted. */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * One subscriber's queue and its delivery task. Only the thread that has set {@code scheduled}
+     * takes frames out, so the queue has a single producer and a single consumer at any time.
+     */
+    public final class Subscription implements Runnable {
+        private final Subscriber subscriber;
+        private final Executor executor;
+        private final Backpressure backpressure;
+        private final Frame[] queue;
+        private final AtomicReference<Frame> latest = new AtomicReference<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile long head;
+        private volatile long tail;
+        private volatile boolean cancelled;
+
+        Subscription(Subscriber subscriber, Executor executor, Backpressure backpressure, int capacity) {
+            this.subscriber = subscriber;
+            this.executor = executor;
+            this.backpressure = backpressure;
+            this.queue = new Frame[capacity];
+        }
+
+        void offer(Frame frame) {
+            if (cancelled) {
+                frame.release();
+                return;
+            }
+            if (backpressure == Backpressure.LATEST) {
+                Frame replaced = latest.getAndSet(frame);
+                if (replaced != null) {
+                    replaced.release();
+                    dropped.incrementAndGet();
+                }
+            } else {
+                // DROP only takes a frame when nothing is waiting or being handled
+                long t = tail;
+                if (t - head == queue.length || (backpressure == Backpressure.DROP && scheduled.get())) {
+                    frame.release();
+                    dropped.incrementAndGet();
+                    return;
+                }
+                queue[(int) (t % queue.length)] = frame;
+                tail = t + 1;
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RuntimeException e) {
+                    // Must not reach the capture thread; the next frame asks again
+                    dropWaiting();
+                }
+            }
+        }
+
+        /** Releases the frames of a run the executor rejected; the caller holds {@code scheduled}. */
+        private void dropWaiting() {
+            try {
+                Frame frame;
+                while ((frame = poll()) != null) {
+                    frame.release();
+                    dropped.incrementAndGet();
+                }
+            } finally {
+                scheduled.set(false);
+            }
+        }
+
+        private Frame poll() {
+            if (backpressure == Backpressure.LATEST) {
+                return latest.getAndSet(null);
+            }
+            long h = head;
+            if (h == tail) {
+                return null;
+            }
+            int slot = (int) (h % queue.length);
+            Frame frame = queue[slot];
+            queue[slot] = null;
+            head = h + 1;
+            return frame;
+        }
+
+        private boolean isEmpty() {
+            return backpressure == Backpressure.LATEST ? latest.get() == null : head == tail;
+        }
+
+        /** Delivers every waiting frame; runs on the executor. */
+        @Override
+        public void run() {
+            do {
+                try {
+                    Frame frame;
+                    while ((frame = poll()) != null) {
+                        try {
+                            if (!cancelled) {
+                                subscriber.onFrame(frame);
+                            }
+                        } finally {
+                            frame.release();
+                        }
+                    }
+                } finally {
+                    // Also if the subscriber threw, so the next frame schedules a run again
+                    scheduled.set(false);
+                }
+                // A frame offered after the last poll found the flag still set, so look once more
+            } while (!isEmpty() && scheduled.compareAndSet(false, true));
+        }
+
+        /** Frames this subscriber did not get because it was behind. */
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Stops delivery; a frame being handled finishes, the rest go back to the pool. May be
+         * called from any thread, including the subscriber's own.
+         */
+        public void cancel() {
+            cancelled = true;
+            remove(this);
+            // Release what is queued unless a delivery run is about to do so
+            if (scheduled.compareAndSet(false, true)) {
+                run();
+            }
+        }
+    }
+}
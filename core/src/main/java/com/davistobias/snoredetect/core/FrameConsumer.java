@@ -0,0 +1,144 @@
+package com.davistobias.snoredetect.core;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Consumer thread body that runs {@link FrameBus} subscriptions, used as their {@link Executor}.
+ *
+ * A subscription that was idle calls {@link #execute} from {@link FrameBus#publish}, on the capture
+ * thread and in steady state for nearly every frame, so this executor must not allocate there the
+ * way a pooled executor's work queue does. Tasks go into a fixed ring of slots and the thread is
+ * woken with an unpark, as {@link PcmBlockWriter#signal()} does. Each subscription is scheduled at
+ * most once at a time, so the ring needs a slot per subscription.
+ *
+ * After {@link #requestStop()} the tasks already waiting run before the thread exits.
+ */
+public final class FrameConsumer implements Executor, Runnable {
+
+    public interface ErrorListener {
+        void onTaskError(RuntimeException e);
+    }
+
+    private final Runnable[] tasks;
+    /**
+     * Per slot: the producer position it is free for, or that plus one once its task is published.
+     * The volatile writes order the plain task slots between threads.
+     */
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final ErrorListener errorListener;
+
+    private volatile Thread consumerThread;
+    private volatile boolean stopRequested;
+
+    // Consumer-only state
+    private long head;
+
+    /**
+     * @param capacity tasks that may wait at once, at least the number of subscriptions it runs;
+     *                 rounded up to a power of two
+     * @param errorListener receives what a task throws, or null to drop it; the thread carries on
+     */
+    public FrameConsumer(int capacity, ErrorListener errorListener) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity out of range: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        tasks = new Runnable[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+        this.errorListener = errorListener;
+    }
+
+    /**
+     * Queues {@code task} to run on the consumer thread; safe from any number of threads.
+     *
+     * @throws RejectedExecutionException if all slots are waiting
+     */
+    @Override
+    public void execute(Runnable task) {
+        long position;
+        int slot;
+        while (true) {
+            position = tail.get();
+            slot = (int) (position & mask);
+            long sequence = sequences.get(slot);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (sequence < position) {
+                throw new RejectedExecutionException("All " + tasks.length + " frame consumer slots are waiting");
+            }
+            // Otherwise another producer claimed the slot first; try the next position
+        }
+        tasks[slot] = task;
+        sequences.set(slot, position + 1);
+        Thread t = consumerThread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /** Asks the thread to run what is waiting and exit. */
+    public void requestStop() {
+        stopRequested = true;
+        Thread t = consumerThread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    private Runnable poll() {
+        int slot = (int) (head & mask);
+        if (sequences.get(slot) != head + 1) {
+            return null;
+        }
+        Runnable task = tasks[slot];
+        tasks[slot] = null;
+        sequences.set(slot, head + tasks.length);
+        head++;
+        return task;
+    }
+
+    @Override
+    public void run() {
+        consumerThread = Thread.currentThread();
+        try {
+            while (true) {
+                Runnable task = poll();
+                if (task == null) {
+                    if (stopRequested) {
+                        // Re-check after observing the stop flag so a final task is not lost
+                        if ((task = poll()) == null) {
+                            break;
+                        }
+                    } else {
+                        LockSupport.park(this);
+                        continue;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    if (errorListener != null) {
+                        errorListener.onTaskError(e);
+                    }
+                }
+            }
+        } finally {
+            consumerThread = null;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.davistobias.snoredetect.core;
+
+/**
+ * Receives the A-weighted level of every captured block in stream order, for consumers that
+ * aggregate over the whole night rather than drive the UI. The service feeds observers from a
+ * {@link FrameBus} subscription on its {@link FrameConsumer} thread.
+ */
+public interface FrameObserver {
+
+    void onFrame(int samples, double levelDb);
+
+    /**
+     * Like {@link #onFrame(int, double)}, with the one-minute Leq of the
+     * {@link com.davistobias.snoredetect.core.dsp.LoudnessMeter} when the block completed a minute of
+     * the stream, NaN otherwise. Observers that only need block levels need not override this.
+     */
+    default void onFrame(int samples, double levelDb, double minuteLeqDb) {
+        onFrame(samples, levelDb);
+    }
+}
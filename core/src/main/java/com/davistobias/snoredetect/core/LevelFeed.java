@@ -0,0 +1,84 @@
+package com.davistobias.snoredetect.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free hand-off of per-frame levels from the capture thread to a UI that samples them at its
+ * own pace, typically once per display frame.
+ *
+ * The producer never blocks or allocates. Each slot packs the value with its sequence number into
+ * a single long, so the consumer can tell a value it expected from one that has since been
+ * overwritten, without locks or fences beyond the atomic array. If the consumer stops draining,
+ * e.g. while the activity is in the background, older values are simply overwritten and the next
+ * drain returns the most recent ones.
+ */
+public final class LevelFeed {
+
+    private static final long SEQUENCE_MASK = 0x7FFFFFFFL;
+
+    private final AtomicLongArray slots;
+    private final int mask;
+    private final AtomicLong published = new AtomicLong();
+
+    // Consumer-only state
+    private long consumed;
+
+    /**
+     * @param capacity values retained for a slow consumer, rounded up to a power of two
+     */
+    public LevelFeed(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicLongArray(size);
+        this.mask = size - 1;
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+
+    /** Producer side; called once per frame from the capture thread. */
+    public void publish(float decibel, boolean snoring) {
+        long sequence = published.get();
+        long packed = ((sequence & SEQUENCE_MASK) << 33)
+                | (snoring ? 1L << 32 : 0)
+                | (Float.floatToRawIntBits(decibel) & 0xFFFFFFFFL);
+        slots.lazySet((int) (sequence & mask), packed);
+        published.lazySet(sequence + 1);
+    }
+
+    /** Values published since creation. */
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    /**
+     * Copies the values published since the previous drain into the arrays, oldest first. If more
+     * arrived than fit in the arrays or the ring, only the newest are returned.
+     *
+     * @return number of values copied
+     */
+    public int drainTo(float[] decibels, boolean[] snoring) {
+        long end = published.get();
+        long start = Math.max(consumed, end - Math.min(slots.length(), Math.min(decibels.length, snoring.length)));
+        int n = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            long packed = slots.get((int) (sequence & mask));
+            if ((packed >>> 33) != (sequence & SEQUENCE_MASK)) {
+                // Overwritten by a newer value while we were reading
+                continue;
+            }
+            decibels[n] = Float.intBitsToFloat((int) packed);
+            snoring[n] = (packed & (1L << 32)) != 0;
+            n++;
+        }
+        consumed = end;
+        return n;
+    }
+}
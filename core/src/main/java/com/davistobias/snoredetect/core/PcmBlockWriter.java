@@ -0,0 +1,110 @@
+package com.davistobias.snoredetect.core;
+
+import com.davistobias.snoredetect.core.codec.PcmSink;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writer thread body that drains a {@link PcmRingBuffer} into a {@link PcmSink}.
+ *
+ * Slow storage only backs up the ring; the capture thread is never blocked on disk I/O.
+ * After {@link #requestStop()} the remaining blocks are drained before the sink is closed.
+ */
+public final class PcmBlockWriter implements Runnable {
+
+    public interface ErrorListener {
+        void onWriteError(IOException e);
+    }
+
+    /** How long the writer sleeps without a signal before checking the ring anyway. */
+    public static final long DEFAULT_IDLE_PARK_MILLIS = 50;
+
+    private final PcmRingBuffer ring;
+    private final PcmSink sink;
+    private final ErrorListener errorListener;
+
+    private volatile Thread writerThread;
+    private volatile boolean stopRequested;
+    private volatile long samplesWritten;
+    private volatile long idleParkNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_IDLE_PARK_MILLIS);
+    private volatile long wakeups;
+
+    public PcmBlockWriter(PcmRingBuffer ring, PcmSink sink, ErrorListener errorListener) {
+        this.ring = ring;
+        this.sink = sink;
+        this.errorListener = errorListener;
+    }
+
+    /** Wakes the writer after the producer has published a block. */
+    public void signal() {
+        Thread t = writerThread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /** Asks the writer to drain what is left in the ring, close the sink and exit. */
+    public void requestStop() {
+        stopRequested = true;
+        signal();
+    }
+
+    public long getSamplesWritten() {
+        return samplesWritten;
+    }
+
+    /**
+     * Longest sleep between checks of the ring. A low-power capture that signals only every few
+     * blocks raises this so the writer thread wakes only when there is a batch to write.
+     */
+    public void setIdleParkMillis(long millis) {
+        idleParkNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /** Times the writer thread has woken from sleep, by a signal or its idle timeout. */
+    public long getWakeups() {
+        return wakeups;
+    }
+
+    @Override
+    public void run() {
+        writerThread = Thread.currentThread();
+        try {
+            while (true) {
+                short[] block = ring.peek();
+                if (block == null) {
+                    if (stopRequested) {
+                        // Re-check after observing the stop flag so a final publish is not lost
+                        if (ring.peek() == null) {
+                            break;
+                        }
+                        continue;
+                    }
+                    LockSupport.parkNanos(this, idleParkNanos);
+                    wakeups = wakeups + 1;
+                    continue;
+                }
+
+                int length = ring.peekLength();
+                sink.writeBlock(block, 0, length, ring.peekPosition(), ring.peekFlags());
+                ring.release();
+                samplesWritten = samplesWritten + length;
+            }
+        } catch (IOException e) {
+            if (errorListener != null) {
+                errorListener.onWriteError(e);
+            }
+        } finally {
+            writerThread = null;
+            try {
+                sink.close();
+            } catch (IOException e) {
+                if (errorListener != null) {
+                    errorListener.onWriteError(e);
+                }
+            }
+        }
+    }
+}
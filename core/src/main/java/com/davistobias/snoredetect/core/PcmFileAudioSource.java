@@ -0,0 +1,125 @@
+package com.davistobias.snoredetect.core;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Replays headerless 16-bit little-endian mono PCM, the format of {@code 8k16bitMono.pcm}.
+ *
+ * By default samples are delivered as fast as they can be read. With real-time pacing enabled the
+ * source sleeps so that it behaves like a live microphone.
+ */
+public final class PcmFileAudioSource implements AudioSource {
+
+    private final File file;
+    private final int sampleRate;
+    private final boolean loop;
+    private final boolean realTime;
+
+    private InputStream in;
+    private byte[] bytes = new byte[0];
+    private long startNanos;
+    private long samplesDelivered;
+
+    public PcmFileAudioSource(File file, int sampleRate) {
+        this(file, sampleRate, false, false);
+    }
+
+    /**
+     * @param loop     restart from the beginning of the file instead of ending the stream
+     * @param realTime pace reads to the sample rate
+     */
+    public PcmFileAudioSource(File file, int sampleRate, boolean loop, boolean realTime) {
+        this.file = file;
+        this.sampleRate = sampleRate;
+        this.loop = loop;
+        this.realTime = realTime;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public boolean isLive() {
+        return realTime;
+    }
+
+    @Override
+    public void start() throws IOException {
+        in = open();
+        startNanos = System.nanoTime();
+        samplesDelivered = 0;
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int count) throws IOException {
+        if (in == null) {
+            throw new IllegalStateException("Source not started");
+        }
+        if (bytes.length < count * 2) {
+            bytes = new byte[count * 2];
+        }
+
+        int byteCount = readFully(count * 2);
+        if (byteCount < 2 && loop && file.length() >= 2) {
+            in.close();
+            in = open();
+            byteCount = readFully(count * 2);
+        }
+        int samples = byteCount / 2;
+        if (samples == 0) {
+            return END_OF_STREAM;
+        }
+
+        for (int i = 0; i < samples; i++) {
+            buffer[offset + i] = (short) ((bytes[i * 2] & 0xFF) | (bytes[(i * 2) + 1] << 8));
+        }
+        samplesDelivered += samples;
+        if (realTime) {
+            pace();
+        }
+        return samples;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+            in = null;
+        }
+    }
+
+    private InputStream open() throws IOException {
+        return new BufferedInputStream(new FileInputStream(file), 16 * 1024);
+    }
+
+    private int readFully(int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int n = in.read(bytes, total, length - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    private void pace() throws IOException {
+        long dueNanos = startNanos + samplesDelivered * 1_000_000_000L / sampleRate;
+        long waitNanos = dueNanos - System.nanoTime();
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(waitNanos / 1_000_000L, (int) (waitNanos % 1_000_000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while pacing replay", e);
+            }
+        }
+    }
+}
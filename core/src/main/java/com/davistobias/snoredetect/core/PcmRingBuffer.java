@@ -0,0 +1,198 @@
+package com.davistobias.snoredetect.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer ring of preallocated PCM blocks.
+ *
+ * The capture thread calls {@link #claim()}, fills the returned block and then {@link #publish(int)}s
+ * it. The writer thread calls {@link #peek()}, consumes the block and then {@link #release()}s it.
+ * The producer never blocks: when the ring is full, {@link #claim()} hands out a scratch block whose
+ * contents are discarded on publish and counted as an overrun, so {@code AudioRecord} keeps being
+ * drained even while storage is stalled.
+ *
+ * Each published block also carries its stream position, counting dropped blocks, and a set of
+ * flags from the producer, so the consumer can stay sample-aligned across overruns.
+ */
+public final class PcmRingBuffer {
+
+    private final short[][] blocks;
+    private final int[] lengths;
+    private final long[] positions;
+    private final int[] flags;
+    private final int mask;
+    private final short[] overflowBlock;
+
+    /** Next block the consumer will read. Written only by the consumer. */
+    private final AtomicLong head = new AtomicLong();
+    /** Next block the producer will write. Written only by the producer. */
+    private final AtomicLong tail = new AtomicLong();
+
+    // Producer-only state
+    private long cachedHead;
+    private boolean claimedOverflow;
+    private long producedSamples;
+
+    // Consumer-only state
+    private long cachedTail;
+
+    // Statistics, written only by the producer
+    private volatile long overrunCount;
+    private volatile long droppedSamples;
+    private volatile int highWaterMark;
+
+    /**
+     * @param capacity  number of blocks, rounded up to a power of two
+     * @param blockSize samples per block
+     */
+    public PcmRingBuffer(int capacity, int blockSize) {
+        if (capacity <= 0 || blockSize <= 0) {
+            throw new IllegalArgumentException("capacity and blockSize must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.blocks = new short[size][blockSize];
+        this.lengths = new int[size];
+        this.positions = new long[size];
+        this.flags = new int[size];
+        this.mask = size - 1;
+        this.overflowBlock = new short[blockSize];
+    }
+
+    public int capacity() {
+        return blocks.length;
+    }
+
+    public int blockSize() {
+        return overflowBlock.length;
+    }
+
+    /** Number of published blocks not yet released. Safe to call from any thread. */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    // ---- Producer side ----
+
+    /** Whether the next {@link #claim()} would hand out the scratch block. */
+    public boolean isFull() {
+        long t = tail.get();
+        if (t - cachedHead >= blocks.length) {
+            cachedHead = head.get();
+        }
+        return t - cachedHead >= blocks.length;
+    }
+
+    /**
+     * Returns the block to fill next. Never returns null; if the ring is full the block is a scratch
+     * buffer and the data will be dropped by {@link #publish(int)}.
+     */
+    public short[] claim() {
+        long t = tail.get();
+        if (t - cachedHead >= blocks.length) {
+            cachedHead = head.get();
+            if (t - cachedHead >= blocks.length) {
+                claimedOverflow = true;
+                return overflowBlock;
+            }
+        }
+        claimedOverflow = false;
+        return blocks[(int) (t & mask)];
+    }
+
+    /**
+     * Makes the last claimed block visible to the consumer.
+     *
+     * @return false if the block was dropped because the ring was full
+     */
+    public boolean publish(int length) {
+        return publish(length, 0);
+    }
+
+    /**
+     * Makes the last claimed block visible to the consumer, tagged with {@code blockFlags}.
+     *
+     * @return false if the block was dropped because the ring was full
+     */
+    public boolean publish(int length, int blockFlags) {
+        long position = producedSamples;
+        producedSamples = position + length;
+        if (claimedOverflow) {
+            claimedOverflow = false;
+            overrunCount = overrunCount + 1;
+            droppedSamples = droppedSamples + length;
+            return false;
+        }
+        long t = tail.get();
+        int slot = (int) (t & mask);
+        lengths[slot] = length;
+        positions[slot] = position;
+        flags[slot] = blockFlags;
+        tail.lazySet(t + 1);
+
+        int depth = (int) (t + 1 - cachedHead);
+        if (depth > highWaterMark) {
+            depth = (int) (t + 1 - head.get());
+            if (depth > highWaterMark) {
+                highWaterMark = depth;
+            }
+        }
+        return true;
+    }
+
+    // ---- Consumer side ----
+
+    /** Returns the oldest published block, or null if the ring is empty. */
+    public short[] peek() {
+        long h = head.get();
+        if (h >= cachedTail) {
+            cachedTail = tail.get();
+            if (h >= cachedTail) {
+                return null;
+            }
+        }
+        return blocks[(int) (h & mask)];
+    }
+
+    /** Number of valid samples in the block returned by the last {@link #peek()}. */
+    public int peekLength() {
+        return lengths[(int) (head.get() & mask)];
+    }
+
+    /**
+     * Stream position of the first sample of the block returned by the last {@link #peek()}.
+     * Dropped blocks still advance the position, so a jump marks an overrun.
+     */
+    public long peekPosition() {
+        return positions[(int) (head.get() & mask)];
+    }
+
+    /** Flags the block returned by the last {@link #peek()} was published with. */
+    public int peekFlags() {
+        return flags[(int) (head.get() & mask)];
+    }
+
+    /** Hands the block returned by {@link #peek()} back to the producer. */
+    public void release() {
+        head.lazySet(head.get() + 1);
+    }
+
+    // ---- Statistics ----
+
+    /** Blocks dropped because the ring was full. */
+    public long getOverrunCount() {
+        return overrunCount;
+    }
+
+    /** Samples lost to overruns. */
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    /** Deepest the ring has been since creation, in blocks. */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+}
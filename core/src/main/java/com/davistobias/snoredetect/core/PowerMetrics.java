@@ -0,0 +1,82 @@
+package com.davistobias.snoredetect.core;
+
+import java.util.Locale;
+
+/**
+ * Snapshot of what a capture has cost in CPU and wakeups, normalised per hour of audio so an
+ * always-on night and a low-power one can be compared directly.
+ */
+public final class PowerMetrics {
+
+    private final int sampleRate;
+    private final long samples;
+    private final long captureCpuNanos;
+    private final long frames;
+    private final long fullPipelineFrames;
+    private final long pipelineWakeups;
+    private final long writerWakeups;
+
+    /**
+     * @param captureCpuNanos    CPU time of the capture thread, or -1 if not measured
+     * @param fullPipelineFrames frames that went through feature extraction and the classifier
+     * @param pipelineWakeups    times the full pipeline was woken from idle
+     * @param writerWakeups      times the writer thread woke up
+     */
+    public PowerMetrics(int sampleRate, long samples, long captureCpuNanos, long frames, long fullPipelineFrames,
+                        long pipelineWakeups, long writerWakeups) {
+        this.sampleRate = sampleRate;
+        this.samples = samples;
+        this.captureCpuNanos = captureCpuNanos;
+        this.frames = frames;
+        this.fullPipelineFrames = fullPipelineFrames;
+        this.pipelineWakeups = pipelineWakeups;
+        this.writerWakeups = writerWakeups;
+    }
+
+    public double getAudioHours() {
+        return samples / (3600.0 * sampleRate);
+    }
+
+    public long getCaptureCpuNanos() {
+        return captureCpuNanos;
+    }
+
+    /** Capture thread CPU milliseconds per hour of audio, or NaN if not measured or no audio yet. */
+    public double getCpuMillisPerAudioHour() {
+        return captureCpuNanos < 0 || samples == 0 ? Double.NaN : captureCpuNanos / 1e6 / getAudioHours();
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getFullPipelineFrames() {
+        return fullPipelineFrames;
+    }
+
+    /** Share of frames that ran the full pipeline, 0..1. */
+    public double getFullPipelineFraction() {
+        return frames == 0 ? 0 : (double) fullPipelineFrames / frames;
+    }
+
+    public long getPipelineWakeups() {
+        return pipelineWakeups;
+    }
+
+    public long getWriterWakeups() {
+        return writerWakeups;
+    }
+
+    /** Pipeline and writer wakeups together, per hour of audio. */
+    public double getWakeupsPerHour() {
+        return samples == 0 ? 0 : (pipelineWakeups + writerWakeups) / getAudioHours();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "PowerMetrics{hours=%.2f, cpu=%.0f ms/h, fullPipeline=%.1f%%, wakeups=%.0f/h (pipeline %d, writer %d)}",
+                getAudioHours(), getCpuMillisPerAudioHour(), 100 * getFullPipelineFraction(), getWakeupsPerHour(),
+                pipelineWakeups, writerWakeups);
+    }
+}
@@ -0,0 +1,154 @@
+package com.davistobias.snoredetect.core;
+
+import java.util.Random;
+
+/**
+ * Generated test signals for running the pipeline without a microphone.
+ *
+ * All signals are deterministic for a given seed. Sources are endless unless a length is given with
+ * {@link #withLength(long)}.
+ */
+public final class SyntheticAudioSource implements AudioSource {
+
+    private enum Kind { NOISE, TONE, CLIP, SNORE }
+
+    // Breathing cycle used by the snore model: a snore on every inhale, then quiet exhale
+    private static final double BREATH_PERIOD_SECONDS = 4.0;
+    private static final double SNORE_SECONDS = 1.4;
+    private static final double SNORE_FUNDAMENTAL_HZ = 90.0;
+
+    private final Kind kind;
+    private final int sampleRate;
+    private final double amplitude;
+    private final double frequency;
+    private final short[] clip;
+    private final long seed;
+    private final long lengthSamples;
+
+    private Random random;
+    private long position;
+
+    private SyntheticAudioSource(Kind kind, int sampleRate, double amplitude, double frequency,
+                                 short[] clip, long seed, long lengthSamples) {
+        this.kind = kind;
+        this.sampleRate = sampleRate;
+        this.amplitude = amplitude;
+        this.frequency = frequency;
+        this.clip = clip;
+        this.seed = seed;
+        this.lengthSamples = lengthSamples;
+        this.random = new Random(seed);
+    }
+
+    /** Gaussian white noise with the given RMS amplitude (0..1 of full scale). */
+    public static SyntheticAudioSource noise(int sampleRate, double amplitude, long seed) {
+        return new SyntheticAudioSource(Kind.NOISE, sampleRate, amplitude, 0, null, seed, -1);
+    }
+
+    /** Pure sine tone with the given peak amplitude (0..1 of full scale). */
+    public static SyntheticAudioSource tone(int sampleRate, double frequency, double amplitude) {
+        return new SyntheticAudioSource(Kind.TONE, sampleRate, amplitude, frequency, null, 0, -1);
+    }
+
+    /** Repeats a recorded clip, e.g. a snore loop, back to back. */
+    public static SyntheticAudioSource loop(int sampleRate, short[] clip) {
+        if (clip.length == 0) {
+            throw new IllegalArgumentException("clip is empty");
+        }
+        return new SyntheticAudioSource(Kind.CLIP, sampleRate, 1, 0, clip.clone(), 0, -1);
+    }
+
+    /**
+     * Modelled snoring: a low-pitched harmonic buzz on each inhale of a {@value #BREATH_PERIOD_SECONDS}
+     * second breathing cycle, over a quiet noise floor.
+     *
+     * @param amplitude peak amplitude of the snore (0..1 of full scale)
+     */
+    public static SyntheticAudioSource snore(int sampleRate, double amplitude, long seed) {
+        return new SyntheticAudioSource(Kind.SNORE, sampleRate, amplitude, SNORE_FUNDAMENTAL_HZ, null, seed, -1);
+    }
+
+    /** Returns a copy of this source that ends after {@code samples} samples. */
+    public SyntheticAudioSource withLength(long samples) {
+        return new SyntheticAudioSource(kind, sampleRate, amplitude, frequency, clip, seed, samples);
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public boolean isLive() {
+        return false;
+    }
+
+    @Override
+    public void start() {
+        random = new Random(seed);
+        position = 0;
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int count) {
+        if (lengthSamples >= 0) {
+            long remaining = lengthSamples - position;
+            if (remaining <= 0) {
+                return END_OF_STREAM;
+            }
+            count = (int) Math.min(count, remaining);
+        }
+
+        for (int i = 0; i < count; i++) {
+            buffer[offset + i] = clamp(nextSample(position + i));
+        }
+        position += count;
+        return count;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private double nextSample(long n) {
+        switch (kind) {
+            case NOISE:
+                return random.nextGaussian() * amplitude * 32767.0;
+            case TONE:
+                return Math.sin(2.0 * Math.PI * frequency * n / sampleRate) * amplitude * 32767.0;
+            case CLIP:
+                return clip[(int) (n % clip.length)];
+            case SNORE:
+            default:
+                return snoreSample(n);
+        }
+    }
+
+    private double snoreSample(long n) {
+        double t = (double) n / sampleRate;
+        double floor = random.nextGaussian() * 0.002 * 32767.0;
+        double phase = t % BREATH_PERIOD_SECONDS;
+        if (phase >= SNORE_SECONDS) {
+            return floor;
+        }
+
+        // Raised-cosine envelope over the inhale, with a flutter from the soft palate
+        double envelope = 0.5 * (1.0 - Math.cos(2.0 * Math.PI * phase / SNORE_SECONDS));
+        double flutter = 0.75 + 0.25 * Math.sin(2.0 * Math.PI * 30.0 * t);
+        double buzz = 0;
+        for (int harmonic = 1; harmonic <= 5; harmonic++) {
+            buzz += Math.sin(2.0 * Math.PI * frequency * harmonic * t) / harmonic;
+        }
+        return floor + buzz / 2.3 * envelope * flutter * amplitude * 32767.0;
+    }
+
+    private static short clamp(double value) {
+        if (value > Short.MAX_VALUE) {
+            return Short.MAX_VALUE;
+        }
+        if (value < Short.MIN_VALUE) {
+            return Short.MIN_VALUE;
+        }
+        return (short) Math.round(value);
+    }
+}
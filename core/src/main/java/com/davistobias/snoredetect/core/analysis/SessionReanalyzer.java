@@ -0,0 +1,316 @@
+package com.davistobias.snoredetect.core.analysis;
+
+import com.davistobias.snoredetect.core.dsp.FrameFeatures;
+import com.davistobias.snoredetect.core.dsp.SnoreDetector;
+import com.davistobias.snoredetect.core.dsp.SnoreEvent;
+import com.davistobias.snoredetect.core.dsp.SnoreEventDetector;
+import com.davistobias.snoredetect.core.dsp.SnoreEventQueue;
+import com.davistobias.snoredetect.core.storage.SessionIndex;
+import com.davistobias.snoredetect.core.storage.SessionReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the detector over a recorded session again, e.g. after the classifier has improved, in
+ * parallel on a {@link ForkJoinPool}. One analysis runs at a time.
+ *
+ * The session is split into chunks of stream time that are analysed independently, each with its
+ * own {@link SessionReader} and a fresh detector from the {@link DetectorFactory}. A chunk starts
+ * reading early enough to take in a warm-up period of recorded audio before its own range, so the
+ * noise floor and the filters have settled by the time its samples count, and its events are
+ * exactly those that start inside its range.
+ * An event still open at the end of the range is followed past it until it finishes, while the
+ * next chunk drops the same event because it started before its range, so an event across a
+ * boundary is reported once and whole. Frames are as long as the capture's reads, which the
+ * session's index records, and lie on the same grid in every chunk; with a warm-up as long as the
+ * noise floor's window the chunks arrive at much the floor a single pass would, so only frames
+ * right at the threshold can come out differently.
+ *
+ * Stretches that were gated out read as silence and skip the detector entirely, so mostly quiet
+ * nights take little more than the time to decode what was kept.
+ */
+public final class SessionReanalyzer {
+
+    /** Creates the analysis state for one chunk; called from the pool's threads. */
+    public interface DetectorFactory {
+
+        /**
+         * Samples per frame for a session captured at {@code sampleRate} whose index does not
+         * record the capture's read size.
+         */
+        int frameSamples(int sampleRate);
+
+        /** A detector for frames of {@code frameSamples} with its own state, including any noise floor it feeds. */
+        SnoreDetector create(int sampleRate, int frameSamples);
+    }
+
+    /** Receives progress from the pool's threads. Must not block. */
+    public interface ProgressListener {
+
+        void onProgress(long analysedSamples, long totalSamples);
+    }
+
+    public static final double DEFAULT_CHUNK_SECONDS = 600.0;
+    /** As long as the noise floor's window, so each chunk starts with the floor a single pass would have. */
+    public static final double DEFAULT_WARM_UP_SECONDS = 60.0;
+
+    // Frames between progress reports from one chunk
+    private static final int PROGRESS_FRAMES = 256;
+    private static final int EVENT_QUEUE_CAPACITY = 64;
+
+    private final ForkJoinPool pool;
+    private final DetectorFactory detectors;
+    private final double chunkSeconds;
+    private final double warmUpSeconds;
+
+    private volatile Job current;
+
+    /** Uses a pool sized to the device's cores. */
+    public SessionReanalyzer(DetectorFactory detectors) {
+        this(new ForkJoinPool(Runtime.getRuntime().availableProcessors()), detectors,
+                DEFAULT_CHUNK_SECONDS, DEFAULT_WARM_UP_SECONDS);
+    }
+
+    public SessionReanalyzer(ForkJoinPool pool, DetectorFactory detectors, double chunkSeconds,
+                             double warmUpSeconds) {
+        if (!(chunkSeconds > 0) || warmUpSeconds < 0) {
+            throw new IllegalArgumentException("chunkSeconds must be positive and warmUpSeconds not negative");
+        }
+        this.pool = pool;
+        this.detectors = detectors;
+        this.chunkSeconds = chunkSeconds;
+        this.warmUpSeconds = warmUpSeconds;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Analyses the session in {@code sessionDirectory}, blocking until done.
+     *
+     * @param listener progress receiver, or null
+     * @return the session's events in stream order, positions in captured samples
+     * @throws IOException           if a chunk could not be read, even if cancelled as well
+     * @throws CancellationException if {@link #cancel()} was called while it ran
+     */
+    public List<SnoreEvent> analyze(File sessionDirectory, ProgressListener listener) throws IOException {
+        SessionIndex index;
+        long end;
+        try (SessionReader reader = SessionReader.open(sessionDirectory)) {
+            index = reader.getIndex();
+            end = reader.getEndPosition();
+        }
+        int sampleRate = index.getSampleRate();
+        int frame = index.getFrameSamples() > 0 ? index.getFrameSamples() : detectors.frameSamples(sampleRate);
+        if (frame <= 0) {
+            throw new IllegalArgumentException("frameSamples must be positive: " + frame);
+        }
+        // Chunk edges and the warm-up lie on the frame grid
+        long sessionFrames = (end + frame - 1) / frame;
+        long chunkFrames = Math.max(1, Math.min((long) (chunkSeconds * sampleRate / frame), sessionFrames));
+        long warmUpFrames = (long) Math.ceil(warmUpSeconds * sampleRate / frame);
+        int chunks = (int) Math.max(1, (end + chunkFrames * frame - 1) / (chunkFrames * frame));
+
+        Job job = new Job(sessionDirectory, index, detectors, end, frame, chunkFrames * frame,
+                warmUpFrames * frame, listener);
+        current = job;
+        List<SnoreEvent> events;
+        try {
+            events = pool.invoke(new Chunks(job, 0, chunks));
+        } catch (CancellationException e) {
+            throwFailure(job);
+            throw e;
+        }
+        throwFailure(job);
+        return events;
+    }
+
+    /** Stops the analysis in progress at the next frame; {@link #analyze} then throws. */
+    public void cancel() {
+        Job job = current;
+        if (job != null) {
+            job.cancelled = true;
+        }
+    }
+
+    /** Whether {@link #cancel()} was called during the last analysis started. */
+    public boolean isCancelled() {
+        Job job = current;
+        return job != null && job.cancelled;
+    }
+
+    private static void throwFailure(Job job) throws IOException {
+        IOException failure = job.failure.get();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** Everything the chunks of one session share. */
+    private static final class Job {
+        final File directory;
+        final SessionIndex index;
+        final DetectorFactory detectors;
+        final int sampleRate;
+        final long end;
+        final int frame;
+        final long chunkSamples;
+        final long warmUpSamples;
+        final ProgressListener listener;
+        final AtomicLong analysed = new AtomicLong();
+        /** Set on cancel() only; the chunks stop at the next frame and throw. */
+        volatile boolean cancelled;
+        /** The first chunk's read failure; the other chunks then stop quietly, as the result is lost. */
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+
+        Job(File directory, SessionIndex index, DetectorFactory detectors, long end, int frame,
+            long chunkSamples, long warmUpSamples, ProgressListener listener) {
+            this.directory = directory;
+            this.index = index;
+            this.detectors = detectors;
+            this.sampleRate = index.getSampleRate();
+            this.end = end;
+            this.frame = frame;
+            this.chunkSamples = chunkSamples;
+            this.warmUpSamples = warmUpSamples;
+            this.listener = listener;
+        }
+
+        void progress(long samples) {
+            long done = analysed.addAndGet(samples);
+            if (listener != null) {
+                listener.onProgress(done, end);
+            }
+        }
+    }
+
+    /** Chunks {@code [first, last)}, split in halves until one is left. */
+    private static final class Chunks extends RecursiveTask<List<SnoreEvent>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Job job;
+        private final int first;
+        private final int last;
+
+        Chunks(Job job, int first, int last) {
+            this.job = job;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected List<SnoreEvent> compute() {
+            if (last - first == 1) {
+                try {
+                    return analyzeChunk(job, first);
+                } catch (IOException e) {
+                    job.failure.compareAndSet(null, e);
+                    return new ArrayList<>();
+                }
+            }
+            int middle = (first + last) >>> 1;
+            Chunks right = new Chunks(job, middle, last);
+            right.fork();
+            List<SnoreEvent> events;
+            try {
+                events = new Chunks(job, first, middle).compute();
+            } catch (RuntimeException e) {
+                // Nothing of this analysis may still be running once analyze() returns
+                right.quietlyJoin();
+                throw e;
+            }
+            events.addAll(right.join());
+            return events;
+        }
+    }
+
+    private static List<SnoreEvent> analyzeChunk(Job job, int chunk) throws IOException {
+        long start = chunk * job.chunkSamples;
+        long end = Math.min(job.end, start + job.chunkSamples);
+        long position = warmUpStart(job, start);
+
+        SnoreDetector detector = job.detectors.create(job.sampleRate, job.frame);
+        SnoreEventQueue queue = new SnoreEventQueue(EVENT_QUEUE_CAPACITY);
+        SnoreEventDetector eventDetector = new SnoreEventDetector(job.sampleRate, queue);
+        List<SnoreEvent> events = new ArrayList<>();
+        long unreported = 0;
+        int frames = 0;
+
+        try (SessionReader reader = SessionReader.open(job.directory)) {
+            SessionReader.Window window = reader.window(position, job.end - position, job.frame, job.frame);
+            while (window.next()) {
+                if (job.cancelled) {
+                    throw new CancellationException("Re-analysis cancelled");
+                }
+                if (job.failure.get() != null) {
+                    return events;
+                }
+                long framePosition = window.position();
+                if (framePosition >= end && !eventDetector.isActive()) {
+                    break;
+                }
+                int length = window.length();
+                if (window.storedLength() == 0) {
+                    eventDetector.process(framePosition, length, 0, FrameFeatures.SILENCE_DB);
+                } else {
+                    detector.process(window.samples(), length);
+                    eventDetector.process(framePosition, length, detector.getScore(),
+                            detector.getFeatures().levelDb);
+                }
+                collect(queue, start, end, events);
+
+                if (framePosition >= start && framePosition < end) {
+                    unreported += Math.min(length, end - framePosition);
+                    if (++frames % PROGRESS_FRAMES == 0) {
+                        job.progress(unreported);
+                        unreported = 0;
+                    }
+                }
+            }
+        }
+        eventDetector.flush();
+        collect(queue, start, end, events);
+        job.progress(unreported);
+        return events;
+    }
+
+    /**
+     * Where on the frame grid to start reading so that at least the warm-up of recorded audio
+     * precedes {@code start}; gated-out stretches do not count, as they tell the noise floor nothing.
+     */
+    private static long warmUpStart(Job job, long start) {
+        long needed = job.warmUpSamples;
+        long position = start;
+        SessionIndex index = job.index;
+        for (int entry = index.findByStreamPosition(start - 1); entry >= 0 && needed > 0; entry--) {
+            long entryStart = index.getStreamStart(entry);
+            long entryEnd = Math.min(start, entryStart + index.getSampleCount(entry));
+            long take = Math.min(needed, entryEnd - entryStart);
+            needed -= take;
+            position = entryEnd - take;
+        }
+        if (needed > 0) {
+            position = 0;
+        }
+        return position / job.frame * job.frame;
+    }
+
+    /** Keeps the events that start within {@code [start, end)}; the neighbouring chunks own the rest. */
+    private static void collect(SnoreEventQueue queue, long start, long end, List<SnoreEvent> events) {
+        SnoreEvent event;
+        while ((event = queue.poll()) != null) {
+            if (event.startSample >= start && event.startSample < end) {
+                events.add(event);
+            }
+        }
+    }
+}
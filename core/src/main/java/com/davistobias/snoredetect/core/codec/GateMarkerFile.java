@@ -0,0 +1,68 @@
+package com.davistobias.snoredetect.core.codec;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Text sidecar listing the segments a {@link GatedPcmSink} kept:
+ *
+ * <pre>
+ * # SnoreDetect gate markers v1
+ * sample_rate 8000
+ * start_epoch_millis 1760000000000
+ * open &lt;stream_start&gt; &lt;output_start&gt; &lt;wall_clock_epoch_millis&gt;
+ * segment &lt;stream_start&gt; &lt;output_start&gt; &lt;length&gt; &lt;wall_clock_epoch_millis&gt;
+ * </pre>
+ *
+ * Positions are in samples; the gaps between segments are the silence that was not stored.
+ * Each line is flushed as it is written, so if the process is killed mid-segment the trailing
+ * {@code open} line still says where the last stored audio belongs.
+ */
+public final class GateMarkerFile implements GatedPcmSink.SegmentListener, Closeable {
+
+    private final Writer out;
+    private final int sampleRate;
+    private final long startEpochMillis;
+
+    /**
+     * @param startEpochMillis wall-clock time of stream sample 0
+     */
+    public GateMarkerFile(File file, int sampleRate, long startEpochMillis) throws IOException {
+        this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        this.sampleRate = sampleRate;
+        this.startEpochMillis = startEpochMillis;
+        out.write("# SnoreDetect gate markers v1\n");
+        out.write("sample_rate " + sampleRate + "\n");
+        out.write("start_epoch_millis " + startEpochMillis + "\n");
+        out.flush();
+    }
+
+    /** Wall-clock time of a stream position. */
+    public long toEpochMillis(long streamPosition) {
+        return startEpochMillis + streamPosition * 1000 / sampleRate;
+    }
+
+    @Override
+    public void onSegmentStart(long streamStart, long outputStart) throws IOException {
+        out.write("open " + streamStart + " " + outputStart + " " + toEpochMillis(streamStart) + "\n");
+        out.flush();
+    }
+
+    @Override
+    public void onSegmentEnd(long streamStart, long outputStart, long length) throws IOException {
+        out.write("segment " + streamStart + " " + outputStart + " " + length + " "
+                + toEpochMillis(streamStart) + "\n");
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
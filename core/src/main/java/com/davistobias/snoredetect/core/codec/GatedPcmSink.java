@@ -0,0 +1,178 @@
+package com.davistobias.snoredetect.core.codec;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Keeps only the audio around gated blocks, dropping the silence in between.
+ *
+ * A block published with {@link PcmSink#FLAG_GATE_OPEN} opens a segment that starts up to the
+ * pre-roll before it and ends exactly the post-roll after the last gated block. Audio outside
+ * segments is held in a pre-roll ring and then discarded. Each finished segment is reported to a
+ * {@link SegmentListener} with its stream position, so stored audio can be placed back on the
+ * original timeline sample-accurately. A jump in block positions, from a ring overrun, ends the
+ * current segment at the last sample actually received. Closing the sink also closes the listener
+ * if it is {@link Closeable}.
+ */
+public final class GatedPcmSink implements PcmSink {
+
+    public interface SegmentListener {
+        /** A segment has opened; its samples start at {@code outputStart} in the downstream output. */
+        void onSegmentStart(long streamStart, long outputStart) throws IOException;
+
+        /**
+         * @param streamStart  stream position of the segment's first sample
+         * @param outputStart  position of that sample within the downstream sink's output
+         * @param length       samples in the segment
+         */
+        void onSegmentEnd(long streamStart, long outputStart, long length) throws IOException;
+    }
+
+    private final PcmSink downstream;
+    private final SegmentListener listener;
+    private final int postRollSamples;
+
+    private final short[] preRoll;
+    private int preRollStart;
+    private int preRollCount;
+
+    private long streamPosition;
+    private long outputPosition;
+    private boolean open;
+    private long segmentStart;
+    private long segmentOutputStart;
+    private long postRollRemaining;
+
+    /**
+     * @param preRollSamples  audio kept from before the gate opens
+     * @param postRollSamples audio kept after the last gated block
+     */
+    public GatedPcmSink(PcmSink downstream, SegmentListener listener, int preRollSamples, int postRollSamples) {
+        if (preRollSamples < 0 || postRollSamples < 0) {
+            throw new IllegalArgumentException("pre- and post-roll must not be negative");
+        }
+        this.downstream = downstream;
+        this.listener = listener;
+        this.preRoll = new short[preRollSamples];
+        this.postRollSamples = postRollSamples;
+    }
+
+    /** Writes without gate information are treated as gated, so nothing is lost. */
+    @Override
+    public void write(short[] samples, int offset, int count) throws IOException {
+        writeBlock(samples, offset, count, streamPosition, FLAG_GATE_OPEN);
+    }
+
+    @Override
+    public void writeBlock(short[] samples, int offset, int count, long position, int flags) throws IOException {
+        if (position != streamPosition) {
+            // Samples were dropped upstream; what was held no longer joins up with this block
+            if (open) {
+                endSegment(streamPosition);
+            }
+            preRollCount = 0;
+            streamPosition = position;
+        }
+
+        if ((flags & FLAG_GATE_OPEN) != 0) {
+            if (!open) {
+                beginSegment();
+            }
+            emit(samples, offset, count, position);
+            postRollRemaining = postRollSamples;
+        } else if (open) {
+            int n = (int) Math.min(count, postRollRemaining);
+            emit(samples, offset, n, position);
+            postRollRemaining -= n;
+            if (postRollRemaining == 0) {
+                endSegment(position + n);
+                hold(samples, offset + n, count - n);
+            }
+        } else {
+            hold(samples, offset, count);
+        }
+        streamPosition = position + count;
+    }
+
+    public boolean isSegmentOpen() {
+        return open;
+    }
+
+    /** Samples passed downstream so far. */
+    public long getOutputPosition() {
+        return outputPosition;
+    }
+
+    /** Samples seen so far, including those discarded. */
+    public long getStreamPosition() {
+        return streamPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (open) {
+                endSegment(streamPosition);
+            }
+        } finally {
+            try {
+                downstream.close();
+            } finally {
+                if (listener instanceof Closeable) {
+                    ((Closeable) listener).close();
+                }
+            }
+        }
+    }
+
+    private void beginSegment() throws IOException {
+        open = true;
+        segmentStart = streamPosition - preRollCount;
+        segmentOutputStart = outputPosition;
+        listener.onSegmentStart(segmentStart, segmentOutputStart);
+        // Flush the held pre-roll, oldest first; it may wrap around the end of the ring
+        int first = Math.min(preRollCount, preRoll.length - preRollStart);
+        emit(preRoll, preRollStart, first, segmentStart);
+        emit(preRoll, 0, preRollCount - first, segmentStart + first);
+        preRollStart = 0;
+        preRollCount = 0;
+    }
+
+    private void endSegment(long end) throws IOException {
+        open = false;
+        listener.onSegmentEnd(segmentStart, segmentOutputStart, end - segmentStart);
+    }
+
+    private void emit(short[] samples, int offset, int count, long position) throws IOException {
+        if (count > 0) {
+            // Stored audio keeps its original stream position for position-aware sinks
+            downstream.writeBlock(samples, offset, count, position, FLAG_GATE_OPEN);
+            outputPosition += count;
+        }
+    }
+
+    /** Appends to the pre-roll ring, keeping only the most recent samples. */
+    private void hold(short[] samples, int offset, int count) {
+        int capacity = preRoll.length;
+        if (capacity == 0) {
+            return;
+        }
+        if (count >= capacity) {
+            System.arraycopy(samples, offset + count - capacity, preRoll, 0, capacity);
+            preRollStart = 0;
+            preRollCount = capacity;
+            return;
+        }
+        int end = (preRollStart + preRollCount) % capacity;
+        int first = Math.min(count, capacity - end);
+        System.arraycopy(samples, offset, preRoll, end, first);
+        System.arraycopy(samples, offset + first, preRoll, 0, count - first);
+        int overflow = preRollCount + count - capacity;
+        if (overflow > 0) {
+            preRollStart = (preRollStart + overflow) % capacity;
+            preRollCount = capacity;
+        } else {
+            preRollCount += count;
+        }
+    }
+}
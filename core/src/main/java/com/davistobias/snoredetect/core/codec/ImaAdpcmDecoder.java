@@ -0,0 +1,36 @@
+package com.davistobias.snoredetect.core.codec;
+
+/**
+ * Decodes mono IMA ADPCM blocks written by {@link ImaAdpcmEncoder}.
+ */
+public final class ImaAdpcmDecoder {
+
+    private ImaAdpcmDecoder() {
+    }
+
+    /**
+     * Decodes one block of {@code blockBytes} bytes into {@code dst}.
+     *
+     * @return number of samples decoded
+     */
+    public static int decodeBlock(byte[] src, int srcOffset, int blockBytes, short[] dst, int dstOffset) {
+        int predictor = (short) ((src[srcOffset] & 0xFF) | (src[srcOffset + 1] << 8));
+        int index = src[srcOffset + 2] & 0xFF;
+        if (index > 88) {
+            index = 88;
+        }
+        dst[dstOffset] = (short) predictor;
+        int count = 1;
+        int end = srcOffset + blockBytes;
+        for (int pos = srcOffset + ImaAdpcmEncoder.HEADER_BYTES; pos < end; pos++) {
+            int b = src[pos] & 0xFF;
+            predictor = ImaAdpcmEncoder.decodeStep(predictor, ImaAdpcmEncoder.STEP_TABLE[index], b & 0x0F);
+            index = ImaAdpcmEncoder.nextIndex(index, b & 0x0F);
+            dst[dstOffset + count++] = (short) predictor;
+            predictor = ImaAdpcmEncoder.decodeStep(predictor, ImaAdpcmEncoder.STEP_TABLE[index], b >> 4);
+            index = ImaAdpcmEncoder.nextIndex(index, b >> 4);
+            dst[dstOffset + count++] = (short) predictor;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,160 @@
+package com.davistobias.snoredetect.core.codec;
+
+/**
+ * IMA/DVI ADPCM in the Microsoft WAV block layout: 4 bits per sample, about 4:1 against 16-bit PCM.
+ *
+ * Each mono block starts with a 4-byte header holding the first sample verbatim and the step
+ * index, followed by the remaining samples as nibbles, low nibble first. Blocks therefore decode
+ * independently, which is what lets a truncated file be read up to its last whole block.
+ * The step index carries over between blocks so the quantiser does not restart cold.
+ */
+public final class ImaAdpcmEncoder implements WavEncoder {
+
+    /** 256-byte blocks, the common choice for 8 kHz mono. */
+    public static final int DEFAULT_BLOCK_ALIGN = 256;
+
+    static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963, 1060, 1166, 1282, 1411, 1552,
+            1707, 1878, 2066, 2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358, 5894, 6484,
+            7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899, 15289, 16818, 18500, 20350, 22385,
+            24623, 27086, 29794, 32767
+    };
+
+    static final int[] INDEX_TABLE = {
+            -1, -1, -1, -1, 2, 4, 6, 8,
+            -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    static final int HEADER_BYTES = 4;
+
+    private final int blockAlign;
+    private final int samplesPerBlock;
+
+    private int stepIndex;
+
+    public ImaAdpcmEncoder() {
+        this(DEFAULT_BLOCK_ALIGN);
+    }
+
+    public ImaAdpcmEncoder(int blockAlign) {
+        if (blockAlign <= HEADER_BYTES) {
+            throw new IllegalArgumentException("blockAlign must exceed the block header");
+        }
+        this.blockAlign = blockAlign;
+        this.samplesPerBlock = samplesPerBlock(blockAlign);
+    }
+
+    /** Samples held by a mono block of {@code blockAlign} bytes. */
+    public static int samplesPerBlock(int blockAlign) {
+        return (blockAlign - HEADER_BYTES) * 2 + 1;
+    }
+
+    @Override
+    public int getFormatTag() {
+        return WavHeader.FORMAT_IMA_ADPCM;
+    }
+
+    @Override
+    public int getBitsPerSample() {
+        return 4;
+    }
+
+    @Override
+    public int getBlockAlign() {
+        return blockAlign;
+    }
+
+    @Override
+    public int getSamplesPerBlock() {
+        return samplesPerBlock;
+    }
+
+    @Override
+    public int encode(short[] samples, int offset, int count, byte[] dst, int dstOffset) {
+        int written = 0;
+        while (count > 0) {
+            int n = Math.min(count, samplesPerBlock);
+            encodeBlock(samples, offset, n, dst, dstOffset + written);
+            written += blockAlign;
+            offset += n;
+            count -= n;
+        }
+        return written;
+    }
+
+    private void encodeBlock(short[] samples, int offset, int count, byte[] dst, int pos) {
+        int predictor = samples[offset];
+        int index = stepIndex;
+        dst[pos] = (byte) predictor;
+        dst[pos + 1] = (byte) (predictor >> 8);
+        dst[pos + 2] = (byte) index;
+        dst[pos + 3] = 0;
+        pos += HEADER_BYTES;
+
+        // A short final block is padded by holding the last sample, which encodes as zero deltas
+        int last = offset + count - 1;
+        for (int i = 1; i < samplesPerBlock; i += 2) {
+            int lo = quantise(samples[Math.min(offset + i, last)], predictor, index);
+            predictor = decodeStep(predictor, STEP_TABLE[index], lo);
+            index = nextIndex(index, lo);
+            int hi = quantise(samples[Math.min(offset + i + 1, last)], predictor, index);
+            predictor = decodeStep(predictor, STEP_TABLE[index], hi);
+            index = nextIndex(index, hi);
+            dst[pos++] = (byte) (lo | (hi << 4));
+        }
+        stepIndex = index;
+    }
+
+    private static int quantise(int sample, int predictor, int index) {
+        int step = STEP_TABLE[index];
+        int diff = sample - predictor;
+        int code = 0;
+        if (diff < 0) {
+            code = 8;
+            diff = -diff;
+        }
+        if (diff >= step) {
+            code |= 4;
+            diff -= step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            code |= 2;
+            diff -= step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            code |= 1;
+        }
+        return code;
+    }
+
+    /** Reconstructs the next sample exactly as a decoder will, so encoder and decoder stay in step. */
+    static int decodeStep(int predictor, int step, int code) {
+        int delta = step >> 3;
+        if ((code & 4) != 0) {
+            delta += step;
+        }
+        if ((code & 2) != 0) {
+            delta += step >> 1;
+        }
+        if ((code & 1) != 0) {
+            delta += step >> 2;
+        }
+        predictor += (code & 8) != 0 ? -delta : delta;
+        if (predictor > Short.MAX_VALUE) {
+            return Short.MAX_VALUE;
+        }
+        return predictor < Short.MIN_VALUE ? Short.MIN_VALUE : predictor;
+    }
+
+    static int nextIndex(int index, int code) {
+        index += INDEX_TABLE[code];
+        if (index < 0) {
+            return 0;
+        }
+        return index > 88 ? 88 : index;
+    }
+}
@@ -0,0 +1,71 @@
+package com.davistobias.snoredetect.core.codec;
+
+/**
+ * G.711 mu-law: one byte per sample, 2:1 against 16-bit PCM, with roughly 14-bit dynamic range
+ * near silence and coarser steps for loud sounds.
+ */
+public final class MuLawEncoder implements WavEncoder {
+
+    private static final int BIAS = 0x84;
+    private static final int CLIP = 32635;
+
+    private static final short[] DECODE_TABLE = new short[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int u = ~i & 0xFF;
+            int exponent = (u >> 4) & 0x07;
+            int magnitude = ((((u & 0x0F) << 3) + BIAS) << exponent) - BIAS;
+            DECODE_TABLE[i] = (short) ((u & 0x80) != 0 ? -magnitude : magnitude);
+        }
+    }
+
+    @Override
+    public int getFormatTag() {
+        return WavHeader.FORMAT_MULAW;
+    }
+
+    @Override
+    public int getBitsPerSample() {
+        return 8;
+    }
+
+    @Override
+    public int getBlockAlign() {
+        return 1;
+    }
+
+    @Override
+    public int getSamplesPerBlock() {
+        return 1;
+    }
+
+    @Override
+    public int encode(short[] samples, int offset, int count, byte[] dst, int dstOffset) {
+        for (int i = 0; i < count; i++) {
+            dst[dstOffset + i] = encode(samples[offset + i]);
+        }
+        return count;
+    }
+
+    public static byte encode(short sample) {
+        int pcm = sample;
+        int sign = 0;
+        if (pcm < 0) {
+            sign = 0x80;
+            pcm = -pcm;
+        }
+        if (pcm > CLIP) {
+            pcm = CLIP;
+        }
+        pcm += BIAS;
+        // pcm >> 7 is in 1..255 here, so its highest set bit is the segment number 0..7
+        int exponent = 31 - Integer.numberOfLeadingZeros(pcm >> 7);
+        int mantissa = (pcm >> (exponent + 3)) & 0x0F;
+        return (byte) ~(sign | (exponent << 4) | mantissa);
+    }
+
+    public static short decode(byte code) {
+        return DECODE_TABLE[code & 0xFF];
+    }
+}
@@ -0,0 +1,37 @@
+package com.davistobias.snoredetect.core.codec;
+
+/**
+ * Uncompressed 16-bit little-endian PCM, the format the app recorded before compression.
+ */
+public final class Pcm16Encoder implements WavEncoder {
+
+    @Override
+    public int getFormatTag() {
+        return WavHeader.FORMAT_PCM;
+    }
+
+    @Override
+    public int getBitsPerSample() {
+        return 16;
+    }
+
+    @Override
+    public int getBlockAlign() {
+        return 2;
+    }
+
+    @Override
+    public int getSamplesPerBlock() {
+        return 1;
+    }
+
+    @Override
+    public int encode(short[] samples, int offset, int count, byte[] dst, int dstOffset) {
+        for (int i = 0; i < count; i++) {
+            short sample = samples[offset + i];
+            dst[dstOffset + i * 2] = (byte) (sample & 0x00FF);
+            dst[dstOffset + i * 2 + 1] = (byte) (sample >> 8);
+        }
+        return count * 2;
+    }
+}
@@ -0,0 +1,24 @@
+package com.davistobias.snoredetect.core.codec;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination for captured PCM blocks. Implementations are driven from a single writer thread.
+ */
+public interface PcmSink extends Closeable {
+
+    /** Block flag set by the capture loop while the recording gate is open. */
+    int FLAG_GATE_OPEN = 1;
+
+    void write(short[] samples, int offset, int count) throws IOException;
+
+    /**
+     * Writes one captured block along with its stream position and capture flags. Sinks that only
+     * store samples need not override this.
+     */
+    default void writeBlock(short[] samples, int offset, int count, long position, int flags)
+            throws IOException {
+        write(samples, offset, count);
+    }
+}
@@ -0,0 +1,49 @@
+package com.davistobias.snoredetect.core.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes samples as headerless 16-bit little-endian PCM, reusing one encode buffer.
+ */
+public final class RawPcmSink implements PcmSink {
+
+    private final OutputStream out;
+    private final byte[] bytes;
+
+    public RawPcmSink(OutputStream out, int maxSamplesPerWrite) {
+        this.out = out;
+        this.bytes = new byte[maxSamplesPerWrite * 2];
+    }
+
+    @Override
+    public void write(short[] samples, int offset, int count) throws IOException {
+        int maxSamples = bytes.length / 2;
+        while (count > 0) {
+            int n = Math.min(count, maxSamples);
+            int byteCount = encode(samples, offset, n, bytes);
+            out.write(bytes, 0, byteCount);
+            offset += n;
+            count -= n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Encodes {@code count} samples as 16-bit little-endian PCM into {@code dst}.
+     *
+     * @return number of bytes written
+     */
+    public static int encode(short[] samples, int offset, int count, byte[] dst) {
+        for (int i = 0; i < count; i++) {
+            short sample = samples[offset + i];
+            dst[i * 2] = (byte) (sample & 0x00FF);
+            dst[(i * 2) + 1] = (byte) (sample >> 8);
+        }
+        return count * 2;
+    }
+}
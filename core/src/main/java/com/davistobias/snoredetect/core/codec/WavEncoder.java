@@ -0,0 +1,27 @@
+package com.davistobias.snoredetect.core.codec;
+
+/**
+ * Block encoder for one WAV sample format, as written by {@link WavSink}.
+ *
+ * Samples are encoded in whole blocks of {@link #getSamplesPerBlock()} samples, each taking
+ * {@link #getBlockAlign()} bytes, so any prefix of whole blocks is independently decodable.
+ */
+public interface WavEncoder {
+
+    /** WAVE_FORMAT tag written to the fmt chunk. */
+    int getFormatTag();
+
+    int getBitsPerSample();
+
+    int getBlockAlign();
+
+    int getSamplesPerBlock();
+
+    /**
+     * Encodes {@code count} samples into {@code dst}. {@code count} should be a multiple of the
+     * block size; a trailing partial block is padded to a whole block.
+     *
+     * @return number of bytes written
+     */
+    int encode(short[] samples, int offset, int count, byte[] dst, int dstOffset);
+}
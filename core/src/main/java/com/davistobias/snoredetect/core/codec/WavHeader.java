@@ -0,0 +1,158 @@
+package com.davistobias.snoredetect.core.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Mono RIFF/WAVE header: fmt chunk, a fact chunk for compressed formats, and the data chunk header.
+ *
+ * The layout written here has a fixed size for a given format, so {@link WavSink} can rewrite it
+ * in place as the file grows.
+ */
+public final class WavHeader {
+
+    public static final int FORMAT_PCM = 0x0001;
+    public static final int FORMAT_MULAW = 0x0007;
+    public static final int FORMAT_IMA_ADPCM = 0x0011;
+
+    public final int formatTag;
+    public final int sampleRate;
+    public final int bitsPerSample;
+    public final int blockAlign;
+    public final int samplesPerBlock;
+
+    /** Decoded sample count; from the fact chunk when present. */
+    public long sampleCount;
+    /** Length of the data chunk payload in bytes. */
+    public long dataLength;
+    /** File position of the first data byte. */
+    public long dataOffset;
+
+    public WavHeader(int formatTag, int sampleRate, int bitsPerSample, int blockAlign, int samplesPerBlock) {
+        this.formatTag = formatTag;
+        this.sampleRate = sampleRate;
+        this.bitsPerSample = bitsPerSample;
+        this.blockAlign = blockAlign;
+        this.samplesPerBlock = samplesPerBlock;
+        this.dataOffset = size();
+    }
+
+    public static WavHeader forEncoder(WavEncoder encoder, int sampleRate) {
+        return new WavHeader(encoder.getFormatTag(), sampleRate, encoder.getBitsPerSample(),
+                encoder.getBlockAlign(), encoder.getSamplesPerBlock());
+    }
+
+    public boolean isCompressed() {
+        return formatTag != FORMAT_PCM;
+    }
+
+    /** Bytes {@link #write(ByteBuffer)} produces. */
+    public int size() {
+        return 12 + 8 + fmtSize() + (isCompressed() ? 12 : 0) + 8;
+    }
+
+    private int fmtSize() {
+        if (!isCompressed()) {
+            return 16;
+        }
+        // cbSize, plus wSamplesPerBlock for block-based formats
+        return samplesPerBlock > 1 ? 20 : 18;
+    }
+
+    /** Writes the header with the current sizes, little-endian, at the buffer's position. */
+    public void write(ByteBuffer buffer) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int fmtSize = fmtSize();
+        buffer.putInt(0x46464952); // "RIFF"
+        buffer.putInt((int) (size() - 8 + dataLength));
+        buffer.putInt(0x45564157); // "WAVE"
+        buffer.putInt(0x20746d66); // "fmt "
+        buffer.putInt(fmtSize);
+        buffer.putShort((short) formatTag);
+        buffer.putShort((short) 1);
+        buffer.putInt(sampleRate);
+        buffer.putInt((int) ((long) sampleRate * blockAlign / samplesPerBlock));
+        buffer.putShort((short) blockAlign);
+        buffer.putShort((short) bitsPerSample);
+        if (fmtSize > 16) {
+            buffer.putShort((short) (fmtSize - 18));
+            if (fmtSize > 18) {
+                buffer.putShort((short) samplesPerBlock);
+            }
+        }
+        if (isCompressed()) {
+            buffer.putInt(0x74636166); // "fact"
+            buffer.putInt(4);
+            buffer.putInt((int) sampleCount);
+        }
+        buffer.putInt(0x61746164); // "data"
+        buffer.putInt((int) dataLength);
+        buffer.order(order);
+    }
+
+    /**
+     * Parses the header of a mono WAV file, skipping chunks it does not know.
+     *
+     * A data length running past the end of the file is clamped to the bytes actually present, and
+     * a missing fact chunk is derived from the data length.
+     */
+    public static WavHeader read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, buffer, 0, 12);
+        if (buffer.getInt(0) != 0x46464952 || buffer.getInt(8) != 0x45564157) {
+            throw new IOException("Not a RIFF/WAVE file");
+        }
+
+        WavHeader header = null;
+        long sampleCount = -1;
+        long position = 12;
+        while (true) {
+            readFully(channel, buffer, position, 8);
+            int id = buffer.getInt(0);
+            long chunkSize = buffer.getInt(4) & 0xFFFFFFFFL;
+            long body = position + 8;
+            if (id == 0x20746d66) { // "fmt "
+                readFully(channel, buffer, body, (int) Math.min(chunkSize, buffer.capacity()));
+                if (buffer.getShort(2) != 1) {
+                    throw new IOException("Only mono WAV files are supported");
+                }
+                int formatTag = buffer.getShort(0) & 0xFFFF;
+                int blockAlign = buffer.getShort(12) & 0xFFFF;
+                int bits = buffer.getShort(14) & 0xFFFF;
+                int samplesPerBlock = formatTag == FORMAT_IMA_ADPCM && chunkSize >= 20
+                        ? buffer.getShort(18) & 0xFFFF
+                        : 1;
+                header = new WavHeader(formatTag, buffer.getInt(4), bits, blockAlign, samplesPerBlock);
+            } else if (id == 0x74636166 && chunkSize >= 4) { // "fact"
+                readFully(channel, buffer, body, 4);
+                sampleCount = buffer.getInt(0) & 0xFFFFFFFFL;
+            } else if (id == 0x61746164) { // "data"
+                if (header == null) {
+                    throw new IOException("data chunk before fmt chunk");
+                }
+                header.dataOffset = body;
+                header.dataLength = Math.min(chunkSize, channel.size() - body);
+                long blocks = header.dataLength / header.blockAlign;
+                long maxSamples = blocks * header.samplesPerBlock;
+                header.sampleCount = sampleCount >= 0 ? Math.min(sampleCount, maxSamples) : maxSamples;
+                return header;
+            }
+            // Chunks are padded to an even length
+            position = body + chunkSize + (chunkSize & 1);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, int length)
+            throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated WAV header");
+            }
+        }
+    }
+}
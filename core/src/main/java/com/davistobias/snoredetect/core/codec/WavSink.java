@@ -0,0 +1,178 @@
+package com.davistobias.snoredetect.core.codec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Encodes samples into a WAV file through a {@link WavEncoder}.
+ *
+ * Every {@link #write} that completes at least one block appends the encoded blocks and then
+ * rewrites the header sizes, so if the process is killed the file on disk is still a valid WAV
+ * ending at the last whole block; at most one partial block of samples is lost. Surviving a power
+ * cut as well needs {@link #sync()}, which the caller invokes as often as it can afford. Memory is
+ * fixed at one staging block and one encode buffer regardless of recording length.
+ */
+public final class WavSink implements PcmSink {
+
+    /** Encode buffer target size; whole blocks are batched up to this before hitting the file. */
+    private static final int BUFFER_BYTES = 4096;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final WavEncoder encoder;
+    private final WavHeader header;
+    private final int samplesPerBlock;
+
+    private final short[] pending;
+    private final byte[] encoded;
+    private final ByteBuffer encodedBuffer;
+    private final ByteBuffer headerBuffer;
+    private int pendingCount;
+    private int encodedCount;
+    private long headerDataLength = -1;
+
+    public WavSink(File file, int sampleRate, WavEncoder encoder) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        this.encoder = encoder;
+        this.header = WavHeader.forEncoder(encoder, sampleRate);
+        this.samplesPerBlock = encoder.getSamplesPerBlock();
+
+        int blockAlign = encoder.getBlockAlign();
+        this.pending = new short[samplesPerBlock];
+        this.encoded = new byte[Math.max(1, BUFFER_BYTES / blockAlign) * blockAlign];
+        this.encodedBuffer = ByteBuffer.wrap(encoded);
+        this.headerBuffer = ByteBuffer.allocate(header.size()).order(ByteOrder.LITTLE_ENDIAN);
+
+        channel.truncate(0);
+        writeHeader();
+    }
+
+    public static WavSink pcm16(File file, int sampleRate) throws IOException {
+        return new WavSink(file, sampleRate, new Pcm16Encoder());
+    }
+
+    public static WavSink muLaw(File file, int sampleRate) throws IOException {
+        return new WavSink(file, sampleRate, new MuLawEncoder());
+    }
+
+    public static WavSink imaAdpcm(File file, int sampleRate) throws IOException {
+        return new WavSink(file, sampleRate, new ImaAdpcmEncoder());
+    }
+
+    @Override
+    public void write(short[] samples, int offset, int count) throws IOException {
+        header.sampleCount += count;
+
+        // Top up a block left over from the previous write
+        if (pendingCount > 0) {
+            int n = Math.min(count, samplesPerBlock - pendingCount);
+            System.arraycopy(samples, offset, pending, pendingCount, n);
+            pendingCount += n;
+            offset += n;
+            count -= n;
+            if (pendingCount < samplesPerBlock) {
+                return;
+            }
+            encodeBlocks(pending, 0, samplesPerBlock);
+            pendingCount = 0;
+        }
+
+        // Whole blocks go straight from the caller's array
+        int whole = count - count % samplesPerBlock;
+        int maxSamples = encoded.length / encoder.getBlockAlign() * samplesPerBlock;
+        while (whole > 0) {
+            int n = Math.min(whole, maxSamples);
+            encodeBlocks(samples, offset, n);
+            offset += n;
+            count -= n;
+            whole -= n;
+        }
+
+        System.arraycopy(samples, offset, pending, 0, count);
+        pendingCount = count;
+        flush();
+    }
+
+    /** Length of the data chunk written so far, in bytes. */
+    public long getDataLength() {
+        return header.dataLength + encodedCount;
+    }
+
+    /** Samples in whole blocks handed to the file, excluding the partial block still staged. */
+    public long getWrittenSamples() {
+        return header.sampleCount - pendingCount;
+    }
+
+    /** File position of the encoded block that holds sample {@code sampleIndex} of this file. */
+    public long byteOffsetOf(long sampleIndex) {
+        return header.dataOffset + sampleIndex / samplesPerBlock * encoder.getBlockAlign();
+    }
+
+    /**
+     * Writes out any encoded blocks and forces data and header to the storage device. The partial
+     * block still staged is not included.
+     */
+    public void sync() throws IOException {
+        flush();
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (pendingCount > 0) {
+                encodeBlocks(pending, 0, pendingCount);
+                pendingCount = 0;
+            }
+            flush();
+        } finally {
+            file.close();
+        }
+    }
+
+    private void encodeBlocks(short[] samples, int offset, int count) throws IOException {
+        int bytes = (count + samplesPerBlock - 1) / samplesPerBlock * encoder.getBlockAlign();
+        if (encodedCount + bytes > encoded.length) {
+            drain();
+        }
+        encodedCount += encoder.encode(samples, offset, count, encoded, encodedCount);
+    }
+
+    private void drain() throws IOException {
+        encodedBuffer.clear().limit(encodedCount);
+        long position = header.dataOffset + header.dataLength;
+        while (encodedBuffer.hasRemaining()) {
+            position += channel.write(encodedBuffer, position);
+        }
+        header.dataLength += encodedCount;
+        encodedCount = 0;
+    }
+
+    private void flush() throws IOException {
+        drain();
+        // Data first, then sizes: the header never claims bytes that are not on disk yet
+        if (header.dataLength != headerDataLength) {
+            writeHeader();
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        // sampleCount includes staged samples; report only those in whole blocks on disk
+        long staged = pendingCount;
+        header.sampleCount -= staged;
+        headerBuffer.clear();
+        header.write(headerBuffer);
+        header.sampleCount += staged;
+        headerBuffer.flip();
+        long position = 0;
+        while (headerBuffer.hasRemaining()) {
+            position += channel.write(headerBuffer, position);
+        }
+        headerDataLength = header.dataLength;
+    }
+}
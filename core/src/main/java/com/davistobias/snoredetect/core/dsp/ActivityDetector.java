@@ -0,0 +1,105 @@
+package com.davistobias.snoredetect.core.dsp;
+
+/**
+ * Cheap first stage for low-power capture: decides from the frame's level whether it is worth the
+ * full feature extraction and classifier.
+ *
+ * A frame wakes the full pipeline when its A-weighted level, which the {@link LoudnessMeter} has
+ * measured anyway, rises a margin above the room's {@link NoiseFloorEstimator floor}, and the
+ * pipeline then stays awake for a hangover period so an event is followed to its end and the
+ * breaths between snores do not put it back to sleep. Until the floor is calibrated every frame
+ * counts as active. Idle frames get a peak and RMS estimate from every {@code stride}-th sample.
+ *
+ * Runs on the capture thread; the counters may be read from any thread.
+ */
+public final class ActivityDetector {
+
+    public static final int DEFAULT_STRIDE = 4;
+    /** Below the floor's detection margin, so the classifier sees a sound before it counts. */
+    public static final double DEFAULT_WAKE_MARGIN_DB = 6.0;
+    public static final double DEFAULT_HANGOVER_SECONDS = 3.0;
+
+    private final NoiseFloorEstimator noiseFloor;
+    private final int stride;
+    private final double wakeMarginDb;
+    private final long hangoverSamples;
+
+    private long awakeRemaining;
+    private volatile long wakeups;
+    private volatile long activeFrames;
+    private volatile long idleFrames;
+
+    public ActivityDetector(int sampleRate, NoiseFloorEstimator noiseFloor) {
+        this(sampleRate, noiseFloor, DEFAULT_STRIDE, DEFAULT_WAKE_MARGIN_DB, DEFAULT_HANGOVER_SECONDS);
+    }
+
+    public ActivityDetector(int sampleRate, NoiseFloorEstimator noiseFloor, int stride, double wakeMarginDb,
+                            double hangoverSeconds) {
+        if (stride <= 0) {
+            throw new IllegalArgumentException("stride must be positive");
+        }
+        this.noiseFloor = noiseFloor;
+        this.stride = stride;
+        this.wakeMarginDb = wakeMarginDb;
+        this.hangoverSamples = (long) (hangoverSeconds * sampleRate);
+    }
+
+    /**
+     * Checks one frame. Always sets {@code out.peakDecibel} and {@code out.rmsDb} from every
+     * {@code stride}-th sample, so an idle frame still has them; the other features are cleared.
+     *
+     * @param levelDb the frame's level, on the floor's scale
+     * @return whether the full pipeline should run on this frame
+     */
+    public boolean check(short[] samples, int count, double levelDb, FrameFeatures out) {
+        out.clear();
+        int peak = 0;
+        double sumSquares = 0;
+        int n = 0;
+        for (int i = 0; i < count; i += stride) {
+            int sample = samples[i];
+            int magnitude = Math.abs(sample);
+            if (magnitude > peak) {
+                peak = magnitude;
+            }
+            sumSquares += (double) sample * sample;
+            n++;
+        }
+        out.peakDecibel = LevelMeter.peakToDecibel(peak);
+        if (sumSquares > 0) {
+            out.rmsDb = 20.0 * Math.log10(Math.sqrt(sumSquares / n) / 32768.0);
+        }
+
+        boolean loud = !noiseFloor.isCalibrated()
+                || (sumSquares > 0 && levelDb >= noiseFloor.getFloorDb() + wakeMarginDb);
+        if (loud) {
+            if (awakeRemaining <= 0) {
+                wakeups = wakeups + 1;
+            }
+            awakeRemaining = hangoverSamples + count;
+        }
+        boolean active = awakeRemaining > 0;
+        awakeRemaining -= count;
+        if (active) {
+            activeFrames = activeFrames + 1;
+        } else {
+            idleFrames = idleFrames + 1;
+        }
+        return active;
+    }
+
+    /** Times the full pipeline was woken from idle. */
+    public long getWakeups() {
+        return wakeups;
+    }
+
+    /** Frames handed to the full pipeline. */
+    public long getActiveFrames() {
+        return activeFrames;
+    }
+
+    /** Frames that stopped at this stage. */
+    public long getIdleFrames() {
+        return idleFrames;
+    }
+}
@@ -0,0 +1,223 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Min/max/RMS envelope of a sample stream at successively coarser resolutions.
+ *
+ * Level 0 has one bucket per {@code bucketSize} samples; each level above combines {@code factor}
+ * buckets of the one below. Buckets are completed incrementally as samples arrive, so the
+ * pyramid costs a few comparisons per sample and about 1.8 MB for an 8-hour night at 8 kHz.
+ * A renderer picks the level whose bucket count matches the screen width with
+ * {@link #levelFor(long, int)} and never touches the samples.
+ */
+public final class EnvelopePyramid {
+
+    public static final int DEFAULT_BUCKET_SIZE = 1024;
+    public static final int DEFAULT_FACTOR = 4;
+
+    private final int bucketSize;
+    private final int factor;
+    private final List<Level> levels = new ArrayList<>();
+    private long sampleCount;
+    private boolean finished;
+
+    public EnvelopePyramid() {
+        this(DEFAULT_BUCKET_SIZE, DEFAULT_FACTOR);
+    }
+
+    public EnvelopePyramid(int bucketSize, int factor) {
+        if (bucketSize <= 0 || factor < 2) {
+            throw new IllegalArgumentException("bucketSize must be positive and factor at least 2");
+        }
+        this.bucketSize = bucketSize;
+        this.factor = factor;
+        levels.add(new Level());
+    }
+
+    public void add(short[] samples, int offset, int count) {
+        checkNotFinished();
+        Level base = levels.get(0);
+        for (int i = offset; i < offset + count; i++) {
+            int s = samples[i];
+            if (s < base.accMin) {
+                base.accMin = s;
+            }
+            if (s > base.accMax) {
+                base.accMax = s;
+            }
+            base.accSumSquares += (double) s * s;
+            if (++base.accCount == bucketSize) {
+                complete(0);
+            }
+        }
+        sampleCount += count;
+    }
+
+    /** Adds {@code count} zero samples, e.g. for a stretch that was not captured. */
+    public void addSilence(long count) {
+        checkNotFinished();
+        Level base = levels.get(0);
+        sampleCount += count;
+        while (count > 0) {
+            int n = (int) Math.min(count, bucketSize - base.accCount);
+            if (base.accMin > 0) {
+                base.accMin = 0;
+            }
+            if (base.accMax < 0) {
+                base.accMax = 0;
+            }
+            base.accCount += n;
+            count -= n;
+            if (base.accCount == bucketSize) {
+                complete(0);
+            }
+        }
+    }
+
+    /** Completes the partial buckets at the end of the stream. No samples may be added afterwards. */
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        for (int level = 0; level < levels.size(); level++) {
+            if (levels.get(level).accCount > 0) {
+                complete(level);
+            }
+        }
+    }
+
+    public int getBucketSize() {
+        return bucketSize;
+    }
+
+    public int getFactor() {
+        return factor;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public int levelCount() {
+        return levels.size();
+    }
+
+    /** Completed buckets in a level. */
+    public int bucketCount(int level) {
+        return levels.get(level).count;
+    }
+
+    /** Samples covered by each bucket of a level. */
+    public long samplesPerBucket(int level) {
+        long n = bucketSize;
+        for (int i = 0; i < level; i++) {
+            n *= factor;
+        }
+        return n;
+    }
+
+    public short min(int level, int bucket) {
+        return levels.get(level).data[bucket * 3];
+    }
+
+    public short max(int level, int bucket) {
+        return levels.get(level).data[bucket * 3 + 1];
+    }
+
+    public short rms(int level, int bucket) {
+        return levels.get(level).data[bucket * 3 + 2];
+    }
+
+    /**
+     * Finest level with no more buckets than {@code pixels} across {@code samples}, i.e. at least
+     * one bucket per pixel column.
+     */
+    public int levelFor(long samples, int pixels) {
+        return levelFor(samples, pixels, bucketSize, factor, levels.size());
+    }
+
+    /** Level selection shared with readers that only have the pyramid's shape. */
+    public static int levelFor(long samples, int pixels, int bucketSize, int factor, int levelCount) {
+        long samplesPerPixel = (samples + pixels - 1) / Math.max(1, pixels);
+        long perBucket = bucketSize;
+        int level = 0;
+        while (perBucket < samplesPerPixel && level < levelCount - 1) {
+            perBucket *= factor;
+            level++;
+        }
+        return level;
+    }
+
+    private void complete(int level) {
+        Level l = levels.get(level);
+        short min = (short) l.accMin;
+        short max = (short) l.accMax;
+        short rms = (short) Math.min(Short.MAX_VALUE, Math.round(Math.sqrt(l.accSumSquares / l.accCount)));
+        double sumSquares = l.accSumSquares;
+        long count = l.accCount;
+        l.append(min, max, rms);
+        l.reset();
+
+        if (level + 1 == levels.size()) {
+            if (finished && l.count == 1) {
+                return;
+            }
+            levels.add(new Level());
+        }
+        Level parent = levels.get(level + 1);
+        if (min < parent.accMin) {
+            parent.accMin = min;
+        }
+        if (max > parent.accMax) {
+            parent.accMax = max;
+        }
+        parent.accSumSquares += sumSquares;
+        parent.accCount += count;
+        if (++parent.accChildren == factor) {
+            complete(level + 1);
+        }
+    }
+
+    private void checkNotFinished() {
+        if (finished) {
+            throw new IllegalStateException("Pyramid is finished");
+        }
+    }
+
+    private static final class Level {
+        short[] data = new short[3 * 64];
+        int count;
+
+        int accMin;
+        int accMax;
+        double accSumSquares;
+        long accCount;
+        int accChildren;
+
+        Level() {
+            reset();
+        }
+
+        void append(short min, short max, short rms) {
+            if (count * 3 + 3 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[count * 3] = min;
+            data[count * 3 + 1] = max;
+            data[count * 3 + 2] = rms;
+            count++;
+        }
+
+        void reset() {
+            accMin = Integer.MAX_VALUE;
+            accMax = Integer.MIN_VALUE;
+            accSumSquares = 0;
+            accCount = 0;
+            accChildren = 0;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.davistobias.snoredetect.core.dsp;
+
+/**
+ * Streaming per-frame feature extraction for the snore classifier.
+ *
+ * Computes RMS energy, zero-crossing rate, spectral centroid and low-band energy ratio for one
+ * frame at a time. The power spectrum comes from a {@link RealFft} of the Hann-windowed frame,
+ * zero-padded to a power of two; all buffers are allocated in the constructor so {@link #extract}
+ * does not allocate.
+ */
+public final class FeatureExtractor {
+
+    /** Snore energy sits mostly in the low hundreds of Hz. */
+    public static final double DEFAULT_LOW_BAND_CUTOFF_HZ = 500.0;
+
+    private final int sampleRate;
+    private final double lowBandCutoffHz;
+    private final float[] window;
+    private final RealFft fft;
+    private final float[] work;
+    private final float[] power;
+    private final double binHz;
+
+    public FeatureExtractor(int sampleRate, int frameSize) {
+        this(sampleRate, frameSize, DEFAULT_LOW_BAND_CUTOFF_HZ);
+    }
+
+    public FeatureExtractor(int sampleRate, int frameSize, double lowBandCutoffHz) {
+        if (sampleRate <= 0 || frameSize <= 0) {
+            throw new IllegalArgumentException("sampleRate and frameSize must be positive");
+        }
+        this.sampleRate = sampleRate;
+        this.lowBandCutoffHz = lowBandCutoffHz;
+
+        window = Spectrogram.hannWindow(frameSize);
+        fft = new RealFft(RealFft.sizeFor(frameSize));
+        work = new float[fft.size()];
+        power = new float[fft.binCount()];
+        binHz = (double) sampleRate / fft.size();
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getFrameSize() {
+        return window.length;
+    }
+
+    /** Computes the features of the first {@code count} samples (at most the frame size) into {@code out}. */
+    public void extract(short[] samples, int count, FrameFeatures out) {
+        out.clear();
+        if (count <= 0) {
+            return;
+        }
+        count = Math.min(count, window.length);
+
+        int peak = 0;
+        double sumSquares = 0;
+        int crossings = 0;
+        boolean wasNegative = samples[0] < 0;
+        for (int i = 0; i < count; i++) {
+            int sample = samples[i];
+            int magnitude = Math.abs(sample);
+            if (magnitude > peak) {
+                peak = magnitude;
+            }
+            sumSquares += (double) sample * sample;
+            boolean negative = sample < 0;
+            if (negative != wasNegative) {
+                crossings++;
+                wasNegative = negative;
+            }
+        }
+
+        out.peakDecibel = LevelMeter.peakToDecibel(peak);
+        if (sumSquares == 0) {
+            return;
+        }
+        double rms = Math.sqrt(sumSquares / count) / 32768.0;
+        out.rmsDb = 20.0 * Math.log10(rms);
+        out.zeroCrossingRate = (double) crossings / count;
+
+        computeSpectrum(samples, count);
+        double total = 0;
+        double weighted = 0;
+        double low = 0;
+        // DC is left out so an offset does not drag the centroid down
+        for (int k = 1; k < power.length; k++) {
+            double frequency = k * binHz;
+            total += power[k];
+            weighted += power[k] * frequency;
+            if (frequency < lowBandCutoffHz) {
+                low += power[k];
+            }
+        }
+        if (total > 0) {
+            out.spectralCentroidHz = weighted / total;
+            out.lowBandRatio = low / total;
+        }
+    }
+
+    private void computeSpectrum(short[] samples, int count) {
+        // A partial frame (end of a file) is analysed without the window rather than with a mismatched one
+        if (count == window.length) {
+            for (int i = 0; i < count; i++) {
+                work[i] = samples[i] * window[i];
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                work[i] = samples[i];
+            }
+        }
+        for (int i = count; i < work.length; i++) {
+            work[i] = 0f;
+        }
+        fft.forward(work);
+        fft.powerSpectrum(work, power);
+    }
+}
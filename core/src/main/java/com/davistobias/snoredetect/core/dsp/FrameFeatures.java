@@ -0,0 +1,40 @@
+package com.davistobias.snoredetect.core.dsp;
+
+/**
+ * Per-frame features computed by {@link FeatureExtractor}. One instance is reused for every frame.
+ */
+public final class FrameFeatures {
+
+    /** Peak level in dB, on the same scale as {@link LevelMeter#peakDecibel}. */
+    public double peakDecibel;
+
+    /** RMS level in dB relative to 16-bit full scale; {@link #SILENCE_DB} for digital silence. */
+    public double rmsDb;
+
+    /**
+     * A-weighted equivalent level (Leq) of the frame from the {@link LoudnessMeter}, on the same
+     * scale as {@link #rmsDb}. This is the level thresholds, events and aggregates work with.
+     */
+    public double levelDb;
+
+    /** Sign changes per sample, 0..1. */
+    public double zeroCrossingRate;
+
+    /** Power-weighted mean frequency of the frame, in Hz. */
+    public double spectralCentroidHz;
+
+    /** Fraction of spectral power below the extractor's low-band cutoff, 0..1. */
+    public double lowBandRatio;
+
+    /** Floor reported for frames with no energy. */
+    public static final double SILENCE_DB = -120.0;
+
+    void clear() {
+        peakDecibel = 0;
+        rmsDb = SILENCE_DB;
+        levelDb = SILENCE_DB;
+        zeroCrossingRate = 0;
+        spectralCentroidHz = 0;
+        lowBandRatio = 0;
+    }
+}
@@ -0,0 +1,41 @@
+package com.davistobias.snoredetect.core.dsp;
+
+/**
+ * Level computations run on the capture thread for every buffer.
+ */
+public final class LevelMeter {
+
+    /** Magnitude of the most negative 16-bit sample, the largest a peak can be. */
+    private static final double FULL_SCALE = 32768.0;
+
+    private LevelMeter() {
+    }
+
+    /**
+     * Peak level of the first {@code count} samples, in dB. Returns 0 for a silent buffer,
+     * matching the behaviour of the original loop.
+     */
+    public static double peakDecibel(short[] samples, int count) {
+        return peakToDecibel(peakAmplitude(samples, count));
+    }
+
+    /** Largest absolute sample value among the first {@code count} samples. */
+    public static int peakAmplitude(short[] samples, int count) {
+        int maxSample = 0;
+        for (int i = 0; i < count; i++) {
+            int sample = Math.abs(samples[i]);
+            if (sample > maxSample) {
+                maxSample = sample;
+            }
+        }
+        return maxSample;
+    }
+
+    /** Converts a peak amplitude to dB relative to 16-bit full scale, or 0 for silence. */
+    public static double peakToDecibel(int maxSample) {
+        if (maxSample == 0) {
+            return 0d;
+        }
+        return 20.0 * Math.log10(maxSample / FULL_SCALE);
+    }
+}
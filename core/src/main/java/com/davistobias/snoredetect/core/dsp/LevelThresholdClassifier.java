@@ -0,0 +1,58 @@
+package com.davistobias.snoredetect.core.dsp;
+
+/**
+ * The original detection rule: a frame is snoring when its A-weighted Leq,
+ * {@link FrameFeatures#levelDb}, reaches a threshold. The app first compared the frame's peak
+ * sample instead, which let a single click count. The threshold is either fixed or follows a
+ * {@link NoiseFloorEstimator}, staying a margin above the room's background so a fan or air
+ * conditioner does not count as snoring all night.
+ */
+public final class LevelThresholdClassifier implements SnoreClassifier {
+
+    /**
+     * Leq threshold in dB relative to full scale. A typical snore that just reached the app's
+     * original -30 dB peak threshold (against a reference of 65535) measures about this.
+     */
+    public static final double DEFAULT_THRESHOLD_DB = -45.0;
+
+    private final double thresholdDb;
+    private final NoiseFloorEstimator noiseFloor;
+
+    public LevelThresholdClassifier() {
+        this(DEFAULT_THRESHOLD_DB);
+    }
+
+    public LevelThresholdClassifier(double thresholdDb) {
+        this.thresholdDb = thresholdDb;
+        this.noiseFloor = null;
+    }
+
+    /**
+     * Uses the estimator's current threshold, which must be fed the same frames, e.g. by the
+     * {@link SnoreDetector} this classifier runs in.
+     */
+    public LevelThresholdClassifier(NoiseFloorEstimator noiseFloor) {
+        this.thresholdDb = Double.NaN;
+        this.noiseFloor = noiseFloor;
+    }
+
+    /** Current level threshold. */
+    public double getThresholdDb() {
+        return noiseFloor != null ? noiseFloor.getThresholdDb() : thresholdDb;
+    }
+
+    /** The estimator the threshold follows, or null for a fixed threshold. */
+    public NoiseFloorEstimator getNoiseFloor() {
+        return noiseFloor;
+    }
+
+    @Override
+    public double score(FrameFeatures features) {
+        return features.rmsDb > FrameFeatures.SILENCE_DB && features.levelDb >= getThresholdDb() ? 1.0 : 0.0;
+    }
+
+    @Override
+    public double getThreshold() {
+        return 0.5;
+    }
+}
@@ -0,0 +1,85 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Logistic regression over {@link FrameFeatures}.
+ *
+ * The model is a properties file so it can ship as an app asset and be replaced without a code change:
+ * <pre>
+ * bias=2.7
+ * weight.rms_db=0.15
+ * weight.zero_crossing_rate=-8.0
+ * weight.centroid_khz=-2.0
+ * weight.low_band_ratio=6.0
+ * threshold=0.5
+ * </pre>
+ */
+public final class LogisticSnoreClassifier implements SnoreClassifier {
+
+    private final double bias;
+    private final double rmsDbWeight;
+    private final double zeroCrossingWeight;
+    private final double centroidKhzWeight;
+    private final double lowBandRatioWeight;
+    private final double threshold;
+
+    public LogisticSnoreClassifier(double bias, double rmsDbWeight, double zeroCrossingWeight,
+                                   double centroidKhzWeight, double lowBandRatioWeight, double threshold) {
+        this.bias = bias;
+        this.rmsDbWeight = rmsDbWeight;
+        this.zeroCrossingWeight = zeroCrossingWeight;
+        this.centroidKhzWeight = centroidKhzWeight;
+        this.lowBandRatioWeight = lowBandRatioWeight;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Reads a model in the format described above. The stream is not closed.
+     *
+     * @throws IOException if the stream cannot be read or a weight is missing or malformed
+     */
+    public static LogisticSnoreClassifier load(InputStream in) throws IOException {
+        Properties model = new Properties();
+        model.load(in);
+        return new LogisticSnoreClassifier(
+                require(model, "bias"),
+                require(model, "weight.rms_db"),
+                require(model, "weight.zero_crossing_rate"),
+                require(model, "weight.centroid_khz"),
+                require(model, "weight.low_band_ratio"),
+                model.containsKey("threshold") ? require(model, "threshold") : 0.5);
+    }
+
+    @Override
+    public double score(FrameFeatures features) {
+        if (features.rmsDb <= FrameFeatures.SILENCE_DB) {
+            return 0.0;
+        }
+        double z = bias
+                + rmsDbWeight * features.rmsDb
+                + zeroCrossingWeight * features.zeroCrossingRate
+                + centroidKhzWeight * (features.spectralCentroidHz / 1000.0)
+                + lowBandRatioWeight * features.lowBandRatio;
+        return 1.0 / (1.0 + Math.exp(-z));
+    }
+
+    @Override
+    public double getThreshold() {
+        return threshold;
+    }
+
+    private static double require(Properties model, String key) throws IOException {
+        String value = model.getProperty(key);
+        if (value == null) {
+            throw new IOException("Snore model is missing '" + key + "'");
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Snore model has a malformed '" + key + "': " + value, e);
+        }
+    }
+}
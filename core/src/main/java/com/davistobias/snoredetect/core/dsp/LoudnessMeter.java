@@ -0,0 +1,283 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import java.util.Arrays;
+
+/**
+ * A-weighted loudness of the analysed stream: the equivalent continuous level (Leq) of each frame,
+ * and of consecutive windows of stream time, one second and one minute long by default.
+ *
+ * The A-weighting curve of IEC 61672 is realised as three biquad sections normalised to 0 dB at
+ * 1 kHz. The two low sections are the bilinear transform of their analog poles. The 12.2 kHz pole
+ * pair lies at or above Nyquist at the analysis rates, where the bilinear transform would fold it
+ * onto a double zero and pull 3 kHz down by over a dB at 8 kHz, so that section is fitted to the
+ * analog magnitude directly: matched poles, and a numerator exact at DC, fs/4 and Nyquist. Every
+ * sample goes through the filter and its
+ * squared output is integrated, so a single click adds only its share of energy to a frame instead
+ * of setting its level. Levels are in dB relative to 16-bit full scale, like
+ * {@link FrameFeatures#rmsDb}: a full-scale 1 kHz sine reads about -3 dB, and
+ * {@link FrameFeatures#SILENCE_DB} stands for silence.
+ *
+ * {@link #process} runs on the capture thread and does not allocate; the window levels may be read
+ * from any thread. Windows start with the stream and split frames at their edges, so each gets
+ * exactly its own samples whatever the frame size. The per-minute history takes its Leq from the
+ * long window through {@link #getCompletedLongLeqDb()}.
+ */
+public final class LoudnessMeter {
+
+    public static final double DEFAULT_SHORT_WINDOW_SECONDS = 1.0;
+    public static final double DEFAULT_LONG_WINDOW_SECONDS = 60.0;
+
+    // Pole frequencies of the A-weighting curve, in Hz
+    private static final double POLE_1 = 20.598997;
+    private static final double POLE_2 = 107.65265;
+    private static final double POLE_3 = 737.86223;
+    private static final double POLE_4 = 12194.217;
+    private static final double REFERENCE_HZ = 1000.0;
+    private static final double FULL_SCALE = 32768.0;
+    private static final int SECTIONS = 3;
+
+    private final int sampleRate;
+    /** {b0, b1, b2, a1, a2} of each section, a0 normalised to 1. */
+    private final double[] coefficients = new double[SECTIONS * 5];
+    /** Transposed direct form II state {s1, s2} of each section. */
+    private final double[] state = new double[SECTIONS * 2];
+    private final Window shortWindow;
+    private final Window longWindow;
+
+    private double frameDb = FrameFeatures.SILENCE_DB;
+    private double completedLongDb = Double.NaN;
+
+    public LoudnessMeter(int sampleRate) {
+        this(sampleRate, DEFAULT_SHORT_WINDOW_SECONDS, DEFAULT_LONG_WINDOW_SECONDS);
+    }
+
+    public LoudnessMeter(int sampleRate, double shortWindowSeconds, double longWindowSeconds) {
+        if (sampleRate <= 2 * REFERENCE_HZ) {
+            throw new IllegalArgumentException("sampleRate must be above " + 2 * REFERENCE_HZ + " Hz: " + sampleRate);
+        }
+        if (!(shortWindowSeconds > 0) || !(longWindowSeconds > 0)) {
+            throw new IllegalArgumentException("window lengths must be positive");
+        }
+        this.sampleRate = sampleRate;
+        this.shortWindow = new Window(Math.max(1, Math.round(shortWindowSeconds * sampleRate)));
+        this.longWindow = new Window(Math.max(1, Math.round(longWindowSeconds * sampleRate)));
+
+        double k = 2.0 * sampleRate;
+        double w1 = 2 * Math.PI * POLE_1;
+        double w2 = 2 * Math.PI * POLE_2;
+        double w3 = 2 * Math.PI * POLE_3;
+        double w4 = 2 * Math.PI * POLE_4;
+        // s^2 / (s + w1)^2, s^2 / ((s + w2)(s + w3)) and 1 / (s / w4 + 1)^2
+        bilinear(0, k, 1, 0, 0, 2 * w1, w1 * w1);
+        bilinear(1, k, 1, 0, 0, w2 + w3, w2 * w3);
+        matchedLowpass(2, POLE_4);
+        double gain = magnitudeAt(REFERENCE_HZ);
+        for (int i = 0; i < 3; i++) {
+            coefficients[i] /= gain;
+        }
+    }
+
+    /** Maps the analog section (b2 s^2 + b1 s + b0) / (s^2 + a1 s + a0) into {@code section}. */
+    private void bilinear(int section, double k, double b2, double b1, double b0, double a1, double a0) {
+        double kk = k * k;
+        double norm = kk + a1 * k + a0;
+        int c = section * 5;
+        coefficients[c] = (b2 * kk + b1 * k + b0) / norm;
+        coefficients[c + 1] = (2 * b0 - 2 * b2 * kk) / norm;
+        coefficients[c + 2] = (b2 * kk - b1 * k + b0) / norm;
+        coefficients[c + 3] = (2 * a0 - 2 * kk) / norm;
+        coefficients[c + 4] = (kk - a1 * k + a0) / norm;
+    }
+
+    /**
+     * Fits the double real pole 1 / (s / w + 1)^2 into {@code section}: poles by the matched z
+     * transform, numerator chosen so the squared magnitude equals the analog one at DC, fs/4 and
+     * Nyquist. Unlike the bilinear transform this keeps a pole above Nyquist from turning into a
+     * zero there.
+     */
+    private void matchedLowpass(int section, double poleHz) {
+        double pole = Math.exp(-2 * Math.PI * poleHz / sampleRate);
+        double a1 = -2 * pole;
+        double a2 = pole * pole;
+
+        // |H|^2 = (B0 p0 + B1 p1 + B2 p2) / (A0 p0 + A1 p1 + A2 p2) with p1 = sin^2(w/2), p0 = 1 - p1,
+        // p2 = 4 p0 p1; at DC only p0 is left, at Nyquist only p1, and at fs/4 p0 = p1 = 1/2, p2 = 1
+        double den0 = (1 + a1 + a2) * (1 + a1 + a2);
+        double den1 = (1 - a1 + a2) * (1 - a1 + a2);
+        double den2 = -4 * a2;
+        double num0 = den0;
+        double num1 = analogPower(sampleRate / 2.0, poleHz) * den1;
+        double num2 = analogPower(sampleRate / 4.0, poleHz) * (den0 / 2 + den1 / 2 + den2) - num0 / 2 - num1 / 2;
+
+        // Factor the squared magnitude back into b0 + b1 z^-1 + b2 z^-2
+        double root0 = Math.sqrt(num0);
+        double root1 = Math.sqrt(num1);
+        double half = (root0 + root1) / 2;
+        double b0 = (half + Math.sqrt(half * half + num2)) / 2;
+        int c = section * 5;
+        coefficients[c] = b0;
+        coefficients[c + 1] = (root0 - root1) / 2;
+        coefficients[c + 2] = -num2 / (4 * b0);
+        coefficients[c + 3] = a1;
+        coefficients[c + 4] = a2;
+    }
+
+    /** Squared magnitude of 1 / (s / w + 1)^2 at {@code hz}. */
+    private static double analogPower(double hz, double poleHz) {
+        double ratio = hz / poleHz;
+        double single = 1 / (1 + ratio * ratio);
+        return single * single;
+    }
+
+    /** Gain of the filter at {@code hz}, as a linear magnitude. */
+    double magnitudeAt(double hz) {
+        double omega = 2 * Math.PI * hz / sampleRate;
+        double cos1 = Math.cos(omega);
+        double sin1 = -Math.sin(omega);
+        double cos2 = Math.cos(2 * omega);
+        double sin2 = -Math.sin(2 * omega);
+        double magnitude = 1;
+        for (int c = 0; c < coefficients.length; c += 5) {
+            double numRe = coefficients[c] + coefficients[c + 1] * cos1 + coefficients[c + 2] * cos2;
+            double numIm = coefficients[c + 1] * sin1 + coefficients[c + 2] * sin2;
+            double denRe = 1 + coefficients[c + 3] * cos1 + coefficients[c + 4] * cos2;
+            double denIm = coefficients[c + 3] * sin1 + coefficients[c + 4] * sin2;
+            magnitude *= Math.hypot(numRe, numIm) / Math.hypot(denRe, denIm);
+        }
+        return magnitude;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Weights and integrates the first {@code count} samples, the next frame of the stream.
+     *
+     * @return the frame's A-weighted Leq in dB, as also returned by {@link #getFrameDb()}
+     */
+    public double process(short[] samples, int count) {
+        double frameEnergy = 0;
+        double completed = Double.NaN;
+        int start = 0;
+        while (start < count) {
+            // Stop at the end of either window so each one gets exactly its own samples
+            int end = (int) Math.min(count, start + Math.min(shortWindow.remaining(), longWindow.remaining()));
+            double energy = filter(samples, start, end);
+            shortWindow.add(energy, end - start);
+            // Only a frame longer than the long window completes two; the first is the one it started in
+            if (longWindow.add(energy, end - start) && Double.isNaN(completed)) {
+                completed = longWindow.leqDb;
+            }
+            frameEnergy += energy;
+            start = end;
+        }
+        completedLongDb = completed;
+        frameDb = count > 0 ? toDecibel(frameEnergy / count) : FrameFeatures.SILENCE_DB;
+        return frameDb;
+    }
+
+    /** Sum of the squared weighted samples {@code from} to {@code to}, carrying the filter state on. */
+    private double filter(short[] samples, int from, int to) {
+        double[] c = coefficients;
+        double b10 = c[0], b11 = c[1], b12 = c[2], a11 = c[3], a12 = c[4];
+        double b20 = c[5], b21 = c[6], b22 = c[7], a21 = c[8], a22 = c[9];
+        double b30 = c[10], b31 = c[11], b32 = c[12], a31 = c[13], a32 = c[14];
+        double s11 = state[0], s12 = state[1];
+        double s21 = state[2], s22 = state[3];
+        double s31 = state[4], s32 = state[5];
+        double energy = 0;
+        for (int i = from; i < to; i++) {
+            double x = samples[i] * (1.0 / FULL_SCALE);
+            double y1 = b10 * x + s11;
+            s11 = b11 * x - a11 * y1 + s12;
+            s12 = b12 * x - a12 * y1;
+            double y2 = b20 * y1 + s21;
+            s21 = b21 * y1 - a21 * y2 + s22;
+            s22 = b22 * y1 - a22 * y2;
+            double y3 = b30 * y2 + s31;
+            s31 = b31 * y2 - a31 * y3 + s32;
+            s32 = b32 * y2 - a32 * y3;
+            energy += y3 * y3;
+        }
+        state[0] = s11;
+        state[1] = s12;
+        state[2] = s21;
+        state[3] = s22;
+        state[4] = s31;
+        state[5] = s32;
+        return energy;
+    }
+
+    /** A-weighted Leq of the last processed frame. */
+    public double getFrameDb() {
+        return frameDb;
+    }
+
+    /** Leq of the last complete short window (one second by default), or NaN before the first. */
+    public double getShortLeqDb() {
+        return shortWindow.leqDb;
+    }
+
+    /** Leq of the last complete long window (one minute by default), or NaN before the first. */
+    public double getLongLeqDb() {
+        return longWindow.leqDb;
+    }
+
+    /**
+     * Leq of the long window the last processed frame completed, or NaN if it completed none. Read
+     * on the capture thread right after {@link #process}, it tells which frame ends each window.
+     */
+    public double getCompletedLongLeqDb() {
+        return completedLongDb;
+    }
+
+    /** Clears the filter and the windows, e.g. before a new stream. */
+    public void reset() {
+        Arrays.fill(state, 0);
+        shortWindow.reset();
+        longWindow.reset();
+        frameDb = FrameFeatures.SILENCE_DB;
+        completedLongDb = Double.NaN;
+    }
+
+    private static double toDecibel(double meanSquare) {
+        return meanSquare > 0 ? Math.max(FrameFeatures.SILENCE_DB, 10.0 * Math.log10(meanSquare))
+                : FrameFeatures.SILENCE_DB;
+    }
+
+    /** Energy integrated over consecutive windows of a fixed number of samples. */
+    private static final class Window {
+        private final long length;
+        private long filled;
+        private double energy;
+        private volatile double leqDb = Double.NaN;
+
+        Window(long length) {
+            this.length = length;
+        }
+
+        long remaining() {
+            return length - filled;
+        }
+
+        /** @return whether the samples completed the window */
+        boolean add(double segmentEnergy, int samples) {
+            energy += segmentEnergy;
+            filled += samples;
+            if (filled < length) {
+                return false;
+            }
+            leqDb = toDecibel(energy / length);
+            energy = 0;
+            filled = 0;
+            return true;
+        }
+
+        void reset() {
+            filled = 0;
+            energy = 0;
+            leqDb = Double.NaN;
+        }
+    }
+}
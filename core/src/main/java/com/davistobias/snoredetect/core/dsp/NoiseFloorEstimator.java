@@ -0,0 +1,159 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import java.util.Arrays;
+
+/**
+ * Tracks the background level of the room (fans, air conditioning, where the phone lies) by
+ * minimum statistics, and derives a detection threshold a fixed margin above it.
+ *
+ * Frame levels are smoothed in the power domain over a few frames, so a single quiet
+ * frame cannot drag the floor down. The floor is the lowest smoothed level seen over the last
+ * window, kept as the minima of a few sub-windows: it falls as soon as the room gets quieter and
+ * rises only once the louder stretch has lasted a whole window, so snoring, which always leaves
+ * quieter breaths in between, is not mistaken for background.
+ *
+ * {@link #add} runs on the capture thread for every frame and does not allocate; the getters may
+ * be called from any thread.
+ */
+public final class NoiseFloorEstimator {
+
+    public static final double DEFAULT_WINDOW_SECONDS = 60.0;
+    public static final int DEFAULT_SUB_WINDOWS = 8;
+    /**
+     * Margin above the floor at which a frame counts as a sound rather than the room. Smaller than
+     * a margin for peaks would be: the level averages over the frame and A-weighting takes most off
+     * the low frequencies snoring is loudest in.
+     */
+    public static final double DEFAULT_MARGIN_DB = 10.0;
+
+    private static final double SMOOTHING_SECONDS = 0.2;
+
+    private final double windowSeconds;
+    private int sampleRate;
+    private long subWindowSamples;
+    private final double marginDb;
+    private final double fallbackThresholdDb;
+
+    // Minimum smoothed power of each finished sub-window, oldest overwritten first
+    private final double[] subWindowMinima;
+    private int subWindowIndex;
+    private long subWindowPosition;
+    private double currentMinimum;
+
+    private double smoothedPower;
+    private int smoothingFrameSamples;
+    private double smoothingAlpha;
+    private boolean started;
+
+    private volatile double floorDb = Double.NaN;
+    private volatile boolean calibrated;
+
+    public NoiseFloorEstimator(int sampleRate) {
+        this(sampleRate, DEFAULT_WINDOW_SECONDS, DEFAULT_SUB_WINDOWS, DEFAULT_MARGIN_DB,
+                LevelThresholdClassifier.DEFAULT_THRESHOLD_DB);
+    }
+
+    /**
+     * @param windowSeconds       how long a louder background must last before the floor follows it
+     * @param subWindows          pieces the window is tracked in; more follow a rise more smoothly
+     * @param marginDb            threshold distance above the floor
+     * @param fallbackThresholdDb threshold reported until the first sub-window has been measured
+     */
+    public NoiseFloorEstimator(int sampleRate, double windowSeconds, int subWindows, double marginDb,
+                               double fallbackThresholdDb) {
+        if (sampleRate <= 0 || subWindows <= 0 || !(windowSeconds > 0)) {
+            throw new IllegalArgumentException("sampleRate, windowSeconds and subWindows must be positive");
+        }
+        this.windowSeconds = windowSeconds;
+        this.marginDb = marginDb;
+        this.fallbackThresholdDb = fallbackThresholdDb;
+        this.subWindowMinima = new double[subWindows];
+        reset(sampleRate);
+    }
+
+    /**
+     * Forgets everything measured and measures from now on at {@code sampleRate}, for a recording
+     * captured at a different rate. Call before the capture thread starts.
+     */
+    public void reset(int sampleRate) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("sampleRate must be positive");
+        }
+        this.sampleRate = sampleRate;
+        this.subWindowSamples = Math.max(1, (long) (windowSeconds * sampleRate / subWindowMinima.length));
+        smoothingFrameSamples = 0;
+        reset();
+    }
+
+    /** Forgets everything measured, e.g. when the phone has been moved to a new recording. */
+    public void reset() {
+        Arrays.fill(subWindowMinima, Double.POSITIVE_INFINITY);
+        subWindowIndex = 0;
+        subWindowPosition = 0;
+        currentMinimum = Double.POSITIVE_INFINITY;
+        started = false;
+        floorDb = Double.NaN;
+        calibrated = false;
+    }
+
+    /**
+     * Accounts for one frame. Frames of digital silence carry no information about the room and
+     * should be left out.
+     *
+     * @param samples frame length
+     * @param levelDb frame level, on whatever dB scale the threshold will be compared on
+     */
+    public void add(int samples, double levelDb) {
+        double power = Math.pow(10.0, levelDb / 10.0);
+        if (!started) {
+            smoothedPower = power;
+            started = true;
+        } else {
+            if (samples != smoothingFrameSamples) {
+                smoothingFrameSamples = samples;
+                smoothingAlpha = Math.exp(-samples / (SMOOTHING_SECONDS * sampleRate));
+            }
+            smoothedPower = smoothingAlpha * smoothedPower + (1 - smoothingAlpha) * power;
+        }
+        if (smoothedPower < currentMinimum) {
+            currentMinimum = smoothedPower;
+        }
+
+        subWindowPosition += samples;
+        if (subWindowPosition >= subWindowSamples) {
+            subWindowMinima[subWindowIndex] = currentMinimum;
+            subWindowIndex = (subWindowIndex + 1) % subWindowMinima.length;
+            subWindowPosition = 0;
+            currentMinimum = smoothedPower;
+            calibrated = true;
+        }
+
+        double minimum = currentMinimum;
+        for (double m : subWindowMinima) {
+            if (m < minimum) {
+                minimum = m;
+            }
+        }
+        floorDb = 10.0 * Math.log10(minimum);
+    }
+
+    /** Estimated background level, or NaN before the first frame. */
+    public double getFloorDb() {
+        return floorDb;
+    }
+
+    /** Whether at least one sub-window has been measured, so the floor is more than a first guess. */
+    public boolean isCalibrated() {
+        return calibrated;
+    }
+
+    /** Floor plus margin once calibrated, the fallback threshold before. */
+    public double getThresholdDb() {
+        double floor = floorDb;
+        return calibrated && !Double.isNaN(floor) ? floor + marginDb : fallbackThresholdDb;
+    }
+
+    public double getMarginDb() {
+        return marginDb;
+    }
+}
@@ -0,0 +1,178 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import java.util.Arrays;
+
+/**
+ * Streaming low-pass FIR decimator by an integer factor, so analysis can run at a lower rate than
+ * capture.
+ *
+ * The filter is a Kaiser-windowed sinc with about 60 dB of stopband attenuation, its cutoff a
+ * little below the output Nyquist frequency: with the default length, everything below 0.6 of the
+ * output Nyquist (2.5 kHz when decimating to 8 kHz) passes within 0.1 dB, and what would alias into
+ * the lower three quarters of the output band is rejected. Like a polyphase bank, it computes only
+ * the outputs it keeps, so a kept sample costs one pass over the taps and the samples in between
+ * cost nothing but a store; the taps are symmetric, so that pass is over half of them. The delay
+ * line carries over between calls, so blocks of any size give the same stream as one long block.
+ * The filter delays the signal by {@link #getDelaySamples()} input samples.
+ *
+ * All tables are built in the constructor; {@link #process} does not allocate.
+ */
+public final class PolyphaseDecimator {
+
+    public static final int DEFAULT_TAPS_PER_PHASE = 16;
+    /** Cutoff (the -6 dB point) as a fraction of the output Nyquist frequency. */
+    public static final double DEFAULT_CUTOFF = 0.85;
+
+    // Kaiser beta for about 60 dB of stopband attenuation
+    private static final double KAISER_BETA = 5.65;
+
+    private final int factor;
+    private final int tapsPerPhase;
+    /** First half of the symmetric taps; tap i also applies at {@code length - 1 - i}. */
+    private final float[] folded;
+    /** Centre tap when the length is odd. */
+    private final float middle;
+    /** Last {@code factor * tapsPerPhase} input samples, stored twice so a window never wraps. */
+    private final float[] history;
+
+    private int write;
+    /** Input samples still to be taken in before the next output. */
+    private int skip;
+
+    public PolyphaseDecimator(int factor) {
+        this(factor, DEFAULT_TAPS_PER_PHASE, DEFAULT_CUTOFF);
+    }
+
+    /**
+     * @param tapsPerPhase filter length divided by the factor; longer gives a sharper transition
+     * @param cutoff       -6 dB point as a fraction of the output Nyquist frequency
+     */
+    public PolyphaseDecimator(int factor, int tapsPerPhase, double cutoff) {
+        if (factor <= 0 || tapsPerPhase <= 0) {
+            throw new IllegalArgumentException("factor and tapsPerPhase must be positive");
+        }
+        if (!(cutoff > 0 && cutoff <= 1)) {
+            throw new IllegalArgumentException("cutoff must be in (0, 1]: " + cutoff);
+        }
+        this.factor = factor;
+        this.tapsPerPhase = tapsPerPhase;
+        int length = factor * tapsPerPhase;
+        this.history = new float[2 * length];
+
+        double[] taps = lowPass(length, cutoff * 0.5 / factor);
+        this.folded = new float[length / 2];
+        for (int i = 0; i < folded.length; i++) {
+            folded[i] = (float) taps[i];
+        }
+        this.middle = (length & 1) != 0 ? (float) taps[length / 2] : 0f;
+    }
+
+    /** Largest factor that brings {@code inputRate} down to no less than {@code targetRate}, at least 1. */
+    public static int factorFor(int inputRate, int targetRate) {
+        return Math.max(1, inputRate / targetRate);
+    }
+
+    /** Kaiser-windowed sinc with DC gain 1; {@code cutoff} in cycles per input sample. */
+    static double[] lowPass(int length, double cutoff) {
+        double[] taps = new double[length];
+        double centre = (length - 1) / 2.0;
+        double norm = besselI0(KAISER_BETA);
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            double t = i - centre;
+            double sinc = t == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * t) / (Math.PI * t);
+            double r = centre == 0 ? 0 : t / centre;
+            double window = besselI0(KAISER_BETA * Math.sqrt(Math.max(0, 1 - r * r))) / norm;
+            taps[i] = sinc * window;
+            sum += taps[i];
+        }
+        for (int i = 0; i < length; i++) {
+            taps[i] /= sum;
+        }
+        return taps;
+    }
+
+    private static double besselI0(double x) {
+        double sum = 1;
+        double term = 1;
+        double halfX = x / 2;
+        for (int k = 1; k < 50; k++) {
+            term *= (halfX / k) * (halfX / k);
+            sum += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    public int getFactor() {
+        return factor;
+    }
+
+    /** Filter delay in input samples. */
+    public double getDelaySamples() {
+        return (factor * tapsPerPhase - 1) / 2.0;
+    }
+
+    /** Most output samples one call with {@code count} input samples can produce. */
+    public int maxOutput(int count) {
+        return count / factor + 1;
+    }
+
+    /**
+     * Filters and decimates {@code count} samples into {@code out}, which must hold
+     * {@link #maxOutput(int) maxOutput(count)} samples.
+     *
+     * @return number of samples written to {@code out}
+     */
+    public int process(short[] in, int count, short[] out) {
+        int produced = 0;
+        int length = history.length / 2;
+        int half = folded.length;
+        for (int i = 0; i < count; i++) {
+            float sample = in[i];
+            history[write] = sample;
+            history[write + length] = sample;
+            write = write + 1 == length ? 0 : write + 1;
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+
+            // history[write .. write + length) is the window, oldest first. The taps are symmetric,
+            // so samples equally far from the centre share a multiply; four running sums keep the
+            // multiply-adds from waiting on each other.
+            int first = write;
+            int last = write + length - 1;
+            float acc0 = 0;
+            float acc1 = 0;
+            float acc2 = 0;
+            float acc3 = 0;
+            int m = 0;
+            for (; m + 3 < half; m += 4) {
+                acc0 += folded[m] * (history[first + m] + history[last - m]);
+                acc1 += folded[m + 1] * (history[first + m + 1] + history[last - m - 1]);
+                acc2 += folded[m + 2] * (history[first + m + 2] + history[last - m - 2]);
+                acc3 += folded[m + 3] * (history[first + m + 3] + history[last - m - 3]);
+            }
+            for (; m < half; m++) {
+                acc0 += folded[m] * (history[first + m] + history[last - m]);
+            }
+            if ((length & 1) != 0) {
+                acc0 += middle * history[first + half];
+            }
+            int rounded = Math.round((acc0 + acc1) + (acc2 + acc3));
+            out[produced++] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, rounded));
+            skip = factor - 1;
+        }
+        return produced;
+    }
+
+    /** Clears the delay line, e.g. before a new stream. */
+    public void reset() {
+        Arrays.fill(history, 0);
+        write = 0;
+        skip = 0;
+    }
+}
@@ -0,0 +1,165 @@
+package com.davistobias.snoredetect.core.dsp;
+
+/**
+ * In-place radix-2 FFT of real input, with twiddle and bit-reversal tables built once per size.
+ *
+ * A real transform of size n is computed as a complex transform of size n/2 over the even/odd
+ * samples followed by a split step, so it costs about half of a complex FFT of the same size.
+ * {@link #forward(float[])} leaves the spectrum in the usual packed layout:
+ * <pre>
+ * data[0]      = Re X[0]        (DC, purely real)
+ * data[1]      = Re X[n/2]      (Nyquist, purely real)
+ * data[2k]     = Re X[k]        for 0 &lt; k &lt; n/2
+ * data[2k + 1] = Im X[k]
+ * </pre>
+ * An instance holds no per-call state, so it can be shared by threads that each own their data.
+ */
+public final class RealFft {
+
+    private final int size;
+    private final int half;
+    private final int[] bitReverse;
+    // Twiddles for the size/2 complex transform
+    private final float[] cos;
+    private final float[] sin;
+    // Twiddles for the real split step
+    private final float[] splitCos;
+    private final float[] splitSin;
+
+    /**
+     * @param size transform length, a power of two of at least 4
+     */
+    public RealFft(int size) {
+        if (size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two >= 4: " + size);
+        }
+        this.size = size;
+        this.half = size / 2;
+
+        bitReverse = new int[half];
+        int bits = Integer.numberOfTrailingZeros(half);
+        for (int i = 0; i < half; i++) {
+            bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+
+        cos = new float[half / 2];
+        sin = new float[half / 2];
+        for (int k = 0; k < half / 2; k++) {
+            double angle = 2.0 * Math.PI * k / half;
+            cos[k] = (float) Math.cos(angle);
+            sin[k] = (float) Math.sin(angle);
+        }
+
+        splitCos = new float[half / 2 + 1];
+        splitSin = new float[half / 2 + 1];
+        for (int k = 0; k <= half / 2; k++) {
+            double angle = 2.0 * Math.PI * k / size;
+            splitCos[k] = (float) Math.cos(angle);
+            splitSin[k] = (float) Math.sin(angle);
+        }
+    }
+
+    /** Returns the smallest power of two that is at least {@code n} (and at least 4). */
+    public static int sizeFor(int n) {
+        int size = Integer.highestOneBit(Math.max(n, 4));
+        return size < n ? size << 1 : size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Number of bins in a power spectrum: DC through Nyquist. */
+    public int binCount() {
+        return half + 1;
+    }
+
+    /** Replaces the {@code size} real samples in {@code data} with their packed spectrum. */
+    public void forward(float[] data) {
+        complexTransform(data);
+        split(data);
+    }
+
+    /**
+     * Writes |X[k]|^2 for k = 0..n/2 from a packed spectrum into {@code power}, which must hold at
+     * least {@link #binCount()} values.
+     */
+    public void powerSpectrum(float[] packed, float[] power) {
+        power[0] = packed[0] * packed[0];
+        power[half] = packed[1] * packed[1];
+        for (int k = 1; k < half; k++) {
+            float re = packed[2 * k];
+            float im = packed[2 * k + 1];
+            power[k] = re * re + im * im;
+        }
+    }
+
+    /** Iterative decimation-in-time FFT over {@code half} interleaved complex values. */
+    private void complexTransform(float[] data) {
+        for (int i = 0; i < half; i++) {
+            int j = bitReverse[i];
+            if (j > i) {
+                float re = data[2 * i];
+                float im = data[2 * i + 1];
+                data[2 * i] = data[2 * j];
+                data[2 * i + 1] = data[2 * j + 1];
+                data[2 * j] = re;
+                data[2 * j + 1] = im;
+            }
+        }
+
+        for (int length = 2; length <= half; length <<= 1) {
+            int span = length / 2;
+            int stride = half / length;
+            for (int start = 0; start < half; start += length) {
+                for (int k = 0; k < span; k++) {
+                    float wr = cos[k * stride];
+                    float wi = -sin[k * stride];
+                    int a = 2 * (start + k);
+                    int b = 2 * (start + k + span);
+                    float tr = data[b] * wr - data[b + 1] * wi;
+                    float ti = data[b] * wi + data[b + 1] * wr;
+                    data[b] = data[a] - tr;
+                    data[b + 1] = data[a + 1] - ti;
+                    data[a] += tr;
+                    data[a + 1] += ti;
+                }
+            }
+        }
+    }
+
+    /** Turns the transform of the packed even/odd samples into the first half of the real spectrum. */
+    private void split(float[] data) {
+        float re0 = data[0];
+        float im0 = data[1];
+        data[0] = re0 + im0;
+        data[1] = re0 - im0;
+
+        for (int k = 1; k <= half / 2; k++) {
+            int j = half - k;
+            float zr = data[2 * k];
+            float zi = data[2 * k + 1];
+            float yr = data[2 * j];
+            float yi = data[2 * j + 1];
+
+            // Even and odd halves of the spectrum
+            float er = 0.5f * (zr + yr);
+            float ei = 0.5f * (zi - yi);
+            float or = 0.5f * (zi + yi);
+            float oi = -0.5f * (zr - yr);
+
+            // Multiply the odd half by e^(-2 pi i k / n)
+            float c = splitCos[k];
+            float s = splitSin[k];
+            float tr = c * or + s * oi;
+            float ti = c * oi - s * or;
+
+            data[2 * k] = er + tr;
+            data[2 * k + 1] = ei + ti;
+            if (j != k) {
+                data[2 * j] = er - tr;
+                data[2 * j + 1] = ti - ei;
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.davistobias.snoredetect.core.dsp;
+
+/**
+ * Scores one frame of features. Runs on the capture thread, so implementations must not allocate
+ * or block.
+ */
+public interface SnoreClassifier {
+
+    /** Likelihood that the frame contains snoring, 0..1. */
+    double score(FrameFeatures features);
+
+    /** Score at or above which a frame counts as snoring. */
+    double getThreshold();
+}
@@ -0,0 +1,143 @@
+package com.davistobias.snoredetect.core.dsp;
+
+/**
+ * Detection stage run on the capture thread: feature extraction followed by a {@link SnoreClassifier}.
+ *
+ * Every frame first goes through a {@link LoudnessMeter}, whose A-weighted level is reported as
+ * {@link FrameFeatures#levelDb}. The classifier can be swapped while capture is running; the new
+ * one takes effect on the next frame. If given a {@link NoiseFloorEstimator}, every frame with any
+ * energy also updates the room's noise floor with that level before it is classified, so a
+ * threshold derived from the floor is current.
+ *
+ * With an {@link ActivityDetector} set, frames it finds idle skip feature extraction and the
+ * classifier: they score 0 and carry only the level and its decimated estimates. That is the
+ * low-power mode.
+ *
+ * Given a {@link PolyphaseDecimator}, each frame is first filtered down to the extractor's rate, so
+ * features and classifier see the same band whatever the capture rate. Everything after it,
+ * including the reported levels, the noise floor and the activity detector, then works on the
+ * decimated frame and must be set up for the lower rate.
+ */
+public final class SnoreDetector {
+
+    private final PolyphaseDecimator decimator;
+    private final short[] decimated;
+    private final FeatureExtractor extractor;
+    private final FrameFeatures features = new FrameFeatures();
+    private final LoudnessMeter loudness;
+    private final NoiseFloorEstimator noiseFloor;
+    private volatile SnoreClassifier classifier;
+    private volatile ActivityDetector activityDetector;
+
+    private double score;
+    private boolean snoring;
+
+    public SnoreDetector(FeatureExtractor extractor, SnoreClassifier classifier) {
+        this(extractor, classifier, null);
+    }
+
+    /**
+     * @param noiseFloor estimator to feed with every frame's level, or null
+     */
+    public SnoreDetector(FeatureExtractor extractor, SnoreClassifier classifier, NoiseFloorEstimator noiseFloor) {
+        this(null, extractor, classifier, noiseFloor);
+    }
+
+    /**
+     * @param decimator  filter bringing frames down to the extractor's rate, or null to analyse them
+     *                   as captured; frames may then hold up to the extractor's frame size times its
+     *                   factor
+     * @param noiseFloor estimator to feed with every frame's level, or null
+     */
+    public SnoreDetector(PolyphaseDecimator decimator, FeatureExtractor extractor, SnoreClassifier classifier,
+                         NoiseFloorEstimator noiseFloor) {
+        this.decimator = decimator;
+        this.decimated = decimator != null
+                ? new short[decimator.maxOutput(extractor.getFrameSize() * decimator.getFactor())]
+                : null;
+        this.extractor = extractor;
+        this.loudness = new LoudnessMeter(extractor.getSampleRate());
+        this.classifier = classifier;
+        this.noiseFloor = noiseFloor;
+    }
+
+    public void setClassifier(SnoreClassifier classifier) {
+        this.classifier = classifier;
+    }
+
+    public SnoreClassifier getClassifier() {
+        return classifier;
+    }
+
+    /** Enables the low-power first stage, or disables it with null. Takes effect on the next frame. */
+    public void setActivityDetector(ActivityDetector activityDetector) {
+        this.activityDetector = activityDetector;
+    }
+
+    public ActivityDetector getActivityDetector() {
+        return activityDetector;
+    }
+
+    /** Meter every analysed frame goes through, with its one-second and one-minute Leq. */
+    public LoudnessMeter getLoudnessMeter() {
+        return loudness;
+    }
+
+    /** The filter frames go through before analysis, or null. */
+    public PolyphaseDecimator getDecimator() {
+        return decimator;
+    }
+
+    /** The estimator fed by this detector, or null. */
+    public NoiseFloorEstimator getNoiseFloor() {
+        return noiseFloor;
+    }
+
+    /**
+     * Analyses one frame.
+     *
+     * @return whether the frame was classified as snoring
+     */
+    public boolean process(short[] samples, int count) {
+        if (decimator != null) {
+            count = decimator.process(samples, count, decimated);
+            samples = decimated;
+        }
+        double levelDb = loudness.process(samples, count);
+        ActivityDetector activity = activityDetector;
+        if (activity != null && !activity.check(samples, count, levelDb, features)) {
+            features.levelDb = levelDb;
+            updateNoiseFloor(count);
+            score = 0;
+            snoring = false;
+            return false;
+        }
+        SnoreClassifier active = classifier;
+        extractor.extract(samples, count, features);
+        features.levelDb = levelDb;
+        updateNoiseFloor(count);
+        score = active.score(features);
+        snoring = score >= active.getThreshold();
+        return snoring;
+    }
+
+    private void updateNoiseFloor(int count) {
+        // Digital silence says nothing about the room
+        if (noiseFloor != null && features.rmsDb > FrameFeatures.SILENCE_DB) {
+            noiseFloor.add(count, features.levelDb);
+        }
+    }
+
+    /** Features of the last processed frame. Overwritten by the next call to {@link #process}. */
+    public FrameFeatures getFeatures() {
+        return features;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public boolean isSnoring() {
+        return snoring;
+    }
+}
@@ -0,0 +1,36 @@
+package com.davistobias.snoredetect.core.dsp;
+
+/**
+ * One detected snore, from onset to offset.
+ */
+public final class SnoreEvent {
+
+    /** Stream position of the first sample of the event. */
+    public final long startSample;
+    public final long durationSamples;
+    /** Loudest frame level during the event, in dB. */
+    public final float peakDb;
+    /** Power mean of the frame levels during the event, in dB. */
+    public final float meanDb;
+
+    public SnoreEvent(long startSample, long durationSamples, float peakDb, float meanDb) {
+        this.startSample = startSample;
+        this.durationSamples = durationSamples;
+        this.peakDb = peakDb;
+        this.meanDb = meanDb;
+    }
+
+    public long getEndSample() {
+        return startSample + durationSamples;
+    }
+
+    public double getDurationSeconds(int sampleRate) {
+        return (double) durationSamples / sampleRate;
+    }
+
+    @Override
+    public String toString() {
+        return "SnoreEvent{start=" + startSample + ", duration=" + durationSamples
+                + ", peak=" + peakDb + " dB, mean=" + meanDb + " dB}";
+    }
+}
@@ -0,0 +1,135 @@
+package com.davistobias.snoredetect.core.dsp;
+
+/**
+ * Turns the per-frame detection stream into discrete {@link SnoreEvent}s.
+ *
+ * An event starts when a frame's activation reaches the on threshold and continues until it falls
+ * below the lower off threshold. A dip shorter than the minimum gap is bridged, so one snore with
+ * a flutter in it stays one event, and events shorter than the minimum duration are discarded.
+ * Frames must be fed in stream order. Only finished events are allocated; frames are not.
+ */
+public final class SnoreEventDetector {
+
+    /** Defaults for activation given as a classifier score in 0..1. */
+    public static final double DEFAULT_ON_THRESHOLD = 0.6;
+    public static final double DEFAULT_OFF_THRESHOLD = 0.4;
+    public static final int DEFAULT_MIN_DURATION_MILLIS = 300;
+    public static final int DEFAULT_MIN_GAP_MILLIS = 500;
+
+    private final double onThreshold;
+    private final double offThreshold;
+    private final long minDurationSamples;
+    private final long minGapSamples;
+    private final SnoreEventQueue queue;
+
+    private boolean active;
+    private boolean inGap;
+    private long eventStart;
+    private long eventEnd;
+    private double peakDb;
+    private double powerSum;
+    private int frameCount;
+    private long eventCount;
+
+    public SnoreEventDetector(int sampleRate, SnoreEventQueue queue) {
+        this(sampleRate, DEFAULT_ON_THRESHOLD, DEFAULT_OFF_THRESHOLD,
+                DEFAULT_MIN_DURATION_MILLIS, DEFAULT_MIN_GAP_MILLIS, queue);
+    }
+
+    public SnoreEventDetector(int sampleRate, double onThreshold, double offThreshold,
+                              int minDurationMillis, int minGapMillis, SnoreEventQueue queue) {
+        if (offThreshold > onThreshold) {
+            throw new IllegalArgumentException("offThreshold must not exceed onThreshold");
+        }
+        this.onThreshold = onThreshold;
+        this.offThreshold = offThreshold;
+        this.minDurationSamples = (long) minDurationMillis * sampleRate / 1000;
+        this.minGapSamples = (long) minGapMillis * sampleRate / 1000;
+        this.queue = queue;
+    }
+
+    /**
+     * Feeds one frame.
+     *
+     * @param startSample stream position of the frame's first sample
+     * @param length      samples in the frame
+     * @param activation  detection value compared against the thresholds, e.g. a classifier score
+     * @param levelDb     frame level, used for the event's peak and mean
+     * @return whether an event was completed and queued by this frame
+     */
+    public boolean process(long startSample, int length, double activation, double levelDb) {
+        long frameEnd = startSample + length;
+
+        if (!active) {
+            if (activation >= onThreshold) {
+                begin(startSample);
+                accumulate(frameEnd, levelDb);
+            }
+            return false;
+        }
+
+        if (!inGap) {
+            if (activation >= offThreshold) {
+                accumulate(frameEnd, levelDb);
+                return false;
+            }
+            inGap = true;
+        } else if (activation >= onThreshold) {
+            // Resumed within the gap allowance: bridge the dip
+            inGap = false;
+            accumulate(frameEnd, levelDb);
+            return false;
+        }
+
+        if (frameEnd - eventEnd >= minGapSamples) {
+            return finish();
+        }
+        return false;
+    }
+
+    /** Ends any event in progress, e.g. when recording stops. */
+    public boolean flush() {
+        return active && finish();
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /** Events queued since creation. */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    private void begin(long startSample) {
+        active = true;
+        inGap = false;
+        eventStart = startSample;
+        eventEnd = startSample;
+        peakDb = Double.NEGATIVE_INFINITY;
+        powerSum = 0;
+        frameCount = 0;
+    }
+
+    private void accumulate(long frameEnd, double levelDb) {
+        eventEnd = frameEnd;
+        if (levelDb > peakDb) {
+            peakDb = levelDb;
+        }
+        powerSum += Math.pow(10.0, levelDb / 10.0);
+        frameCount++;
+    }
+
+    private boolean finish() {
+        active = false;
+        inGap = false;
+        long duration = eventEnd - eventStart;
+        if (duration < minDurationSamples) {
+            return false;
+        }
+        float meanDb = (float) (10.0 * Math.log10(powerSum / frameCount));
+        queue.offer(new SnoreEvent(eventStart, duration, (float) peakDb, meanDb));
+        eventCount++;
+        return true;
+    }
+}
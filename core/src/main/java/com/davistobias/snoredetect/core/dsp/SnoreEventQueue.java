@@ -0,0 +1,47 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Bounded hand-off of {@link SnoreEvent}s from the capture thread to consumers.
+ *
+ * The producer never blocks: if consumers fall behind and the queue is full, the oldest event
+ * is discarded and counted.
+ */
+public final class SnoreEventQueue {
+
+    private final ArrayBlockingQueue<SnoreEvent> queue;
+    private volatile long droppedCount;
+
+    public SnoreEventQueue(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public void offer(SnoreEvent event) {
+        while (!queue.offer(event)) {
+            if (queue.poll() != null) {
+                droppedCount = droppedCount + 1;
+            }
+        }
+    }
+
+    /** Returns the oldest event, or null if there is none. */
+    public SnoreEvent poll() {
+        return queue.poll();
+    }
+
+    /** Moves all queued events into {@code target}, returning how many were moved. */
+    public int drainTo(Collection<? super SnoreEvent> target) {
+        return queue.drainTo(target);
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    /** Events discarded because the queue was full. */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+}
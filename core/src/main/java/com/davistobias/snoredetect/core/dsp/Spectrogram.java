@@ -0,0 +1,98 @@
+package com.davistobias.snoredetect.core.dsp;
+
+/**
+ * Streaming short-time power spectrum over a PCM stream.
+ *
+ * Samples are pushed in blocks of any size. Every {@code hopSize} samples, once a full window is
+ * available, the last {@code fftSize} samples are Hann-windowed, transformed and handed to the
+ * listener as a power spectrum. A hop of half the FFT size gives 50% overlap, a quarter gives 75%.
+ * The spectrum array is reused for every frame and nothing is allocated after construction.
+ */
+public final class Spectrogram {
+
+    public interface Listener {
+        /**
+         * @param power       |X[k]|^2 for bins 0..fftSize/2; only valid during the call
+         * @param startSample stream position of the first sample in the window
+         */
+        void onSpectrum(float[] power, long startSample);
+    }
+
+    private final RealFft fft;
+    private final int hopSize;
+    private final Listener listener;
+    private final float[] window;
+    private final float[] history;
+    private final float[] work;
+    private final float[] power;
+
+    private int writeIndex;
+    private int filled;
+    private int sinceLastFrame;
+    private long samplesSeen;
+
+    public Spectrogram(int fftSize, int hopSize, Listener listener) {
+        if (hopSize <= 0 || hopSize > fftSize) {
+            throw new IllegalArgumentException("hopSize must be in 1.." + fftSize + ": " + hopSize);
+        }
+        this.fft = new RealFft(fftSize);
+        this.hopSize = hopSize;
+        this.listener = listener;
+        this.window = hannWindow(fftSize);
+        this.history = new float[fftSize];
+        this.work = new float[fftSize];
+        this.power = new float[fft.binCount()];
+    }
+
+    /** Periodic Hann window, which overlap-adds to a constant at 50% and 75% overlap. */
+    public static float[] hannWindow(int size) {
+        float[] window = new float[size];
+        for (int i = 0; i < size; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2.0 * Math.PI * i / size));
+        }
+        return window;
+    }
+
+    public int getFftSize() {
+        return fft.size();
+    }
+
+    public int getHopSize() {
+        return hopSize;
+    }
+
+    /** Pushes {@code count} samples, emitting zero or more spectra. */
+    public void process(short[] samples, int offset, int count) {
+        int size = history.length;
+        for (int i = 0; i < count; i++) {
+            history[writeIndex] = samples[offset + i];
+            writeIndex = (writeIndex + 1) & (size - 1);
+            samplesSeen++;
+            if (filled < size) {
+                filled++;
+            }
+            if (++sinceLastFrame >= hopSize && filled == size) {
+                sinceLastFrame = 0;
+                emitFrame();
+            }
+        }
+    }
+
+    /** Forgets buffered samples, e.g. after a gap in the stream. */
+    public void reset() {
+        writeIndex = 0;
+        filled = 0;
+        sinceLastFrame = 0;
+    }
+
+    private void emitFrame() {
+        int size = history.length;
+        // writeIndex is the oldest sample once the history is full
+        for (int i = 0; i < size; i++) {
+            work[i] = history[(writeIndex + i) & (size - 1)] * window[i];
+        }
+        fft.forward(work);
+        fft.powerSpectrum(work, power);
+        listener.onSpectrum(power, samplesSeen - size);
+    }
+}
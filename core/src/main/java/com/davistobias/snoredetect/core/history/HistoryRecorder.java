@@ -0,0 +1,255 @@
+package com.davistobias.snoredetect.core.history;
+
+import com.davistobias.snoredetect.core.FrameObserver;
+import com.davistobias.snoredetect.core.dsp.SnoreEvent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Collects one session's events and per-minute aggregates in memory and writes them to the
+ * {@link HistoryStore} in batches, so the store sees one synced append every few seconds instead
+ * of a write per event.
+ *
+ * Frames arrive on the frame consumer thread and events on the thread draining the event queue;
+ * both only touch memory under a short lock. {@link #flush()} swaps the pending batch out under the
+ * lock and does the I/O outside it, from a single thread such as the writer's.
+ *
+ * A minute's row is held back until the minute after it has ended, so events reported shortly
+ * after they finish still count towards the minute they ended in. Its level is the one-minute Leq
+ * of the {@link com.davistobias.snoredetect.core.dsp.LoudnessMeter}, which arrives with the frame
+ * that completes the minute. Only a minute the recording stops in, or whose completing frame was
+ * dropped on the way, falls back to the energy mean of the frames it received.
+ */
+public final class HistoryRecorder implements FrameObserver {
+
+    // The current minute, the one before it, and room for a late flush
+    private static final int OPEN_MINUTES = 4;
+    private static final int INITIAL_BATCH_RECORDS = 64;
+
+    private final HistoryStore store;
+    private final int sampleRate;
+    private final long startMillis;
+    private final long samplesPerMinute;
+
+    private final Object lock = new Object();
+    private final Batch sessions = new Batch(HistoryStore.SESSION_RECORD_SIZE);
+    private final Batch events = new Batch(HistoryStore.EVENT_RECORD_SIZE);
+    private final Batch minutes = new Batch(HistoryStore.MINUTE_RECORD_SIZE);
+
+    // Minutes firstOpenMinute..newestMinute, each in slot (minute % OPEN_MINUTES)
+    private final long[] minuteRecorded = new long[OPEN_MINUTES];
+    private final double[] minuteEnergy = new double[OPEN_MINUTES];
+    private final double[] minuteMeteredDb = new double[OPEN_MINUTES];
+    private final float[] minuteMaxDb = new float[OPEN_MINUTES];
+    private final int[] minuteEvents = new int[OPEN_MINUTES];
+    private final long[] minuteSnoreSamples = new long[OPEN_MINUTES];
+    private long firstOpenMinute;
+    private long newestMinute = -1;
+
+    private long position;
+    private int eventCount;
+    private long snoreSamples;
+    private long longestEventSamples;
+    private float peakDb = Float.NEGATIVE_INFINITY;
+    private boolean finished;
+
+    private final Object flushLock = new Object();
+
+    public HistoryRecorder(HistoryStore store, int sampleRate, long startMillis) {
+        this.store = store;
+        this.sampleRate = sampleRate;
+        this.startMillis = startMillis;
+        this.samplesPerMinute = 60L * sampleRate;
+        synchronized (lock) {
+            putSession(0);
+        }
+    }
+
+    @Override
+    public void onFrame(int samples, double levelDb) {
+        onFrame(samples, levelDb, Double.NaN);
+    }
+
+    @Override
+    public void onFrame(int samples, double levelDb, double minuteLeqDb) {
+        synchronized (lock) {
+            if (finished) {
+                return;
+            }
+            long minute = position / samplesPerMinute;
+            while (newestMinute < minute) {
+                openMinute();
+            }
+            int slot = (int) (minute % OPEN_MINUTES);
+            minuteRecorded[slot] += samples;
+            // Weighted by length, the fallback mean is a Leq whatever the block sizes
+            minuteEnergy[slot] += Math.pow(10.0, levelDb / 10.0) * samples;
+            if (levelDb > minuteMaxDb[slot]) {
+                minuteMaxDb[slot] = (float) levelDb;
+            }
+            // The meter's minutes start with the stream too, so the frame ending one starts inside it
+            if (!Double.isNaN(minuteLeqDb)) {
+                minuteMeteredDb[slot] = minuteLeqDb;
+            }
+            position += samples;
+        }
+    }
+
+    public void addEvent(SnoreEvent event) {
+        synchronized (lock) {
+            if (finished) {
+                return;
+            }
+            eventCount++;
+            snoreSamples += event.durationSamples;
+            longestEventSamples = Math.max(longestEventSamples, event.durationSamples);
+            peakDb = Math.max(peakDb, event.peakDb);
+
+            ByteBuffer out = events.reserve();
+            out.putLong(toMillis(event.startSample));
+            out.putLong(startMillis);
+            out.putInt((int) (event.durationSamples * 1000 / sampleRate));
+            out.putFloat(event.peakDb);
+            out.putFloat(event.meanDb);
+            out.putInt(0);
+
+            if (newestMinute >= firstOpenMinute) {
+                long minute = (event.getEndSample() - 1) / samplesPerMinute;
+                minute = Math.max(firstOpenMinute, Math.min(newestMinute, minute));
+                int slot = (int) (minute % OPEN_MINUTES);
+                minuteEvents[slot]++;
+                minuteSnoreSamples[slot] += event.durationSamples;
+            }
+        }
+    }
+
+    /** Writes everything pending except the minutes that may still receive events. */
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            synchronized (lock) {
+                while (firstOpenMinute < newestMinute - 1) {
+                    closeOldestMinute();
+                }
+            }
+            write();
+        }
+    }
+
+    /** Closes all minutes, writes the session's final record and flushes. Further input is ignored. */
+    public void finish() throws IOException {
+        synchronized (flushLock) {
+            synchronized (lock) {
+                if (finished) {
+                    return;
+                }
+                while (firstOpenMinute <= newestMinute) {
+                    closeOldestMinute();
+                }
+                putSession(toMillis(position));
+                finished = true;
+            }
+            write();
+        }
+    }
+
+    private void write() throws IOException {
+        ByteBuffer sessionRecords;
+        ByteBuffer eventRecords;
+        ByteBuffer minuteRecords;
+        synchronized (lock) {
+            sessionRecords = sessions.swap();
+            eventRecords = events.swap();
+            minuteRecords = minutes.swap();
+        }
+        store.append(sessionRecords, eventRecords, minuteRecords);
+    }
+
+    private void openMinute() {
+        if (newestMinute - firstOpenMinute + 1 == OPEN_MINUTES) {
+            closeOldestMinute();
+        }
+        newestMinute++;
+        int slot = (int) (newestMinute % OPEN_MINUTES);
+        minuteRecorded[slot] = 0;
+        minuteEnergy[slot] = 0;
+        minuteMeteredDb[slot] = Double.NaN;
+        minuteMaxDb[slot] = Float.NEGATIVE_INFINITY;
+        minuteEvents[slot] = 0;
+        minuteSnoreSamples[slot] = 0;
+    }
+
+    private void closeOldestMinute() {
+        int slot = (int) (firstOpenMinute % OPEN_MINUTES);
+        long recorded = minuteRecorded[slot];
+        ByteBuffer out = minutes.reserve();
+        out.putLong(startMillis + firstOpenMinute * 60_000L);
+        out.putLong(startMillis);
+        out.putInt((int) (recorded * 1000 / sampleRate));
+        out.putInt(minuteEvents[slot]);
+        out.putInt((int) (minuteSnoreSamples[slot] * 1000 / sampleRate));
+        out.putFloat((float) minuteLevel(slot));
+        out.putFloat(minuteMaxDb[slot]);
+        out.putInt(0);
+        firstOpenMinute++;
+    }
+
+    private double minuteLevel(int slot) {
+        if (!Double.isNaN(minuteMeteredDb[slot])) {
+            return minuteMeteredDb[slot];
+        }
+        long recorded = minuteRecorded[slot];
+        return recorded > 0 ? 10.0 * Math.log10(minuteEnergy[slot] / recorded) : Double.NEGATIVE_INFINITY;
+    }
+
+    private void putSession(long endMillis) {
+        ByteBuffer out = sessions.reserve();
+        out.putLong(startMillis);
+        out.putLong(endMillis);
+        out.putLong(position * 1000 / sampleRate);
+        out.putInt(eventCount);
+        out.putInt((int) (snoreSamples * 1000 / sampleRate));
+        out.putInt((int) (longestEventSamples * 1000 / sampleRate));
+        out.putFloat(peakDb);
+    }
+
+    private long toMillis(long samplePosition) {
+        return startMillis + samplePosition * 1000 / sampleRate;
+    }
+
+    /**
+     * Pending records for one table, double-buffered so new records can be added while the
+     * previous batch is being written.
+     */
+    private static final class Batch {
+        private final int recordSize;
+        private ByteBuffer pending;
+        private ByteBuffer writing;
+
+        Batch(int recordSize) {
+            this.recordSize = recordSize;
+            this.pending = ByteBuffer.allocate(INITIAL_BATCH_RECORDS * recordSize);
+            this.writing = ByteBuffer.allocate(INITIAL_BATCH_RECORDS * recordSize);
+        }
+
+        ByteBuffer reserve() {
+            if (pending.remaining() < recordSize) {
+                ByteBuffer grown = ByteBuffer.allocate(pending.capacity() * 2);
+                pending.flip();
+                grown.put(pending);
+                pending = grown;
+            }
+            return pending;
+        }
+
+        /** Hands out everything pending, ready to read, and starts a new batch. */
+        ByteBuffer swap() {
+            ByteBuffer full = pending;
+            pending = writing;
+            pending.clear();
+            writing = full;
+            full.flip();
+            return full;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.davistobias.snoredetect.core.history;
+
+import com.davistobias.snoredetect.core.codec.PcmSink;
+
+import java.io.IOException;
+
+/**
+ * Passes blocks through unchanged and flushes a {@link HistoryRecorder} every so many samples of
+ * stream time, finishing the session when closed. Keeps the history's syncs on the writer thread.
+ */
+public final class HistorySink implements PcmSink {
+
+    private final PcmSink downstream;
+    private final HistoryRecorder recorder;
+    private final long intervalSamples;
+    private long streamPosition;
+    private long nextFlush;
+
+    public HistorySink(PcmSink downstream, HistoryRecorder recorder, long intervalSamples) {
+        if (intervalSamples <= 0) {
+            throw new IllegalArgumentException("intervalSamples must be positive");
+        }
+        this.downstream = downstream;
+        this.recorder = recorder;
+        this.intervalSamples = intervalSamples;
+        this.nextFlush = intervalSamples;
+    }
+
+    @Override
+    public void write(short[] samples, int offset, int count) throws IOException {
+        writeBlock(samples, offset, count, streamPosition, 0);
+    }
+
+    @Override
+    public void writeBlock(short[] samples, int offset, int count, long position, int flags) throws IOException {
+        downstream.writeBlock(samples, offset, count, position, flags);
+        streamPosition = position + count;
+        if (streamPosition >= nextFlush) {
+            recorder.flush();
+            nextFlush = streamPosition + intervalSamples;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            downstream.close();
+        } finally {
+            recorder.finish();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.davistobias.snoredetect.core.history;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Local history of every night: sessions, snore events and per-minute aggregates, kept across
+ * recordings so history and trend screens never touch the audio.
+ *
+ * Each table is an append-only {@link RecordLog} keyed by wall-clock milliseconds, so time-range
+ * queries are a binary search plus a sequential read of just the matching records. Records are
+ * big-endian:
+ *
+ * <pre>
+ * sessions.log (40 bytes): long startMillis, long endMillis (0 while recording), long recordedMillis,
+ *                          int eventCount, int snoreMillis, int longestEventMillis, float peakDb
+ * events.log   (32 bytes): long epochMillis, long sessionStartMillis, int durationMillis,
+ *                          float peakDb, float meanDb, int reserved
+ * minutes.log  (40 bytes): long minuteStartMillis, long sessionStartMillis, int recordedMillis,
+ *                          int eventCount, int snoreMillis, float meanLevelDb, float maxLevelDb,
+ *                          int reserved
+ * </pre>
+ *
+ * Levels are A-weighted, in dB relative to full scale: a minute's meanLevelDb is its Leq and
+ * maxLevelDb its loudest frame; an event's peakDb and meanDb are the same over the event.
+ *
+ * A session gets one record when it begins and a final one when it ends; queries report the
+ * latest. A session whose final record never made it to disk is summarized from its minutes.
+ * Writes arrive in batches from a {@link HistoryRecorder}; queries may run on any thread.
+ */
+public final class HistoryStore implements Closeable {
+
+    public static final String SESSIONS_FILE = "sessions.log";
+    public static final String EVENTS_FILE = "events.log";
+    public static final String MINUTES_FILE = "minutes.log";
+
+    static final int SESSION_RECORD_SIZE = 40;
+    static final int EVENT_RECORD_SIZE = 32;
+    static final int MINUTE_RECORD_SIZE = 40;
+
+    private static final int SESSIONS_MAGIC = 0x53444853;
+    private static final int EVENTS_MAGIC = 0x53444845;
+    private static final int MINUTES_MAGIC = 0x5344484D;
+    private static final int READ_BATCH_RECORDS = 256;
+
+    public interface EventVisitor {
+        void visit(long epochMillis, long sessionStartMillis, int durationMillis, float peakDb, float meanDb);
+    }
+
+    public interface MinuteVisitor {
+        void visit(long minuteStartMillis, long sessionStartMillis, int recordedMillis, int eventCount,
+                   int snoreMillis, float meanLevelDb, float maxLevelDb);
+    }
+
+    private final RecordLog sessions;
+    private final RecordLog events;
+    private final RecordLog minutes;
+
+    private HistoryStore(RecordLog sessions, RecordLog events, RecordLog minutes) {
+        this.sessions = sessions;
+        this.events = events;
+        this.minutes = minutes;
+    }
+
+    /** Opens the store in {@code dir}, creating it if needed. */
+    public static HistoryStore open(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        RecordLog sessions = null;
+        RecordLog events = null;
+        try {
+            sessions = RecordLog.open(new File(dir, SESSIONS_FILE), SESSIONS_MAGIC, SESSION_RECORD_SIZE);
+            events = RecordLog.open(new File(dir, EVENTS_FILE), EVENTS_MAGIC, EVENT_RECORD_SIZE);
+            RecordLog minutes = RecordLog.open(new File(dir, MINUTES_FILE), MINUTES_MAGIC, MINUTE_RECORD_SIZE);
+            return new HistoryStore(sessions, events, minutes);
+        } catch (IOException e) {
+            closeQuietly(sessions);
+            closeQuietly(events);
+            throw e;
+        }
+    }
+
+    /**
+     * Appends one batch of records to each table and syncs them. Session records go last, so a
+     * final session record on disk implies its events and minutes are there too.
+     */
+    synchronized void append(ByteBuffer sessionRecords, ByteBuffer eventRecords, ByteBuffer minuteRecords)
+            throws IOException {
+        if (eventRecords.hasRemaining()) {
+            events.append(eventRecords);
+            events.sync();
+        }
+        if (minuteRecords.hasRemaining()) {
+            minutes.append(minuteRecords);
+            minutes.sync();
+        }
+        if (sessionRecords.hasRemaining()) {
+            sessions.append(sessionRecords);
+            sessions.sync();
+        }
+    }
+
+    /** Sessions that started in {@code [fromMillis, toMillis)}, oldest first. */
+    public List<SessionSummary> sessions(long fromMillis, long toMillis) throws IOException {
+        List<SessionSummary> result = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BATCH_RECORDS * SESSION_RECORD_SIZE);
+        ByteBuffer latest = ByteBuffer.allocate(SESSION_RECORD_SIZE);
+        boolean haveLatest = false;
+        long nextStart = Long.MAX_VALUE;
+        long index = sessions.lowerBound(fromMillis);
+        int count;
+        scan:
+        while ((count = sessions.read(index, buffer)) > 0) {
+            for (int i = 0; i < count; i++) {
+                int offset = i * SESSION_RECORD_SIZE;
+                long start = buffer.getLong(offset);
+                if (haveLatest && start != latest.getLong(0)) {
+                    result.add(summarize(latest, start));
+                    haveLatest = false;
+                }
+                if (start >= toMillis) {
+                    nextStart = start;
+                    break scan;
+                }
+                // Later records for the same session supersede earlier ones
+                latest.clear();
+                latest.put(buffer.array(), offset, SESSION_RECORD_SIZE);
+                haveLatest = true;
+            }
+            index += count;
+        }
+        if (haveLatest) {
+            result.add(summarize(latest, nextStart));
+        }
+        return result;
+    }
+
+    /** Number of events starting in {@code [fromMillis, toMillis)}, from two binary searches. */
+    public long countEvents(long fromMillis, long toMillis) throws IOException {
+        return Math.max(0, events.lowerBound(toMillis) - events.lowerBound(fromMillis));
+    }
+
+    /**
+     * Visits events starting in {@code [fromMillis, toMillis)} in time order.
+     *
+     * @return number of events visited
+     */
+    public int events(long fromMillis, long toMillis, EventVisitor visitor) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BATCH_RECORDS * EVENT_RECORD_SIZE);
+        long index = events.lowerBound(fromMillis);
+        int visited = 0;
+        while (true) {
+            int count = events.read(index, buffer);
+            for (int i = 0; i < count; i++) {
+                int offset = i * EVENT_RECORD_SIZE;
+                long time = buffer.getLong(offset);
+                if (time >= toMillis) {
+                    return visited;
+                }
+                visitor.visit(time, buffer.getLong(offset + 8), buffer.getInt(offset + 16),
+                        buffer.getFloat(offset + 20), buffer.getFloat(offset + 24));
+                visited++;
+            }
+            if (count == 0) {
+                return visited;
+            }
+            index += count;
+        }
+    }
+
+    /**
+     * Visits per-minute aggregates for minutes starting in {@code [fromMillis, toMillis)}.
+     *
+     * @return number of minutes visited
+     */
+    public int minutes(long fromMillis, long toMillis, MinuteVisitor visitor) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BATCH_RECORDS * MINUTE_RECORD_SIZE);
+        long index = minutes.lowerBound(fromMillis);
+        int visited = 0;
+        while (true) {
+            int count = minutes.read(index, buffer);
+            for (int i = 0; i < count; i++) {
+                int offset = i * MINUTE_RECORD_SIZE;
+                long time = buffer.getLong(offset);
+                if (time >= toMillis) {
+                    return visited;
+                }
+                visitor.visit(time, buffer.getLong(offset + 8), buffer.getInt(offset + 16),
+                        buffer.getInt(offset + 20), buffer.getInt(offset + 24),
+                        buffer.getFloat(offset + 28), buffer.getFloat(offset + 32));
+                visited++;
+            }
+            if (count == 0) {
+                return visited;
+            }
+            index += count;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sessions.close();
+            events.close();
+        } finally {
+            minutes.close();
+        }
+    }
+
+    private SessionSummary summarize(ByteBuffer record, long nextSessionStart) throws IOException {
+        long start = record.getLong(0);
+        long end = record.getLong(8);
+        if (end != 0) {
+            return new SessionSummary(start, end, record.getLong(16), record.getInt(24),
+                    record.getInt(28), record.getInt(32), record.getFloat(36), true);
+        }
+        return summarizeFromMinutes(start, nextSessionStart);
+    }
+
+    /** Rebuilds a session that never wrote its final record from the minutes that reached disk. */
+    private SessionSummary summarizeFromMinutes(final long start, long nextSessionStart) throws IOException {
+        // end, recordedMillis, eventCount, snoreMillis
+        final long[] totals = {start, 0, 0, 0};
+        final float[] peak = {Float.NEGATIVE_INFINITY};
+        minutes(start, nextSessionStart, (minuteStart, sessionStart, recordedMillis, eventCount,
+                                          snoreMillis, meanLevelDb, maxLevelDb) -> {
+            if (sessionStart == start) {
+                totals[0] = minuteStart + recordedMillis;
+                totals[1] += recordedMillis;
+                totals[2] += eventCount;
+                totals[3] += snoreMillis;
+            }
+        });
+        events(start, nextSessionStart, (time, sessionStart, durationMillis, peakDb, meanDb) -> {
+            if (sessionStart == start && peakDb > peak[0]) {
+                peak[0] = peakDb;
+            }
+        });
+        return new SessionSummary(start, totals[0], totals[1], (int) totals[2], totals[3], 0, peak[0], false);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
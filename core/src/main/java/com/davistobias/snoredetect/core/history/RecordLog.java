@@ -0,0 +1,166 @@
+package com.davistobias.snoredetect.core.history;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only file of fixed-size big-endian records behind a 16-byte header:
+ *
+ * <pre>
+ * header: int magic, int version, int recordSize, int reserved
+ * </pre>
+ *
+ * Every record starts with a long key, and records are appended in non-decreasing key order, so
+ * the key doubles as an index: {@link #lowerBound(long)} is a binary search over the file. A
+ * partially written trailing record, left by a crash mid-append, is cut off when the log is
+ * opened. Appends come from one thread at a time; reads may run concurrently with them.
+ */
+final class RecordLog implements Closeable {
+
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int recordSize;
+    private final ByteBuffer keyBuffer = ByteBuffer.allocate(8);
+    private volatile long size;
+    private long lastKey = Long.MIN_VALUE;
+
+    private RecordLog(RandomAccessFile file, int recordSize, long size) throws IOException {
+        this.file = file;
+        this.channel = file.getChannel();
+        this.recordSize = recordSize;
+        this.size = size;
+        if (size > 0) {
+            lastKey = readKey(size - 1, ByteBuffer.allocate(8));
+        }
+    }
+
+    static RecordLog open(File path, int magic, int recordSize) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (channel.size() < HEADER_SIZE) {
+                header.putInt(magic).putInt(VERSION).putInt(recordSize).putInt(0).flip();
+                channel.truncate(0);
+                writeFully(channel, header, 0);
+                channel.force(true);
+            } else {
+                readFully(channel, header, 0);
+                if (header.getInt(0) != magic || header.getInt(4) != VERSION || header.getInt(8) != recordSize) {
+                    throw new IOException("Not a history log: " + path);
+                }
+            }
+            long size = (channel.size() - HEADER_SIZE) / recordSize;
+            long end = HEADER_SIZE + size * recordSize;
+            if (channel.size() > end) {
+                channel.truncate(end);
+            }
+            return new RecordLog(file, recordSize, size);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    int recordSize() {
+        return recordSize;
+    }
+
+    /** Number of complete records. */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Appends the whole records between the buffer's position and limit. Keys lower than the last
+     * appended one, e.g. after the wall clock was set back, are raised to keep the log ordered.
+     */
+    void append(ByteBuffer records) throws IOException {
+        int length = records.remaining();
+        if (length % recordSize != 0) {
+            throw new IllegalArgumentException("Partial record in append");
+        }
+        for (int offset = records.position(); offset < records.limit(); offset += recordSize) {
+            long key = records.getLong(offset);
+            if (key < lastKey) {
+                records.putLong(offset, lastKey);
+            } else {
+                lastKey = key;
+            }
+        }
+        long current = size;
+        writeFully(channel, records, HEADER_SIZE + current * recordSize);
+        size = current + length / recordSize;
+    }
+
+    /** Makes appended records durable. */
+    void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Clears {@code dst} and fills it with as many whole records from {@code index} on as fit,
+     * ready to be read from position 0.
+     *
+     * @return number of records read
+     */
+    int read(long index, ByteBuffer dst) throws IOException {
+        dst.clear();
+        int count = (int) Math.max(0, Math.min(size - index, dst.capacity() / recordSize));
+        dst.limit(count * recordSize);
+        readFully(channel, dst, HEADER_SIZE + index * recordSize);
+        dst.flip();
+        return count;
+    }
+
+    /** Index of the first record whose key is at least {@code key}, or {@link #size()} if none. */
+    long lowerBound(long key) throws IOException {
+        long lo = 0;
+        long hi = size;
+        synchronized (keyBuffer) {
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                if (readKey(mid, keyBuffer) < key) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+        }
+        return lo;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private long readKey(long index, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        readFully(channel, buffer, HEADER_SIZE + index * recordSize);
+        return buffer.getLong(0);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of history log");
+            }
+            position += n;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+    }
+}
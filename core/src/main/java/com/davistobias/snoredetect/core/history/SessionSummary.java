@@ -0,0 +1,49 @@
+package com.davistobias.snoredetect.core.history;
+
+/**
+ * One night as stored in the {@link HistoryStore}.
+ */
+public final class SessionSummary {
+
+    public final long startMillis;
+    /** Wall-clock end of the recorded audio. */
+    public final long endMillis;
+    public final long recordedMillis;
+    public final int eventCount;
+    public final long snoreMillis;
+    public final int longestEventMillis;
+    /** Loudest event peak, or negative infinity without events. */
+    public final float peakDb;
+    /**
+     * False if the recording never finished cleanly; the other fields are then rebuilt from the
+     * per-minute rows that reached the disk, and the longest event is not known.
+     */
+    public final boolean complete;
+
+    public SessionSummary(long startMillis, long endMillis, long recordedMillis, int eventCount,
+                          long snoreMillis, int longestEventMillis, float peakDb, boolean complete) {
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+        this.recordedMillis = recordedMillis;
+        this.eventCount = eventCount;
+        this.snoreMillis = snoreMillis;
+        this.longestEventMillis = longestEventMillis;
+        this.peakDb = peakDb;
+        this.complete = complete;
+    }
+
+    /** Snore events per hour of recording. */
+    public double getSnoreIndex() {
+        return recordedMillis > 0 ? eventCount * 3_600_000.0 / recordedMillis : 0;
+    }
+
+    public double getSnoringPercent() {
+        return recordedMillis > 0 ? 100.0 * snoreMillis / recordedMillis : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionSummary{start=" + startMillis + ", end=" + endMillis + ", events=" + eventCount
+                + ", snore=" + snoreMillis + " ms" + (complete ? "" : ", incomplete") + "}";
+    }
+}
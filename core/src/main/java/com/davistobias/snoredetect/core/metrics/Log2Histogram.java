@@ -0,0 +1,114 @@
+package com.davistobias.snoredetect.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram with power-of-two buckets, for latencies in microseconds and queue depths in blocks.
+ *
+ * Bucket 0 holds zero and bucket {@code i} the values in [2^(i-1), 2^i); the last bucket also
+ * takes everything larger, so {@value #BUCKETS} buckets reach from a microsecond to over half an
+ * hour at twofold resolution. Recording is a few instructions and never allocates.
+ *
+ * One thread records; any thread may read. Readers may see a count that is one update behind
+ * another, never a torn value.
+ */
+public final class Log2Histogram {
+
+    public static final int BUCKETS = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private volatile long count;
+    private volatile long sum;
+    private volatile long max;
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int bucket = bucketOf(value);
+        counts.lazySet(bucket, counts.get(bucket) + 1);
+        sum = sum + value;
+        if (value > max) {
+            max = value;
+        }
+        count = count + 1;
+    }
+
+    public static int bucketOf(long value) {
+        return Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+    }
+
+    /** Largest value counted in {@code bucket}; the last bucket reports its lower bound. */
+    public static long bucketUpperBound(int bucket) {
+        return bucket == BUCKETS - 1 ? 1L << (BUCKETS - 2) : (1L << bucket) - 1;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        long n = count;
+        return n == 0 ? 0 : (double) sum / n;
+    }
+
+    public long getBucketCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /** Copies the bucket counts into {@code into}, which must hold {@link #BUCKETS} entries. */
+    public void copyCounts(long[] into) {
+        for (int i = 0; i < BUCKETS; i++) {
+            into[i] = counts.get(i);
+        }
+    }
+
+    /** Upper bound of the bucket holding the given quantile, capped at the largest value seen. */
+    public long getPercentile(double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        long rank = rank(total, quantile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank && seen > 0) {
+                return Math.min(bucketUpperBound(i), max);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given quantile of a set of bucket counts, e.g. the
+     * difference of two {@link #copyCounts} snapshots.
+     */
+    public static long percentile(long[] bucketCounts, double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += bucketCounts[i];
+        }
+        long rank = rank(total, quantile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += bucketCounts[i];
+            if (seen >= rank && seen > 0) {
+                return bucketUpperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    private static long rank(long total, double quantile) {
+        return Math.max(1, (long) Math.ceil(quantile * total));
+    }
+}
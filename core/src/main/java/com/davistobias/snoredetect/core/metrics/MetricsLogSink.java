@@ -0,0 +1,125 @@
+package com.davistobias.snoredetect.core.metrics;
+
+import com.davistobias.snoredetect.core.codec.PcmSink;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongSupplier;
+
+/**
+ * Passes blocks through unchanged, timing each write into {@link RecorderMetrics}, and appends one
+ * line of metrics to a text file every so many samples of stream time, plus a final one when
+ * closed.
+ *
+ * A line looks like
+ * {@code t=3600 buffers=28125 short=0 empty=0 dropped=0 read=131071/131071 process=511/1023
+ * write=127/4095 queue=0/1 written=57600000 stored=14423040}. Latencies are the 50th and 99th
+ * percentile in microseconds over the interval since the previous line, rounded up to a power of
+ * two; queue depth likewise in blocks; counters are totals since the start.
+ *
+ * Place it outermost in the sink chain so the write latency covers encoding and storage.
+ */
+public final class MetricsLogSink implements PcmSink {
+
+    public static final String FILE_NAME = "metrics.log";
+
+    private final PcmSink downstream;
+    private final RecorderMetrics metrics;
+    private final int sampleRate;
+    private final long intervalSamples;
+    private final LongSupplier storedBytes;
+    private final FileOutputStream out;
+    private final StringBuilder line = new StringBuilder(256);
+    private final long[] current = new long[Log2Histogram.BUCKETS];
+    private final long[] previousRead = new long[Log2Histogram.BUCKETS];
+    private final long[] previousProcess = new long[Log2Histogram.BUCKETS];
+    private final long[] previousWrite = new long[Log2Histogram.BUCKETS];
+    private final long[] previousQueue = new long[Log2Histogram.BUCKETS];
+    private long streamPosition;
+    private long nextLine;
+
+    /**
+     * @param storedBytes encoded bytes stored so far, e.g. {@code SessionWriter::getEncodedBytes},
+     *                    or null if unknown
+     */
+    public MetricsLogSink(PcmSink downstream, RecorderMetrics metrics, File file, int sampleRate,
+                          long intervalSamples, LongSupplier storedBytes) throws IOException {
+        if (intervalSamples <= 0) {
+            throw new IllegalArgumentException("intervalSamples must be positive");
+        }
+        this.downstream = downstream;
+        this.metrics = metrics;
+        this.sampleRate = sampleRate;
+        this.intervalSamples = intervalSamples;
+        this.storedBytes = storedBytes;
+        this.nextLine = intervalSamples;
+        this.out = new FileOutputStream(file, true);
+    }
+
+    @Override
+    public void write(short[] samples, int offset, int count) throws IOException {
+        writeBlock(samples, offset, count, streamPosition, 0);
+    }
+
+    @Override
+    public void writeBlock(short[] samples, int offset, int count, long position, int flags) throws IOException {
+        long start = System.nanoTime();
+        downstream.writeBlock(samples, offset, count, position, flags);
+        metrics.recordWrite(System.nanoTime() - start, count);
+        if (storedBytes != null) {
+            metrics.setStoredBytes(storedBytes.getAsLong());
+        }
+        streamPosition = position + count;
+        if (streamPosition >= nextLine) {
+            writeLine();
+            nextLine = streamPosition + intervalSamples;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            downstream.close();
+        } finally {
+            try {
+                if (storedBytes != null) {
+                    metrics.setStoredBytes(storedBytes.getAsLong());
+                }
+                writeLine();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private void writeLine() throws IOException {
+        line.setLength(0);
+        line.append("t=").append(streamPosition / sampleRate)
+                .append(" buffers=").append(metrics.getBuffers())
+                .append(" short=").append(metrics.getShortReads())
+                .append(" empty=").append(metrics.getEmptyReads())
+                .append(" dropped=").append(metrics.getDroppedBlocks());
+        appendInterval(" read=", metrics.getReadMicros(), previousRead);
+        appendInterval(" process=", metrics.getProcessMicros(), previousProcess);
+        appendInterval(" write=", metrics.getWriteMicros(), previousWrite);
+        appendInterval(" queue=", metrics.getQueueDepth(), previousQueue);
+        line.append(" written=").append(metrics.getBytesWritten())
+                .append(" stored=").append(metrics.getStoredBytes())
+                .append('\n');
+        out.write(line.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /** Percentiles of what was recorded since the last line; {@code previous} is updated. */
+    private void appendInterval(String name, Log2Histogram histogram, long[] previous) {
+        histogram.copyCounts(current);
+        for (int i = 0; i < current.length; i++) {
+            long total = current[i];
+            current[i] = total - previous[i];
+            previous[i] = total;
+        }
+        line.append(name).append(Log2Histogram.percentile(current, 0.5))
+                .append('/').append(Log2Histogram.percentile(current, 0.99));
+    }
+}
@@ -0,0 +1,129 @@
+package com.davistobias.snoredetect.core.metrics;
+
+import java.util.Locale;
+
+/**
+ * Hot-path instrumentation of a recording: how long each buffer took to read from the source, to
+ * process and to write, how deep the ring to the writer got, and how many reads came back short or
+ * empty or were dropped because the ring was full.
+ *
+ * The capture thread records reads and processing, the writer thread writes. Recording never
+ * allocates; any thread may read, e.g. the UI through the service binder. Latencies are kept in
+ * microseconds.
+ */
+public final class RecorderMetrics {
+
+    private final Log2Histogram readMicros = new Log2Histogram();
+    private final Log2Histogram processMicros = new Log2Histogram();
+    private final Log2Histogram writeMicros = new Log2Histogram();
+    private final Log2Histogram queueDepth = new Log2Histogram();
+
+    private volatile long buffers;
+    private volatile long shortReads;
+    private volatile long emptyReads;
+    private volatile long droppedBlocks;
+    private volatile long bytesWritten;
+    private volatile long storedBytes;
+
+    /**
+     * Capture thread: one read from the source.
+     *
+     * @param samplesRead samples returned, 0 for an empty read
+     * @param requested   samples asked for
+     */
+    public void recordRead(long nanos, int samplesRead, int requested) {
+        readMicros.record(nanos / 1000);
+        if (samplesRead <= 0) {
+            emptyReads = emptyReads + 1;
+            return;
+        }
+        buffers = buffers + 1;
+        if (samplesRead < requested) {
+            shortReads = shortReads + 1;
+        }
+    }
+
+    /**
+     * Capture thread: one buffer analysed and handed to the writer.
+     *
+     * @param depth         blocks waiting in the ring afterwards
+     * @param totalDropped  blocks dropped so far because the ring was full
+     */
+    public void recordProcessing(long nanos, int depth, long totalDropped) {
+        processMicros.record(nanos / 1000);
+        queueDepth.record(depth);
+        droppedBlocks = totalDropped;
+    }
+
+    /** Writer thread: one block written through the sink chain. */
+    public void recordWrite(long nanos, int samples) {
+        writeMicros.record(nanos / 1000);
+        bytesWritten = bytesWritten + 2L * samples;
+    }
+
+    /** Writer thread: encoded bytes on disk so far. */
+    public void setStoredBytes(long bytes) {
+        storedBytes = bytes;
+    }
+
+    public Log2Histogram getReadMicros() {
+        return readMicros;
+    }
+
+    public Log2Histogram getProcessMicros() {
+        return processMicros;
+    }
+
+    public Log2Histogram getWriteMicros() {
+        return writeMicros;
+    }
+
+    /** Ring depth after each published buffer, in blocks. */
+    public Log2Histogram getQueueDepth() {
+        return queueDepth;
+    }
+
+    /** Non-empty buffers read. */
+    public long getBuffers() {
+        return buffers;
+    }
+
+    /** Reads that returned fewer samples than asked for. */
+    public long getShortReads() {
+        return shortReads;
+    }
+
+    /** Reads that returned no samples at all. */
+    public long getEmptyReads() {
+        return emptyReads;
+    }
+
+    /** Blocks lost because the writer fell behind. */
+    public long getDroppedBlocks() {
+        return droppedBlocks;
+    }
+
+    /** 16-bit PCM bytes handed to the sink chain. */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /** Encoded bytes stored, if the sink chain reports them, else 0. */
+    public long getStoredBytes() {
+        return storedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "RecorderMetrics{buffers=%d, short=%d, empty=%d, dropped=%d, read=%s us, process=%s us,"
+                        + " write=%s us, queue=%d/%d, written=%d B, stored=%d B}",
+                buffers, shortReads, emptyReads, droppedBlocks, summary(readMicros), summary(processMicros),
+                summary(writeMicros), queueDepth.getPercentile(0.99), queueDepth.getMax(), bytesWritten,
+                storedBytes);
+    }
+
+    private static String summary(Log2Histogram histogram) {
+        return histogram.getPercentile(0.5) + "/" + histogram.getPercentile(0.99) + "/" + histogram.getMax();
+    }
+}
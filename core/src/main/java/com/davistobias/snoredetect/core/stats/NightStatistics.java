@@ -0,0 +1,227 @@
+package com.davistobias.snoredetect.core.stats;
+
+import com.davistobias.snoredetect.core.FrameObserver;
+import com.davistobias.snoredetect.core.dsp.SnoreEvent;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Running summary of one night: snore index, time spent snoring, snore loudness percentiles,
+ * longest episode and a per-hour breakdown.
+ *
+ * Everything is updated incrementally in constant memory. Frames arrive on the frame consumer
+ * thread and events from whichever thread drains the event queue, so all methods are synchronized;
+ * at a few updates per second the lock is uncontended. The state can be written to and restored from
+ * a {@link StatisticsCheckpoint} so a crash loses at most one checkpoint interval.
+ */
+public final class NightStatistics implements FrameObserver {
+
+    /** Hours broken down individually; anything later is counted in the last hour. */
+    public static final int MAX_HOURS = 24;
+
+    private final int sampleRate;
+    private final long startEpochMillis;
+    private final long samplesPerHour;
+
+    private long recordedSamples;
+    private long eventCount;
+    private long snoreSamples;
+    private long longestEventSamples;
+    private float loudestPeakDb = Float.NEGATIVE_INFINITY;
+
+    private final P2Quantile snorePeakMedian;
+    private final P2Quantile snorePeakP90;
+    private final P2Quantile snorePeakP95;
+    private final P2Quantile levelMedian;
+
+    private final long[] hourRecordedSamples = new long[MAX_HOURS];
+    private final int[] hourEvents = new int[MAX_HOURS];
+    private final long[] hourSnoreSamples = new long[MAX_HOURS];
+
+    public NightStatistics(int sampleRate, long startEpochMillis) {
+        this(sampleRate, startEpochMillis,
+                new P2Quantile(0.5), new P2Quantile(0.9), new P2Quantile(0.95), new P2Quantile(0.5));
+    }
+
+    private NightStatistics(int sampleRate, long startEpochMillis, P2Quantile snorePeakMedian,
+                            P2Quantile snorePeakP90, P2Quantile snorePeakP95, P2Quantile levelMedian) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("sampleRate must be positive");
+        }
+        this.sampleRate = sampleRate;
+        this.startEpochMillis = startEpochMillis;
+        this.samplesPerHour = 3600L * sampleRate;
+        this.snorePeakMedian = snorePeakMedian;
+        this.snorePeakP90 = snorePeakP90;
+        this.snorePeakP95 = snorePeakP95;
+        this.levelMedian = levelMedian;
+    }
+
+    /** Accounts for one captured frame, in stream order. */
+    @Override
+    public synchronized void onFrame(int samples, double levelDb) {
+        hourRecordedSamples[hourOf(recordedSamples)] += samples;
+        recordedSamples += samples;
+        levelMedian.add(levelDb);
+    }
+
+    public synchronized void addEvent(SnoreEvent event) {
+        eventCount++;
+        snoreSamples += event.durationSamples;
+        if (event.durationSamples > longestEventSamples) {
+            longestEventSamples = event.durationSamples;
+        }
+        if (event.peakDb > loudestPeakDb) {
+            loudestPeakDb = event.peakDb;
+        }
+        snorePeakMedian.add(event.peakDb);
+        snorePeakP90.add(event.peakDb);
+        snorePeakP95.add(event.peakDb);
+
+        int hour = hourOf(event.startSample);
+        hourEvents[hour]++;
+        hourSnoreSamples[hour] += event.durationSamples;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public long getStartEpochMillis() {
+        return startEpochMillis;
+    }
+
+    public synchronized double getRecordedHours() {
+        return (double) recordedSamples / samplesPerHour;
+    }
+
+    public synchronized long getEventCount() {
+        return eventCount;
+    }
+
+    /** Snore events per hour of recording, or 0 before any audio. */
+    public synchronized double getSnoreIndex() {
+        return recordedSamples > 0 ? eventCount / getRecordedHours() : 0;
+    }
+
+    public synchronized double getTotalSnoreSeconds() {
+        return (double) snoreSamples / sampleRate;
+    }
+
+    /** Share of the recorded time spent inside snore events, 0..100. */
+    public synchronized double getSnoringPercent() {
+        return recordedSamples > 0 ? 100.0 * snoreSamples / recordedSamples : 0;
+    }
+
+    public synchronized double getLongestEpisodeSeconds() {
+        return (double) longestEventSamples / sampleRate;
+    }
+
+    /** Loudest event peak, or negative infinity without events. */
+    public synchronized float getLoudestPeakDb() {
+        return loudestPeakDb;
+    }
+
+    /** Estimated median of event peak levels, or NaN without events. */
+    public synchronized double getSnorePeakMedianDb() {
+        return snorePeakMedian.getQuantile();
+    }
+
+    public synchronized double getSnorePeakP90Db() {
+        return snorePeakP90.getQuantile();
+    }
+
+    public synchronized double getSnorePeakP95Db() {
+        return snorePeakP95.getQuantile();
+    }
+
+    /** Estimated median frame level over the whole night, a rough measure of the room. */
+    public synchronized double getLevelMedianDb() {
+        return levelMedian.getQuantile();
+    }
+
+    /** Hours with any recorded audio, at most {@link #MAX_HOURS}. */
+    public synchronized int getHourCount() {
+        return recordedSamples == 0 ? 0 : hourOf(recordedSamples - 1) + 1;
+    }
+
+    public synchronized int getHourEventCount(int hour) {
+        return hourEvents[hour];
+    }
+
+    public synchronized double getHourSnoreSeconds(int hour) {
+        return (double) hourSnoreSamples[hour] / sampleRate;
+    }
+
+    /** Events per hour within one hour of the night, scaled up for a partly recorded hour. */
+    public synchronized double getHourSnoreIndex(int hour) {
+        long recorded = hourRecordedSamples[hour];
+        return recorded > 0 ? hourEvents[hour] * (double) samplesPerHour / recorded : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+                "NightStatistics{hours=%.2f, events=%d, index=%.1f/h, snoring=%.1f s (%.1f%%), "
+                        + "longest=%.1f s, peak p50/p90/p95=%.1f/%.1f/%.1f dB}",
+                getRecordedHours(), eventCount, getSnoreIndex(), getTotalSnoreSeconds(), getSnoringPercent(),
+                getLongestEpisodeSeconds(), getSnorePeakMedianDb(), getSnorePeakP90Db(), getSnorePeakP95Db());
+    }
+
+    synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeInt(sampleRate);
+        out.writeLong(startEpochMillis);
+        out.writeLong(recordedSamples);
+        out.writeLong(eventCount);
+        out.writeLong(snoreSamples);
+        out.writeLong(longestEventSamples);
+        out.writeFloat(loudestPeakDb);
+        snorePeakMedian.writeTo(out);
+        snorePeakP90.writeTo(out);
+        snorePeakP95.writeTo(out);
+        levelMedian.writeTo(out);
+        out.writeInt(MAX_HOURS);
+        for (int hour = 0; hour < MAX_HOURS; hour++) {
+            out.writeLong(hourRecordedSamples[hour]);
+            out.writeInt(hourEvents[hour]);
+            out.writeLong(hourSnoreSamples[hour]);
+        }
+    }
+
+    static NightStatistics readFrom(DataInput in) throws IOException {
+        int sampleRate = in.readInt();
+        long startEpochMillis = in.readLong();
+        if (sampleRate <= 0) {
+            throw new IOException("Corrupt statistics: sample rate " + sampleRate);
+        }
+        long recordedSamples = in.readLong();
+        long eventCount = in.readLong();
+        long snoreSamples = in.readLong();
+        long longestEventSamples = in.readLong();
+        float loudestPeakDb = in.readFloat();
+        NightStatistics stats = new NightStatistics(sampleRate, startEpochMillis,
+                P2Quantile.readFrom(in), P2Quantile.readFrom(in), P2Quantile.readFrom(in), P2Quantile.readFrom(in));
+        stats.recordedSamples = recordedSamples;
+        stats.eventCount = eventCount;
+        stats.snoreSamples = snoreSamples;
+        stats.longestEventSamples = longestEventSamples;
+        stats.loudestPeakDb = loudestPeakDb;
+        int hours = in.readInt();
+        if (hours != MAX_HOURS) {
+            throw new IOException("Corrupt statistics: " + hours + " hours");
+        }
+        for (int hour = 0; hour < MAX_HOURS; hour++) {
+            stats.hourRecordedSamples[hour] = in.readLong();
+            stats.hourEvents[hour] = in.readInt();
+            stats.hourSnoreSamples[hour] = in.readLong();
+        }
+        return stats;
+    }
+
+    private int hourOf(long position) {
+        return (int) Math.min(Math.max(position, 0) / samplesPerHour, MAX_HOURS - 1);
+    }
+}
@@ -0,0 +1,92 @@
+package com.davistobias.snoredetect.core.stats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk snapshot of a {@link NightStatistics}.
+ *
+ * <pre>
+ * int magic "SDST", int version, int body length, body, long CRC-32 of the body
+ * </pre>
+ *
+ * Each checkpoint is written to a temporary file, synced and renamed over the previous one, so a
+ * crash at any point leaves either the old or the new snapshot intact, for {@link #restore} to
+ * bring back once the session has been recovered.
+ */
+public final class StatisticsCheckpoint {
+
+    public static final String FILE_NAME = "stats.bin";
+
+    private static final int MAGIC = 0x53445354;
+    private static final int VERSION = 1;
+    private static final int MAX_BODY_LENGTH = 64 * 1024;
+
+    private StatisticsCheckpoint() {
+    }
+
+    public static void write(NightStatistics stats, File file) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+        stats.writeTo(new DataOutputStream(body));
+        CRC32 crc = new CRC32();
+        crc.update(body.toByteArray(), 0, body.size());
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(body.size());
+            body.writeTo(out);
+            out.writeLong(crc.getValue());
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * The statistics of the session in {@code sessionDir} as of its last checkpoint, e.g. for a
+     * night whose recording was cut off.
+     *
+     * @return null if the session has no checkpoint
+     */
+    public static NightStatistics restore(File sessionDir) throws IOException {
+        File file = new File(sessionDir, FILE_NAME);
+        return file.isFile() ? read(file) : null;
+    }
+
+    public static NightStatistics read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a statistics checkpoint: " + file);
+            }
+            int length = in.readInt();
+            if (length <= 0 || length > MAX_BODY_LENGTH) {
+                throw new IOException("Corrupt statistics checkpoint: " + file);
+            }
+            byte[] body = new byte[length];
+            in.readFully(body);
+            CRC32 crc = new CRC32();
+            crc.update(body, 0, length);
+            if (in.readLong() != crc.getValue()) {
+                throw new IOException("Statistics checkpoint checksum mismatch: " + file);
+            }
+            return NightStatistics.readFrom(new DataInputStream(new ByteArrayInputStream(body)));
+        } catch (EOFException e) {
+            throw new IOException("Truncated statistics checkpoint: " + file, e);
+        }
+    }
+}
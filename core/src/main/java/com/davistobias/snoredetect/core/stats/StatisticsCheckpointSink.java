@@ -0,0 +1,58 @@
+package com.davistobias.snoredetect.core.stats;
+
+import com.davistobias.snoredetect.core.codec.PcmSink;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Passes blocks through unchanged and writes a {@link StatisticsCheckpoint} every so many
+ * samples of stream time, plus a final one when closed.
+ *
+ * Rides on the writer thread, which is already doing file I/O, so neither the capture thread nor
+ * the main thread ever waits on the sync.
+ */
+public final class StatisticsCheckpointSink implements PcmSink {
+
+    private final PcmSink downstream;
+    private final NightStatistics stats;
+    private final File file;
+    private final long intervalSamples;
+    private long streamPosition;
+    private long nextCheckpoint;
+
+    public StatisticsCheckpointSink(PcmSink downstream, NightStatistics stats, File file, long intervalSamples) {
+        if (intervalSamples <= 0) {
+            throw new IllegalArgumentException("intervalSamples must be positive");
+        }
+        this.downstream = downstream;
+        this.stats = stats;
+        this.file = file;
+        this.intervalSamples = intervalSamples;
+        this.nextCheckpoint = intervalSamples;
+    }
+
+    @Override
+    public void write(short[] samples, int offset, int count) throws IOException {
+        writeBlock(samples, offset, count, streamPosition, 0);
+    }
+
+    @Override
+    public void writeBlock(short[] samples, int offset, int count, long position, int flags) throws IOException {
+        downstream.writeBlock(samples, offset, count, position, flags);
+        streamPosition = position + count;
+        if (streamPosition >= nextCheckpoint) {
+            StatisticsCheckpoint.write(stats, file);
+            nextCheckpoint = streamPosition + intervalSamples;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            downstream.close();
+        } finally {
+            StatisticsCheckpoint.write(stats, file);
+        }
+    }
+}
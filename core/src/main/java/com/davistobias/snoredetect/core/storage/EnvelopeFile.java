@@ -0,0 +1,175 @@
+package com.davistobias.snoredetect.core.storage;
+
+import com.davistobias.snoredetect.core.dsp.EnvelopePyramid;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sidecar holding a session's {@link EnvelopePyramid}, laid out so a renderer reads one level only.
+ *
+ * <pre>
+ * header: int magic "SDEV", int version, int sampleRate, int bucketSize, int factor,
+ *         int levelCount, long sampleCount, then one int bucket count per level
+ * levels: level 0 first, each bucket as short min, short max, short rms
+ * </pre>
+ *
+ * All values are big-endian. Opening the file reads only the header.
+ */
+public final class EnvelopeFile {
+
+    public static final String FILE_NAME = "envelope.bin";
+
+    private static final int MAGIC = 0x53444556;
+    private static final int VERSION = 1;
+    private static final int FIXED_HEADER_SIZE = 32;
+    private static final int BUCKET_BYTES = 6;
+
+    private final File file;
+    private final int sampleRate;
+    private final int bucketSize;
+    private final int factor;
+    private final long sampleCount;
+    private final int[] bucketCounts;
+    private final long[] levelOffsets;
+
+    private EnvelopeFile(File file, ByteBuffer header) throws IOException {
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not an envelope file: " + file);
+        }
+        this.file = file;
+        this.sampleRate = header.getInt(8);
+        this.bucketSize = header.getInt(12);
+        this.factor = header.getInt(16);
+        int levelCount = header.getInt(20);
+        this.sampleCount = header.getLong(24);
+        this.bucketCounts = new int[levelCount];
+        this.levelOffsets = new long[levelCount];
+        long offset = FIXED_HEADER_SIZE + 4L * levelCount;
+        for (int level = 0; level < levelCount; level++) {
+            bucketCounts[level] = header.getInt(FIXED_HEADER_SIZE + 4 * level);
+            levelOffsets[level] = offset;
+            offset += (long) bucketCounts[level] * BUCKET_BYTES;
+        }
+    }
+
+    public static EnvelopeFile open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER_SIZE);
+            readFully(channel, fixed, 0);
+            int levelCount = fixed.getInt(20);
+            if (levelCount < 0 || levelCount > 64) {
+                throw new IOException("Corrupt envelope header: " + file);
+            }
+            ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_SIZE + 4 * levelCount);
+            readFully(channel, header, 0);
+            return new EnvelopeFile(file, header);
+        }
+    }
+
+    public static void write(EnvelopePyramid pyramid, int sampleRate, File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sampleRate);
+            out.writeInt(pyramid.getBucketSize());
+            out.writeInt(pyramid.getFactor());
+            out.writeInt(pyramid.levelCount());
+            out.writeLong(pyramid.getSampleCount());
+            for (int level = 0; level < pyramid.levelCount(); level++) {
+                out.writeInt(pyramid.bucketCount(level));
+            }
+            for (int level = 0; level < pyramid.levelCount(); level++) {
+                for (int bucket = 0; bucket < pyramid.bucketCount(level); bucket++) {
+                    out.writeShort(pyramid.min(level, bucket));
+                    out.writeShort(pyramid.max(level, bucket));
+                    out.writeShort(pyramid.rms(level, bucket));
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the pyramid from recorded audio, for sessions whose sidecar was never written because
+     * the recording was cut short. Gaps in the session count as silence.
+     */
+    public static EnvelopePyramid rebuild(SessionReader reader) throws IOException {
+        EnvelopePyramid pyramid = new EnvelopePyramid();
+        SessionReader.Window window = reader.window(0, reader.getEndPosition(), 8192, 8192);
+        while (window.next()) {
+            pyramid.add(window.samples(), 0, window.length());
+        }
+        pyramid.finish();
+        return pyramid;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getBucketSize() {
+        return bucketSize;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public int levelCount() {
+        return bucketCounts.length;
+    }
+
+    public int bucketCount(int level) {
+        return bucketCounts[level];
+    }
+
+    public long samplesPerBucket(int level) {
+        long n = bucketSize;
+        for (int i = 0; i < level; i++) {
+            n *= factor;
+        }
+        return n;
+    }
+
+    /** See {@link EnvelopePyramid#levelFor(long, int)}. */
+    public int levelFor(long samples, int pixels) {
+        return EnvelopePyramid.levelFor(samples, pixels, bucketSize, factor, bucketCounts.length);
+    }
+
+    /**
+     * Reads buckets {@code [first, first + count)} of one level as interleaved min/max/RMS triples.
+     */
+    public short[] readLevel(int level, int first, int count) throws IOException {
+        if (first < 0 || count < 0 || first + count > bucketCounts[level]) {
+            throw new IndexOutOfBoundsException("buckets " + first + "+" + count + " of " + bucketCounts[level]);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(count * BUCKET_BYTES);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            readFully(raf.getChannel(), buffer, levelOffsets[level] + (long) first * BUCKET_BYTES);
+        }
+        short[] triples = new short[count * 3];
+        buffer.asShortBuffer().get(triples);
+        return triples;
+    }
+
+    public short[] readLevel(int level) throws IOException {
+        return readLevel(level, 0, bucketCounts[level]);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated envelope file");
+            }
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,55 @@
+package com.davistobias.snoredetect.core.storage;
+
+import com.davistobias.snoredetect.core.codec.PcmSink;
+import com.davistobias.snoredetect.core.dsp.EnvelopePyramid;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Feeds every block into an {@link EnvelopePyramid} before passing it on, and writes the pyramid
+ * to an {@link EnvelopeFile} when closed.
+ *
+ * Sits at the head of the writer's sink chain, ahead of any gating, so the envelope covers the
+ * whole night. Stream positions skipped by overruns are added as silence to keep the timeline
+ * aligned with the session index.
+ */
+public final class EnvelopeSink implements PcmSink {
+
+    private final PcmSink downstream;
+    private final File file;
+    private final int sampleRate;
+    private final EnvelopePyramid pyramid = new EnvelopePyramid();
+    private long streamPosition;
+
+    public EnvelopeSink(PcmSink downstream, File file, int sampleRate) {
+        this.downstream = downstream;
+        this.file = file;
+        this.sampleRate = sampleRate;
+    }
+
+    @Override
+    public void write(short[] samples, int offset, int count) throws IOException {
+        writeBlock(samples, offset, count, streamPosition, 0);
+    }
+
+    @Override
+    public void writeBlock(short[] samples, int offset, int count, long position, int flags) throws IOException {
+        if (position > streamPosition) {
+            pyramid.addSilence(position - streamPosition);
+        }
+        pyramid.add(samples, offset, count);
+        streamPosition = position + count;
+        downstream.writeBlock(samples, offset, count, position, flags);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            downstream.close();
+        } finally {
+            pyramid.finish();
+            EnvelopeFile.write(pyramid, sampleRate, file);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.davistobias.snoredetect.core.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read side of a session's binary index, which maps stream positions and wall-clock times to
+ * places in the session's chunk files.
+ *
+ * The file is a 32-byte header followed by fixed 40-byte entries, all big-endian:
+ *
+ * <pre>
+ * header: int magic "SDIX", int version, int sampleRate, int entrySize,
+ *         long startEpochMillis (time of stream sample 0), int frameSamples (samples per capture
+ *         read, 0 if not recorded), int reserved
+ * entry:  long streamStart, long startEpochMillis, int chunk, int sampleCount,
+ *         long chunkOffset (samples into the chunk), long byteOffset (file position of the
+ *         encoded block holding the first sample)
+ * </pre>
+ *
+ * Each entry is one run of contiguous stream samples within one chunk. Entries are appended in
+ * stream order, so lookups by position or time are binary searches over the fixed-size records.
+ * A partially written trailing entry is ignored.
+ */
+public final class SessionIndex {
+
+    public static final String FILE_NAME = "index.bin";
+
+    static final int MAGIC = 0x53444958;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int ENTRY_SIZE = 40;
+
+    private final ByteBuffer buffer;
+    private final int sampleRate;
+    private final long startEpochMillis;
+    private final int frameSamples;
+    private final int size;
+
+    private SessionIndex(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a session index");
+        }
+        if (buffer.getInt(4) != VERSION || buffer.getInt(12) != ENTRY_SIZE) {
+            throw new IOException("Unsupported session index version " + buffer.getInt(4));
+        }
+        this.buffer = buffer;
+        this.sampleRate = buffer.getInt(8);
+        this.startEpochMillis = buffer.getLong(16);
+        this.frameSamples = buffer.getInt(24);
+        this.size = (buffer.limit() - HEADER_SIZE) / ENTRY_SIZE;
+    }
+
+    public static SessionIndex read(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return new SessionIndex(buffer);
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /** Wall-clock time of stream sample 0. */
+    public long getStartEpochMillis() {
+        return startEpochMillis;
+    }
+
+    /**
+     * Samples per read when the session was captured, so it can be analysed on the same frame grid;
+     * 0 for sessions recorded before the read size was stored.
+     */
+    public int getFrameSamples() {
+        return frameSamples;
+    }
+
+    /** Number of entries. */
+    public int size() {
+        return size;
+    }
+
+    public long getStreamStart(int entry) {
+        return buffer.getLong(offset(entry));
+    }
+
+    public long getEntryEpochMillis(int entry) {
+        return buffer.getLong(offset(entry) + 8);
+    }
+
+    public int getChunk(int entry) {
+        return buffer.getInt(offset(entry) + 16);
+    }
+
+    public int getSampleCount(int entry) {
+        return buffer.getInt(offset(entry) + 20);
+    }
+
+    /** Samples into the chunk at which the entry's first sample is stored. */
+    public long getChunkOffset(int entry) {
+        return buffer.getLong(offset(entry) + 24);
+    }
+
+    /** File position, within the chunk, of the encoded block holding the entry's first sample. */
+    public long getByteOffset(int entry) {
+        return buffer.getLong(offset(entry) + 32);
+    }
+
+    /**
+     * Last entry whose stream position is at or before {@code position}, or -1 if the position
+     * precedes the first entry. The result may end before {@code position} if it falls in a gap.
+     */
+    public int findByStreamPosition(long position) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getStreamStart(mid) <= position) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return hi;
+    }
+
+    /** Like {@link #findByStreamPosition(long)} for a wall-clock time. */
+    public int findByTime(long epochMillis) {
+        long delta = epochMillis - startEpochMillis;
+        return findByStreamPosition(Math.floorDiv(delta * sampleRate, 1000L));
+    }
+
+    /** Whether the entry holds the given stream position. */
+    public boolean contains(int entry, long position) {
+        long start = getStreamStart(entry);
+        return position >= start && position < start + getSampleCount(entry);
+    }
+
+    private static int offset(int entry) {
+        return HEADER_SIZE + entry * ENTRY_SIZE;
+    }
+}
@@ -0,0 +1,65 @@
+package com.davistobias.snoredetect.core.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Appends entries to a session index in the format described by {@link SessionIndex}. Each entry
+ * is flushed as it is written; {@link #sync()} makes the entries so far durable.
+ */
+public final class SessionIndexWriter implements Closeable {
+
+    private final FileOutputStream fileOut;
+    private final DataOutputStream out;
+    private final int sampleRate;
+    private final long startEpochMillis;
+    private int size;
+
+    /** @param frameSamples samples per capture read, or 0 if unknown */
+    public SessionIndexWriter(File file, int sampleRate, int frameSamples, long startEpochMillis) throws IOException {
+        this.fileOut = new FileOutputStream(file);
+        this.out = new DataOutputStream(new BufferedOutputStream(fileOut, 256));
+        this.sampleRate = sampleRate;
+        this.startEpochMillis = startEpochMillis;
+        out.writeInt(SessionIndex.MAGIC);
+        out.writeInt(SessionIndex.VERSION);
+        out.writeInt(sampleRate);
+        out.writeInt(SessionIndex.ENTRY_SIZE);
+        out.writeLong(startEpochMillis);
+        out.writeInt(frameSamples);
+        out.writeInt(0);
+        out.flush();
+    }
+
+    public void append(long streamStart, int chunk, int sampleCount, long chunkOffset, long byteOffset)
+            throws IOException {
+        out.writeLong(streamStart);
+        out.writeLong(startEpochMillis + streamStart * 1000 / sampleRate);
+        out.writeInt(chunk);
+        out.writeInt(sampleCount);
+        out.writeLong(chunkOffset);
+        out.writeLong(byteOffset);
+        out.flush();
+        size++;
+    }
+
+    /** Entries written so far. */
+    public int size() {
+        return size;
+    }
+
+    /** Forces the entries written so far to the storage device. */
+    public void sync() throws IOException {
+        out.flush();
+        fileOut.getFD().sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
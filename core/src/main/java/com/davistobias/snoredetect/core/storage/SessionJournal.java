@@ -0,0 +1,167 @@
+package com.davistobias.snoredetect.core.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Small fixed-size file recording what a {@link SessionWriter} has not yet put in the index: the
+ * run currently being written and how much of it is known to be on disk.
+ *
+ * The file holds two 80-byte slots, written alternately, each big-endian:
+ *
+ * <pre>
+ * int magic "SDJN", int version, long sequence, int sampleRate, int chunk, long startEpochMillis,
+ * long runStreamStart, long runChunkOffset, long runByteOffset,
+ * long validSamples (samples of the chunk synced to disk), int frameSamples,
+ * long CRC-32 of the preceding bytes
+ * </pre>
+ *
+ * Version 1 records, from before the read size was kept, lack frameSamples and read it as 0.
+ *
+ * A torn write damages at most the slot being written, so the other still holds the previous
+ * state. The file exists only while a session is being written; {@link SessionWriter#close()}
+ * deletes it, so its presence marks a session that needs {@link SessionRecovery}.
+ */
+final class SessionJournal implements Closeable {
+
+    static final String FILE_NAME = "journal.bin";
+
+    private static final int MAGIC = 0x53444A4E;
+    private static final int VERSION = 2;
+    private static final int SLOT_SIZE = 80;
+    private static final int PAYLOAD_SIZE = 76;
+    private static final int V1_PAYLOAD_SIZE = 72;
+
+    /** One journal record. */
+    static final class State {
+        final long sequence;
+        final int sampleRate;
+        final int frameSamples;
+        final int chunk;
+        final long startEpochMillis;
+        final long runStreamStart;
+        final long runChunkOffset;
+        final long runByteOffset;
+        final long validSamples;
+
+        State(long sequence, int sampleRate, int frameSamples, int chunk, long startEpochMillis,
+              long runStreamStart, long runChunkOffset, long runByteOffset, long validSamples) {
+            this.sequence = sequence;
+            this.sampleRate = sampleRate;
+            this.frameSamples = frameSamples;
+            this.chunk = chunk;
+            this.startEpochMillis = startEpochMillis;
+            this.runStreamStart = runStreamStart;
+            this.runChunkOffset = runChunkOffset;
+            this.runByteOffset = runByteOffset;
+            this.validSamples = validSamples;
+        }
+    }
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+    private final CRC32 crc = new CRC32();
+    private final int sampleRate;
+    private final int frameSamples;
+    private final long startEpochMillis;
+    private long sequence;
+
+    SessionJournal(File file, int sampleRate, int frameSamples, long startEpochMillis) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        this.sampleRate = sampleRate;
+        this.frameSamples = frameSamples;
+        this.startEpochMillis = startEpochMillis;
+        channel.truncate(0);
+    }
+
+    /**
+     * Writes a new record into the older slot.
+     *
+     * @param sync whether to force it to disk before returning
+     */
+    void record(int chunk, long runStreamStart, long runChunkOffset, long runByteOffset, long validSamples,
+                boolean sync) throws IOException {
+        sequence++;
+        slot.clear();
+        slot.putInt(MAGIC).putInt(VERSION).putLong(sequence).putInt(sampleRate).putInt(chunk)
+                .putLong(startEpochMillis).putLong(runStreamStart).putLong(runChunkOffset)
+                .putLong(runByteOffset).putLong(validSamples).putInt(frameSamples);
+        crc.reset();
+        crc.update(slot.array(), 0, PAYLOAD_SIZE - 8);
+        slot.putLong(crc.getValue());
+        slot.clear();
+        long position = (sequence & 1) * SLOT_SIZE;
+        while (slot.hasRemaining()) {
+            position += channel.write(slot, position);
+        }
+        if (sync) {
+            channel.force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    /** Closes and removes the journal, marking the session as cleanly finished. */
+    void delete() throws IOException {
+        close();
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+
+    /** Latest intact record, or null if neither slot is intact. */
+    static State read(File file) throws IOException {
+        State best = null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE);
+            for (int i = 0; i < 2; i++) {
+                buffer.clear();
+                long position = (long) i * SLOT_SIZE;
+                while (buffer.hasRemaining()) {
+                    int n = channel.read(buffer, position);
+                    if (n < 0) {
+                        break;
+                    }
+                    position += n;
+                }
+                State state = parse(buffer, buffer.position());
+                if (state != null && (best == null || state.sequence > best.sequence)) {
+                    best = state;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static State parse(ByteBuffer buffer, int length) {
+        if (length < 8 || buffer.getInt(0) != MAGIC) {
+            return null;
+        }
+        int version = buffer.getInt(4);
+        int payload = version == VERSION ? PAYLOAD_SIZE : version == 1 ? V1_PAYLOAD_SIZE : -1;
+        if (payload < 0 || length < payload) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, payload - 8);
+        if (buffer.getLong(payload - 8) != crc.getValue()) {
+            return null;
+        }
+        int frameSamples = version == VERSION ? buffer.getInt(64) : 0;
+        return new State(buffer.getLong(8), buffer.getInt(16), frameSamples, buffer.getInt(20),
+                buffer.getLong(24), buffer.getLong(32), buffer.getLong(40), buffer.getLong(48), buffer.getLong(56));
+    }
+}
@@ -0,0 +1,263 @@
+package com.davistobias.snoredetect.core.storage;
+
+import com.davistobias.snoredetect.core.codec.ImaAdpcmDecoder;
+import com.davistobias.snoredetect.core.codec.MuLawEncoder;
+import com.davistobias.snoredetect.core.codec.WavHeader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Random access to a recorded session by stream position, with constant heap use.
+ *
+ * Chunk files are memory-mapped on first use, so the OS pages audio in and out instead of the
+ * heap holding it. 16-bit PCM chunks are exposed as zero-copy {@link ShortBuffer} views; compressed
+ * chunks are decoded one block at a time into a reused scratch buffer. Reads address the original
+ * stream, crossing chunk boundaries transparently, and positions that were not stored (gated
+ * silence, overruns) read as zeros.
+ *
+ * Not thread-safe: the decode scratch is shared, so use one reader per thread.
+ */
+public final class SessionReader implements Closeable {
+
+    private final File directory;
+    private final SessionIndex index;
+    private final Chunk[] chunks;
+
+    private short[] blockScratch = new short[0];
+    private byte[] encodedScratch = new byte[0];
+    private Chunk decodedChunk;
+    private long decodedBlock = -1;
+
+    private SessionReader(File directory, SessionIndex index) {
+        this.directory = directory;
+        this.index = index;
+        int chunkCount = index.size() == 0 ? 0 : index.getChunk(index.size() - 1) + 1;
+        this.chunks = new Chunk[chunkCount];
+    }
+
+    public static SessionReader open(File sessionDirectory) throws IOException {
+        return new SessionReader(sessionDirectory,
+                SessionIndex.read(new File(sessionDirectory, SessionIndex.FILE_NAME)));
+    }
+
+    public SessionIndex getIndex() {
+        return index;
+    }
+
+    public int getSampleRate() {
+        return index.getSampleRate();
+    }
+
+    /** Stream position one past the last stored sample. */
+    public long getEndPosition() {
+        int last = index.size() - 1;
+        return last < 0 ? 0 : index.getStreamStart(last) + index.getSampleCount(last);
+    }
+
+    /**
+     * Zero-copy view of a 16-bit PCM chunk's samples, positioned at the start of the chunk.
+     * Each call returns an independent view over the same mapping.
+     *
+     * @throws IOException if the chunk is compressed
+     */
+    public ShortBuffer pcmView(int chunk) throws IOException {
+        Chunk c = chunk(chunk);
+        if (c.header.formatTag != WavHeader.FORMAT_PCM) {
+            throw new IOException("Chunk " + chunk + " is compressed; use read()");
+        }
+        return c.data.duplicate().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+    }
+
+    /**
+     * Copies the stream samples {@code [position, position + count)} into {@code dst}.
+     *
+     * @return how many of them were stored; the rest read as zero
+     */
+    public int read(long position, short[] dst, int offset, int count) throws IOException {
+        int stored = 0;
+        int entry = index.findByStreamPosition(position);
+        while (count > 0) {
+            if (entry >= 0 && index.contains(entry, position)) {
+                long intoEntry = position - index.getStreamStart(entry);
+                int n = (int) Math.min(count, index.getSampleCount(entry) - intoEntry);
+                readChunk(chunk(index.getChunk(entry)), index.getChunkOffset(entry) + intoEntry, dst, offset, n);
+                stored += n;
+                position += n;
+                offset += n;
+                count -= n;
+            } else {
+                // Zero-fill up to the next stored run, if it starts within the request
+                long next = entry + 1 < index.size() ? index.getStreamStart(entry + 1) : Long.MAX_VALUE;
+                int n = (int) Math.min(count, next - position);
+                Arrays.fill(dst, offset, offset + n, (short) 0);
+                position += n;
+                offset += n;
+                count -= n;
+            }
+            if (entry + 1 < index.size() && position >= index.getStreamStart(entry + 1)) {
+                entry++;
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Iterates over {@code [start, start + length)} in windows of {@code windowSize} samples,
+     * advancing by {@code hopSize}. The window buffer is reused between steps.
+     */
+    public Window window(long start, long length, int windowSize, int hopSize) {
+        if (windowSize <= 0 || hopSize <= 0) {
+            throw new IllegalArgumentException("windowSize and hopSize must be positive");
+        }
+        return new Window(start, start + length, windowSize, hopSize);
+    }
+
+    @Override
+    public void close() {
+        // Mappings are released when unreachable; dropping them here lets that happen early
+        Arrays.fill(chunks, null);
+        decodedChunk = null;
+    }
+
+    private Chunk chunk(int number) throws IOException {
+        Chunk c = chunks[number];
+        if (c == null) {
+            File file = new File(directory, SessionWriter.chunkFileName(number));
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                FileChannel channel = raf.getChannel();
+                WavHeader header = WavHeader.read(channel);
+                MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, header.dataOffset, header.dataLength);
+                c = new Chunk(header, data);
+            }
+            chunks[number] = c;
+        }
+        return c;
+    }
+
+    private void readChunk(Chunk chunk, long sample, short[] dst, int offset, int count) throws IOException {
+        WavHeader header = chunk.header;
+        ByteBuffer data = chunk.data;
+        switch (header.formatTag) {
+            case WavHeader.FORMAT_PCM: {
+                int pos = (int) (sample * 2);
+                for (int i = 0; i < count; i++, pos += 2) {
+                    dst[offset + i] = data.getShort(pos);
+                }
+                break;
+            }
+            case WavHeader.FORMAT_MULAW: {
+                int pos = (int) sample;
+                for (int i = 0; i < count; i++) {
+                    dst[offset + i] = MuLawEncoder.decode(data.get(pos + i));
+                }
+                break;
+            }
+            case WavHeader.FORMAT_IMA_ADPCM:
+                readAdpcm(chunk, sample, dst, offset, count);
+                break;
+            default:
+                throw new IOException("Unsupported WAV format " + header.formatTag);
+        }
+    }
+
+    private void readAdpcm(Chunk chunk, long sample, short[] dst, int offset, int count) {
+        int samplesPerBlock = chunk.header.samplesPerBlock;
+        int blockAlign = chunk.header.blockAlign;
+        if (blockScratch.length < samplesPerBlock) {
+            blockScratch = new short[samplesPerBlock];
+            encodedScratch = new byte[blockAlign];
+            decodedBlock = -1;
+        }
+        while (count > 0) {
+            long block = sample / samplesPerBlock;
+            if (chunk != decodedChunk || block != decodedBlock) {
+                // Absolute gets keep the shared mapping's position untouched and allocate nothing
+                int base = (int) (block * blockAlign);
+                for (int i = 0; i < blockAlign; i++) {
+                    encodedScratch[i] = chunk.data.get(base + i);
+                }
+                ImaAdpcmDecoder.decodeBlock(encodedScratch, 0, blockAlign, blockScratch, 0);
+                decodedChunk = chunk;
+                decodedBlock = block;
+            }
+            int within = (int) (sample - block * samplesPerBlock);
+            int n = Math.min(count, samplesPerBlock - within);
+            System.arraycopy(blockScratch, within, dst, offset, n);
+            sample += n;
+            offset += n;
+            count -= n;
+        }
+    }
+
+    private static final class Chunk {
+        final WavHeader header;
+        final ByteBuffer data;
+
+        Chunk(WavHeader header, MappedByteBuffer data) {
+            this.header = header;
+            this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Cursor over fixed-size windows of the stream. The last window may be shorter.
+     */
+    public final class Window {
+        private final long end;
+        private final int hopSize;
+        private final short[] samples;
+        private long position;
+        private int length;
+        private int stored;
+        private boolean started;
+
+        Window(long start, long end, int windowSize, int hopSize) {
+            this.position = start;
+            this.end = end;
+            this.hopSize = hopSize;
+            this.samples = new short[windowSize];
+        }
+
+        /** Moves to the next window, returning false when the range is exhausted. */
+        public boolean next() throws IOException {
+            if (started) {
+                position += hopSize;
+            }
+            started = true;
+            if (position >= end) {
+                length = 0;
+                return false;
+            }
+            length = (int) Math.min(samples.length, end - position);
+            stored = read(position, samples, 0, length);
+            return true;
+        }
+
+        /** The window's samples; valid up to {@link #length()} until the next call to {@link #next()}. */
+        public short[] samples() {
+            return samples;
+        }
+
+        public long position() {
+            return position;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        /** Samples in this window that were actually recorded rather than gated out. */
+        public int storedLength() {
+            return stored;
+        }
+    }
+}
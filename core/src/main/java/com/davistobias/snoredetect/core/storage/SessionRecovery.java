@@ -0,0 +1,242 @@
+package com.davistobias.snoredetect.core.storage;
+
+import com.davistobias.snoredetect.core.codec.WavHeader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Repairs sessions whose {@link SessionWriter} never closed, because the process was killed or the
+ * device lost power mid-recording.
+ *
+ * Such a session still has its {@link SessionJournal}. Recovery trims a torn entry off the index,
+ * cuts each chunk back to whole blocks and rewrites its WAV header to match, adds the index entry
+ * for the run that was open, rebuilds the envelope sidecar if it is missing, and finally deletes
+ * the journal. Every step can be repeated, so recovery that is itself interrupted simply runs
+ * again next time.
+ *
+ * A recovered session keeps every whole block that reached the disk: after a process kill that is
+ * all but the last partial block, after a power cut at least everything up to the last sync.
+ */
+public final class SessionRecovery {
+
+    private SessionRecovery() {
+    }
+
+    /** Whether the session in {@code sessionDir} was left unfinished. */
+    public static boolean needsRecovery(File sessionDir) {
+        return new File(sessionDir, SessionJournal.FILE_NAME).isFile();
+    }
+
+    /** Unfinished sessions in the store, oldest first. */
+    public static List<File> findUnfinished(SessionStore store) {
+        List<File> unfinished = new ArrayList<>();
+        File[] files = store.getRoot().listFiles();
+        if (files == null) {
+            return unfinished;
+        }
+        SessionStore.sortByStart(files);
+        for (File file : files) {
+            if (needsRecovery(file)) {
+                unfinished.add(file);
+            }
+        }
+        return unfinished;
+    }
+
+    /**
+     * Repairs one session. Must not be called on a session that is still being written.
+     *
+     * @return samples of the open run added back to the index
+     * @throws IOException if the session cannot be repaired; the journal is then left in place
+     */
+    public static long recover(File sessionDir) throws IOException {
+        File journalFile = new File(sessionDir, SessionJournal.FILE_NAME);
+        SessionJournal.State state = journalFile.isFile() ? SessionJournal.read(journalFile) : null;
+        File indexFile = new File(sessionDir, SessionIndex.FILE_NAME);
+
+        repairIndex(indexFile, state);
+        SessionIndex index = SessionIndex.read(indexFile);
+        int lastIndexedChunk = index.size() == 0 ? -1 : index.getChunk(index.size() - 1);
+
+        List<Long> chunkSamples = new ArrayList<>();
+        for (int chunk = 0; ; chunk++) {
+            File file = new File(sessionDir, SessionWriter.chunkFileName(chunk));
+            if (!file.isFile()) {
+                break;
+            }
+            boolean open = state != null && state.chunk == chunk;
+            long samples = repairChunk(file, open ? state.validSamples : 0);
+            if (samples < 0 && chunk > lastIndexedChunk) {
+                // Created but never got a header to disk; nothing refers to it
+                deleteFile(file);
+            }
+            chunkSamples.add(Math.max(samples, 0));
+        }
+        if (clampEntries(indexFile, index, chunkSamples)) {
+            index = SessionIndex.read(indexFile);
+        }
+
+        long openChunkSamples = state != null && state.chunk < chunkSamples.size() ? chunkSamples.get(state.chunk) : 0;
+        long added = 0;
+        if (state != null && openChunkSamples > state.runChunkOffset && !indexed(index, state)) {
+            added = Math.min(openChunkSamples - state.runChunkOffset, Integer.MAX_VALUE);
+            appendEntry(indexFile, index, state, (int) added);
+        }
+
+        File envelope = new File(sessionDir, EnvelopeFile.FILE_NAME);
+        if (!envelope.isFile()) {
+            try (SessionReader reader = SessionReader.open(sessionDir)) {
+                File temp = new File(sessionDir, EnvelopeFile.FILE_NAME + ".tmp");
+                EnvelopeFile.write(EnvelopeFile.rebuild(reader), reader.getSampleRate(), temp);
+                if (!temp.renameTo(envelope)) {
+                    deleteFile(temp);
+                    throw new IOException("Could not write " + envelope);
+                }
+            }
+        }
+
+        if (journalFile.exists()) {
+            deleteFile(journalFile);
+        }
+        return added;
+    }
+
+    /** Cuts the index back to whole entries, or rewrites its header from the journal if it was lost. */
+    private static void repairIndex(File indexFile, SessionJournal.State state) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            boolean valid = size >= SessionIndex.HEADER_SIZE
+                    && channel.read(magic, 0) == 4 && magic.getInt(0) == SessionIndex.MAGIC;
+            if (valid) {
+                long whole = (size - SessionIndex.HEADER_SIZE) / SessionIndex.ENTRY_SIZE;
+                long length = SessionIndex.HEADER_SIZE + whole * SessionIndex.ENTRY_SIZE;
+                if (length < size) {
+                    channel.truncate(length);
+                    channel.force(false);
+                }
+                return;
+            }
+        }
+        if (state == null) {
+            throw new IOException("Session index and journal are both unreadable in " + indexFile.getParent());
+        }
+        // The header is written first and synced with the first entries; losing it means no entries either
+        new SessionIndexWriter(indexFile, state.sampleRate, state.frameSamples, state.startEpochMillis).close();
+    }
+
+    /**
+     * Cuts a chunk back to the whole blocks its header or the journal vouch for and makes the header
+     * agree.
+     *
+     * @param validSamples samples the journal recorded as synced, or 0
+     * @return samples stored in the chunk, or -1 if it has no readable header
+     */
+    private static long repairChunk(File file, long validSamples) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            WavHeader header;
+            try {
+                header = WavHeader.read(channel);
+            } catch (IOException e) {
+                return -1;
+            }
+            long fileBlocks = (channel.size() - header.dataOffset) / header.blockAlign;
+            long validBlocks = Math.min(validSamples / header.samplesPerBlock, fileBlocks);
+            // The header is rewritten after each write, so it may lag the data by one write
+            long blocks = Math.max(header.dataLength / header.blockAlign, validBlocks);
+            long dataLength = blocks * header.blockAlign;
+            long end = header.dataOffset + dataLength;
+            if (dataLength == header.dataLength && channel.size() == end) {
+                return header.sampleCount;
+            }
+
+            header.dataLength = dataLength;
+            header.sampleCount = blocks * header.samplesPerBlock;
+            if (header.dataOffset == header.size()) {
+                // Our own layout, which can be rewritten in place
+                ByteBuffer buffer = ByteBuffer.allocate(header.size()).order(ByteOrder.LITTLE_ENDIAN);
+                header.write(buffer);
+                buffer.flip();
+                long position = 0;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+            channel.truncate(end);
+            channel.force(false);
+            return header.sampleCount;
+        }
+    }
+
+    /**
+     * Shortens the first entry that claims samples its chunk no longer holds, and drops every entry
+     * after it.
+     *
+     * @return whether the index changed
+     */
+    private static boolean clampEntries(File indexFile, SessionIndex index, List<Long> chunkSamples)
+            throws IOException {
+        for (int entry = 0; entry < index.size(); entry++) {
+            int chunk = index.getChunk(entry);
+            long available = chunk < chunkSamples.size() ? chunkSamples.get(chunk) - index.getChunkOffset(entry) : 0;
+            if (index.getSampleCount(entry) <= available) {
+                continue;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+                FileChannel channel = raf.getChannel();
+                long offset = SessionIndex.HEADER_SIZE + (long) entry * SessionIndex.ENTRY_SIZE;
+                if (available > 0) {
+                    ByteBuffer count = ByteBuffer.allocate(4);
+                    count.putInt(0, (int) available);
+                    channel.write(count, offset + 20);
+                    offset += SessionIndex.ENTRY_SIZE;
+                }
+                channel.truncate(offset);
+                channel.force(false);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /** Whether the journal's run already has its entry, i.e. the writer got as far as ending it. */
+    private static boolean indexed(SessionIndex index, SessionJournal.State state) {
+        int last = index.size() - 1;
+        return last >= 0 && index.getStreamStart(last) >= state.runStreamStart;
+    }
+
+    private static void appendEntry(File indexFile, SessionIndex index, SessionJournal.State state, int sampleCount)
+            throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(SessionIndex.ENTRY_SIZE);
+        entry.putLong(state.runStreamStart);
+        entry.putLong(index.getStartEpochMillis() + state.runStreamStart * 1000 / index.getSampleRate());
+        entry.putInt(state.chunk);
+        entry.putInt(sampleCount);
+        entry.putLong(state.runChunkOffset);
+        entry.putLong(state.runByteOffset);
+        entry.flip();
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+            FileChannel channel = raf.getChannel();
+            long position = SessionIndex.HEADER_SIZE + (long) index.size() * SessionIndex.ENTRY_SIZE;
+            while (entry.hasRemaining()) {
+                position += channel.write(entry, position);
+            }
+            channel.force(false);
+        }
+    }
+
+    private static void deleteFile(File file) throws IOException {
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.davistobias.snoredetect.core.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Root directory holding one subdirectory per recording session, named after the start time in UTC
+ * (e.g. {@code 20261017-211502Z}) so they sort chronologically, also across a change of daylight
+ * saving time, and never overwrite each other.
+ *
+ * Sessions from before names were in UTC carry the local start time without the {@code Z}. Lists
+ * are therefore ordered by the start time each name encodes rather than by the name itself.
+ */
+public final class SessionStore {
+
+    private static final String NAME_FORMAT = "yyyyMMdd-HHmmss";
+    private static final char UTC_SUFFIX = 'Z';
+
+    private final File root;
+
+    public SessionStore(File root) {
+        this.root = root;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /** Creates an empty directory for a session starting at {@code startEpochMillis}. */
+    public File createSession(long startEpochMillis) throws IOException {
+        String name = nameFormat(TimeZone.getTimeZone("UTC")).format(new Date(startEpochMillis)) + UTC_SUFFIX;
+        File directory = new File(root, name);
+        // Two sessions started within the same second get a suffix
+        for (int n = 2; directory.exists(); n++) {
+            directory = new File(root, name + "-" + n);
+        }
+        if (!directory.mkdirs()) {
+            throw new IOException("Cannot create session directory " + directory);
+        }
+        return directory;
+    }
+
+    /** Session directories with an index, oldest first. */
+    public List<File> listSessions() {
+        File[] files = root.listFiles();
+        List<File> sessions = new ArrayList<>();
+        if (files == null) {
+            return sessions;
+        }
+        sortByStart(files);
+        for (File file : files) {
+            if (new File(file, SessionIndex.FILE_NAME).isFile()) {
+                sessions.add(file);
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * Sorts session directories oldest first by the start time in their names; sessions started in
+     * the same second by their suffix. Names that hold no time go last.
+     */
+    static void sortByStart(File[] files) {
+        final long[] starts = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            starts[i] = nameStartMillis(files[i].getName());
+            order[i] = i;
+        }
+        final File[] unsorted = files.clone();
+        Arrays.sort(order, (a, b) -> {
+            if (starts[a] != starts[b]) {
+                return Long.compare(starts[a], starts[b]);
+            }
+            String nameA = unsorted[a].getName();
+            String nameB = unsorted[b].getName();
+            // "-10" after "-2"
+            return nameA.length() != nameB.length() ? nameA.length() - nameB.length() : nameA.compareTo(nameB);
+        });
+        for (int i = 0; i < files.length; i++) {
+            files[i] = unsorted[order[i]];
+        }
+    }
+
+    /** Start time a session directory name encodes, or {@link Long#MAX_VALUE} if it holds none. */
+    static long nameStartMillis(String name) {
+        int length = NAME_FORMAT.length();
+        if (name.length() < length) {
+            return Long.MAX_VALUE;
+        }
+        boolean utc = name.length() > length && name.charAt(length) == UTC_SUFFIX;
+        SimpleDateFormat format = nameFormat(utc ? TimeZone.getTimeZone("UTC") : TimeZone.getDefault());
+        format.setLenient(false);
+        ParsePosition position = new ParsePosition(0);
+        Date start = format.parse(name.substring(0, length), position);
+        return start != null && position.getIndex() == length ? start.getTime() : Long.MAX_VALUE;
+    }
+
+    private static SimpleDateFormat nameFormat(TimeZone zone) {
+        SimpleDateFormat format = new SimpleDateFormat(NAME_FORMAT, Locale.US);
+        format.setTimeZone(zone);
+        return format;
+    }
+}
@@ -0,0 +1,237 @@
+package com.davistobias.snoredetect.core.storage;
+
+import com.davistobias.snoredetect.core.codec.PcmSink;
+import com.davistobias.snoredetect.core.codec.WavEncoder;
+import com.davistobias.snoredetect.core.codec.WavSink;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Writes one recording session as a directory of WAV chunks plus a {@link SessionIndex}.
+ *
+ * A new chunk is started when the current one reaches the sample or byte limit, so no single file
+ * grows without bound and a damaged chunk costs only its own stretch of the night. Blocks carry
+ * their stream position; every run of contiguous positions within a chunk becomes one index
+ * entry, so gaps left by gating or overruns are recorded rather than silently closed up.
+ *
+ * A run's index entry is only written once the run ends, so while recording a {@link SessionJournal}
+ * records the open run. Every sync interval the chunk, index and journal are forced to disk; if
+ * the recording is cut short, {@link SessionRecovery} uses what survived to repair the session.
+ * {@link #close()} removes the journal.
+ */
+public final class SessionWriter implements PcmSink {
+
+    /** Chunks are rotated at this length unless the byte limit is reached first. */
+    public static final int DEFAULT_CHUNK_MINUTES = 30;
+    public static final long DEFAULT_CHUNK_BYTES = 16L * 1024 * 1024;
+    /** Stream time between syncs; a power cut loses at most this much audio. */
+    public static final int DEFAULT_SYNC_SECONDS = 10;
+
+    private final File directory;
+    private final int sampleRate;
+    private final Supplier<WavEncoder> encoders;
+    private final long maxChunkSamples;
+    private final long maxChunkBytes;
+    private final long syncIntervalSamples;
+    private final SessionIndexWriter index;
+    private final SessionJournal journal;
+
+    private WavSink chunk;
+    private int chunkNumber = -1;
+    private long chunkSamples;
+    private long syncedChunkSamples;
+    private long samplesSinceSync;
+    private long closedChunkBytes;
+    private volatile long encodedBytes;
+
+    private boolean runOpen;
+    private long runStreamStart;
+    private long runChunkOffset;
+    private long runByteOffset;
+    private int runLength;
+
+    private long streamPosition;
+
+    public SessionWriter(File directory, int sampleRate, long startEpochMillis, Supplier<WavEncoder> encoders)
+            throws IOException {
+        this(directory, sampleRate, 0, startEpochMillis, encoders);
+    }
+
+    /**
+     * @param frameSamples samples per capture read, kept in the index so that re-analysis frames
+     *                     the audio as the capture did; 0 if unknown
+     */
+    public SessionWriter(File directory, int sampleRate, int frameSamples, long startEpochMillis,
+                         Supplier<WavEncoder> encoders) throws IOException {
+        this(directory, sampleRate, frameSamples, startEpochMillis, encoders,
+                (long) DEFAULT_CHUNK_MINUTES * 60 * sampleRate, DEFAULT_CHUNK_BYTES,
+                (long) DEFAULT_SYNC_SECONDS * sampleRate);
+    }
+
+    /**
+     * @param startEpochMillis wall-clock time of stream sample 0
+     * @param maxChunkSamples  samples per chunk before rotating
+     * @param maxChunkBytes    encoded bytes per chunk before rotating
+     */
+    public SessionWriter(File directory, int sampleRate, long startEpochMillis, Supplier<WavEncoder> encoders,
+                         long maxChunkSamples, long maxChunkBytes) throws IOException {
+        this(directory, sampleRate, startEpochMillis, encoders, maxChunkSamples, maxChunkBytes,
+                (long) DEFAULT_SYNC_SECONDS * sampleRate);
+    }
+
+    /**
+     * @param syncIntervalSamples samples written between syncs to the storage device
+     */
+    public SessionWriter(File directory, int sampleRate, long startEpochMillis, Supplier<WavEncoder> encoders,
+                         long maxChunkSamples, long maxChunkBytes, long syncIntervalSamples) throws IOException {
+        this(directory, sampleRate, 0, startEpochMillis, encoders, maxChunkSamples, maxChunkBytes,
+                syncIntervalSamples);
+    }
+
+    public SessionWriter(File directory, int sampleRate, int frameSamples, long startEpochMillis,
+                         Supplier<WavEncoder> encoders, long maxChunkSamples, long maxChunkBytes,
+                         long syncIntervalSamples) throws IOException {
+        if (maxChunkSamples <= 0 || maxChunkBytes <= 0) {
+            throw new IllegalArgumentException("chunk limits must be positive");
+        }
+        if (syncIntervalSamples <= 0) {
+            throw new IllegalArgumentException("syncIntervalSamples must be positive");
+        }
+        if (frameSamples < 0) {
+            throw new IllegalArgumentException("frameSamples must not be negative");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create session directory " + directory);
+        }
+        this.directory = directory;
+        this.sampleRate = sampleRate;
+        this.encoders = encoders;
+        this.maxChunkSamples = maxChunkSamples;
+        this.maxChunkBytes = maxChunkBytes;
+        this.syncIntervalSamples = syncIntervalSamples;
+        this.journal = new SessionJournal(new File(directory, SessionJournal.FILE_NAME), sampleRate, frameSamples,
+                startEpochMillis);
+        this.index = new SessionIndexWriter(new File(directory, SessionIndex.FILE_NAME), sampleRate, frameSamples,
+                startEpochMillis);
+    }
+
+    public static String chunkFileName(int chunk) {
+        return String.format(Locale.US, "chunk-%04d.wav", chunk);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /** Writes without a position continue straight on from the previous block. */
+    @Override
+    public void write(short[] samples, int offset, int count) throws IOException {
+        writeBlock(samples, offset, count, streamPosition, 0);
+    }
+
+    @Override
+    public void writeBlock(short[] samples, int offset, int count, long position, int flags) throws IOException {
+        if (runOpen && position != streamPosition) {
+            endRun();
+        }
+        streamPosition = position;
+
+        while (count > 0) {
+            if (chunk == null || chunkSamples >= maxChunkSamples || chunk.getDataLength() >= maxChunkBytes) {
+                rotate();
+            }
+            int n = (int) Math.min(count, maxChunkSamples - chunkSamples);
+            if (!runOpen) {
+                runOpen = true;
+                runStreamStart = streamPosition;
+                runChunkOffset = chunkSamples;
+                runByteOffset = chunk.byteOffsetOf(chunkSamples);
+                runLength = 0;
+                // Cheap without a sync; only the next sync point makes it durable
+                journal.record(chunkNumber, runStreamStart, runChunkOffset, runByteOffset, syncedChunkSamples, false);
+            }
+            chunk.write(samples, offset, n);
+            chunkSamples += n;
+            runLength += n;
+            streamPosition += n;
+            offset += n;
+            count -= n;
+            samplesSinceSync += n;
+        }
+        if (chunk != null) {
+            encodedBytes = closedChunkBytes + chunk.getDataLength();
+        }
+        if (samplesSinceSync >= syncIntervalSamples) {
+            sync();
+        }
+    }
+
+    /**
+     * Forces the current chunk and the index to the storage device, then records in the journal
+     * how much of the chunk is safe. Called every sync interval; callers may also sync early.
+     */
+    public void sync() throws IOException {
+        samplesSinceSync = 0;
+        if (chunk == null) {
+            return;
+        }
+        chunk.sync();
+        index.sync();
+        syncedChunkSamples = chunk.getWrittenSamples();
+        journal.record(chunkNumber, runStreamStart, runChunkOffset, runByteOffset, syncedChunkSamples, true);
+    }
+
+    /** Audio data bytes in all chunks so far, headers excluded. Safe to call from any thread. */
+    public long getEncodedBytes() {
+        return encodedBytes;
+    }
+
+    /** Number of chunk files started so far. */
+    public int getChunkCount() {
+        return chunkNumber + 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (runOpen) {
+                endRun();
+            }
+            if (chunk != null) {
+                chunk.sync();
+                chunk.close();
+                chunk = null;
+            }
+            index.sync();
+        } finally {
+            index.close();
+        }
+        // Only once everything else is durable; a failure above leaves the journal for recovery
+        journal.delete();
+    }
+
+    private void rotate() throws IOException {
+        if (runOpen) {
+            endRun();
+        }
+        if (chunk != null) {
+            chunk.sync();
+            chunk.close();
+            closedChunkBytes += chunk.getDataLength();
+        }
+        chunkNumber++;
+        chunk = new WavSink(new File(directory, chunkFileName(chunkNumber)), sampleRate, encoders.get());
+        chunkSamples = 0;
+        syncedChunkSamples = 0;
+    }
+
+    private void endRun() throws IOException {
+        runOpen = false;
+        if (runLength > 0) {
+            index.append(runStreamStart, chunkNumber, runLength, runChunkOffset, runByteOffset);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.davistobias.snoredetect.core;
+
+import com.davistobias.snoredetect.core.codec.PcmSink;
+import com.davistobias.snoredetect.core.dsp.FeatureExtractor;
+import com.davistobias.snoredetect.core.dsp.LevelThresholdClassifier;
+import com.davistobias.snoredetect.core.dsp.PolyphaseDecimator;
+import com.davistobias.snoredetect.core.dsp.SnoreDetector;
+import com.davistobias.snoredetect.core.dsp.SnoreEventDetector;
+import com.davistobias.snoredetect.core.dsp.SnoreEventQueue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.function.IntUnaryOperator;
+
+import static org.junit.Assert.*;
+
+public class CaptureConfigTest {
+
+    private static final int[] RATES = {8000, 16000, 44100, 48000};
+
+    /** Minimum buffer sizes a typical phone reports for 16-bit mono. */
+    private static final IntUnaryOperator TYPICAL_DEVICE = rate -> {
+        switch (rate) {
+            case 8000: return 640;
+            case 16000: return 1280;
+            case 44100: return 3584;
+            case 48000: return 3840;
+            default: return -2;
+        }
+    };
+
+    @Test
+    public void defaults_keepOriginalReadAt8kHz() {
+        CaptureConfig config = CaptureConfig.negotiate(CaptureConfig.Profile.BALANCED,
+                CaptureConfig.DEFAULT_SAMPLE_RATES, TYPICAL_DEVICE);
+
+        assertEquals(8000, config.getSampleRate());
+        assertEquals(1024, config.getReadSamples());
+        assertEquals(128, config.getReadMillis(), 0);
+        // Four times the minimum would not hold two reads, so it takes as many minimums as that needs
+        assertEquals(7 * 640, config.getBufferBytes());
+        // Eight seconds, which the ring rounds up to the 64 blocks it always had
+        assertEquals(63, config.readsFor(8));
+    }
+
+    @Test
+    public void analysis_runsAtAbout8kHz() {
+        int[][] expected = {{8000, 1, 8000}, {16000, 2, 8000}, {44100, 5, 8820}, {48000, 6, 8000}};
+        for (int[] row : expected) {
+            CaptureConfig config = CaptureConfig.negotiate(CaptureConfig.Profile.BALANCED, new int[] {row[0]},
+                    TYPICAL_DEVICE);
+            assertEquals(row[1], config.getDecimationFactor());
+            assertEquals(row[2], config.getAnalysisSampleRate());
+            assertTrue(config.getAnalysisFrameSamples() * row[1] >= config.getReadSamples());
+        }
+    }
+
+    @Test
+    public void matrix_everyRateAndProfileIsConsistent() {
+        for (int rate : RATES) {
+            int minBytes = TYPICAL_DEVICE.applyAsInt(rate);
+            for (CaptureConfig.Profile profile : CaptureConfig.Profile.values()) {
+                CaptureConfig config = CaptureConfig.negotiate(profile, new int[] {rate}, TYPICAL_DEVICE);
+                String label = config.toString();
+
+                assertEquals(label, rate, config.getSampleRate());
+                assertEquals(label, 0, config.getReadSamples() & (config.getReadSamples() - 1));
+                double ratio = config.getReadMillis() / profile.readMillis;
+                assertTrue(label, ratio > 0.7 && ratio < 1.42);
+                assertEquals(label, 0, config.getBufferBytes() % minBytes);
+                assertTrue(label, config.getBufferBytes() >= profile.bufferMultiple * minBytes);
+                assertTrue(label, config.getBufferBytes() >= 2 * config.getReadBytes());
+            }
+        }
+    }
+
+    @Test
+    public void profiles_tradeLatencyForHeadroom() {
+        for (int rate : RATES) {
+            CaptureConfig low = CaptureConfig.negotiate(CaptureConfig.Profile.LOW_LATENCY, new int[] {rate}, TYPICAL_DEVICE);
+            CaptureConfig robust = CaptureConfig.negotiate(CaptureConfig.Profile.ROBUST, new int[] {rate}, TYPICAL_DEVICE);
+
+            assertTrue(low.getReadMillis() < robust.getReadMillis());
+            assertTrue(low.getBufferMillis() < robust.getBufferMillis());
+        }
+    }
+
+    @Test
+    public void unsupportedRates_areSkipped() {
+        IntUnaryOperator only44k = rate -> rate == 44100 ? 3584 : -2;
+        CaptureConfig config = CaptureConfig.negotiate(CaptureConfig.Profile.BALANCED,
+                CaptureConfig.DEFAULT_SAMPLE_RATES, only44k);
+
+        assertEquals(44100, config.getSampleRate());
+        assertEquals(4096, config.getReadSamples());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void noSupportedRate_throws() {
+        CaptureConfig.negotiate(CaptureConfig.Profile.BALANCED, CaptureConfig.DEFAULT_SAMPLE_RATES, rate -> -1);
+    }
+
+    @Test
+    public void forSampleRate_readsAsNegotiated() {
+        for (int rate : RATES) {
+            CaptureConfig negotiated = CaptureConfig.negotiate(CaptureConfig.Profile.ROBUST, new int[] {rate},
+                    TYPICAL_DEVICE);
+            CaptureConfig offline = CaptureConfig.forSampleRate(CaptureConfig.Profile.ROBUST, rate);
+
+            assertEquals(negotiated.getReadSamples(), offline.getReadSamples());
+            assertEquals(negotiated.getAnalysisFrameSamples(), offline.getAnalysisFrameSamples());
+            assertEquals(2 * offline.getReadBytes(), offline.getBufferBytes());
+        }
+    }
+
+    @Test
+    public void pipeline_detectsEveryBreathAtEveryRate() throws Exception {
+        for (int rate : RATES) {
+            CaptureConfig config = CaptureConfig.negotiate(CaptureConfig.Profile.BALANCED, new int[] {rate},
+                    TYPICAL_DEVICE);
+            // Ten 4 s breath cycles, each with a stretch of snoring
+            SyntheticAudioSource source = SyntheticAudioSource.snore(rate, 0.3, 5).withLength(40L * rate);
+            SnoreEventQueue events = new SnoreEventQueue(64);
+            PcmRingBuffer ring = new PcmRingBuffer(config.readsFor(8), config.getReadSamples());
+            PcmBlockWriter writer = new PcmBlockWriter(ring, new NullSink(), null);
+            // Analysed at about 8 kHz whatever the capture rate, as the service does
+            PolyphaseDecimator decimator = config.getDecimationFactor() > 1
+                    ? new PolyphaseDecimator(config.getDecimationFactor())
+                    : null;
+            SnoreDetector detector = new SnoreDetector(decimator, new FeatureExtractor(config.getAnalysisSampleRate(),
+                    config.getAnalysisFrameSamples()), new LevelThresholdClassifier(), null);
+            CaptureLoop loop = new CaptureLoop(source, ring, writer, detector, new SnoreEventDetector(rate, events),
+                    new NullListener());
+
+            Thread writerThread = new Thread(writer, "test-writer");
+            writerThread.start();
+            source.start();
+            loop.run();
+            writer.requestStop();
+            writerThread.join(10_000);
+
+            assertEquals(config.toString(), 10, events.size());
+            assertEquals(40L * rate, writer.getSamplesWritten());
+        }
+    }
+
+    private static final class NullSink implements PcmSink {
+        @Override
+        public void write(short[] samples, int offset, int count) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class NullListener implements CaptureLoop.Listener {
+        @Override
+        public void onFrame(double decibel, boolean snoring) {
+        }
+
+        @Override
+        public void onSnoreEventsAvailable() {
+        }
+
+        @Override
+        public void onSourceEnded() {
+        }
+
+        @Override
+        public void onSourceError(IOException e) {
+        }
+    }
+}
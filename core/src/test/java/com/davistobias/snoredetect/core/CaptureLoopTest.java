@@ -0,0 +1,328 @@
+package com.davistobias.snoredetect.core;
+
+import com.davistobias.snoredetect.core.codec.GatedPcmSink;
+import com.davistobias.snoredetect.core.codec.PcmSink;
+import com.davistobias.snoredetect.core.codec.RawPcmSink;
+import com.davistobias.snoredetect.core.dsp.ActivityDetector;
+import com.davistobias.snoredetect.core.dsp.FeatureExtractor;
+import com.davistobias.snoredetect.core.dsp.LevelMeter;
+import com.davistobias.snoredetect.core.dsp.LevelThresholdClassifier;
+import com.davistobias.snoredetect.core.dsp.NoiseFloorEstimator;
+import com.davistobias.snoredetect.core.dsp.SnoreDetector;
+import com.davistobias.snoredetect.core.dsp.SnoreEvent;
+import com.davistobias.snoredetect.core.dsp.SnoreEventDetector;
+import com.davistobias.snoredetect.core.dsp.SnoreEventQueue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CaptureLoopTest {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final int BLOCK_SIZE = 1024;
+
+    @Test
+    public void syntheticSource_runsThroughPipelineToSink() throws Exception {
+        SyntheticAudioSource source = SyntheticAudioSource.tone(SAMPLE_RATE, 440, 0.5).withLength(10_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RecordingListener listener = runPipeline(source, out);
+
+        assertTrue(listener.ended);
+        assertNull(listener.error);
+        // 9 full blocks and one partial block of 784 samples
+        assertEquals(10, listener.levels);
+        assertEquals(20_000, out.size());
+        // A half-scale sine has an RMS level of -9 dB, and A-weighting takes 4.1 dB off 440 Hz
+        assertEquals(20 * Math.log10(0.5 / Math.sqrt(2)) - 4.1, listener.lastLevel, 0.2);
+        // Every frame is above the default -45 dB level threshold
+        assertEquals(10, listener.snoringFrames);
+    }
+
+    @Test
+    public void fileSource_replaysWhatWasRecorded() throws Exception {
+        File file = File.createTempFile("capture", ".pcm");
+        file.deleteOnExit();
+        SyntheticAudioSource original = SyntheticAudioSource.noise(SAMPLE_RATE, 0.1, 42).withLength(5_000);
+        runPipeline(original, new FileOutputStream(file));
+        assertEquals(10_000, file.length());
+
+        short[] expected = new short[5_000];
+        original.start();
+        assertEquals(5_000, original.read(expected, 0, expected.length));
+
+        PcmFileAudioSource replay = new PcmFileAudioSource(file, SAMPLE_RATE);
+        replay.start();
+        short[] actual = new short[5_000];
+        int total = 0;
+        int n;
+        while ((n = replay.read(actual, total, Math.min(BLOCK_SIZE, actual.length - total))) > 0) {
+            total += n;
+        }
+        assertEquals(5_000, total);
+        assertArrayEquals(expected, actual);
+        assertEquals(AudioSource.END_OF_STREAM, replay.read(actual, 0, BLOCK_SIZE));
+        replay.close();
+    }
+
+    @Test
+    public void fileSource_loopsWhenAsked() throws Exception {
+        File file = File.createTempFile("loop", ".pcm");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] {1, 0, 2, 0, 3, 0});
+        }
+
+        PcmFileAudioSource source = new PcmFileAudioSource(file, SAMPLE_RATE, true, false);
+        source.start();
+        short[] buffer = new short[4];
+        int total = 0;
+        while (total < buffer.length) {
+            total += source.read(buffer, total, buffer.length - total);
+        }
+        assertArrayEquals(new short[] {1, 2, 3, 1}, buffer);
+        source.close();
+    }
+
+    @Test
+    public void snoreSource_alternatesSnoreAndQuiet() throws Exception {
+        SyntheticAudioSource source = SyntheticAudioSource.snore(SAMPLE_RATE, 0.5, 1);
+        source.start();
+        short[] buffer = new short[BLOCK_SIZE];
+
+        // Middle of the first inhale versus the exhale
+        double loud = 0;
+        double quiet = 0;
+        for (int block = 0; block < 4 * SAMPLE_RATE / BLOCK_SIZE; block++) {
+            source.read(buffer, 0, BLOCK_SIZE);
+            double level = LevelMeter.peakDecibel(buffer, BLOCK_SIZE);
+            if (block == 5) {
+                loud = level;
+            } else if (block == 20) {
+                quiet = level;
+            }
+        }
+        assertTrue("snore " + loud + " dB vs quiet " + quiet + " dB", loud - quiet > 30);
+    }
+
+    @Test
+    public void snoreSource_yieldsOneEventPerBreath() throws Exception {
+        // Ten 4 s breath cycles, each with 1.4 s of snoring
+        SyntheticAudioSource source = SyntheticAudioSource.snore(SAMPLE_RATE, 0.3, 5).withLength(40 * SAMPLE_RATE);
+        RecordingListener listener = runPipeline(source, new ByteArrayOutputStream());
+
+        assertEquals(10, listener.events.size());
+        assertTrue(listener.eventSignals >= 1);
+        long previousStart = -1;
+        SnoreEvent event;
+        while ((event = listener.events.poll()) != null) {
+            assertTrue(event.startSample > previousStart);
+            // The inhale envelope tapers, so only its loud middle clears the level threshold
+            double seconds = event.getDurationSeconds(SAMPLE_RATE);
+            assertTrue(seconds + " s", seconds > 0.5 && seconds <= 1.6);
+            assertTrue(event.peakDb >= event.meanDb);
+            previousStart = event.startSample;
+        }
+    }
+
+    @Test
+    public void frameBus_deliversEveryBlockOnConsumerThread() throws Exception {
+        SyntheticAudioSource source = SyntheticAudioSource.snore(SAMPLE_RATE, 0.3, 5).withLength(150 * SAMPLE_RATE);
+        FrameBus bus = new FrameBus(512);
+        FrameConsumer consumer = new FrameConsumer(4, null);
+        Thread consumerThread = new Thread(consumer, "test-consumer");
+        consumerThread.start();
+        long[] next = {0};
+        int[] snoringFrames = {0};
+        boolean[] ordered = {true};
+        boolean[] onCaptureThread = {false};
+        List<Long> minuteEnds = new ArrayList<>();
+        Thread captureThread = Thread.currentThread();
+        bus.subscribe(frame -> {
+            ordered[0] &= frame.getPosition() == next[0];
+            next[0] += frame.getSamples();
+            if (frame.isSnoring()) {
+                snoringFrames[0]++;
+            }
+            onCaptureThread[0] |= Thread.currentThread() == captureThread;
+            if (!Double.isNaN(frame.getLongLeqDb())) {
+                minuteEnds.add(next[0]);
+            }
+        }, consumer, FrameBus.Backpressure.BUFFER, 512);
+
+        RecordingListener listener = runPipeline(source, new RawPcmSink(new ByteArrayOutputStream(), BLOCK_SIZE), bus);
+        consumer.requestStop();
+        consumerThread.join(1_000);
+
+        assertTrue(ordered[0]);
+        assertEquals(150L * SAMPLE_RATE, next[0]);
+        // The meter's one-minute Leq rides on the frames that end each minute
+        assertEquals(2, minuteEnds.size());
+        for (int minute = 0; minute < 2; minute++) {
+            long end = minuteEnds.get(minute);
+            assertTrue(end >= 60L * (minute + 1) * SAMPLE_RATE && end - BLOCK_SIZE < 60L * (minute + 1) * SAMPLE_RATE);
+        }
+        assertEquals(listener.snoringFrames, snoringFrames[0]);
+        assertFalse(onCaptureThread[0]);
+        assertEquals(0, bus.getDropped());
+    }
+
+    @Test
+    public void gatedSink_storesOnlyAudioAroundLoudStretch() throws Exception {
+        // A minute of quiet room noise with one second of loud tone in the middle
+        short[] clip = new short[60 * SAMPLE_RATE];
+        SyntheticAudioSource quiet = SyntheticAudioSource.noise(SAMPLE_RATE, 0.002, 9);
+        quiet.start();
+        quiet.read(clip, 0, clip.length);
+        SyntheticAudioSource tone = SyntheticAudioSource.tone(SAMPLE_RATE, 120, 0.4);
+        tone.start();
+        tone.read(clip, 30 * SAMPLE_RATE, SAMPLE_RATE);
+        SyntheticAudioSource source = SyntheticAudioSource.loop(SAMPLE_RATE, clip).withLength(clip.length);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final long[] segment = new long[3];
+        GatedPcmSink gated = new GatedPcmSink(new RawPcmSink(out, BLOCK_SIZE), new GatedPcmSink.SegmentListener() {
+            @Override
+            public void onSegmentStart(long streamStart, long outputStart) {
+            }
+
+            @Override
+            public void onSegmentEnd(long streamStart, long outputStart, long length) {
+                segment[0]++;
+                segment[1] = streamStart;
+                segment[2] = length;
+            }
+        }, 5 * SAMPLE_RATE, 2 * SAMPLE_RATE);
+        runPipeline(source, gated);
+
+        assertEquals(1, segment[0]);
+        // Five seconds of pre-roll before the block where the tone starts, rounded to blocks
+        long toneBlockStart = 30 * SAMPLE_RATE / BLOCK_SIZE * BLOCK_SIZE;
+        assertEquals(toneBlockStart - 5 * SAMPLE_RATE, segment[1]);
+        assertEquals(segment[2] * 2, out.size());
+        // About 8 s kept out of 60
+        assertTrue("stored " + segment[2] + " samples", segment[2] < 10 * SAMPLE_RATE);
+    }
+
+    @Test
+    public void lowPowerMode_skipsQuietFramesAndBatchesWrites() throws Exception {
+        // A minute of quiet room noise with ten seconds of snoring in the middle
+        short[] clip = new short[60 * SAMPLE_RATE];
+        SyntheticAudioSource room = SyntheticAudioSource.noise(SAMPLE_RATE, 0.01, 3);
+        room.start();
+        room.read(clip, 0, clip.length);
+        SyntheticAudioSource snore = SyntheticAudioSource.snore(SAMPLE_RATE, 0.3, 1);
+        snore.start();
+        short[] snoring = new short[10 * SAMPLE_RATE];
+        snore.read(snoring, 0, snoring.length);
+        for (int i = 0; i < snoring.length; i++) {
+            clip[25 * SAMPLE_RATE + i] += snoring[i];
+        }
+        SyntheticAudioSource source = SyntheticAudioSource.loop(SAMPLE_RATE, clip).withLength(clip.length);
+
+        PcmRingBuffer ring = new PcmRingBuffer(16, BLOCK_SIZE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PcmBlockWriter writer = new PcmBlockWriter(ring, new RawPcmSink(out, BLOCK_SIZE), null);
+        RecordingListener listener = new RecordingListener();
+        NoiseFloorEstimator noiseFloor = new NoiseFloorEstimator(SAMPLE_RATE);
+        SnoreDetector detector = new SnoreDetector(new FeatureExtractor(SAMPLE_RATE, BLOCK_SIZE),
+                new LevelThresholdClassifier(noiseFloor), noiseFloor);
+        detector.setActivityDetector(new ActivityDetector(SAMPLE_RATE, noiseFloor));
+        SnoreEventDetector eventDetector = new SnoreEventDetector(SAMPLE_RATE, listener.events);
+        CaptureLoop loop = new CaptureLoop(source, ring, writer, detector, eventDetector, listener);
+        loop.setWriterBatchBlocks(8);
+        // One millisecond of CPU per call stands in for the thread clock
+        final long[] clock = new long[1];
+        loop.setCpuClock(() -> clock[0] += 1_000_000);
+
+        Thread writerThread = new Thread(writer, "test-writer");
+        writerThread.start();
+        source.start();
+        loop.run();
+        writer.requestStop();
+        writerThread.join(10_000);
+
+        assertEquals(clip.length * 2, out.size());
+        assertTrue(listener.snoringFrames > 0);
+        PowerMetrics metrics = loop.getPowerMetrics();
+        assertEquals(listener.levels, metrics.getFrames());
+        assertEquals(60.0 / 3600, metrics.getAudioHours(), 0.001);
+        // Calibration, the snoring and its hangover; the rest of the minute stays in the first stage
+        assertTrue(metrics.toString(), metrics.getFullPipelineFraction() < 0.5);
+        assertTrue(metrics.toString(), metrics.getPipelineWakeups() >= 1);
+        assertEquals(metrics.getFrames() * 1e6 * 60, metrics.getCpuMillisPerAudioHour() * 1e6, 1e6 * 60);
+    }
+
+    private static RecordingListener runPipeline(AudioSource source, java.io.OutputStream out) throws Exception {
+        return runPipeline(source, new RawPcmSink(out, BLOCK_SIZE));
+    }
+
+    private static RecordingListener runPipeline(AudioSource source, PcmSink sink) throws Exception {
+        return runPipeline(source, sink, null);
+    }
+
+    private static RecordingListener runPipeline(AudioSource source, PcmSink sink, FrameBus bus) throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(16, BLOCK_SIZE);
+        PcmBlockWriter writer = new PcmBlockWriter(ring, sink, null);
+        RecordingListener listener = new RecordingListener();
+        SnoreDetector detector = new SnoreDetector(new FeatureExtractor(source.getSampleRate(), BLOCK_SIZE),
+                new LevelThresholdClassifier());
+        SnoreEventDetector eventDetector = new SnoreEventDetector(source.getSampleRate(), listener.events);
+        CaptureLoop loop = new CaptureLoop(source, ring, writer, detector, eventDetector, listener);
+        loop.setFrameBus(bus);
+
+        Thread writerThread = new Thread(writer, "test-writer");
+        writerThread.start();
+        source.start();
+        // Run the capture loop on the test thread; it returns when the finite source ends
+        loop.run();
+        source.close();
+        writer.requestStop();
+        writerThread.join(10_000);
+
+        assertEquals(0, ring.getOverrunCount());
+        assertEquals(loop.getSamplesCaptured(), writer.getSamplesWritten());
+        return listener;
+    }
+
+    private static final class RecordingListener implements CaptureLoop.Listener {
+        int levels;
+        int snoringFrames;
+        int eventSignals;
+        final SnoreEventQueue events = new SnoreEventQueue(1024);
+        double lastLevel;
+        boolean ended;
+        IOException error;
+
+        @Override
+        public void onFrame(double decibel, boolean snoring) {
+            levels++;
+            lastLevel = decibel;
+            if (snoring) {
+                snoringFrames++;
+            }
+        }
+
+        @Override
+        public void onSnoreEventsAvailable() {
+            eventSignals++;
+        }
+
+        @Override
+        public void onSourceEnded() {
+            ended = true;
+        }
+
+        @Override
+        public void onSourceError(IOException e) {
+            error = e;
+        }
+    }
+}
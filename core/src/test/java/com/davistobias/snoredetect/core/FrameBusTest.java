@@ -0,0 +1,290 @@
+package com.davistobias.snoredetect.core;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class FrameBusTest {
+
+    /** Runs nothing until {@link #runAll()}, like a busy consumer thread. */
+    private static final class ManualExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private static final class Positions implements FrameBus.Subscriber {
+        final List<Long> seen = new ArrayList<>();
+
+        @Override
+        public void onFrame(FrameBus.Frame frame) {
+            seen.add(frame.getPosition());
+        }
+    }
+
+    @Test
+    public void directExecutor_deliversEveryFrameAndRecyclesThePool() {
+        FrameBus bus = new FrameBus(2);
+        Positions positions = new Positions();
+        bus.subscribe(positions, Runnable::run, FrameBus.Backpressure.BUFFER, 1);
+
+        for (int i = 0; i < 100; i++) {
+            bus.publish(i * 1024L, 1024, -40, 0.2, false);
+        }
+
+        assertEquals(100, positions.seen.size());
+        assertEquals(99 * 1024L, (long) positions.seen.get(99));
+        assertEquals(0, bus.getDropped());
+    }
+
+    @Test
+    public void buffer_queuesUpToCapacityInOrder() {
+        FrameBus bus = new FrameBus(16);
+        ManualExecutor executor = new ManualExecutor();
+        Positions positions = new Positions();
+        FrameBus.Subscription subscription = bus.subscribe(positions, executor, FrameBus.Backpressure.BUFFER, 4);
+
+        for (int i = 0; i < 6; i++) {
+            bus.publish(i, 1, -40, 0, false);
+        }
+        executor.runAll();
+
+        assertEquals(4, positions.seen.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, (long) positions.seen.get(i));
+        }
+        assertEquals(2, subscription.getDropped());
+    }
+
+    @Test
+    public void latest_deliversMostRecent() {
+        FrameBus bus = new FrameBus(4);
+        ManualExecutor executor = new ManualExecutor();
+        Positions positions = new Positions();
+        FrameBus.Subscription subscription = bus.subscribe(positions, executor, FrameBus.Backpressure.LATEST, 0);
+
+        for (int i = 0; i < 10; i++) {
+            bus.publish(i, 1, -40, 0, false);
+        }
+        executor.runAll();
+
+        assertEquals(1, positions.seen.size());
+        assertEquals(9, (long) positions.seen.get(0));
+        assertEquals(9, subscription.getDropped());
+    }
+
+    @Test
+    public void drop_keepsFirstWhileBusy() {
+        FrameBus bus = new FrameBus(4);
+        ManualExecutor executor = new ManualExecutor();
+        Positions positions = new Positions();
+        bus.subscribe(positions, executor, FrameBus.Backpressure.DROP, 0);
+
+        bus.publish(0, 1, -40, 0, false);
+        bus.publish(1, 1, -40, 0, false);
+        executor.runAll();
+        bus.publish(2, 1, -40, 0, false);
+        executor.runAll();
+
+        assertEquals(2, positions.seen.size());
+        assertEquals(0, (long) positions.seen.get(0));
+        assertEquals(2, (long) positions.seen.get(1));
+    }
+
+    @Test
+    public void slowSubscriber_doesNotHoldUpOthers() {
+        FrameBus bus = new FrameBus(8);
+        ManualExecutor stalled = new ManualExecutor();
+        Positions fast = new Positions();
+        bus.subscribe(new Positions(), stalled, FrameBus.Backpressure.BUFFER, 4);
+        bus.subscribe(fast, Runnable::run, FrameBus.Backpressure.BUFFER, 4);
+
+        for (int i = 0; i < 50; i++) {
+            bus.publish(i, 1, -40, 0, false);
+        }
+
+        // The stalled subscriber keeps four frames; the rest circulate for the other
+        assertEquals(50, fast.seen.size());
+        assertEquals(0, bus.getDropped());
+    }
+
+    @Test
+    public void exhaustedPool_dropsForEveryone() {
+        FrameBus bus = new FrameBus(2);
+        ManualExecutor stalled = new ManualExecutor();
+        Positions fast = new Positions();
+        bus.subscribe(new Positions(), stalled, FrameBus.Backpressure.BUFFER, 8);
+        bus.subscribe(fast, Runnable::run, FrameBus.Backpressure.BUFFER, 8);
+
+        for (int i = 0; i < 5; i++) {
+            bus.publish(i, 1, -40, 0, false);
+        }
+        assertEquals(2, fast.seen.size());
+        assertEquals(3, bus.getDropped());
+
+        stalled.runAll();
+        bus.publish(5, 1, -40, 0, false);
+        assertEquals(3, fast.seen.size());
+    }
+
+    @Test
+    public void rejectingExecutor_dropsWaitingFramesWithoutStoppingPublish() {
+        FrameBus bus = new FrameBus(4);
+        Positions positions = new Positions();
+        boolean[] rejecting = {true};
+        FrameBus.Subscription subscription = bus.subscribe(positions, task -> {
+            if (rejecting[0]) {
+                throw new RejectedExecutionException("full");
+            }
+            task.run();
+        }, FrameBus.Backpressure.BUFFER, 2);
+
+        // More frames than the pool holds, so any frame left queued would exhaust it
+        for (int i = 0; i < 10; i++) {
+            bus.publish(i, 1, -40, 0, false);
+        }
+        assertTrue(positions.seen.isEmpty());
+        assertEquals(10, subscription.getDropped());
+        assertEquals(0, bus.getDropped());
+
+        rejecting[0] = false;
+        bus.publish(10, 1, -40, 0, false);
+        assertEquals(Collections.singletonList(10L), positions.seen);
+    }
+
+    @Test
+    public void cancel_releasesQueuedFramesAndStopsDelivery() {
+        FrameBus bus = new FrameBus(4);
+        ManualExecutor executor = new ManualExecutor();
+        Positions positions = new Positions();
+        FrameBus.Subscription subscription = bus.subscribe(positions, executor, FrameBus.Backpressure.BUFFER, 4);
+        for (int i = 0; i < 4; i++) {
+            bus.publish(i, 1, -40, 0, false);
+        }
+
+        subscription.cancel();
+        executor.runAll();
+        assertTrue(positions.seen.isEmpty());
+
+        // All four frames are back in the pool
+        Positions next = new Positions();
+        bus.subscribe(next, Runnable::run, FrameBus.Backpressure.BUFFER, 4);
+        for (int i = 0; i < 4; i++) {
+            bus.publish(i, 1, -40, 0, false);
+        }
+        assertEquals(4, next.seen.size());
+        assertEquals(0, bus.getDropped());
+    }
+
+    @Test
+    public void consumerThreads_seeEveryFrameInOrder() throws Exception {
+        int frames = 100_000;
+        // Queues longer than the pool, so a frame that got out of the pool is never dropped
+        FrameBus bus = new FrameBus(32);
+        ExecutorService first = Executors.newSingleThreadExecutor();
+        ExecutorService second = Executors.newSingleThreadExecutor();
+        CountDownLatch done = new CountDownLatch(2);
+        long[] last = {-1, -1};
+        boolean[] ordered = {true, true};
+        for (int s = 0; s < 2; s++) {
+            final int index = s;
+            bus.subscribe(frame -> {
+                long position = frame.getPosition();
+                if (position != last[index] + 1 || frame.getSamples() != (int) (position % 1000)) {
+                    ordered[index] = false;
+                }
+                last[index] = position;
+                if (position == frames - 1) {
+                    done.countDown();
+                }
+            }, s == 0 ? first : second, FrameBus.Backpressure.BUFFER, 64);
+        }
+
+        for (int i = 0; i < frames; i++) {
+            while (!tryPublish(bus, i)) {
+                Thread.yield();
+            }
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        first.shutdown();
+        second.shutdown();
+        assertTrue(ordered[0]);
+        assertTrue(ordered[1]);
+    }
+
+    @Test
+    public void publish_allocatesNothingWhenWakingAConsumerThread() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        FrameBus bus = new FrameBus(16);
+        FrameConsumer consumer = new FrameConsumer(4, null);
+        Thread consumerThread = new Thread(consumer, "test-consumer");
+        consumerThread.start();
+        AtomicLong received = new AtomicLong();
+        for (int s = 0; s < 2; s++) {
+            bus.subscribe(frame -> received.incrementAndGet(), consumer, FrameBus.Backpressure.BUFFER, 8);
+        }
+        long threadId = Thread.currentThread().getId();
+
+        publishOneAtATime(bus, received, 0, 2_000);
+
+        long overheadBefore = allocations.getThreadAllocatedBytes(threadId);
+        long overheadAfter = allocations.getThreadAllocatedBytes(threadId);
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        publishOneAtATime(bus, received, 2_000, 1_000);
+        long after = allocations.getThreadAllocatedBytes(threadId);
+
+        consumer.requestStop();
+        consumerThread.join(1_000);
+        long allocated = (after - before) - (overheadAfter - overheadBefore);
+        assertEquals("bytes allocated publishing 1k frames", 0, allocated);
+        assertEquals(0, bus.getDropped());
+    }
+
+    /**
+     * Publishes each frame once both subscribers have had the one before, so nearly every publish
+     * finds their subscriptions idle and wakes the consumer thread.
+     */
+    private static void publishOneAtATime(FrameBus bus, AtomicLong received, int from, int frames) {
+        for (int i = from; i < from + frames; i++) {
+            bus.publish(i, 1, -40, 0, false);
+            while (received.get() < 2L * (i + 1)) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /** Publishes unless the pool is empty, so the test can retry instead of losing the frame. */
+    private static boolean tryPublish(FrameBus bus, int i) {
+        long dropped = bus.getDropped();
+        bus.publish(i, i % 1000, -40, 0, false);
+        return bus.getDropped() == dropped;
+    }
+}
@@ -0,0 +1,81 @@
+package com.davistobias.snoredetect.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FrameConsumerTest {
+
+    @Test
+    public void tasks_runInOrderOnTheConsumerThread() throws Exception {
+        FrameConsumer consumer = new FrameConsumer(4, null);
+        Thread thread = new Thread(consumer, "test-consumer");
+        thread.start();
+        List<Integer> order = new ArrayList<>();
+        boolean[] onConsumerThread = {true};
+        CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < 1_000; i++) {
+            final int n = i;
+            consumer.execute(() -> {
+                onConsumerThread[0] &= Thread.currentThread() == thread;
+                order.add(n);
+            });
+            if (i % 3 == 0) {
+                // Let the ring drain now and then; four tasks wait at most
+                CountDownLatch drained = new CountDownLatch(1);
+                consumer.execute(drained::countDown);
+                assertTrue(drained.await(1, TimeUnit.SECONDS));
+            }
+        }
+        consumer.execute(done::countDown);
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        consumer.requestStop();
+        thread.join(1_000);
+        assertFalse(thread.isAlive());
+        assertTrue(onConsumerThread[0]);
+        assertEquals(1_000, order.size());
+        for (int i = 0; i < order.size(); i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    @Test
+    public void fullRing_rejects() {
+        FrameConsumer consumer = new FrameConsumer(3, null);
+        for (int i = 0; i < 4; i++) {
+            consumer.execute(() -> { });
+        }
+        try {
+            consumer.execute(() -> { });
+            fail("Expected rejection");
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+
+    @Test
+    public void stop_runsWaitingTasksAndSurvivesFailures() throws Exception {
+        List<RuntimeException> errors = new ArrayList<>();
+        FrameConsumer consumer = new FrameConsumer(4, errors::add);
+        int[] ran = {0};
+        consumer.execute(() -> {
+            throw new IllegalStateException("subscriber failed");
+        });
+        consumer.execute(() -> ran[0]++);
+        consumer.requestStop();
+
+        // Started after the stop request, it still runs what was waiting
+        Thread thread = new Thread(consumer, "test-consumer");
+        thread.start();
+        thread.join(1_000);
+        assertFalse(thread.isAlive());
+        assertEquals(1, ran[0]);
+        assertEquals(1, errors.size());
+    }
+}
@@ -0,0 +1,89 @@
+package com.davistobias.snoredetect.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class LevelFeedTest {
+
+    private final float[] levels = new float[16];
+    private final boolean[] snoring = new boolean[16];
+
+    @Test
+    public void drain_returnsNewValuesInOrder() {
+        LevelFeed feed = new LevelFeed(8);
+        feed.publish(-50f, false);
+        feed.publish(-20f, true);
+
+        assertEquals(2, feed.drainTo(levels, snoring));
+        assertEquals(-50f, levels[0], 0);
+        assertFalse(snoring[0]);
+        assertEquals(-20f, levels[1], 0);
+        assertTrue(snoring[1]);
+        assertEquals(0, feed.drainTo(levels, snoring));
+    }
+
+    @Test
+    public void slowConsumer_getsNewestValues() {
+        LevelFeed feed = new LevelFeed(5);
+        assertEquals(8, feed.capacity());
+        for (int i = 0; i < 100; i++) {
+            feed.publish(i, i % 2 == 0);
+        }
+
+        assertEquals(8, feed.drainTo(levels, snoring));
+        for (int i = 0; i < 8; i++) {
+            assertEquals(92 + i, levels[i], 0);
+            assertEquals((92 + i) % 2 == 0, snoring[i]);
+        }
+        assertEquals(100, feed.getPublishedCount());
+    }
+
+    @Test
+    public void smallArrays_limitBatch() {
+        LevelFeed feed = new LevelFeed(64);
+        for (int i = 0; i < 20; i++) {
+            feed.publish(i, false);
+        }
+
+        float[] few = new float[4];
+        assertEquals(4, feed.drainTo(few, new boolean[4]));
+        assertEquals(16f, few[0], 0);
+        assertEquals(19f, few[3], 0);
+    }
+
+    @Test
+    public void concurrentDrains_neverSeeTornOrReorderedValues() throws Exception {
+        final LevelFeed feed = new LevelFeed(16);
+        final int total = 2_000_000;
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread producer = new Thread(() -> {
+            for (int i = 1; i <= total; i++) {
+                // The flag is derivable from the value, so a torn slot would be caught
+                feed.publish(i, i % 3 == 0);
+            }
+            done.set(true);
+        });
+        producer.start();
+
+        float last = 0;
+        long received = 0;
+        boolean finished;
+        do {
+            finished = done.get();
+            int n = feed.drainTo(levels, snoring);
+            for (int i = 0; i < n; i++) {
+                assertTrue(levels[i] > last);
+                assertEquals((int) levels[i] % 3 == 0, snoring[i]);
+                last = levels[i];
+            }
+            received += n;
+        } while (!finished);
+        producer.join();
+
+        assertEquals((float) total, last, 0);
+        assertTrue(received > 0);
+    }
+}
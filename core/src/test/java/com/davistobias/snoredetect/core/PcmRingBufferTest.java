@@ -0,0 +1,255 @@
+package com.davistobias.snoredetect.core;
+
+import com.davistobias.snoredetect.core.codec.PcmSink;
+import com.davistobias.snoredetect.core.codec.RawPcmSink;
+import com.davistobias.snoredetect.core.dsp.LevelMeter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class PcmRingBufferTest {
+
+    private static final int BLOCK_SIZE = 1024;
+
+    @Test
+    public void capacity_isRoundedUpToPowerOfTwo() throws Exception {
+        assertEquals(8, new PcmRingBuffer(5, 16).capacity());
+        assertEquals(8, new PcmRingBuffer(8, 16).capacity());
+    }
+
+    @Test
+    public void blocks_comeOutInPublishOrder() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(4, 2);
+        for (int n = 0; n < 10; n++) {
+            short[] block = ring.claim();
+            block[0] = (short) n;
+            assertTrue(ring.publish(1 + (n % 2)));
+
+            short[] read = ring.peek();
+            assertNotNull(read);
+            assertEquals(n, read[0]);
+            assertEquals(1 + (n % 2), ring.peekLength());
+            ring.release();
+            assertNull(ring.peek());
+        }
+        assertEquals(0, ring.getOverrunCount());
+        assertEquals(1, ring.getHighWaterMark());
+    }
+
+    @Test
+    public void fullRing_dropsNewestAndCountsOverrun() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(4, 8);
+        for (int n = 0; n < 6; n++) {
+            ring.claim()[0] = (short) n;
+            assertEquals(n < 4, ring.publish(8));
+        }
+
+        assertEquals(4, ring.size());
+        assertEquals(4, ring.getHighWaterMark());
+        assertEquals(2, ring.getOverrunCount());
+        assertEquals(16, ring.getDroppedSamples());
+        for (int n = 0; n < 4; n++) {
+            assertEquals(n, ring.peek()[0]);
+            ring.release();
+        }
+        assertNull(ring.peek());
+    }
+
+    @Test
+    public void positions_countDroppedBlocks() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(2, 8);
+        ring.claim();
+        ring.publish(8, PcmSink.FLAG_GATE_OPEN);
+        ring.claim();
+        ring.publish(5);
+        ring.claim();
+        assertFalse(ring.publish(8));
+        ring.peek();
+        ring.release();
+        ring.claim();
+        ring.publish(8, PcmSink.FLAG_GATE_OPEN);
+
+        ring.peek();
+        assertEquals(8, ring.peekPosition());
+        assertEquals(0, ring.peekFlags());
+        ring.release();
+        ring.peek();
+        // The dropped block still occupies stream positions 13..20
+        assertEquals(21, ring.peekPosition());
+        assertEquals(PcmSink.FLAG_GATE_OPEN, ring.peekFlags());
+    }
+
+    @Test
+    public void fastSourceIntoSlowSink_dropsWholeBlocksButKeepsOrder() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(8, BLOCK_SIZE);
+        SequenceCheckingSink sink = new SequenceCheckingSink(TimeUnit.MILLISECONDS.toNanos(2));
+        PcmBlockWriter writer = new PcmBlockWriter(ring, sink, null);
+        Thread writerThread = new Thread(writer, "test-writer");
+        writerThread.start();
+
+        // The fake source produces blocks back to back, far faster than the stalling sink drains them
+        int produced = runFakeSource(ring, writer, 2_000, 0);
+        writer.requestStop();
+        writerThread.join(10_000);
+
+        assertFalse(writerThread.isAlive());
+        assertNull(sink.error, sink.error);
+        assertTrue(sink.closed);
+        assertTrue("expected overruns", ring.getOverrunCount() > 0);
+        assertEquals(ring.capacity(), ring.getHighWaterMark());
+        assertEquals(produced, sink.blocks + ring.getOverrunCount());
+        assertEquals((long) sink.blocks * BLOCK_SIZE, writer.getSamplesWritten());
+        assertEquals(ring.getOverrunCount() * BLOCK_SIZE, ring.getDroppedSamples());
+    }
+
+    @Test
+    public void slowSourceIntoFastSink_losesNothing() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(8, BLOCK_SIZE);
+        SequenceCheckingSink sink = new SequenceCheckingSink(0);
+        PcmBlockWriter writer = new PcmBlockWriter(ring, sink, null);
+        Thread writerThread = new Thread(writer, "test-writer");
+        writerThread.start();
+
+        int produced = runFakeSource(ring, writer, 500, TimeUnit.MICROSECONDS.toNanos(100));
+        writer.requestStop();
+        writerThread.join(10_000);
+
+        assertNull(sink.error, sink.error);
+        assertEquals(0, ring.getOverrunCount());
+        assertEquals(produced, sink.blocks);
+        assertEquals(produced - 1, sink.lastSequence);
+    }
+
+    @Test
+    public void rawSink_writesLittleEndianPcm() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RawPcmSink sink = new RawPcmSink(out, 2);
+        sink.write(new short[] {0, 0x1234, -2, Short.MIN_VALUE, Short.MAX_VALUE}, 1, 4);
+
+        assertArrayEquals(new byte[] {0x34, 0x12, (byte) 0xFE, (byte) 0xFF, 0x00, (byte) 0x80, (byte) 0xFF, 0x7F},
+                out.toByteArray());
+    }
+
+    @Test
+    public void captureAndWriteSteps_allocateNothingAfterWarmUp() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        PcmRingBuffer ring = new PcmRingBuffer(4, BLOCK_SIZE);
+        RawPcmSink sink = new RawPcmSink(new DiscardingOutputStream(), BLOCK_SIZE);
+        long threadId = Thread.currentThread().getId();
+
+        runCaptureAndWrite(ring, sink, 20_000);
+
+        long overheadBefore = allocations.getThreadAllocatedBytes(threadId);
+        long overheadAfter = allocations.getThreadAllocatedBytes(threadId);
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        runCaptureAndWrite(ring, sink, 10_000);
+        long after = allocations.getThreadAllocatedBytes(threadId);
+
+        // Any object per buffer costs at least 16 bytes; less than a byte per buffer leaves room for
+        // the odd JIT recompilation in the window. CaptureStagesBenchmark.ringRoundTrip has the
+        // exact steady-state figure.
+        long allocated = (after - before) - (overheadAfter - overheadBefore);
+        assertTrue("bytes allocated by 10k buffers: " + allocated, allocated < 10_000);
+    }
+
+    private static void runCaptureAndWrite(PcmRingBuffer ring, RawPcmSink sink, int buffers) throws IOException {
+        double level = 0;
+        for (int n = 0; n < buffers; n++) {
+            // Stand-in for AudioRecord.read filling the claimed block
+            short[] block = ring.claim();
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (short) ((n * 31 + i * 17) & 0x7FFF);
+            }
+            level += LevelMeter.peakDecibel(block, block.length);
+            ring.publish(block.length);
+
+            short[] read = ring.peek();
+            sink.write(read, 0, ring.peekLength());
+            ring.release();
+        }
+        assertTrue(level < 0);
+    }
+
+    /** Publishes {@code blocks} blocks stamped with a sequence number, pausing between each. */
+    private static int runFakeSource(PcmRingBuffer ring, PcmBlockWriter writer, int blocks, long intervalNanos) {
+        for (int n = 0; n < blocks; n++) {
+            short[] block = ring.claim();
+            block[0] = (short) (n >> 16);
+            block[1] = (short) n;
+            for (int i = 2; i < BLOCK_SIZE; i++) {
+                block[i] = (short) (n + i);
+            }
+            if (ring.publish(BLOCK_SIZE)) {
+                writer.signal();
+            }
+            if (intervalNanos > 0) {
+                LockSupport.parkNanos(intervalNanos);
+            }
+        }
+        return blocks;
+    }
+
+    /** Fake storage that checks block integrity and ordering, optionally stalling on every write. */
+    private static final class SequenceCheckingSink implements PcmSink {
+        private final long stallNanos;
+        int blocks;
+        int lastSequence = -1;
+        String error;
+        boolean closed;
+
+        SequenceCheckingSink(long stallNanos) {
+            this.stallNanos = stallNanos;
+        }
+
+        @Override
+        public void write(short[] samples, int offset, int count) {
+            int sequence = (samples[offset] << 16) | (samples[offset + 1] & 0xFFFF);
+            if (count != BLOCK_SIZE) {
+                error = "short block " + count;
+            } else if (sequence <= lastSequence) {
+                error = "sequence " + sequence + " after " + lastSequence;
+            } else {
+                for (int i = 2; i < count; i++) {
+                    if (samples[offset + i] != (short) (sequence + i)) {
+                        error = "torn block " + sequence;
+                        break;
+                    }
+                }
+            }
+            lastSequence = sequence;
+            blocks++;
+            if (stallNanos > 0) {
+                LockSupport.parkNanos(stallNanos);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static final class DiscardingOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
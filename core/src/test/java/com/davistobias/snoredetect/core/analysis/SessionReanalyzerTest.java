@@ -0,0 +1,245 @@
+package com.davistobias.snoredetect.core.analysis;
+
+import com.davistobias.snoredetect.core.SyntheticAudioSource;
+import com.davistobias.snoredetect.core.codec.ImaAdpcmEncoder;
+import com.davistobias.snoredetect.core.dsp.FeatureExtractor;
+import com.davistobias.snoredetect.core.dsp.LevelThresholdClassifier;
+import com.davistobias.snoredetect.core.dsp.NoiseFloorEstimator;
+import com.davistobias.snoredetect.core.dsp.SnoreDetector;
+import com.davistobias.snoredetect.core.dsp.SnoreEvent;
+import com.davistobias.snoredetect.core.storage.SessionWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class SessionReanalyzerTest {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final int FRAME_SIZE = 1024;
+    // Four minutes of snoring, a minute gated out, then two more
+    private static final long FIRST_SAMPLES = 240L * SAMPLE_RATE;
+    private static final long GAP_SAMPLES = 60L * SAMPLE_RATE;
+    private static final long SECOND_SAMPLES = 120L * SAMPLE_RATE;
+
+    private static final SessionReanalyzer.DetectorFactory DETECTORS =
+            detectors(NoiseFloorEstimator.DEFAULT_WINDOW_SECONDS);
+    // A floor that settles within seconds, so a short warm-up already matches the single pass
+    private static final double SHORT_FLOOR_SECONDS = 8.0;
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void chunkedAnalysis_matchesSinglePass() throws Exception {
+        File session = writeSession();
+        List<SnoreEvent> single = singlePass().analyze(session, null);
+        List<SnoreEvent> chunked = new SessionReanalyzer(new ForkJoinPool(4), DETECTORS, 30, 60)
+                .analyze(session, null);
+
+        // One snore per four-second breath, none in the gap
+        assertEquals(90, single.size(), 2);
+        assertSameEvents(single, chunked);
+        for (SnoreEvent event : chunked) {
+            assertTrue(event.getEndSample() <= FIRST_SAMPLES || event.startSample >= FIRST_SAMPLES + GAP_SAMPLES);
+        }
+    }
+
+    @Test
+    public void eventsAcrossChunkBoundaries_areReportedOnceAndWhole() throws Exception {
+        File session = writeSession(40L * SAMPLE_RATE, 10L * SAMPLE_RATE, 20L * SAMPLE_RATE);
+        SessionReanalyzer.DetectorFactory detectors = detectors(SHORT_FLOOR_SECONDS);
+        List<SnoreEvent> single = singlePass(detectors).analyze(session, null);
+        assertEquals(15, single.size(), 2);
+
+        // Shorter than a snore, so nearly every event crosses a boundary, and a few times as long
+        for (double chunkSeconds : new double[] {0.9, 2.9}) {
+            List<SnoreEvent> chunked = new SessionReanalyzer(new ForkJoinPool(2), detectors, chunkSeconds,
+                    SHORT_FLOOR_SECONDS).analyze(session, null);
+
+            assertSameEvents(single, chunked);
+            for (int i = 1; i < chunked.size(); i++) {
+                assertTrue(chunked.get(i).startSample >= chunked.get(i - 1).getEndSample());
+            }
+        }
+    }
+
+    @Test
+    public void progress_reachesTotal() throws Exception {
+        File session = writeSession();
+        AtomicLong analysed = new AtomicLong();
+        AtomicLong total = new AtomicLong();
+        new SessionReanalyzer(new ForkJoinPool(3), DETECTORS, 20, 60).analyze(session, (done, of) -> {
+            analysed.accumulateAndGet(done, Math::max);
+            total.set(of);
+        });
+
+        assertEquals(FIRST_SAMPLES + GAP_SAMPLES + SECOND_SAMPLES, total.get());
+        assertEquals(total.get(), analysed.get());
+    }
+
+    @Test
+    public void cancel_stopsAnalysis() throws Exception {
+        File session = writeSession();
+        SessionReanalyzer reanalyzer = new SessionReanalyzer(new ForkJoinPool(2), DETECTORS, 20, 60);
+        AtomicLong reports = new AtomicLong();
+        try {
+            reanalyzer.analyze(session, (done, of) -> {
+                reports.incrementAndGet();
+                reanalyzer.cancel();
+            });
+            fail("Expected cancellation");
+        } catch (CancellationException expected) {
+            assertTrue(reanalyzer.isCancelled());
+        }
+        // Each running chunk reports at most once more before it notices
+        assertTrue(reports.get() <= 3);
+
+        // The next run starts afresh
+        assertFalse(reanalyzer.analyze(session, null).isEmpty());
+    }
+
+    @Test
+    public void missingChunkFile_throwsIOExceptionNotCancellation() throws Exception {
+        // Ten-second chunk files, the last of them lost
+        File session = writeSession(40L * SAMPLE_RATE, 10L * SAMPLE_RATE, 20L * SAMPLE_RATE, 10L * SAMPLE_RATE,
+                FRAME_SIZE);
+        assertTrue(new File(session, SessionWriter.chunkFileName(5)).delete());
+        SessionReanalyzer reanalyzer = new SessionReanalyzer(new ForkJoinPool(2), detectors(SHORT_FLOOR_SECONDS),
+                5, SHORT_FLOOR_SECONDS);
+        try {
+            reanalyzer.analyze(session, null);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            assertFalse(reanalyzer.isCancelled());
+        }
+    }
+
+    @Test
+    public void frames_followTheReadSizeTheSessionRecorded() throws Exception {
+        long chunkFileSamples = (long) SessionWriter.DEFAULT_CHUNK_MINUTES * 60 * SAMPLE_RATE;
+        List<Integer> frames = Collections.synchronizedList(new ArrayList<>());
+        SessionReanalyzer.DetectorFactory detectors = new SessionReanalyzer.DetectorFactory() {
+            @Override
+            public int frameSamples(int sampleRate) {
+                return FRAME_SIZE;
+            }
+
+            @Override
+            public SnoreDetector create(int sampleRate, int frameSamples) {
+                frames.add(frameSamples);
+                return DETECTORS.create(sampleRate, frameSamples);
+            }
+        };
+
+        // Captured with reads half as long as the factory's own
+        File session = writeSession(20L * SAMPLE_RATE, 0, 0, chunkFileSamples, FRAME_SIZE / 2);
+        for (SnoreEvent event : new SessionReanalyzer(new ForkJoinPool(2), detectors, 10, 0).analyze(session, null)) {
+            assertEquals(0, event.startSample % (FRAME_SIZE / 2));
+        }
+        assertFalse(frames.isEmpty());
+        for (int frame : frames) {
+            assertEquals(FRAME_SIZE / 2, frame);
+        }
+
+        // Recorded before the read size was kept
+        frames.clear();
+        session = writeSession(20L * SAMPLE_RATE, 0, 0, chunkFileSamples, 0);
+        new SessionReanalyzer(new ForkJoinPool(2), detectors, 10, 0).analyze(session, null);
+        assertFalse(frames.isEmpty());
+        for (int frame : frames) {
+            assertEquals(FRAME_SIZE, frame);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void missingSession_throwsIOException() throws Exception {
+        File dir = temp.newFolder();
+        singlePass().analyze(dir, null);
+    }
+
+    private static SessionReanalyzer.DetectorFactory detectors(double floorWindowSeconds) {
+        return new SessionReanalyzer.DetectorFactory() {
+            @Override
+            public int frameSamples(int sampleRate) {
+                return FRAME_SIZE;
+            }
+
+            @Override
+            public SnoreDetector create(int sampleRate, int frameSamples) {
+                NoiseFloorEstimator noiseFloor = new NoiseFloorEstimator(sampleRate, floorWindowSeconds,
+                        NoiseFloorEstimator.DEFAULT_SUB_WINDOWS, NoiseFloorEstimator.DEFAULT_MARGIN_DB,
+                        LevelThresholdClassifier.DEFAULT_THRESHOLD_DB);
+                return new SnoreDetector(new FeatureExtractor(sampleRate, frameSamples),
+                        new LevelThresholdClassifier(noiseFloor), noiseFloor);
+            }
+        };
+    }
+
+    private static SessionReanalyzer singlePass() {
+        return singlePass(DETECTORS);
+    }
+
+    private static SessionReanalyzer singlePass(SessionReanalyzer.DetectorFactory detectors) {
+        return new SessionReanalyzer(new ForkJoinPool(1), detectors, Double.MAX_VALUE / SAMPLE_RATE, 0);
+    }
+
+    /**
+     * Same events, allowing a frame either way at the ends: a chunk's noise floor has measured a
+     * different stretch than the single pass's, so a frame right at the threshold may tip over.
+     */
+    private static void assertSameEvents(List<SnoreEvent> expected, List<SnoreEvent> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).startSample, actual.get(i).startSample, FRAME_SIZE);
+            assertEquals(expected.get(i).getEndSample(), actual.get(i).getEndSample(), FRAME_SIZE);
+            assertEquals(expected.get(i).peakDb, actual.get(i).peakDb, 0.5);
+        }
+    }
+
+    private File writeSession() throws IOException {
+        return writeSession(FIRST_SAMPLES, GAP_SAMPLES, SECOND_SAMPLES);
+    }
+
+    /** A gated ADPCM session as the service writes it: snoring, a stretch gated out, then snoring again. */
+    private File writeSession(long firstSamples, long gapSamples, long secondSamples) throws IOException {
+        return writeSession(firstSamples, gapSamples, secondSamples,
+                (long) SessionWriter.DEFAULT_CHUNK_MINUTES * 60 * SAMPLE_RATE, FRAME_SIZE);
+    }
+
+    /** @param frameSamples read size the index records, 0 for none */
+    private File writeSession(long firstSamples, long gapSamples, long secondSamples, long chunkFileSamples,
+                                     int frameSamples) throws IOException {
+        File dir = temp.newFolder();
+        SyntheticAudioSource snore = SyntheticAudioSource.snore(SAMPLE_RATE, 0.3, 7);
+        snore.start();
+        short[] block = new short[FRAME_SIZE];
+        long syncSamples = (long) SessionWriter.DEFAULT_SYNC_SECONDS * SAMPLE_RATE;
+        try (SessionWriter writer = new SessionWriter(dir, SAMPLE_RATE, frameSamples, 0, ImaAdpcmEncoder::new,
+                chunkFileSamples, SessionWriter.DEFAULT_CHUNK_BYTES, syncSamples)) {
+            write(writer, snore, block, 0, firstSamples);
+            write(writer, snore, block, firstSamples + gapSamples, secondSamples);
+        }
+        return dir;
+    }
+
+    private static void write(SessionWriter writer, SyntheticAudioSource source, short[] block, long start,
+                              long length) throws IOException {
+        for (long position = start; position < start + length; position += block.length) {
+            int n = (int) Math.min(block.length, start + length - position);
+            source.read(block, 0, n);
+            writer.writeBlock(block, 0, n, position, 0);
+        }
+    }
+}
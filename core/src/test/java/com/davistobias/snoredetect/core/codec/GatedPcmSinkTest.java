@@ -0,0 +1,187 @@
+package com.davistobias.snoredetect.core.codec;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GatedPcmSinkTest {
+
+    private static final int BLOCK = 100;
+    private static final int PRE_ROLL = 250;
+    private static final int POST_ROLL = 150;
+
+    private final CollectingSink output = new CollectingSink();
+    private final List<long[]> segments = new ArrayList<>();
+    private final GatedPcmSink sink = new GatedPcmSink(output, new GatedPcmSink.SegmentListener() {
+        @Override
+        public void onSegmentStart(long streamStart, long outputStart) {
+        }
+
+        @Override
+        public void onSegmentEnd(long streamStart, long outputStart, long length) {
+            segments.add(new long[] {streamStart, outputStart, length});
+        }
+    }, PRE_ROLL, POST_ROLL);
+
+    @Test
+    public void silence_isNotStored() throws Exception {
+        feed(0, 50, false);
+        sink.close();
+
+        assertEquals(0, output.size());
+        assertTrue(segments.isEmpty());
+        assertEquals(50 * BLOCK, sink.getStreamPosition());
+    }
+
+    @Test
+    public void gatedBlock_keepsPreAndPostRoll() throws Exception {
+        feed(0, 10, false);
+        feed(10, 1, true);
+        feed(11, 10, false);
+        sink.close();
+
+        assertEquals(1, segments.size());
+        long[] segment = segments.get(0);
+        assertEquals(1000 - PRE_ROLL, segment[0]);
+        assertEquals(0, segment[1]);
+        assertEquals(PRE_ROLL + BLOCK + POST_ROLL, segment[2]);
+        assertAligned();
+    }
+
+    @Test
+    public void preRoll_isShortAtStreamStart() throws Exception {
+        feed(0, 1, false);
+        feed(1, 1, true);
+        feed(2, 5, false);
+        sink.close();
+
+        assertEquals(0, segments.get(0)[0]);
+        assertEquals(BLOCK + BLOCK + POST_ROLL, segments.get(0)[2]);
+        assertAligned();
+    }
+
+    @Test
+    public void gateReopeningWithinPostRoll_extendsSegment() throws Exception {
+        feed(0, 5, false);
+        feed(5, 1, true);
+        feed(6, 1, false);
+        feed(7, 1, true);
+        feed(8, 3, false);
+        feed(11, 1, true);
+        feed(12, 5, false);
+        sink.close();
+
+        assertEquals(2, segments.size());
+        assertEquals(500 - PRE_ROLL, segments.get(0)[0]);
+        assertEquals(PRE_ROLL + 3 * BLOCK + POST_ROLL, segments.get(0)[2]);
+        // The second pre-roll is cut short by the end of the first post-roll
+        assertEquals(800 + POST_ROLL, segments.get(1)[0]);
+        assertAligned();
+    }
+
+    @Test
+    public void overrun_endsSegmentAtLastReceivedSample() throws Exception {
+        feed(0, 1, true);
+        // Blocks 1 and 2 were dropped upstream
+        feed(3, 1, true);
+        feed(4, 5, false);
+        sink.close();
+
+        assertEquals(2, segments.size());
+        assertEquals(0, segments.get(0)[0]);
+        assertEquals(BLOCK, segments.get(0)[2]);
+        // Nothing from before the gap may be used as pre-roll
+        assertEquals(300, segments.get(1)[0]);
+        assertAligned();
+    }
+
+    @Test
+    public void openSegment_isClosedWithSink() throws Exception {
+        feed(0, 3, true);
+        assertTrue(sink.isSegmentOpen());
+        sink.close();
+
+        assertEquals(1, segments.size());
+        assertEquals(3 * BLOCK, segments.get(0)[2]);
+        assertTrue(output.closed);
+    }
+
+    @Test
+    public void markerFile_recordsSegmentsWithWallClock() throws Exception {
+        File file = File.createTempFile("gate", ".markers");
+        file.deleteOnExit();
+        GateMarkerFile markers = new GateMarkerFile(file, 8000, 1_000_000L);
+        GatedPcmSink gated = new GatedPcmSink(new CollectingSink(), markers, 0, 0);
+        short[] block = new short[8000];
+        gated.writeBlock(block, 0, block.length, 0, 0);
+        gated.writeBlock(block, 0, block.length, 8000, PcmSink.FLAG_GATE_OPEN);
+        gated.writeBlock(block, 0, block.length, 16000, 0);
+        gated.close();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals("sample_rate 8000", lines.get(1));
+        assertEquals("open 8000 0 1001000", lines.get(3));
+        assertEquals("segment 8000 0 8000 1001000", lines.get(4));
+    }
+
+    /** Feeds blocks whose samples encode their own stream position. */
+    private void feed(int firstBlock, int blocks, boolean gated) throws IOException {
+        short[] block = new short[BLOCK];
+        for (int b = firstBlock; b < firstBlock + blocks; b++) {
+            long position = (long) b * BLOCK;
+            for (int i = 0; i < BLOCK; i++) {
+                block[i] = (short) (position + i);
+            }
+            sink.writeBlock(block, 0, BLOCK, position, gated ? PcmSink.FLAG_GATE_OPEN : 0);
+        }
+    }
+
+    /** Every stored sample must sit where its segment says it came from. */
+    private void assertAligned() {
+        long stored = 0;
+        for (long[] segment : segments) {
+            assertEquals(stored, segment[1]);
+            for (int i = 0; i < segment[2]; i++) {
+                assertEquals((short) (segment[0] + i), output.get((int) (segment[1] + i)));
+            }
+            stored += segment[2];
+        }
+        assertEquals(stored, output.size());
+    }
+
+    private static final class CollectingSink implements PcmSink {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final byte[] encoded = new byte[2 * BLOCK * 100];
+        boolean closed;
+
+        @Override
+        public void write(short[] samples, int offset, int count) {
+            short[] copy = new short[count];
+            System.arraycopy(samples, offset, copy, 0, count);
+            int n = RawPcmSink.encode(copy, 0, count, encoded);
+            bytes.write(encoded, 0, n);
+        }
+
+        int size() {
+            return bytes.size() / 2;
+        }
+
+        short get(int index) {
+            byte[] data = bytes.toByteArray();
+            return (short) ((data[index * 2] & 0xFF) | (data[index * 2 + 1] << 8));
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
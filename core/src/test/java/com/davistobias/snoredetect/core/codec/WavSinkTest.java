@@ -0,0 +1,189 @@
+package com.davistobias.snoredetect.core.codec;
+
+import com.davistobias.snoredetect.core.SyntheticAudioSource;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.*;
+
+public class WavSinkTest {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final int BLOCK_SIZE = 1024;
+
+    @Test
+    public void pcm16_isLosslessWithCanonicalHeader() throws Exception {
+        short[] input = snore(10_000);
+        File file = tempFile();
+        try (WavSink sink = WavSink.pcm16(file, SAMPLE_RATE)) {
+            writeInBlocks(sink, input);
+        }
+
+        assertEquals(44 + 20_000, file.length());
+        WavHeader header = readHeader(file);
+        assertEquals(WavHeader.FORMAT_PCM, header.formatTag);
+        assertEquals(44, header.dataOffset);
+        assertEquals(10_000, header.sampleCount);
+        assertArrayEquals(input, decode(file, header));
+    }
+
+    @Test
+    public void muLaw_halvesSizeWithBoundedError() throws Exception {
+        short[] input = snore(10_000);
+        File file = tempFile();
+        try (WavSink sink = WavSink.muLaw(file, SAMPLE_RATE)) {
+            writeInBlocks(sink, input);
+        }
+
+        WavHeader header = readHeader(file);
+        assertEquals(WavHeader.FORMAT_MULAW, header.formatTag);
+        assertEquals(10_000, header.dataLength);
+        assertEquals(10_000, header.sampleCount);
+        assertTrue(snrDb(input, decode(file, header)) > 30);
+    }
+
+    @Test
+    public void muLaw_coversFullRange() {
+        assertEquals(0, MuLawEncoder.decode(MuLawEncoder.encode((short) 0)));
+        assertEquals(32124, MuLawEncoder.decode(MuLawEncoder.encode(Short.MAX_VALUE)));
+        assertEquals(-32124, MuLawEncoder.decode(MuLawEncoder.encode(Short.MIN_VALUE)));
+        for (int s = Short.MIN_VALUE; s <= Short.MAX_VALUE; s += 7) {
+            int decoded = MuLawEncoder.decode(MuLawEncoder.encode((short) s));
+            // Segment step is at most 1/16 of the magnitude, plus the clip at 32635
+            assertTrue(s + " -> " + decoded, Math.abs(decoded - s) <= Math.abs(s) / 16 + 650);
+        }
+    }
+
+    @Test
+    public void imaAdpcm_quartersSizeAndKeepsSnoreAudible() throws Exception {
+        short[] input = snore(4 * SAMPLE_RATE);
+        File file = tempFile();
+        try (WavSink sink = WavSink.imaAdpcm(file, SAMPLE_RATE)) {
+            writeInBlocks(sink, input);
+        }
+
+        WavHeader header = readHeader(file);
+        assertEquals(WavHeader.FORMAT_IMA_ADPCM, header.formatTag);
+        assertEquals(505, header.samplesPerBlock);
+        assertEquals(input.length, header.sampleCount);
+        // The last block is padded out to the full block size
+        assertEquals(0, header.dataLength % 256);
+        double ratio = (double) (input.length * 2) / header.dataLength;
+        assertTrue("ratio " + ratio, ratio > 3.9);
+        assertTrue(snrDb(input, decode(file, header)) > 20);
+    }
+
+    @Test
+    public void killedWriter_leavesValidFileEndingAtLastBlock() throws Exception {
+        short[] input = snore(3 * BLOCK_SIZE);
+        File file = tempFile();
+        WavSink sink = WavSink.imaAdpcm(file, SAMPLE_RATE);
+        writeInBlocks(sink, input);
+        // No close(): read the file as another process would after the service was killed
+
+        WavHeader header = readHeader(file);
+        assertEquals(file.length(), header.dataOffset + header.dataLength);
+        assertEquals(6 * 505, header.sampleCount);
+        short[] decoded = decode(file, header);
+        assertEquals(6 * 505, decoded.length);
+        short[] prefix = new short[decoded.length];
+        System.arraycopy(input, 0, prefix, 0, prefix.length);
+        assertTrue(snrDb(prefix, decoded) > 20);
+        sink.close();
+
+        assertEquals(input.length, readHeader(file).sampleCount);
+    }
+
+    @Test
+    public void truncatedDataChunk_isClampedToFile() throws Exception {
+        File file = tempFile();
+        try (WavSink sink = WavSink.imaAdpcm(file, SAMPLE_RATE)) {
+            writeInBlocks(sink, snore(5 * BLOCK_SIZE));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 300);
+        }
+
+        WavHeader header = readHeader(file);
+        assertEquals(file.length() - header.dataOffset, header.dataLength);
+        assertEquals(header.dataLength / 256 * 505, header.sampleCount);
+    }
+
+    private static short[] snore(int length) throws IOException {
+        SyntheticAudioSource source = SyntheticAudioSource.snore(SAMPLE_RATE, 0.3, 11);
+        source.start();
+        short[] samples = new short[length];
+        int total = 0;
+        while (total < length) {
+            total += source.read(samples, total, length - total);
+        }
+        return samples;
+    }
+
+    private static void writeInBlocks(PcmSink sink, short[] samples) throws IOException {
+        for (int offset = 0; offset < samples.length; offset += BLOCK_SIZE) {
+            sink.write(samples, offset, Math.min(BLOCK_SIZE, samples.length - offset));
+        }
+    }
+
+    private static WavHeader readHeader(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return WavHeader.read(raf.getChannel());
+        }
+    }
+
+    private static short[] decode(File file, WavHeader header) throws IOException {
+        byte[] data = new byte[(int) header.dataLength];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.read(buffer, header.dataOffset + buffer.position());
+            }
+        }
+
+        short[] out = new short[(int) (header.dataLength / header.blockAlign * header.samplesPerBlock)];
+        for (int block = 0; block < data.length / header.blockAlign; block++) {
+            int src = block * header.blockAlign;
+            int dst = block * header.samplesPerBlock;
+            switch (header.formatTag) {
+                case WavHeader.FORMAT_PCM:
+                    out[dst] = (short) ((data[src] & 0xFF) | (data[src + 1] << 8));
+                    break;
+                case WavHeader.FORMAT_MULAW:
+                    out[dst] = MuLawEncoder.decode(data[src]);
+                    break;
+                default:
+                    ImaAdpcmDecoder.decodeBlock(data, src, header.blockAlign, out, dst);
+            }
+        }
+        short[] trimmed = new short[(int) header.sampleCount];
+        System.arraycopy(out, 0, trimmed, 0, trimmed.length);
+        return trimmed;
+    }
+
+    private static double snrDb(short[] expected, short[] actual) {
+        assertEquals(expected.length, actual.length);
+        double signal = 0;
+        double noise = 0;
+        for (int i = 0; i < expected.length; i++) {
+            double e = expected[i];
+            double d = e - actual[i];
+            signal += e * e;
+            noise += d * d;
+        }
+        return 10 * Math.log10(signal / Math.max(noise, 1e-9));
+    }
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("wav", ".wav");
+        file.deleteOnExit();
+        return file;
+    }
+}
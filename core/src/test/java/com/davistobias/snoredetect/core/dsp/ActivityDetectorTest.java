@@ -0,0 +1,118 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import com.davistobias.snoredetect.core.SyntheticAudioSource;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ActivityDetectorTest {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final int FRAME_SIZE = 1024;
+
+    private final NoiseFloorEstimator noiseFloor = new NoiseFloorEstimator(SAMPLE_RATE);
+    private final ActivityDetector activity = new ActivityDetector(SAMPLE_RATE, noiseFloor);
+    private final SnoreDetector detector = new SnoreDetector(new FeatureExtractor(SAMPLE_RATE, FRAME_SIZE),
+            new LevelThresholdClassifier(noiseFloor), noiseFloor);
+    private final SyntheticAudioSource room = SyntheticAudioSource.noise(SAMPLE_RATE, 0.003, 5);
+    private final short[] frame = new short[FRAME_SIZE];
+
+    @Test
+    public void untilCalibrated_everyFrameIsActive() {
+        detector.setActivityDetector(activity);
+        room.start();
+        for (int i = 0; i < 10; i++) {
+            room.read(frame, 0, FRAME_SIZE);
+            detector.process(frame, FRAME_SIZE);
+        }
+
+        assertFalse(noiseFloor.isCalibrated());
+        assertEquals(10, activity.getActiveFrames());
+        assertEquals(0, activity.getIdleFrames());
+    }
+
+    @Test
+    public void quietRoom_skipsFullPipelineButKeepsLevel() {
+        calibrate();
+        long idleBefore = activity.getIdleFrames();
+        room.read(frame, 0, FRAME_SIZE);
+
+        assertFalse(detector.process(frame, FRAME_SIZE));
+        assertEquals(idleBefore + 1, activity.getIdleFrames());
+        assertEquals(0, detector.getScore(), 0);
+        assertEquals(0, detector.getFeatures().spectralCentroidHz, 0);
+        // A quarter of the samples give nearly the same peak for broadband noise
+        assertEquals(LevelMeter.peakDecibel(frame, FRAME_SIZE), detector.getFeatures().peakDecibel, 2.0);
+        assertTrue(detector.getFeatures().rmsDb > FrameFeatures.SILENCE_DB);
+    }
+
+    @Test
+    public void loudSound_wakesPipelineForHangover() {
+        calibrate();
+        long wakeups = activity.getWakeups();
+        short[] snore = new short[FRAME_SIZE];
+        SyntheticAudioSource source = SyntheticAudioSource.snore(SAMPLE_RATE, 0.3, 1);
+        source.start();
+        for (int i = 0; i <= 5; i++) {
+            source.read(snore, 0, FRAME_SIZE);
+        }
+
+        assertTrue(detector.process(snore, FRAME_SIZE));
+        assertEquals(wakeups + 1, activity.getWakeups());
+
+        // The meter's filter rings out the cut from snore to room over the next frame
+        room.read(frame, 0, FRAME_SIZE);
+        detector.process(frame, FRAME_SIZE);
+
+        // Three seconds of hangover, then back to idle
+        int hangoverFrames = (int) Math.ceil(ActivityDetector.DEFAULT_HANGOVER_SECONDS * SAMPLE_RATE / FRAME_SIZE);
+        long activeBefore = activity.getActiveFrames();
+        for (int i = 0; i < hangoverFrames + 3; i++) {
+            room.read(frame, 0, FRAME_SIZE);
+            detector.process(frame, FRAME_SIZE);
+        }
+        assertEquals(hangoverFrames, activity.getActiveFrames() - activeBefore);
+        assertEquals(wakeups + 1, activity.getWakeups());
+    }
+
+    @Test
+    public void snoring_isDetectedAsWithAlwaysOnPipeline() {
+        calibrate();
+        NoiseFloorEstimator alwaysOnFloor = new NoiseFloorEstimator(SAMPLE_RATE);
+        SnoreDetector alwaysOn = new SnoreDetector(new FeatureExtractor(SAMPLE_RATE, FRAME_SIZE),
+                new LevelThresholdClassifier(alwaysOnFloor), alwaysOnFloor);
+        room.start();
+        for (int i = 0; i < 200; i++) {
+            room.read(frame, 0, FRAME_SIZE);
+            alwaysOn.process(frame, FRAME_SIZE);
+        }
+
+        SyntheticAudioSource snore = SyntheticAudioSource.snore(SAMPLE_RATE, 0.3, 1);
+        snore.start();
+        int differences = 0;
+        int snoring = 0;
+        for (int i = 0; i < 100; i++) {
+            snore.read(frame, 0, FRAME_SIZE);
+            boolean expected = alwaysOn.process(frame, FRAME_SIZE);
+            if (detector.process(frame, FRAME_SIZE) != expected) {
+                differences++;
+            }
+            if (expected) {
+                snoring++;
+            }
+        }
+        assertTrue(snoring > 0);
+        assertEquals(0, differences);
+    }
+
+    private void calibrate() {
+        detector.setActivityDetector(activity);
+        room.start();
+        for (int i = 0; i < 200; i++) {
+            room.read(frame, 0, FRAME_SIZE);
+            detector.process(frame, FRAME_SIZE);
+        }
+        assertTrue(noiseFloor.isCalibrated());
+    }
+}
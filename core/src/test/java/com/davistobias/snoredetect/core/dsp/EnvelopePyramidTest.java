@@ -0,0 +1,97 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EnvelopePyramidTest {
+
+    @Test
+    public void buckets_holdMinMaxAndRms() {
+        EnvelopePyramid pyramid = new EnvelopePyramid(4, 2);
+        pyramid.add(new short[] {3, -4, 3, -4, 100, 0, 0, 0}, 0, 8);
+
+        assertEquals(2, pyramid.bucketCount(0));
+        assertEquals(-4, pyramid.min(0, 0));
+        assertEquals(3, pyramid.max(0, 0));
+        assertEquals(Math.round(Math.sqrt((9 + 16 + 9 + 16) / 4.0)), pyramid.rms(0, 0));
+        assertEquals(50, pyramid.rms(0, 1));
+        assertEquals(1, pyramid.bucketCount(1));
+        assertEquals(-4, pyramid.min(1, 0));
+        assertEquals(100, pyramid.max(1, 0));
+    }
+
+    @Test
+    public void levels_matchDirectComputationInAnyBlockSize() {
+        short[] samples = new short[50_000];
+        Random random = new Random(5);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (random.nextGaussian() * 3000 * (1 + i / 10_000));
+        }
+        EnvelopePyramid pyramid = new EnvelopePyramid(1024, 4);
+        for (int offset = 0; offset < samples.length; offset += 777) {
+            pyramid.add(samples, offset, Math.min(777, samples.length - offset));
+        }
+        pyramid.finish();
+
+        assertEquals(samples.length, pyramid.getSampleCount());
+        for (int level = 0; level < pyramid.levelCount(); level++) {
+            long span = pyramid.samplesPerBucket(level);
+            assertEquals((samples.length + span - 1) / span, pyramid.bucketCount(level));
+            for (int bucket = 0; bucket < pyramid.bucketCount(level); bucket++) {
+                int from = (int) (bucket * span);
+                int to = (int) Math.min(samples.length, from + span);
+                int min = Integer.MAX_VALUE;
+                int max = Integer.MIN_VALUE;
+                double squares = 0;
+                for (int i = from; i < to; i++) {
+                    min = Math.min(min, samples[i]);
+                    max = Math.max(max, samples[i]);
+                    squares += (double) samples[i] * samples[i];
+                }
+                assertEquals(min, pyramid.min(level, bucket));
+                assertEquals(max, pyramid.max(level, bucket));
+                assertEquals(Math.sqrt(squares / (to - from)), pyramid.rms(level, bucket), 1.0);
+            }
+        }
+        // The top level is a single bucket covering everything
+        assertEquals(1, pyramid.bucketCount(pyramid.levelCount() - 1));
+    }
+
+    @Test
+    public void silence_pullsRangeToZero() {
+        EnvelopePyramid pyramid = new EnvelopePyramid(4, 4);
+        pyramid.add(new short[] {10, 20}, 0, 2);
+        pyramid.addSilence(10);
+        pyramid.finish();
+
+        assertEquals(3, pyramid.bucketCount(0));
+        assertEquals(0, pyramid.min(0, 0));
+        assertEquals(20, pyramid.max(0, 0));
+        assertEquals(0, pyramid.max(0, 1));
+        assertEquals(12, pyramid.getSampleCount());
+    }
+
+    @Test
+    public void levelFor_picksAtLeastOneBucketPerPixel() {
+        EnvelopePyramid pyramid = new EnvelopePyramid();
+        pyramid.addSilence(8L * 3600 * 8000);
+        pyramid.finish();
+
+        long night = pyramid.getSampleCount();
+        int level = pyramid.levelFor(night, 1080);
+        assertTrue(pyramid.bucketCount(level) <= 1080);
+        assertTrue(pyramid.bucketCount(level - 1) > 1080);
+        // Zoomed in to one second, level 0 is as fine as it gets
+        assertEquals(0, pyramid.levelFor(8000, 1080));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void finishedPyramid_rejectsSamples() {
+        EnvelopePyramid pyramid = new EnvelopePyramid();
+        pyramid.finish();
+        pyramid.add(new short[1], 0, 1);
+    }
+}
@@ -0,0 +1,26 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LevelMeterTest {
+
+    @Test
+    public void peakDecibel_usesLoudestSampleInRange() throws Exception {
+        short[] samples = {100, -6000, 30000};
+
+        assertEquals(6000, LevelMeter.peakAmplitude(samples, 2));
+        assertEquals(20.0 * Math.log10(6000 / 32768.0), LevelMeter.peakDecibel(samples, 2), 1e-9);
+    }
+
+    @Test
+    public void peakDecibel_isZeroForSilence() throws Exception {
+        assertEquals(0d, LevelMeter.peakDecibel(new short[8], 8), 0d);
+    }
+
+    @Test
+    public void peakAmplitude_handlesMostNegativeSample() throws Exception {
+        assertEquals(32768, LevelMeter.peakAmplitude(new short[] {Short.MIN_VALUE}, 1));
+    }
+}
@@ -0,0 +1,170 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LoudnessMeterTest {
+
+    private static final double AMPLITUDE = 0.5;
+    // RMS level of the test tones before weighting
+    private static final double TONE_DB = 20 * Math.log10(AMPLITUDE / Math.sqrt(2));
+
+    @Test
+    public void weighting_followsACurve() {
+        // IEC 61672 A-weighting at the octave bands snoring covers
+        double[][] curve = {{63, -26.2}, {125, -16.1}, {250, -8.6}, {500, -3.2}, {1000, 0}, {2000, 1.2}};
+        for (int sampleRate : new int[] {8000, 16000, 48000}) {
+            for (double[] point : curve) {
+                double weighted = toneLevel(sampleRate, point[0]) - TONE_DB;
+                assertEquals(sampleRate + " Hz, " + point[0] + " Hz", point[1], weighted, 0.3);
+            }
+        }
+    }
+
+    @Test
+    public void weighting_holdsUpToNyquist() {
+        // The top of a narrowband stream, where a bilinear 12 kHz pole pair sagged by up to 5 dB
+        double[][] curve = {{2500, 1.3}, {3000, 1.2}, {3500, 1.1}};
+        for (int sampleRate : new int[] {8000, 8820}) {
+            for (double[] point : curve) {
+                double weighted = toneLevel(sampleRate, point[0]) - TONE_DB;
+                assertEquals(sampleRate + " Hz, " + point[0] + " Hz", point[1], weighted, 0.3);
+            }
+        }
+    }
+
+    @Test
+    public void click_addsOnlyItsEnergy() {
+        LoudnessMeter meter = new LoudnessMeter(8000);
+        short[] frame = tone(8000, 1000, 1024);
+        double steady = steadyLevel(meter, frame);
+
+        // A full-scale click used to set the peak of the whole frame
+        frame[500] = Short.MAX_VALUE;
+        double withClick = meter.process(frame, frame.length);
+        assertEquals(steady, withClick, 1.5);
+    }
+
+    @Test
+    public void silence_readsSilenceFloor() {
+        LoudnessMeter meter = new LoudnessMeter(8000);
+        assertEquals(FrameFeatures.SILENCE_DB, meter.process(new short[1024], 1024), 0);
+        assertEquals(FrameFeatures.SILENCE_DB, meter.getFrameDb(), 0);
+    }
+
+    @Test
+    public void windows_completeOnStreamTime() {
+        LoudnessMeter meter = new LoudnessMeter(8000, 1.0, 4.0);
+        short[] frame = tone(8000, 1000, 1000);
+        for (int i = 0; i < 7; i++) {
+            meter.process(frame, frame.length);
+        }
+        assertTrue(Double.isNaN(meter.getShortLeqDb()));
+        meter.process(frame, frame.length);
+        assertEquals(TONE_DB, meter.getShortLeqDb(), 0.1);
+        assertTrue(Double.isNaN(meter.getLongLeqDb()));
+
+        // Three quiet seconds, then a quarter louder: the long window is the energy mean
+        short[] quiet = new short[1000];
+        for (int i = 0; i < 23; i++) {
+            meter.process(quiet, quiet.length);
+            assertTrue(Double.isNaN(meter.getCompletedLongLeqDb()));
+        }
+        meter.process(quiet, quiet.length);
+        assertEquals(FrameFeatures.SILENCE_DB, meter.getShortLeqDb(), 0);
+        assertEquals(TONE_DB - 10 * Math.log10(4), meter.getLongLeqDb(), 0.1);
+        assertEquals(meter.getLongLeqDb(), meter.getCompletedLongLeqDb(), 0);
+
+        meter.process(quiet, quiet.length);
+        assertTrue(Double.isNaN(meter.getCompletedLongLeqDb()));
+    }
+
+    @Test
+    public void blocksOfAnySize_giveSameWindows() {
+        short[] audio = tone(8000, 300, 8000 * 3);
+        for (int i = 8000; i < 16000; i++) {
+            audio[i] /= 10;
+        }
+        LoudnessMeter whole = new LoudnessMeter(8000, 1.0, 3.0);
+        whole.process(audio, audio.length);
+
+        LoudnessMeter streaming = new LoudnessMeter(8000, 1.0, 3.0);
+        int[] sizes = {1, 700, 1024, 333, 4000};
+        short[] block = new short[4000];
+        int position = 0;
+        for (int i = 0; position < audio.length; i++) {
+            int n = Math.min(sizes[i % sizes.length], audio.length - position);
+            System.arraycopy(audio, position, block, 0, n);
+            streaming.process(block, n);
+            position += n;
+        }
+        assertEquals(whole.getShortLeqDb(), streaming.getShortLeqDb(), 1e-6);
+        assertEquals(whole.getLongLeqDb(), streaming.getLongLeqDb(), 1e-6);
+    }
+
+    @Test
+    public void blocksOfAnySize_integrateToSameEnergy() {
+        short[] audio = tone(8000, 300, 8000 * 3);
+        for (int i = 8000; i < 16000; i++) {
+            audio[i] /= 10;
+        }
+        LoudnessMeter whole = new LoudnessMeter(8000);
+        double wholeDb = whole.process(audio, audio.length);
+
+        // Weighted by length, the blocks' energies add up to the whole stream's, as history relies on
+        LoudnessMeter streaming = new LoudnessMeter(8000);
+        int[] sizes = {1, 700, 1024, 333, 4000};
+        short[] block = new short[4000];
+        double energy = 0;
+        int position = 0;
+        for (int i = 0; position < audio.length; i++) {
+            int n = Math.min(sizes[i % sizes.length], audio.length - position);
+            System.arraycopy(audio, position, block, 0, n);
+            energy += Math.pow(10.0, streaming.process(block, n) / 10.0) * n;
+            position += n;
+        }
+        assertEquals(wholeDb, 10.0 * Math.log10(energy / audio.length), 1e-6);
+    }
+
+    @Test
+    public void reset_startsAFreshStream() {
+        LoudnessMeter meter = new LoudnessMeter(8000);
+        short[] frame = tone(8000, 440, 8000);
+        double first = meter.process(frame, frame.length);
+        meter.reset();
+
+        assertEquals(FrameFeatures.SILENCE_DB, meter.getFrameDb(), 0);
+        assertTrue(Double.isNaN(meter.getShortLeqDb()));
+        assertEquals(first, meter.process(frame, frame.length), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsRateWithout1kHz() {
+        new LoudnessMeter(2000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsEmptyWindow() {
+        new LoudnessMeter(8000, 0, 60);
+    }
+
+    /** Weighted level of a sine once the filter has settled. */
+    private static double toneLevel(int sampleRate, double hz) {
+        LoudnessMeter meter = new LoudnessMeter(sampleRate);
+        return steadyLevel(meter, tone(sampleRate, hz, sampleRate / 2));
+    }
+
+    private static double steadyLevel(LoudnessMeter meter, short[] frame) {
+        meter.process(frame, frame.length);
+        return meter.process(frame, frame.length);
+    }
+
+    private static short[] tone(int sampleRate, double hz, int length) {
+        short[] samples = new short[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = (short) Math.round(AMPLITUDE * 32768 * Math.sin(2 * Math.PI * hz * i / sampleRate));
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,101 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NoiseFloorEstimatorTest {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final int FRAME = 1024;
+
+    private final NoiseFloorEstimator estimator = new NoiseFloorEstimator(SAMPLE_RATE);
+
+    @Test
+    public void beforeFirstSubWindow_reportsFallbackThreshold() {
+        assertTrue(Double.isNaN(estimator.getFloorDb()));
+        feed(-50, 2);
+
+        assertFalse(estimator.isCalibrated());
+        assertEquals(-50, estimator.getFloorDb(), 0.01);
+        assertEquals(LevelThresholdClassifier.DEFAULT_THRESHOLD_DB, estimator.getThresholdDb(), 0);
+    }
+
+    @Test
+    public void steadyRoom_thresholdIsFloorPlusMargin() {
+        feed(-50, 10);
+
+        assertTrue(estimator.isCalibrated());
+        assertEquals(-50, estimator.getFloorDb(), 0.01);
+        assertEquals(-50 + NoiseFloorEstimator.DEFAULT_MARGIN_DB, estimator.getThresholdDb(), 0.01);
+    }
+
+    @Test
+    public void snoring_doesNotRaiseFloor() {
+        // A one-second snore every four seconds for five minutes
+        for (int second = 0; second < 300; second++) {
+            feed(second % 4 == 0 ? -10 : -50, 1);
+        }
+
+        assertEquals(-50, estimator.getFloorDb(), 0.5);
+    }
+
+    @Test
+    public void floor_fallsAtOnceButRisesOnlyAfterWindow() {
+        feed(-40, 30);
+        feed(-55, 3);
+        assertEquals(-55, estimator.getFloorDb(), 0.5);
+
+        // A fan is switched on: still the quiet floor half a window later, the fan's a window later
+        feed(-35, 30);
+        assertEquals(-55, estimator.getFloorDb(), 0.5);
+        feed(-35, NoiseFloorEstimator.DEFAULT_WINDOW_SECONDS);
+        assertEquals(-35, estimator.getFloorDb(), 0.01);
+    }
+
+    @Test
+    public void reset_forgetsEstimate() {
+        feed(-50, 10);
+        estimator.reset();
+
+        assertFalse(estimator.isCalibrated());
+        assertTrue(Double.isNaN(estimator.getFloorDb()));
+        assertEquals(LevelThresholdClassifier.DEFAULT_THRESHOLD_DB, estimator.getThresholdDb(), 0);
+    }
+
+    @Test
+    public void resetToNewRate_keepsWindowInSeconds() {
+        estimator.reset(48000);
+        for (int i = 0; i < 8; i++) {
+            estimator.add(6 * FRAME, -50);
+        }
+        assertFalse(estimator.isCalibrated());
+        // A sub-window is 7.5 s at any rate
+        for (int i = 0; i < 60; i++) {
+            estimator.add(6 * FRAME, -50);
+        }
+        assertTrue(estimator.isCalibrated());
+        assertEquals(-50, estimator.getFloorDb(), 0.01);
+    }
+
+    @Test
+    public void peakClassifier_followsEstimator() {
+        LevelThresholdClassifier classifier = new LevelThresholdClassifier(estimator);
+        FrameFeatures features = new FrameFeatures();
+        features.rmsDb = -40;
+        features.levelDb = -47;
+        // Below the fallback threshold, but well above a quiet room's floor
+        assertEquals(0.0, classifier.score(features), 0);
+
+        feed(-60, 10);
+        assertEquals(-50, classifier.getThresholdDb(), 0.01);
+        assertEquals(1.0, classifier.score(features), 0);
+    }
+
+    private void feed(double levelDb, double seconds) {
+        long frames = (long) (seconds * SAMPLE_RATE / FRAME);
+        for (long i = 0; i < frames; i++) {
+            estimator.add(FRAME, levelDb);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PolyphaseDecimatorTest {
+
+    private static final double AMPLITUDE = 16000;
+
+    @Test
+    public void constant_passesAtUnityGain() {
+        PolyphaseDecimator decimator = new PolyphaseDecimator(6);
+        short[] in = new short[6000];
+        Arrays.fill(in, (short) 10000);
+        short[] out = new short[decimator.maxOutput(in.length)];
+
+        int produced = decimator.process(in, in.length, out);
+        assertEquals(1000, produced);
+        for (int i = 100; i < produced; i++) {
+            assertEquals(10000, out[i], 1);
+        }
+    }
+
+    @Test
+    public void passband_48kTo8k_isFlatThroughTheSnoreBand() {
+        for (int hz : new int[] {50, 200, 500, 1000, 2000, 2500}) {
+            double gainDb = gainDb(48000, 6, hz);
+            assertEquals(hz + " Hz", 0, gainDb, 0.1);
+        }
+    }
+
+    @Test
+    public void stopband_48kTo8k_rejectsWhatWouldAlias() {
+        // Each of these would fold back into the 0-4 kHz analysis band
+        for (int hz : new int[] {4400, 5000, 7000, 10000, 15000, 21000}) {
+            double gainDb = gainDb(48000, 6, hz);
+            assertTrue(hz + " Hz at " + gainDb + " dB", gainDb < -55);
+        }
+    }
+
+    @Test
+    public void response_16kTo8k() {
+        assertEquals(0, gainDb(16000, 2, 1000), 0.1);
+        assertEquals(0, gainDb(16000, 2, 2500), 0.1);
+        assertTrue(gainDb(16000, 2, 4500) < -55);
+        assertTrue(gainDb(16000, 2, 7000) < -55);
+    }
+
+    @Test
+    public void blocksOfAnySize_giveSameStreamAsOneBlock() {
+        short[] in = tone(48000, 700, 48000 * 2);
+        PolyphaseDecimator whole = new PolyphaseDecimator(6);
+        short[] expected = new short[whole.maxOutput(in.length)];
+        int expectedCount = whole.process(in, in.length, expected);
+
+        PolyphaseDecimator streaming = new PolyphaseDecimator(6);
+        short[] block = new short[1000];
+        short[] out = new short[streaming.maxOutput(block.length)];
+        int position = 0;
+        int produced = 0;
+        int[] sizes = {1, 5, 6, 7, 999, 1000, 13};
+        for (int i = 0; position < in.length; i++) {
+            int n = Math.min(sizes[i % sizes.length], in.length - position);
+            System.arraycopy(in, position, block, 0, n);
+            int count = streaming.process(block, n, out);
+            for (int j = 0; j < count; j++) {
+                assertEquals(expected[produced + j], out[j]);
+            }
+            produced += count;
+            position += n;
+        }
+        assertEquals(expectedCount, produced);
+    }
+
+    @Test
+    public void reset_startsAFreshStream() {
+        PolyphaseDecimator decimator = new PolyphaseDecimator(2);
+        short[] in = tone(16000, 440, 4000);
+        short[] first = new short[decimator.maxOutput(in.length)];
+        decimator.process(in, in.length, first);
+        decimator.reset();
+        short[] second = new short[decimator.maxOutput(in.length)];
+        decimator.process(in, in.length, second);
+
+        assertArrayEquals(first, second);
+    }
+
+    @Test
+    public void factorFor_roundsDownToWholeFactor() {
+        assertEquals(1, PolyphaseDecimator.factorFor(8000, 8000));
+        assertEquals(2, PolyphaseDecimator.factorFor(16000, 8000));
+        assertEquals(5, PolyphaseDecimator.factorFor(44100, 8000));
+        assertEquals(6, PolyphaseDecimator.factorFor(48000, 8000));
+        assertEquals(1, PolyphaseDecimator.factorFor(8000, 16000));
+    }
+
+    /** Steady-state gain of a sine through the decimator. */
+    private static double gainDb(int sampleRate, int factor, int hz) {
+        PolyphaseDecimator decimator = new PolyphaseDecimator(factor);
+        short[] in = tone(sampleRate, hz, sampleRate);
+        short[] out = new short[decimator.maxOutput(in.length)];
+        int produced = decimator.process(in, in.length, out);
+
+        // Skip the filter's start-up, then measure over the rest
+        int skip = (int) Math.ceil(2 * decimator.getDelaySamples() / factor);
+        double sumSquares = 0;
+        for (int i = skip; i < produced; i++) {
+            sumSquares += (double) out[i] * out[i];
+        }
+        double rms = Math.sqrt(sumSquares / (produced - skip));
+        return 20 * Math.log10(rms / (AMPLITUDE / Math.sqrt(2)));
+    }
+
+    private static short[] tone(int sampleRate, double hz, int length) {
+        short[] samples = new short[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = (short) Math.round(AMPLITUDE * Math.sin(2 * Math.PI * hz * i / sampleRate));
+        }
+        return samples;
+    }
+}
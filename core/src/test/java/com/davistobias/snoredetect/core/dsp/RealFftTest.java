@@ -0,0 +1,131 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RealFftTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPowerOfTwo() throws Exception {
+        new RealFft(1000);
+    }
+
+    @Test
+    public void sizeFor_roundsUpToPowerOfTwo() throws Exception {
+        assertEquals(1024, RealFft.sizeFor(1024));
+        assertEquals(8192, RealFft.sizeFor(5644));
+        assertEquals(4, RealFft.sizeFor(1));
+    }
+
+    @Test
+    public void sineOnBin_putsAllPowerInThatBin() throws Exception {
+        int n = 1024;
+        for (int bin : new int[] {1, 37, 256, 511}) {
+            float[] data = new float[n];
+            for (int i = 0; i < n; i++) {
+                data[i] = (float) (1000.0 * Math.sin(2.0 * Math.PI * bin * i / n));
+            }
+            RealFft fft = new RealFft(n);
+            float[] power = new float[fft.binCount()];
+            fft.forward(data);
+            fft.powerSpectrum(data, power);
+
+            // A sine of amplitude A on an exact bin has |X[k]| = A * n / 2
+            double expected = Math.pow(1000.0 * n / 2, 2);
+            assertEquals("bin " + bin, expected, power[bin], expected * 1e-4);
+            for (int k = 0; k < power.length; k++) {
+                if (k != bin) {
+                    assertTrue("leakage into bin " + k + " for " + bin, power[k] < expected * 1e-8);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void dcAndNyquist_arePackedIntoFirstPair() throws Exception {
+        float[] data = new float[8];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 3f + (i % 2 == 0 ? 1f : -1f);
+        }
+        new RealFft(8).forward(data);
+
+        assertEquals(24f, data[0], 1e-5f);
+        assertEquals(8f, data[1], 1e-5f);
+        for (int i = 2; i < data.length; i++) {
+            assertEquals(0f, data[i], 1e-5f);
+        }
+    }
+
+    @Test
+    public void matchesNaiveDftOnRandomInput() throws Exception {
+        int n = 256;
+        Random random = new Random(5);
+        double[] input = new double[n];
+        float[] data = new float[n];
+        for (int i = 0; i < n; i++) {
+            input[i] = random.nextGaussian() * 1000;
+            data[i] = (float) input[i];
+        }
+        new RealFft(n).forward(data);
+
+        for (int k = 0; k <= n / 2; k++) {
+            double re = 0;
+            double im = 0;
+            for (int t = 0; t < n; t++) {
+                re += input[t] * Math.cos(2 * Math.PI * k * t / n);
+                im -= input[t] * Math.sin(2 * Math.PI * k * t / n);
+            }
+            double actualRe = k == 0 ? data[0] : k == n / 2 ? data[1] : data[2 * k];
+            double actualIm = k == 0 || k == n / 2 ? 0 : data[2 * k + 1];
+            assertEquals("re " + k, re, actualRe, 0.5);
+            assertEquals("im " + k, im, actualIm, 0.5);
+        }
+    }
+
+    @Test
+    public void spectrogram_emitsOneFramePerHopOnceWindowIsFull() throws Exception {
+        final List<Long> starts = new ArrayList<>();
+        Spectrogram spectrogram = new Spectrogram(256, 64, (power, startSample) -> starts.add(startSample));
+
+        // Feed in awkward block sizes to exercise the carry-over between calls
+        short[] block = new short[100];
+        for (int i = 0; i < 10; i++) {
+            spectrogram.process(block, 0, block.length);
+        }
+
+        // 1000 samples: first window at 256, then every 64 samples up to 1000
+        assertEquals(12, starts.size());
+        for (int i = 0; i < starts.size(); i++) {
+            assertEquals(i * 64L, (long) starts.get(i));
+        }
+    }
+
+    @Test
+    public void spectrogram_findsToneFrequency() throws Exception {
+        final int sampleRate = 8000;
+        final int fftSize = 512;
+        final double[] peakHz = new double[1];
+        Spectrogram spectrogram = new Spectrogram(fftSize, fftSize / 4, (power, startSample) -> {
+            int best = 0;
+            for (int k = 1; k < power.length; k++) {
+                if (power[k] > power[best]) {
+                    best = k;
+                }
+            }
+            peakHz[0] = (double) best * sampleRate / fftSize;
+        });
+
+        short[] samples = new short[4000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (10000 * Math.sin(2 * Math.PI * 440 * i / sampleRate));
+        }
+        spectrogram.process(samples, 0, samples.length);
+
+        assertEquals(440, peakHz[0], (double) sampleRate / fftSize);
+    }
+}
@@ -0,0 +1,125 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import com.davistobias.snoredetect.core.SyntheticAudioSource;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class SnoreDetectorTest {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final int FRAME_SIZE = 1024;
+
+    // Same weights as app/src/main/assets/snore_classifier.properties
+    private static final String MODEL = "bias=2.7\n"
+            + "weight.rms_db=0.15\n"
+            + "weight.zero_crossing_rate=-8.0\n"
+            + "weight.centroid_khz=-2.0\n"
+            + "weight.low_band_ratio=6.0\n"
+            + "threshold=0.5\n";
+
+    private final FeatureExtractor extractor = new FeatureExtractor(SAMPLE_RATE, FRAME_SIZE);
+    private final FrameFeatures features = new FrameFeatures();
+
+    @Test
+    public void sine_hasExpectedFeatures() throws Exception {
+        extractor.extract(frame(SyntheticAudioSource.tone(SAMPLE_RATE, 250, 0.5), 0), FRAME_SIZE, features);
+
+        // RMS of a half-scale sine is 0.5 / sqrt(2) of full scale
+        assertEquals(20 * Math.log10(0.5 / Math.sqrt(2)), features.rmsDb, 0.1);
+        assertEquals(2 * 250.0 / SAMPLE_RATE, features.zeroCrossingRate, 0.005);
+        assertEquals(250, features.spectralCentroidHz, 20);
+        assertEquals(1.0, features.lowBandRatio, 0.01);
+    }
+
+    @Test
+    public void whiteNoise_isBroadband() throws Exception {
+        extractor.extract(frame(SyntheticAudioSource.noise(SAMPLE_RATE, 0.1, 3), 0), FRAME_SIZE, features);
+
+        assertEquals(0.5, features.zeroCrossingRate, 0.05);
+        assertEquals(SAMPLE_RATE / 4.0, features.spectralCentroidHz, 200);
+        assertEquals(500.0 / (SAMPLE_RATE / 2.0), features.lowBandRatio, 0.05);
+    }
+
+    @Test
+    public void silence_reportsFloor() throws Exception {
+        extractor.extract(new short[FRAME_SIZE], FRAME_SIZE, features);
+
+        assertEquals(FrameFeatures.SILENCE_DB, features.rmsDb, 0);
+        assertEquals(0, features.zeroCrossingRate, 0);
+        assertEquals(0, new LevelThresholdClassifier().score(features), 0);
+    }
+
+    @Test
+    public void logisticModel_separatesSnoringFromBroadbandSounds() throws Exception {
+        SnoreDetector detector = new SnoreDetector(extractor, LogisticSnoreClassifier.load(stream(MODEL)));
+
+        // Middle of the first inhale of the modelled snore
+        assertTrue(detector.process(frame(SyntheticAudioSource.snore(SAMPLE_RATE, 0.3, 1), 5), FRAME_SIZE));
+        assertTrue(detector.getScore() > 0.9);
+
+        // Loud white noise stands in for a cough or door slam: above the old -30 dB threshold but not a snore
+        short[] loudNoise = frame(SyntheticAudioSource.noise(SAMPLE_RATE, 0.3, 9), 0);
+        assertFalse(detector.process(loudNoise, FRAME_SIZE));
+        assertTrue(detector.getFeatures().peakDecibel > LevelThresholdClassifier.DEFAULT_THRESHOLD_DB);
+
+        // Swapping the classifier brings back the old rule
+        detector.setClassifier(new LevelThresholdClassifier());
+        assertTrue(detector.process(loudNoise, FRAME_SIZE));
+    }
+
+    @Test
+    public void logisticModel_ignoresQuietExhale() throws Exception {
+        SnoreDetector detector = new SnoreDetector(extractor, LogisticSnoreClassifier.load(stream(MODEL)));
+
+        assertFalse(detector.process(frame(SyntheticAudioSource.snore(SAMPLE_RATE, 0.3, 1), 20), FRAME_SIZE));
+    }
+
+    @Test
+    public void adaptiveThreshold_stopsSteadyFanFromCountingAsSnoring() {
+        NoiseFloorEstimator noiseFloor = new NoiseFloorEstimator(SAMPLE_RATE);
+        SnoreDetector detector = new SnoreDetector(extractor, new LevelThresholdClassifier(noiseFloor), noiseFloor);
+
+        detector.process(new short[FRAME_SIZE], FRAME_SIZE);
+        assertTrue(Double.isNaN(noiseFloor.getFloorDb()));
+
+        // A loud fan is above the fixed threshold, so it snores until the floor is calibrated
+        short[] fan = frame(SyntheticAudioSource.noise(SAMPLE_RATE, 0.3, 9), 0);
+        assertTrue(detector.process(fan, FRAME_SIZE));
+        for (int i = 0; i < 10 * SAMPLE_RATE / FRAME_SIZE; i++) {
+            detector.process(fan, FRAME_SIZE);
+        }
+        assertTrue(noiseFloor.isCalibrated());
+        assertFalse(detector.process(fan, FRAME_SIZE));
+        assertEquals(detector.getFeatures().levelDb, noiseFloor.getFloorDb(), 0.01);
+    }
+
+    @Test(expected = IOException.class)
+    public void load_rejectsMissingWeight() throws Exception {
+        LogisticSnoreClassifier.load(stream("bias=1\nweight.rms_db=0.1\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void load_rejectsMalformedWeight() throws Exception {
+        LogisticSnoreClassifier.load(stream(MODEL.replace("6.0", "six")));
+    }
+
+    /** Returns frame number {@code index} of the source. */
+    private static short[] frame(SyntheticAudioSource source, int index) {
+        short[] buffer = new short[FRAME_SIZE];
+        source.start();
+        for (int i = 0; i <= index; i++) {
+            source.read(buffer, 0, FRAME_SIZE);
+        }
+        return buffer;
+    }
+
+    private static ByteArrayInputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
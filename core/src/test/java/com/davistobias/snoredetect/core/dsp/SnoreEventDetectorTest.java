@@ -0,0 +1,119 @@
+package com.davistobias.snoredetect.core.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SnoreEventDetectorTest {
+
+    private static final int SAMPLE_RATE = 8000;
+    // 100 ms frames keep the millisecond arithmetic readable
+    private static final int FRAME = 800;
+
+    private final SnoreEventQueue queue = new SnoreEventQueue(16);
+    private final SnoreEventDetector detector = new SnoreEventDetector(SAMPLE_RATE, queue);
+    private long position;
+
+    @Test
+    public void hysteresis_startsAboveOnAndEndsBelowOff() {
+        feed(0.0, 3);
+        feed(0.5, 2); // between the thresholds: not enough to start
+        assertFalse(detector.isActive());
+        feed(0.7, 5);
+        feed(0.5, 5); // between the thresholds: enough to continue
+        assertTrue(detector.isActive());
+        feed(0.1, 5);
+
+        assertFalse(detector.isActive());
+        SnoreEvent event = queue.poll();
+        assertNotNull(event);
+        assertEquals(5 * FRAME, event.startSample);
+        assertEquals(10 * FRAME, event.durationSamples);
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void shortDip_isBridged() {
+        feed(0.9, 5);
+        feed(0.1, 3); // 300 ms, below the 500 ms gap allowance
+        feed(0.9, 5);
+        feed(0.1, 10);
+
+        assertEquals(1, queue.size());
+        SnoreEvent event = queue.poll();
+        assertEquals(0, event.startSample);
+        assertEquals(13 * FRAME, event.durationSamples);
+    }
+
+    @Test
+    public void longGap_splitsEvents() {
+        feed(0.9, 5);
+        feed(0.1, 6);
+        feed(0.9, 5);
+        feed(0.1, 6);
+
+        assertEquals(2, queue.size());
+        assertEquals(0, queue.poll().startSample);
+        assertEquals(11 * FRAME, queue.poll().startSample);
+        assertEquals(2, detector.getEventCount());
+    }
+
+    @Test
+    public void shortBurst_isDiscarded() {
+        feed(0.9, 2); // 200 ms, below the 300 ms minimum
+        feed(0.0, 10);
+
+        assertFalse(detector.isActive());
+        assertEquals(0, queue.size());
+        assertEquals(0, detector.getEventCount());
+    }
+
+    @Test
+    public void levels_givePeakAndPowerMean() {
+        detector.process(0, FRAME, 0.9, -20);
+        detector.process(FRAME, FRAME, 0.9, -30);
+        detector.process(2 * FRAME, FRAME, 0.9, -20);
+        detector.process(3 * FRAME, FRAME, 0.9, -30);
+        assertTrue(detector.flush());
+
+        SnoreEvent event = queue.poll();
+        assertEquals(-20, event.peakDb, 1e-6);
+        // Mean of 0.01 and 0.001 in power, not of the dB values
+        assertEquals(10 * Math.log10(0.0055), event.meanDb, 1e-4);
+    }
+
+    @Test
+    public void flush_endsOpenEvent() {
+        feed(0.9, 5);
+        assertTrue(detector.isActive());
+        assertTrue(detector.flush());
+        assertFalse(detector.isActive());
+        assertFalse(detector.flush());
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void fullQueue_dropsOldest() {
+        SnoreEventQueue small = new SnoreEventQueue(2);
+        for (int i = 0; i < 5; i++) {
+            small.offer(new SnoreEvent(i, 1, 0, 0));
+        }
+
+        assertEquals(3, small.getDroppedCount());
+        assertEquals(3, small.poll().startSample);
+        assertEquals(4, small.poll().startSample);
+        assertNull(small.poll());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invertedThresholds_areRejected() {
+        new SnoreEventDetector(SAMPLE_RATE, 0.4, 0.6, 300, 500, queue);
+    }
+
+    private void feed(double activation, int frames) {
+        for (int i = 0; i < frames; i++) {
+            detector.process(position, FRAME, activation, -20);
+            position += FRAME;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.davistobias.snoredetect.core.history;
+
+import com.davistobias.snoredetect.core.dsp.LoudnessMeter;
+import com.davistobias.snoredetect.core.dsp.SnoreEvent;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HistoryStoreTest {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final int FRAME = 1024;
+    private static final long MINUTE_SAMPLES = 60L * SAMPLE_RATE;
+    private static final long DAY_MILLIS = 24L * 3600 * 1000;
+    private static final long FIRST_NIGHT = 1_760_000_000_000L;
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void recorder_batchesSessionEventsAndMinutes() throws Exception {
+        File dir = temp.newFolder();
+        try (HistoryStore store = HistoryStore.open(dir)) {
+            HistoryRecorder recorder = new HistoryRecorder(store, SAMPLE_RATE, FIRST_NIGHT);
+            // Five minutes of audio with two snores in the second minute
+            long position = 0;
+            while (position < 5 * MINUTE_SAMPLES) {
+                recorder.onFrame(FRAME, -30);
+                position += FRAME;
+                // Events are reported once the frames have passed their end
+                if (position == 560 * FRAME) {
+                    recorder.addEvent(new SnoreEvent(MINUTE_SAMPLES + 1000, SAMPLE_RATE, -12f, -18f));
+                    recorder.addEvent(new SnoreEvent(MINUTE_SAMPLES + 20_000, 2 * SAMPLE_RATE, -8f, -14f));
+                }
+            }
+
+            // Nothing reaches the store before a flush
+            assertEquals(0, store.countEvents(0, Long.MAX_VALUE));
+            recorder.flush();
+            assertEquals(2, store.countEvents(0, Long.MAX_VALUE));
+
+            // Still recording: summarized from the minutes flushed so far
+            List<SessionSummary> sessions = store.sessions(0, Long.MAX_VALUE);
+            assertEquals(1, sessions.size());
+            assertFalse(sessions.get(0).complete);
+            assertEquals(2, sessions.get(0).eventCount);
+            assertEquals(-8f, sessions.get(0).peakDb, 0);
+
+            recorder.finish();
+            sessions = store.sessions(0, Long.MAX_VALUE);
+            assertEquals(1, sessions.size());
+            SessionSummary night = sessions.get(0);
+            assertTrue(night.complete);
+            assertEquals(FIRST_NIGHT, night.startMillis);
+            assertEquals(2, night.eventCount);
+            assertEquals(3000, night.snoreMillis);
+            assertEquals(2000, night.longestEventMillis);
+            assertEquals(FIRST_NIGHT + position * 1000 / SAMPLE_RATE, night.endMillis);
+            assertEquals(24.0, night.getSnoreIndex(), 0.1);
+
+            final List<long[]> minutes = new ArrayList<>();
+            store.minutes(0, Long.MAX_VALUE, (minuteStart, sessionStart, recordedMillis, eventCount, snoreMillis,
+                                              meanLevelDb, maxLevelDb) -> {
+                assertEquals(FIRST_NIGHT, sessionStart);
+                assertEquals(-30f, meanLevelDb, 1e-3);
+                minutes.add(new long[] {minuteStart, recordedMillis, eventCount, snoreMillis});
+            });
+            assertEquals(5, minutes.size());
+            assertEquals(FIRST_NIGHT + 60_000, minutes.get(1)[0]);
+            assertEquals(2, minutes.get(1)[2]);
+            assertEquals(3000, minutes.get(1)[3]);
+            assertEquals(0, minutes.get(2)[2]);
+        }
+    }
+
+    @Test
+    public void minuteLevels_comeFromTheMeterWindows() throws Exception {
+        // A burst just after the first minute, inside a frame that starts before it ends
+        short[] audio = new short[(int) (2 * MINUTE_SAMPLES + MINUTE_SAMPLES / 2)];
+        for (int i = 0; i < audio.length; i++) {
+            double amplitude = i < MINUTE_SAMPLES ? 0.1 : i < MINUTE_SAMPLES + 200 ? 0.9 : 0.001;
+            audio[i] = (short) Math.round(amplitude * 32767 * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE));
+        }
+        LoudnessMeter reference = new LoudnessMeter(SAMPLE_RATE);
+        short[] minute = new short[(int) MINUTE_SAMPLES];
+        double[] expected = new double[3];
+        for (int m = 0; m < 2; m++) {
+            System.arraycopy(audio, m * minute.length, minute, 0, minute.length);
+            reference.process(minute, minute.length);
+            expected[m] = reference.getLongLeqDb();
+        }
+        System.arraycopy(audio, 2 * minute.length, minute, 0, minute.length / 2);
+        expected[2] = reference.process(minute, minute.length / 2);
+
+        File dir = temp.newFolder();
+        try (HistoryStore store = HistoryStore.open(dir)) {
+            HistoryRecorder recorder = new HistoryRecorder(store, SAMPLE_RATE, FIRST_NIGHT);
+            LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE);
+            short[] frame = new short[FRAME];
+            for (int position = 0; position < audio.length; position += FRAME) {
+                int n = Math.min(FRAME, audio.length - position);
+                System.arraycopy(audio, position, frame, 0, n);
+                double levelDb = meter.process(frame, n);
+                recorder.onFrame(n, levelDb, meter.getCompletedLongLeqDb());
+            }
+            recorder.finish();
+
+            final List<Float> levels = new ArrayList<>();
+            store.minutes(0, Long.MAX_VALUE, (minuteStart, sessionStart, recordedMillis, eventCount, snoreMillis,
+                                              meanLevelDb, maxLevelDb) -> levels.add(meanLevelDb));
+            assertEquals(3, levels.size());
+            // The burst counts towards the minute it is in, not the one its frame started in
+            assertEquals(expected[0], levels.get(0), 1e-3);
+            assertEquals(expected[1], levels.get(1), 1e-3);
+            // Cut short by the end of the recording: the energy mean of the frames it got
+            assertEquals(expected[2], levels.get(2), 0.05);
+        }
+    }
+
+    @Test
+    public void timeRangeQueries_selectMatchingNights() throws Exception {
+        File dir = temp.newFolder();
+        try (HistoryStore store = HistoryStore.open(dir)) {
+            for (int night = 0; night < 90; night++) {
+                recordNight(store, FIRST_NIGHT + night * DAY_MILLIS, night % 10);
+            }
+
+            long from = FIRST_NIGHT + 30 * DAY_MILLIS;
+            long to = FIRST_NIGHT + 60 * DAY_MILLIS;
+            List<SessionSummary> month = store.sessions(from, to);
+            assertEquals(30, month.size());
+            assertEquals(from, month.get(0).startMillis);
+            long expectedEvents = 0;
+            for (int night = 30; night < 60; night++) {
+                expectedEvents += night % 10;
+            }
+            long total = 0;
+            for (SessionSummary summary : month) {
+                assertTrue(summary.complete);
+                total += summary.eventCount;
+            }
+            assertEquals(expectedEvents, total);
+            assertEquals(expectedEvents, store.countEvents(from, to));
+
+            final int[] visited = {0};
+            int count = store.events(from, to, (time, sessionStart, durationMillis, peakDb, meanDb) -> {
+                assertTrue(time >= sessionStart);
+                visited[0]++;
+            });
+            assertEquals(expectedEvents, count);
+            assertEquals(expectedEvents, visited[0]);
+        }
+    }
+
+    @Test
+    public void reopen_dropsTornTailAndKeepsAppending() throws Exception {
+        File dir = temp.newFolder();
+        try (HistoryStore store = HistoryStore.open(dir)) {
+            recordNight(store, FIRST_NIGHT, 3);
+        }
+        try (FileOutputStream out = new FileOutputStream(new File(dir, HistoryStore.EVENTS_FILE), true)) {
+            out.write(new byte[HistoryStore.EVENT_RECORD_SIZE / 2]);
+        }
+
+        try (HistoryStore store = HistoryStore.open(dir)) {
+            assertEquals(3, store.countEvents(0, Long.MAX_VALUE));
+            recordNight(store, FIRST_NIGHT + DAY_MILLIS, 4);
+            assertEquals(7, store.countEvents(0, Long.MAX_VALUE));
+            assertEquals(2, store.sessions(0, Long.MAX_VALUE).size());
+        }
+    }
+
+    @Test
+    public void crashedSession_isSummarizedFromFlushedMinutes() throws Exception {
+        File dir = temp.newFolder();
+        try (HistoryStore store = HistoryStore.open(dir)) {
+            HistoryRecorder crashed = new HistoryRecorder(store, SAMPLE_RATE, FIRST_NIGHT);
+            for (int minute = 0; minute < 10; minute++) {
+                crashed.onFrame((int) MINUTE_SAMPLES, -40);
+            }
+            crashed.addEvent(new SnoreEvent(2 * MINUTE_SAMPLES, SAMPLE_RATE, -20f, -25f));
+            crashed.flush();
+            // No finish(): the process died. The next night records normally.
+            recordNight(store, FIRST_NIGHT + DAY_MILLIS, 2);
+
+            List<SessionSummary> sessions = store.sessions(0, Long.MAX_VALUE);
+            assertEquals(2, sessions.size());
+            SessionSummary first = sessions.get(0);
+            assertFalse(first.complete);
+            assertEquals(1, first.eventCount);
+            assertEquals(1000, first.snoreMillis);
+            // The last two minutes were still open when the process died
+            assertEquals(8 * 60_000, first.recordedMillis);
+            assertTrue(sessions.get(1).complete);
+            assertEquals(2, sessions.get(1).eventCount);
+        }
+    }
+
+    private static void recordNight(HistoryStore store, long startMillis, int events) throws IOException {
+        HistoryRecorder recorder = new HistoryRecorder(store, SAMPLE_RATE, startMillis);
+        // Eight hours, one frame per minute to keep the test fast
+        for (int minute = 0; minute < 480; minute++) {
+            recorder.onFrame((int) MINUTE_SAMPLES, -35);
+            if (minute < events) {
+                recorder.addEvent(new SnoreEvent(minute * MINUTE_SAMPLES, SAMPLE_RATE, -20f, -25f));
+            }
+            if (minute % 5 == 4) {
+                recorder.flush();
+            }
+        }
+        recorder.finish();
+    }
+}
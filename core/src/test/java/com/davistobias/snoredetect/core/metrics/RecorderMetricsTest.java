@@ -0,0 +1,170 @@
+package com.davistobias.snoredetect.core.metrics;
+
+import com.davistobias.snoredetect.core.AudioSource;
+import com.davistobias.snoredetect.core.CaptureLoop;
+import com.davistobias.snoredetect.core.PcmBlockWriter;
+import com.davistobias.snoredetect.core.PcmRingBuffer;
+import com.davistobias.snoredetect.core.codec.PcmSink;
+import com.davistobias.snoredetect.core.dsp.FeatureExtractor;
+import com.davistobias.snoredetect.core.dsp.LevelThresholdClassifier;
+import com.davistobias.snoredetect.core.dsp.SnoreDetector;
+import com.davistobias.snoredetect.core.dsp.SnoreEventDetector;
+import com.davistobias.snoredetect.core.dsp.SnoreEventQueue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecorderMetricsTest {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final int BLOCK_SIZE = 1024;
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void histogram_bucketsByPowerOfTwo() {
+        Log2Histogram histogram = new Log2Histogram();
+        assertEquals(0, histogram.getPercentile(0.5));
+        for (int i = 0; i < 98; i++) {
+            histogram.record(100);
+        }
+        histogram.record(5000);
+        histogram.record(70_000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(70_000, histogram.getMax());
+        assertEquals(Log2Histogram.bucketOf(100), Log2Histogram.bucketOf(127));
+        assertNotEquals(Log2Histogram.bucketOf(127), Log2Histogram.bucketOf(128));
+        // 100 rounds up to the top of its bucket
+        assertEquals(127, histogram.getPercentile(0.5));
+        assertEquals(8191, histogram.getPercentile(0.99));
+        assertEquals(70_000, histogram.getPercentile(1.0));
+        assertEquals(Log2Histogram.BUCKETS - 1, Log2Histogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void captureLoop_countsShortAndEmptyReads() throws Exception {
+        // Full, short, empty, full, then the end of the stream
+        int[] reads = {BLOCK_SIZE, 300, 0, BLOCK_SIZE};
+        RecorderMetrics metrics = new RecorderMetrics();
+        PcmRingBuffer ring = new PcmRingBuffer(8, BLOCK_SIZE);
+        PcmBlockWriter writer = new PcmBlockWriter(ring, new NullSink(), null);
+        SnoreDetector detector = new SnoreDetector(new FeatureExtractor(SAMPLE_RATE, BLOCK_SIZE),
+                new LevelThresholdClassifier());
+        SnoreEventDetector events = new SnoreEventDetector(SAMPLE_RATE, new SnoreEventQueue(16));
+        CaptureLoop loop = new CaptureLoop(new ScriptedSource(reads), ring, writer, detector, events,
+                new NullListener());
+        loop.setMetrics(metrics);
+        loop.run();
+
+        assertEquals(3, metrics.getBuffers());
+        assertEquals(1, metrics.getShortReads());
+        assertEquals(1, metrics.getEmptyReads());
+        assertEquals(4, metrics.getReadMicros().getCount());
+        assertEquals(3, metrics.getProcessMicros().getCount());
+        // Nothing drained the ring, so it holds one more block after each buffer
+        assertEquals(3, metrics.getQueueDepth().getMax());
+        assertEquals(0, metrics.getDroppedBlocks());
+    }
+
+    @Test
+    public void logSink_writesOneLinePerIntervalAndOnClose() throws Exception {
+        File file = new File(temp.newFolder(), MetricsLogSink.FILE_NAME);
+        RecorderMetrics metrics = new RecorderMetrics();
+        final long[] stored = {0};
+        MetricsLogSink sink = new MetricsLogSink(new NullSink(), metrics, file, SAMPLE_RATE, SAMPLE_RATE,
+                () -> stored[0]);
+        short[] block = new short[BLOCK_SIZE];
+        long position = 0;
+        // Two and a half seconds; slow reads in the first second only
+        for (int i = 0; i < 20; i++) {
+            metrics.recordRead(i < 8 ? 200_000_000L : 128_000_000L, BLOCK_SIZE, BLOCK_SIZE);
+            metrics.recordProcessing(1_000_000L, 1, 0);
+            stored[0] += BLOCK_SIZE / 2;
+            sink.writeBlock(block, 0, BLOCK_SIZE, position, 0);
+            position += BLOCK_SIZE;
+        }
+        sink.close();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII);
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0), lines.get(0).startsWith("t=1 buffers=8 short=0 empty=0 dropped=0 read=262143/262143 "));
+        assertTrue(lines.get(1), lines.get(1).startsWith("t=2 buffers=16 short=0 empty=0 dropped=0 read=131071/131071 "));
+        assertTrue(lines.get(2), lines.get(2).contains(" queue=1/1 "));
+        assertTrue(lines.get(2), lines.get(2).endsWith(" written=" + 20 * BLOCK_SIZE * 2 + " stored=" + 20 * BLOCK_SIZE / 2));
+        assertEquals(20, metrics.getWriteMicros().getCount());
+        assertEquals(20 * BLOCK_SIZE / 2, metrics.getStoredBytes());
+    }
+
+
+    /** Returns the scripted number of samples per read, then the end of the stream. */
+    private static final class ScriptedSource implements AudioSource {
+        private final int[] reads;
+        private int next;
+
+        ScriptedSource(int[] reads) {
+            this.reads = reads;
+        }
+
+        @Override
+        public int getSampleRate() {
+            return SAMPLE_RATE;
+        }
+
+        @Override
+        public boolean isLive() {
+            return true;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public int read(short[] buffer, int offset, int count) {
+            return next < reads.length ? reads[next++] : END_OF_STREAM;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class NullSink implements PcmSink {
+        @Override
+        public void write(short[] samples, int offset, int count) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class NullListener implements CaptureLoop.Listener {
+        @Override
+        public void onFrame(double decibel, boolean snoring) {
+        }
+
+        @Override
+        public void onSnoreEventsAvailable() {
+        }
+
+        @Override
+        public void onSourceEnded() {
+        }
+
+        @Override
+        public void onSourceError(IOException e) {
+        }
+    }
+}
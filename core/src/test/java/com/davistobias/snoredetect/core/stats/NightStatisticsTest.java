@@ -0,0 +1,198 @@
+package com.davistobias.snoredetect.core.stats;
+
+import com.davistobias.snoredetect.core.codec.ImaAdpcmEncoder;
+import com.davistobias.snoredetect.core.codec.PcmSink;
+import com.davistobias.snoredetect.core.dsp.SnoreEvent;
+import com.davistobias.snoredetect.core.storage.SessionRecovery;
+import com.davistobias.snoredetect.core.storage.SessionWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class NightStatisticsTest {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final int FRAME = 1024;
+    private static final long HOUR = 3600L * SAMPLE_RATE;
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void summarizesEventsOverTheNight() {
+        NightStatistics stats = twoHourNight();
+
+        assertEquals(2.0, stats.getRecordedHours(), 1e-9);
+        assertEquals(40, stats.getEventCount());
+        assertEquals(20.0, stats.getSnoreIndex(), 1e-9);
+        assertEquals(70.0, stats.getTotalSnoreSeconds(), 1e-9);
+        assertEquals(100.0 * 70 / 7200, stats.getSnoringPercent(), 1e-9);
+        assertEquals(2.0, stats.getLongestEpisodeSeconds(), 1e-9);
+        assertEquals(-10f, stats.getLoudestPeakDb(), 0);
+        assertEquals(-30.0, stats.getLevelMedianDb(), 1e-9);
+
+        assertEquals(2, stats.getHourCount());
+        assertEquals(10, stats.getHourEventCount(0));
+        assertEquals(30, stats.getHourEventCount(1));
+        assertEquals(10.0, stats.getHourSnoreSeconds(0), 1e-9);
+        assertEquals(60.0, stats.getHourSnoreSeconds(1), 1e-9);
+        assertEquals(30.0, stats.getHourSnoreIndex(1), 1e-9);
+    }
+
+    @Test
+    public void snorePeakPercentiles_followEventLoudness() {
+        NightStatistics stats = new NightStatistics(SAMPLE_RATE, 0);
+        assertTrue(Double.isNaN(stats.getSnorePeakMedianDb()));
+        for (int i = 0; i < 1000; i++) {
+            // Peaks spread evenly over -40..-20 dB
+            stats.addEvent(new SnoreEvent(i * 10_000L, 4000, -40f + (i % 100) * 0.2f, -45f));
+        }
+
+        assertEquals(-30.0, stats.getSnorePeakMedianDb(), 0.5);
+        assertEquals(-22.0, stats.getSnorePeakP90Db(), 0.5);
+        assertEquals(-21.0, stats.getSnorePeakP95Db(), 0.5);
+    }
+
+    @Test
+    public void lateEvents_landInLastHour() {
+        NightStatistics stats = new NightStatistics(SAMPLE_RATE, 0);
+        stats.addEvent(new SnoreEvent(30 * HOUR, 4000, -20f, -25f));
+        assertEquals(1, stats.getHourEventCount(NightStatistics.MAX_HOURS - 1));
+    }
+
+    @Test
+    public void checkpoint_roundTripsAllAggregates() throws Exception {
+        NightStatistics stats = twoHourNight();
+        File file = new File(temp.newFolder(), StatisticsCheckpoint.FILE_NAME);
+        StatisticsCheckpoint.write(stats, file);
+
+        NightStatistics restored = StatisticsCheckpoint.read(file);
+        assertEquals(stats.toString(), restored.toString());
+        assertEquals(stats.getStartEpochMillis(), restored.getStartEpochMillis());
+        assertEquals(stats.getHourSnoreIndex(0), restored.getHourSnoreIndex(0), 0);
+        assertEquals(stats.getLevelMedianDb(), restored.getLevelMedianDb(), 0);
+
+        // Restored estimators keep working from where they left off
+        restored.addEvent(new SnoreEvent(HOUR + 10, 8000, -15f, -20f));
+        assertEquals(41, restored.getEventCount());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void checkpoint_rejectsCorruptOrTruncatedFile() throws Exception {
+        File file = new File(temp.newFolder(), StatisticsCheckpoint.FILE_NAME);
+        StatisticsCheckpoint.write(twoHourNight(), file);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(40);
+            int b = raf.read();
+            raf.seek(40);
+            raf.write(b ^ 0x55);
+        }
+        assertReadFails(file);
+
+        StatisticsCheckpoint.write(twoHourNight(), file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        assertReadFails(file);
+    }
+
+    @Test
+    public void sink_checkpointsPeriodicallyAndOnClose() throws Exception {
+        NightStatistics stats = new NightStatistics(SAMPLE_RATE, 0);
+        File file = new File(temp.newFolder(), StatisticsCheckpoint.FILE_NAME);
+        short[] block = new short[FRAME];
+        StatisticsCheckpointSink sink = new StatisticsCheckpointSink(new DiscardSink(), stats, file, 10 * FRAME);
+
+        for (int i = 0; i < 9; i++) {
+            stats.onFrame(FRAME, -30);
+            sink.writeBlock(block, 0, FRAME, (long) i * FRAME, 0);
+        }
+        assertFalse(file.exists());
+        stats.onFrame(FRAME, -30);
+        sink.writeBlock(block, 0, FRAME, 9L * FRAME, 0);
+        assertTrue(file.exists());
+
+        stats.addEvent(new SnoreEvent(0, 4000, -20f, -25f));
+        assertEquals(0, StatisticsCheckpoint.read(file).getEventCount());
+        sink.close();
+        assertEquals(1, StatisticsCheckpoint.read(file).getEventCount());
+    }
+
+    @Test
+    public void killedWriter_restoresLastCheckpointAfterRecovery() throws Exception {
+        File dir = temp.newFolder();
+        NightStatistics stats = new NightStatistics(SAMPLE_RATE, 1_700_000_000_000L);
+        // Left open: the process "dies" with the writer mid-recording
+        StatisticsCheckpointSink sink = new StatisticsCheckpointSink(
+                new SessionWriter(dir, SAMPLE_RATE, stats.getStartEpochMillis(), ImaAdpcmEncoder::new), stats,
+                new File(dir, StatisticsCheckpoint.FILE_NAME), 100 * FRAME);
+        short[] block = new short[FRAME];
+        String checkpointed = null;
+        for (int i = 0; i < 250; i++) {
+            stats.onFrame(FRAME, i % 10 == 0 ? -20 : -40);
+            if (i % 40 == 0) {
+                stats.addEvent(new SnoreEvent((long) i * FRAME, 2 * FRAME, -20f, -25f));
+            }
+            sink.writeBlock(block, 0, FRAME, (long) i * FRAME, 0);
+            if (i == 199) {
+                // The second checkpoint has just been written
+                checkpointed = stats.toString();
+            }
+        }
+        assertTrue(SessionRecovery.needsRecovery(dir));
+
+        SessionRecovery.recover(dir);
+        NightStatistics restored = StatisticsCheckpoint.restore(dir);
+
+        assertEquals(checkpointed, restored.toString());
+        assertEquals(5, restored.getEventCount());
+        assertEquals(stats.getStartEpochMillis(), restored.getStartEpochMillis());
+        // What came after the last checkpoint is lost with the process
+        assertNotEquals(stats.toString(), restored.toString());
+        assertNull(StatisticsCheckpoint.restore(temp.newFolder()));
+    }
+
+    private static NightStatistics twoHourNight() {
+        NightStatistics stats = new NightStatistics(SAMPLE_RATE, 1_700_000_000_000L);
+        long position = 0;
+        while (position < 2 * HOUR) {
+            stats.onFrame(FRAME, -30);
+            position += FRAME;
+        }
+        for (int i = 0; i < 10; i++) {
+            stats.addEvent(new SnoreEvent(i * 100_000L, SAMPLE_RATE, -20f, -25f));
+        }
+        for (int i = 0; i < 30; i++) {
+            stats.addEvent(new SnoreEvent(HOUR + i * 100_000L, 2 * SAMPLE_RATE, -10f - i % 5, -20f));
+        }
+        return stats;
+    }
+
+    private static void assertReadFails(File file) {
+        try {
+            StatisticsCheckpoint.read(file);
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+
+    private static final class DiscardSink implements PcmSink {
+        @Override
+        public void write(short[] samples, int offset, int count) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
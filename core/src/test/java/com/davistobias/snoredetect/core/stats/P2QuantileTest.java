@@ -0,0 +1,67 @@
+package com.davistobias.snoredetect.core.stats;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class P2QuantileTest {
+
+    @Test
+    public void empty_isNaN() {
+        assertTrue(Double.isNaN(new P2Quantile(0.5).getQuantile()));
+    }
+
+    @Test
+    public void fewValues_areExact() {
+        P2Quantile median = new P2Quantile(0.5);
+        median.add(3);
+        median.add(1);
+        median.add(2);
+        assertEquals(2, median.getQuantile(), 0);
+    }
+
+    @Test
+    public void gaussianStream_tracksExactQuantiles() {
+        double[] ps = {0.5, 0.9, 0.95};
+        for (double p : ps) {
+            Random random = new Random(42);
+            P2Quantile estimator = new P2Quantile(p);
+            double[] values = new double[50_000];
+            for (int i = 0; i < values.length; i++) {
+                // Levels around -35 dB with a 6 dB spread
+                values[i] = -35 + 6 * random.nextGaussian();
+                estimator.add(values[i]);
+            }
+            Arrays.sort(values);
+            double exact = values[(int) (p * (values.length - 1))];
+            assertEquals("p=" + p, exact, estimator.getQuantile(), 0.2);
+            assertEquals(values.length, estimator.getCount());
+        }
+    }
+
+    @Test
+    public void skewedStream_tracksExactQuantile() {
+        Random random = new Random(7);
+        P2Quantile estimator = new P2Quantile(0.9);
+        double[] values = new double[20_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = -Math.log(1 - random.nextDouble());
+            estimator.add(values[i]);
+        }
+        Arrays.sort(values);
+        double exact = values[(int) (0.9 * (values.length - 1))];
+        assertEquals(exact, estimator.getQuantile(), exact * 0.03);
+    }
+
+    @Test
+    public void invalidP_isRejected() {
+        try {
+            new P2Quantile(1.0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
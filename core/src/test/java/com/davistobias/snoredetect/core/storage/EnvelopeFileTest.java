@@ -0,0 +1,109 @@
+package com.davistobias.snoredetect.core.storage;
+
+import com.davistobias.snoredetect.core.codec.PcmSink;
+import com.davistobias.snoredetect.core.codec.Pcm16Encoder;
+import com.davistobias.snoredetect.core.dsp.EnvelopePyramid;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class EnvelopeFileTest {
+
+    private static final int SAMPLE_RATE = 8000;
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void sink_writesEnvelopeOfWholeStreamIncludingGaps() throws Exception {
+        File dir = temp.newFolder();
+        File file = new File(dir, EnvelopeFile.FILE_NAME);
+        SessionWriter session = new SessionWriter(dir, SAMPLE_RATE, 0, Pcm16Encoder::new);
+        try (EnvelopeSink sink = new EnvelopeSink(session, file, SAMPLE_RATE)) {
+            writeConstant(sink, 0, 4096, (short) 1000);
+            // An overrun drops 8192 samples
+            writeConstant(sink, 4096 + 8192, 4096, (short) -2000);
+        }
+
+        EnvelopeFile envelope = EnvelopeFile.open(file);
+        assertEquals(SAMPLE_RATE, envelope.getSampleRate());
+        assertEquals(16_384, envelope.getSampleCount());
+        assertEquals(16, envelope.bucketCount(0));
+        short[] level0 = envelope.readLevel(0);
+        assertEquals(1000, level0[1]);
+        assertEquals(0, level0[4 * 3 + 1]);
+        assertEquals(-2000, level0[15 * 3]);
+        short[] level1 = envelope.readLevel(1, 1, 2);
+        assertEquals(2 * 3, level1.length);
+        assertEquals(0, level1[0]);
+        assertEquals(0, level1[1]);
+        // The audio still reached the session
+        assertEquals(2, SessionIndex.read(new File(dir, SessionIndex.FILE_NAME)).size());
+    }
+
+    @Test
+    public void rebuild_matchesEnvelopeBuiltDuringCapture() throws Exception {
+        File dir = temp.newFolder();
+        File file = new File(dir, EnvelopeFile.FILE_NAME);
+        SessionWriter session = new SessionWriter(dir, SAMPLE_RATE, 0, Pcm16Encoder::new, 30_000, Long.MAX_VALUE);
+        try (EnvelopeSink sink = new EnvelopeSink(session, file, SAMPLE_RATE)) {
+            short[] block = new short[1000];
+            for (int n = 0; n < 100; n++) {
+                for (int i = 0; i < block.length; i++) {
+                    block[i] = (short) ((i * 37 + n * 101) % 2000 - 1000);
+                }
+                // Every fifth block was gated out
+                if (n % 5 != 4) {
+                    sink.writeBlock(block, 0, block.length, n * 1000L, 0);
+                }
+            }
+        }
+
+        EnvelopeFile stored = EnvelopeFile.open(file);
+        EnvelopePyramid rebuilt;
+        try (SessionReader reader = SessionReader.open(dir)) {
+            rebuilt = EnvelopeFile.rebuild(reader);
+        }
+        // The session ends at the last stored block, which is where the sink's stream ended too
+        assertEquals(stored.getSampleCount(), rebuilt.getSampleCount());
+        assertEquals(stored.levelCount(), rebuilt.levelCount());
+        for (int level = 0; level < stored.levelCount(); level++) {
+            short[] triples = stored.readLevel(level);
+            for (int bucket = 0; bucket < stored.bucketCount(level); bucket++) {
+                assertEquals(triples[bucket * 3], rebuilt.min(level, bucket));
+                assertEquals(triples[bucket * 3 + 1], rebuilt.max(level, bucket));
+                assertEquals(triples[bucket * 3 + 2], rebuilt.rms(level, bucket));
+            }
+        }
+    }
+
+    @Test
+    public void nightOverview_readsOnlyOneSmallLevel() throws Exception {
+        EnvelopePyramid pyramid = new EnvelopePyramid();
+        short[] block = new short[8000];
+        for (int second = 0; second < 8 * 3600; second++) {
+            pyramid.add(block, 0, block.length);
+        }
+        pyramid.finish();
+        File file = new File(temp.newFolder(), EnvelopeFile.FILE_NAME);
+        EnvelopeFile.write(pyramid, SAMPLE_RATE, file);
+
+        EnvelopeFile envelope = EnvelopeFile.open(file);
+        int level = envelope.levelFor(envelope.getSampleCount(), 1080);
+        short[] overview = envelope.readLevel(level);
+        assertTrue(overview.length / 3 <= 1080);
+        assertTrue("sidecar is " + file.length() + " bytes", file.length() < 2_000_000);
+    }
+
+    private static void writeConstant(PcmSink sink, long position, int count, short value) throws IOException {
+        short[] block = new short[count];
+        java.util.Arrays.fill(block, value);
+        sink.writeBlock(block, 0, count, position, 0);
+    }
+}
@@ -0,0 +1,195 @@
+package com.davistobias.snoredetect.core.storage;
+
+import com.davistobias.snoredetect.core.SyntheticAudioSource;
+import com.davistobias.snoredetect.core.codec.ImaAdpcmEncoder;
+import com.davistobias.snoredetect.core.codec.Pcm16Encoder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class SessionReaderTest {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final long START = 1_760_000_000_000L;
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void read_crossesChunksAndZeroFillsGaps() throws Exception {
+        File dir = temp.newFolder();
+        try (SessionWriter writer = new SessionWriter(dir, SAMPLE_RATE, START, Pcm16Encoder::new, 3000, Long.MAX_VALUE)) {
+            writeCounting(writer, 0, 5000);
+            // Samples 5000..9999 were gated out
+            writeCounting(writer, 10_000, 2000);
+        }
+
+        try (SessionReader reader = SessionReader.open(dir)) {
+            assertEquals(12_000, reader.getEndPosition());
+            short[] window = new short[8000];
+            int stored = reader.read(2500, window, 0, window.length);
+
+            assertEquals(2500 + 500, stored);
+            for (int i = 0; i < window.length; i++) {
+                long position = 2500 + i;
+                short expected = position < 5000 || position >= 10_000 ? (short) position : 0;
+                assertEquals("sample " + position, expected, window[i]);
+            }
+            // Entirely before and after the recording
+            assertEquals(0, reader.read(20_000, window, 0, 100));
+        }
+    }
+
+    @Test
+    public void pcmView_isZeroCopyMapping() throws Exception {
+        File dir = temp.newFolder();
+        try (SessionWriter writer = new SessionWriter(dir, SAMPLE_RATE, START, Pcm16Encoder::new, 3000, Long.MAX_VALUE)) {
+            writeCounting(writer, 0, 5000);
+        }
+
+        try (SessionReader reader = SessionReader.open(dir)) {
+            ShortBuffer view = reader.pcmView(1);
+            assertTrue(view.isDirect());
+            assertEquals(2000, view.remaining());
+            assertEquals((short) 3000, view.get(0));
+            assertEquals((short) 4999, view.get(1999));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void pcmView_rejectsCompressedChunks() throws Exception {
+        File dir = temp.newFolder();
+        try (SessionWriter writer = new SessionWriter(dir, SAMPLE_RATE, START, ImaAdpcmEncoder::new)) {
+            writeCounting(writer, 0, 1000);
+        }
+        try (SessionReader reader = SessionReader.open(dir)) {
+            reader.pcmView(0);
+        }
+    }
+
+    @Test
+    public void adpcmSession_decodesConsistentlyAtAnyOffset() throws Exception {
+        File dir = temp.newFolder();
+        short[] original = snore(20_000);
+        try (SessionWriter writer = new SessionWriter(dir, SAMPLE_RATE, START, ImaAdpcmEncoder::new, 7000, Long.MAX_VALUE)) {
+            for (int offset = 0; offset < original.length; offset += 1024) {
+                writer.writeBlock(original, offset, Math.min(1024, original.length - offset), offset, 0);
+            }
+        }
+
+        try (SessionReader reader = SessionReader.open(dir)) {
+            short[] all = new short[original.length];
+            assertEquals(original.length, reader.read(0, all, 0, all.length));
+            assertTrue(snrDb(original, all) > 20);
+
+            Random random = new Random(4);
+            short[] part = new short[3000];
+            for (int trial = 0; trial < 50; trial++) {
+                int start = random.nextInt(original.length - part.length);
+                reader.read(start, part, 0, part.length);
+                for (int i = 0; i < part.length; i++) {
+                    assertEquals(all[start + i], part[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void windows_stepThroughRangeWithOverlap() throws Exception {
+        File dir = temp.newFolder();
+        try (SessionWriter writer = new SessionWriter(dir, SAMPLE_RATE, START, Pcm16Encoder::new, 3000, Long.MAX_VALUE)) {
+            writeCounting(writer, 0, 10_000);
+        }
+
+        try (SessionReader reader = SessionReader.open(dir)) {
+            SessionReader.Window window = reader.window(1000, 5000, 1024, 512);
+            int count = 0;
+            while (window.next()) {
+                assertEquals(1000 + count * 512L, window.position());
+                assertEquals((short) window.position(), window.samples()[0]);
+                assertEquals(window.length(), window.storedLength());
+                count++;
+            }
+            // Windows start every 512 samples from 1000 up to 5999; the last ones are cut short
+            assertEquals(10, count);
+            assertFalse(window.next());
+        }
+    }
+
+    @Test
+    public void windowing_allocatesNothingAfterWarmUp() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        File dir = temp.newFolder();
+        short[] original = snore(60 * SAMPLE_RATE);
+        try (SessionWriter writer = new SessionWriter(dir, SAMPLE_RATE, START, ImaAdpcmEncoder::new,
+                20 * SAMPLE_RATE, Long.MAX_VALUE)) {
+            writer.write(original, 0, original.length);
+        }
+
+        try (SessionReader reader = SessionReader.open(dir)) {
+            long threadId = Thread.currentThread().getId();
+            SessionReader.Window warmUp = reader.window(0, reader.getEndPosition(), 1024, 1024);
+            while (warmUp.next()) {
+                // Maps every chunk and sizes the decode scratch
+            }
+            SessionReader.Window window = reader.window(0, reader.getEndPosition(), 1024, 1024);
+
+            long overheadBefore = allocations.getThreadAllocatedBytes(threadId);
+            long overheadAfter = allocations.getThreadAllocatedBytes(threadId);
+            long before = allocations.getThreadAllocatedBytes(threadId);
+            long checksum = 0;
+            while (window.next()) {
+                checksum += window.samples()[0];
+            }
+            long after = allocations.getThreadAllocatedBytes(threadId);
+
+            long allocated = (after - before) - (overheadAfter - overheadBefore);
+            assertEquals("bytes allocated walking a minute of audio (checksum " + checksum + ")", 0, allocated);
+        }
+    }
+
+    private static void writeCounting(SessionWriter writer, long position, int count) throws IOException {
+        short[] block = new short[count];
+        for (int i = 0; i < count; i++) {
+            block[i] = (short) (position + i);
+        }
+        writer.writeBlock(block, 0, count, position, 0);
+    }
+
+    private static short[] snore(int length) throws IOException {
+        SyntheticAudioSource source = SyntheticAudioSource.snore(SAMPLE_RATE, 0.3, 2);
+        source.start();
+        short[] samples = new short[length];
+        int total = 0;
+        while (total < length) {
+            total += source.read(samples, total, length - total);
+        }
+        return samples;
+    }
+
+    private static double snrDb(short[] expected, short[] actual) {
+        double signal = 0;
+        double noise = 0;
+        for (int i = 0; i < expected.length; i++) {
+            double d = expected[i] - actual[i];
+            signal += (double) expected[i] * expected[i];
+            noise += d * d;
+        }
+        return 10 * Math.log10(signal / Math.max(noise, 1e-9));
+    }
+}
@@ -0,0 +1,223 @@
+package com.davistobias.snoredetect.core.storage;
+
+import com.davistobias.snoredetect.core.codec.ImaAdpcmEncoder;
+import com.davistobias.snoredetect.core.codec.Pcm16Encoder;
+import com.davistobias.snoredetect.core.codec.WavHeader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SessionRecoveryTest {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final long START = 1_760_000_000_000L;
+    private static final int CHUNK_SAMPLES = 5000;
+    private static final int BLOCK = 1000;
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void killedWriter_keepsEverySampleBeforeRandomCut() throws Exception {
+        Random random = new Random(42);
+        for (int trial = 0; trial < 40; trial++) {
+            File dir = temp.newFolder();
+            // Left open: the process "dies" with the writer mid-recording
+            SessionWriter writer = new SessionWriter(dir, SAMPLE_RATE, START, Pcm16Encoder::new,
+                    CHUNK_SAMPLES, Long.MAX_VALUE, 2 * BLOCK);
+            int blocks = 1 + random.nextInt(30);
+            int gapAfter = random.nextInt(blocks);
+            long position = 0;
+            for (int block = 0; block < blocks; block++) {
+                writeBlock(writer, position, BLOCK);
+                position += block == gapAfter ? 3 * BLOCK : BLOCK;
+            }
+            assertTrue(SessionRecovery.needsRecovery(dir));
+
+            // A torn final write: the last chunk ends anywhere in its data, the index mid-entry
+            long written = (long) blocks * BLOCK;
+            int lastChunk = (int) ((written - 1) / CHUNK_SAMPLES);
+            long lastChunkSamples = written - (long) lastChunk * CHUNK_SAMPLES;
+            File chunkFile = new File(dir, SessionWriter.chunkFileName(lastChunk));
+            long cut = random.nextInt((int) (lastChunkSamples * 2 + 1));
+            truncate(chunkFile, 44 + cut);
+            if (random.nextBoolean()) {
+                appendGarbage(new File(dir, SessionIndex.FILE_NAME), 1 + random.nextInt(SessionIndex.ENTRY_SIZE - 1));
+            }
+
+            SessionRecovery.recover(dir);
+
+            assertFalse(SessionRecovery.needsRecovery(dir));
+            long expected = written - lastChunkSamples + cut / 2;
+            assertRecovered(dir, expected);
+            assertEquals(44 + cut / 2 * 2, chunkFile.length());
+            assertEquals(cut / 2, header(chunkFile).sampleCount);
+        }
+    }
+
+    @Test
+    public void killedWriter_adpcmKeepsWholeBlocks() throws Exception {
+        File dir = temp.newFolder();
+        SessionWriter writer = new SessionWriter(dir, SAMPLE_RATE, START, ImaAdpcmEncoder::new,
+                CHUNK_SAMPLES, Long.MAX_VALUE, 2 * BLOCK);
+        for (int block = 0; block < 12; block++) {
+            writeBlock(writer, block * (long) BLOCK, BLOCK);
+        }
+
+        SessionRecovery.recover(dir);
+
+        // Two closed chunks, then the whole 505-sample blocks of the third
+        SessionIndex index = SessionIndex.read(new File(dir, SessionIndex.FILE_NAME));
+        assertEquals(3, index.size());
+        assertEquals(2, index.getChunk(2));
+        assertEquals(2000 / 505 * 505, index.getSampleCount(2));
+        try (SessionReader reader = SessionReader.open(dir)) {
+            short[] samples = new short[index.getSampleCount(2)];
+            assertEquals(samples.length, reader.read(2 * CHUNK_SAMPLES, samples, 0, samples.length));
+        }
+        assertEquals(2 * CHUNK_SAMPLES + 2000 / 505 * 505,
+                EnvelopeFile.open(new File(dir, EnvelopeFile.FILE_NAME)).getSampleCount());
+    }
+
+    @Test
+    public void journalSyncedLength_survivesStaleHeader() throws Exception {
+        File dir = temp.newFolder();
+        SessionWriter writer = new SessionWriter(dir, SAMPLE_RATE, START, Pcm16Encoder::new,
+                CHUNK_SAMPLES, Long.MAX_VALUE, 2 * BLOCK);
+        writeBlock(writer, 0, BLOCK);
+        writeBlock(writer, BLOCK, BLOCK);
+        writeBlock(writer, 2 * BLOCK, BLOCK);
+
+        // As if only the first write's header reached the disk, but the sync made 2000 samples durable
+        File chunkFile = new File(dir, SessionWriter.chunkFileName(0));
+        try (RandomAccessFile raf = new RandomAccessFile(chunkFile, "rw")) {
+            raf.seek(40);
+            raf.write(new byte[] {(byte) 0xD0, 0x07, 0, 0});
+        }
+
+        SessionRecovery.recover(dir);
+
+        assertRecovered(dir, 2 * BLOCK);
+    }
+
+    @Test
+    public void lostIndexHeader_isRebuiltFromJournal() throws Exception {
+        File dir = temp.newFolder();
+        SessionWriter writer = new SessionWriter(dir, SAMPLE_RATE, BLOCK, START, Pcm16Encoder::new,
+                CHUNK_SAMPLES, Long.MAX_VALUE, 2 * BLOCK);
+        writeBlock(writer, 0, BLOCK);
+        writeBlock(writer, BLOCK, BLOCK);
+        truncate(new File(dir, SessionIndex.FILE_NAME), 0);
+
+        SessionRecovery.recover(dir);
+
+        SessionIndex index = SessionIndex.read(new File(dir, SessionIndex.FILE_NAME));
+        assertEquals(SAMPLE_RATE, index.getSampleRate());
+        assertEquals(BLOCK, index.getFrameSamples());
+        assertEquals(START, index.getStartEpochMillis());
+        assertRecovered(dir, 2 * BLOCK);
+    }
+
+    @Test
+    public void recover_isIdempotentAndLeavesFinishedSessionsAlone() throws Exception {
+        File dir = temp.newFolder();
+        try (SessionWriter writer = new SessionWriter(dir, SAMPLE_RATE, START, Pcm16Encoder::new)) {
+            writeBlock(writer, 0, BLOCK);
+        }
+        assertFalse(SessionRecovery.needsRecovery(dir));
+
+        File crashed = temp.newFolder();
+        SessionWriter writer = new SessionWriter(crashed, SAMPLE_RATE, START, Pcm16Encoder::new,
+                CHUNK_SAMPLES, Long.MAX_VALUE, 2 * BLOCK);
+        writeBlock(writer, 0, 3 * BLOCK);
+        assertEquals(3 * BLOCK, SessionRecovery.recover(crashed));
+        assertEquals(0, SessionRecovery.recover(crashed));
+        assertRecovered(crashed, 3 * BLOCK);
+
+        SessionStore store = new SessionStore(temp.newFolder());
+        File first = store.createSession(START);
+        new SessionWriter(first, SAMPLE_RATE, START, Pcm16Encoder::new).close();
+        File second = store.createSession(START);
+        new SessionWriter(second, SAMPLE_RATE, START, Pcm16Encoder::new);
+        assertEquals(1, SessionRecovery.findUnfinished(store).size());
+        assertEquals(second, SessionRecovery.findUnfinished(store).get(0));
+    }
+
+    @Test
+    public void journal_tornSlotFallsBackToPreviousRecord() throws Exception {
+        File file = new File(temp.newFolder(), SessionJournal.FILE_NAME);
+        SessionJournal journal = new SessionJournal(file, SAMPLE_RATE, BLOCK, START);
+        journal.record(0, 100, 100, 244, 50, false);
+        journal.record(1, 900, 0, 44, 0, true);
+        journal.close();
+        assertEquals(900, SessionJournal.read(file).runStreamStart);
+
+        // Second record went to slot 0; damage it
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(30);
+            raf.write(0x55);
+        }
+        SessionJournal.State state = SessionJournal.read(file);
+        assertEquals(0, state.chunk);
+        assertEquals(100, state.runStreamStart);
+        assertEquals(50, state.validSamples);
+        assertEquals(SAMPLE_RATE, state.sampleRate);
+        assertEquals(START, state.startEpochMillis);
+    }
+
+    /** The session holds exactly {@code expected} samples, each matching its stream position. */
+    private static void assertRecovered(File dir, long expected) throws IOException {
+        try (SessionReader reader = SessionReader.open(dir)) {
+            SessionIndex index = reader.getIndex();
+            long stored = 0;
+            for (int entry = 0; entry < index.size(); entry++) {
+                short[] samples = new short[index.getSampleCount(entry)];
+                long start = index.getStreamStart(entry);
+                assertEquals(samples.length, reader.read(start, samples, 0, samples.length));
+                for (int i = 0; i < samples.length; i++) {
+                    assertEquals((short) (start + i), samples[i]);
+                }
+                stored += samples.length;
+            }
+            assertEquals(expected, stored);
+            assertEquals(reader.getEndPosition(),
+                    EnvelopeFile.open(new File(dir, EnvelopeFile.FILE_NAME)).getSampleCount());
+        }
+    }
+
+    private static void writeBlock(SessionWriter writer, long position, int count) throws IOException {
+        short[] block = new short[count];
+        for (int i = 0; i < count; i++) {
+            block[i] = (short) (position + i);
+        }
+        writer.writeBlock(block, 0, count, position, 0);
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    private static void appendGarbage(File file, int bytes) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length());
+            raf.write(new byte[bytes]);
+        }
+    }
+
+
+    private static WavHeader header(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return WavHeader.read(raf.getChannel());
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.davistobias.snoredetect.core.storage;
+
+import com.davistobias.snoredetect.core.codec.ImaAdpcmEncoder;
+import com.davistobias.snoredetect.core.codec.Pcm16Encoder;
+import com.davistobias.snoredetect.core.codec.WavHeader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class SessionWriterTest {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final long START = 1_760_000_000_000L;
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void chunks_rotateAtSampleLimit() throws Exception {
+        File dir = temp.newFolder();
+        try (SessionWriter writer = new SessionWriter(dir, SAMPLE_RATE, START, Pcm16Encoder::new, 3500, Long.MAX_VALUE)) {
+            for (int block = 0; block < 10; block++) {
+                writeBlock(writer, block * 1000L, 1000);
+            }
+            assertEquals(3, writer.getChunkCount());
+            assertEquals(20_000, writer.getEncodedBytes());
+        }
+
+        SessionIndex index = SessionIndex.read(new File(dir, SessionIndex.FILE_NAME));
+        assertEquals(3, index.size());
+        assertEquals(SAMPLE_RATE, index.getSampleRate());
+        assertEquals(0, index.getFrameSamples());
+        assertEquals(START, index.getStartEpochMillis());
+        long[] starts = {0, 3500, 7000};
+        int[] counts = {3500, 3500, 3000};
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, index.getChunk(i));
+            assertEquals(starts[i], index.getStreamStart(i));
+            assertEquals(counts[i], index.getSampleCount(i));
+            assertEquals(0, index.getChunkOffset(i));
+            assertEquals(44, index.getByteOffset(i));
+            assertEquals(START + starts[i] * 1000 / SAMPLE_RATE, index.getEntryEpochMillis(i));
+            assertSamplesMatchPositions(dir, index, i);
+        }
+    }
+
+    @Test
+    public void chunks_rotateAtByteLimit() throws Exception {
+        File dir = temp.newFolder();
+        try (SessionWriter writer = new SessionWriter(dir, SAMPLE_RATE, START, Pcm16Encoder::new, Long.MAX_VALUE, 4000)) {
+            for (int block = 0; block < 10; block++) {
+                writeBlock(writer, block * 1000L, 1000);
+            }
+            assertEquals(5, writer.getChunkCount());
+        }
+        for (int chunk = 0; chunk < 5; chunk++) {
+            assertEquals(44 + 4000, new File(dir, SessionWriter.chunkFileName(chunk)).length());
+        }
+    }
+
+    @Test
+    public void streamGaps_startNewEntriesInSameChunk() throws Exception {
+        File dir = temp.newFolder();
+        try (SessionWriter writer = new SessionWriter(dir, SAMPLE_RATE, 1000, START, ImaAdpcmEncoder::new)) {
+            writeBlock(writer, 0, 1000);
+            writeBlock(writer, 1000, 1000);
+            // Gated silence from 2000 to 50000
+            writeBlock(writer, 50_000, 1000);
+        }
+
+        SessionIndex index = SessionIndex.read(new File(dir, SessionIndex.FILE_NAME));
+        assertEquals(1000, index.getFrameSamples());
+        assertEquals(2, index.size());
+        assertEquals(2000, index.getSampleCount(0));
+        assertEquals(50_000, index.getStreamStart(1));
+        assertEquals(0, index.getChunk(1));
+        assertEquals(2000, index.getChunkOffset(1));
+        // Sample 2000 is in the fourth 505-sample ADPCM block
+        WavHeader header = header(new File(dir, SessionWriter.chunkFileName(0)));
+        assertEquals(header.dataOffset + 3 * 256, index.getByteOffset(1));
+    }
+
+    @Test
+    public void lookups_areBinarySearches() throws Exception {
+        File dir = temp.newFolder();
+        try (SessionWriter writer = new SessionWriter(dir, SAMPLE_RATE, START, Pcm16Encoder::new)) {
+            // One second of audio at the start of every minute for an hour
+            for (int minute = 0; minute < 60; minute++) {
+                writeBlock(writer, minute * 60L * SAMPLE_RATE, SAMPLE_RATE);
+            }
+        }
+
+        SessionIndex index = SessionIndex.read(new File(dir, SessionIndex.FILE_NAME));
+        assertEquals(60, index.size());
+        assertEquals(-1, index.findByTime(START - 1));
+        assertEquals(0, index.findByTime(START));
+        int entry = index.findByTime(START + 12 * 60_000 + 500);
+        assertEquals(12, entry);
+        assertTrue(index.contains(entry, 12L * 60 * SAMPLE_RATE + SAMPLE_RATE / 2));
+        // Between events: the entry before, which ends before the requested time
+        entry = index.findByTime(START + 12 * 60_000 + 30_000);
+        assertEquals(12, entry);
+        assertFalse(index.contains(entry, 12L * 60 * SAMPLE_RATE + 30L * SAMPLE_RATE));
+        assertEquals(59, index.findByTime(START + 24 * 3_600_000L));
+    }
+
+    @Test
+    public void truncatedTrailingEntry_isIgnored() throws Exception {
+        File dir = temp.newFolder();
+        try (SessionWriter writer = new SessionWriter(dir, SAMPLE_RATE, START, Pcm16Encoder::new)) {
+            writeBlock(writer, 0, 1000);
+            writeBlock(writer, 5000, 1000);
+        }
+        File file = new File(dir, SessionIndex.FILE_NAME);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 7);
+        }
+
+        assertEquals(1, SessionIndex.read(file).size());
+    }
+
+    @Test
+    public void store_keepsEverySession() throws Exception {
+        SessionStore store = new SessionStore(temp.newFolder());
+        File first = store.createSession(START);
+        File second = store.createSession(START);
+        File later = store.createSession(START + 1000);
+        for (File dir : new File[] {later, second, first}) {
+            new SessionWriter(dir, SAMPLE_RATE, START, Pcm16Encoder::new).close();
+        }
+
+        assertNotEquals(first, second);
+        assertEquals(java.util.Arrays.asList(first, second, later), store.listSessions());
+    }
+
+    @Test
+    public void store_ordersSessionsAcrossClockChanges() throws Exception {
+        TimeZone zone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Berlin"));
+        try {
+            SessionStore store = new SessionStore(temp.newFolder());
+            // Named in local time before UTC names, 23:59 CEST on 24 October 2026
+            File legacy = new File(store.getRoot(), "20261024-235900");
+            assertTrue(legacy.mkdirs());
+            File evening = store.createSession(1_792_881_000_000L);
+            // 02:45 CEST, then 02:15 CET half an hour later, once the clocks have gone back
+            File beforeChange = store.createSession(1_792_889_100_000L);
+            File afterChange = store.createSession(1_792_890_900_000L);
+            for (File dir : new File[] {afterChange, beforeChange, evening, legacy}) {
+                new SessionWriter(dir, SAMPLE_RATE, START, Pcm16Encoder::new).close();
+            }
+
+            assertEquals("20261025-004500Z", beforeChange.getName());
+            assertEquals(java.util.Arrays.asList(legacy, evening, beforeChange, afterChange), store.listSessions());
+        } finally {
+            TimeZone.setDefault(zone);
+        }
+    }
+
+    /** Writes samples whose values encode their own stream position. */
+    private static void writeBlock(SessionWriter writer, long position, int count) throws IOException {
+        short[] block = new short[count];
+        for (int i = 0; i < count; i++) {
+            block[i] = (short) (position + i);
+        }
+        writer.writeBlock(block, 0, count, position, 0);
+    }
+
+    private static void assertSamplesMatchPositions(File dir, SessionIndex index, int entry) throws IOException {
+        File chunk = new File(dir, SessionWriter.chunkFileName(index.getChunk(entry)));
+        try (RandomAccessFile raf = new RandomAccessFile(chunk, "r")) {
+            ByteBuffer data = ByteBuffer.allocate(index.getSampleCount(entry) * 2).order(ByteOrder.LITTLE_ENDIAN);
+            while (data.hasRemaining()) {
+                raf.getChannel().read(data, index.getByteOffset(entry) + data.position());
+            }
+            for (int i = 0; i < index.getSampleCount(entry); i++) {
+                assertEquals((short) (index.getStreamStart(entry) + i), data.getShort(i * 2));
+            }
+        }
+    }
+
+
+    private static WavHeader header(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return WavHeader.read(raf.getChannel());
+        }
+    }
+}